@@ -56,6 +56,7 @@ import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
 import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.ext.awt.image.rendered.PointOpChainRed;
 import org.apache.batik.ext.awt.image.rendered.RenderedImageCachableRed;
 import org.apache.batik.ext.awt.image.rendered.TranslateRed;
 
@@ -672,6 +673,9 @@ public class GraphicsUtil {
      * linear sRGB then this method does nothing and returns <code>src</code>.
      * Otherwise it creates a transform that will convert
      * <code>src</code>'s output to linear sRGB and returns that CacheableRed.
+     * When <code>src</code> is a chain of point operations (or the
+     * opposite conversion of a packed ARGB image) the conversion is
+     * fused into it, see {@link PointOpChainRed#applyConversion}.
      *
      * @param src The image to convert to linear sRGB.
      * @return    An equivilant image to <code>src</code> who's data is in
@@ -683,6 +687,12 @@ public class GraphicsUtil {
         if (cs == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB))
             return src;
 
+        if (cs == ColorSpace.getInstance(ColorSpace.CS_sRGB)) {
+            // Fold the conversion into a preceding point operation.
+            CachableRed ret = PointOpChainRed.applyConversion(src, true);
+            if (ret != null)
+                return ret;
+        }
         return new Any2LsRGBRed(src);
     }
 
@@ -692,6 +702,8 @@ public class GraphicsUtil {
      * sRGB then this method does nothing and returns <code>src</code>.
      * Otherwise it creates a transform that will convert
      * <code>src</code>'s output to sRGB and returns that CacheableRed.
+     * As with {@link #convertToLsRGB} the conversion is fused into a
+     * preceding chain of point operations.
      *
      * @param src The image to convert to sRGB.
      * @return    An equivilant image to <code>src</code> who's data is in sRGB.
@@ -702,6 +714,12 @@ public class GraphicsUtil {
         if (cs == ColorSpace.getInstance(ColorSpace.CS_sRGB))
             return src;
 
+        if (cs == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB)) {
+            // Fold the conversion into a preceding point operation.
+            CachableRed ret = PointOpChainRed.applyConversion(src, false);
+            if (ret != null)
+                return ret;
+        }
         return new Any2sRGBRed(src);
     }
 
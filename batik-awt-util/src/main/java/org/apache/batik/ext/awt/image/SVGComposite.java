@@ -69,6 +69,12 @@ public class SVGComposite
 
     CompositeRule rule;
 
+    /**
+     * Lookup table for the arithmetic rule, built on first use and then
+     * shared by every context created from this composite.
+     */
+    private byte [] arithLUT;
+
     public CompositeRule getRule() { return rule; }
 
     public SVGComposite(CompositeRule rule) {
@@ -114,6 +120,42 @@ public class SVGComposite
         return true;
    }
 
+    /**
+     * Returns true if <code>cm</code> is an int packed RGB model without
+     * an alpha channel (such as the one used by
+     * <code>BufferedImage.TYPE_INT_RGB</code>).
+     */
+    public boolean is_INT_PACK_NA(ColorModel cm) {
+        if(!(cm instanceof PackedColorModel)) return false;
+
+        PackedColorModel pcm = (PackedColorModel)cm;
+
+        int [] masks = pcm.getMasks();
+
+        if(masks.length != 3) return false;
+
+        if (masks[0] != 0x00ff0000) return false;
+        if (masks[1] != 0x0000ff00) return false;
+        if (masks[2] != 0x000000ff) return false;
+
+        return true;
+    }
+
+    /**
+     * Returns the 256x256 lookup table used to evaluate the arithmetic
+     * rule on 8 bit premultiplied components.  The table is indexed by
+     * <code>(src&lt;&lt;8)|dst</code>.
+     */
+    protected synchronized byte [] getArithmeticLUT() {
+        if (arithLUT != null)
+            return arithLUT;
+
+        float [] coeff = rule.getCoefficients();
+        arithLUT = ArithCompositeContext_INT_PACK_LUT.createLUT
+            (coeff[0], coeff[1], coeff[2], coeff[3]);
+        return arithLUT;
+    }
+
     public CompositeContext createContext(ColorModel srcCM,
                                           ColorModel dstCM,
                                           RenderingHints hints) {
@@ -136,7 +178,9 @@ public class SVGComposite
         switch (rule.getRule()) {
         case CompositeRule.RULE_OVER:
             if (!dstCM.hasAlpha()) {
-                if (use_int_pack)
+                // An opaque int packed destination (TYPE_INT_RGB) can
+                // still use the packed loop.
+                if (is_INT_PACK(srcCM) && is_INT_PACK_NA(dstCM))
                     return new OverCompositeContext_INT_PACK_NA(srcCM, dstCM);
                 else
                     return new OverCompositeContext_NA  (srcCM, dstCM);
@@ -178,7 +222,7 @@ public class SVGComposite
             float [] coeff = rule.getCoefficients();
             if (use_int_pack)
                 return new ArithCompositeContext_INT_PACK_LUT
-                    (srcCM, dstCM, coeff[0], coeff[1], coeff[2], coeff[3]);
+                    (srcCM, dstCM, getArithmeticLUT());
             else
                 return new ArithCompositeContext
                     (srcCM, dstCM, coeff[0], coeff[1], coeff[2], coeff[3]);
@@ -1029,10 +1073,31 @@ public class SVGComposite
                                            float k1, float k2,
                                            float k3, float k4) {
             super(srcCM, dstCM);
+            lut = createLUT(k1, k2, k3, k4);
+        }
+
+        /**
+         * Builds a context around an already computed lookup table
+         * (see {@link SVGComposite#getArithmeticLUT}), the table is only
+         * read so it may be shared between contexts.
+         */
+        ArithCompositeContext_INT_PACK_LUT(ColorModel srcCM,
+                                           ColorModel dstCM,
+                                           byte [] lut) {
+            super(srcCM, dstCM);
+            this.lut = lut;
+        }
+
+        /**
+         * Computes the arithmetic rule for every pair of 8 bit
+         * premultiplied components.  The returned table is indexed by
+         * <code>(src&lt;&lt;8)|dst</code>.
+         */
+        static byte [] createLUT(float k1, float k2, float k3, float k4) {
             k1 = k1/255.0f;
             k4 = k4*255.0f+0.5f;
             int sz = 256*256;
-            lut = new byte[sz];
+            byte [] lut = new byte[sz];
             int val;
             for (int i=0; i<sz; i++) {
                 val = (int)((i>>8)*(i&0xFF)*k1 + (i>>8)*k2 + (i&0xFF)*k3 + k4);
@@ -1041,6 +1106,7 @@ public class SVGComposite
                     else                         val = 255;
                 lut[i] = (byte)val;
             }
+            return lut;
         }
 
         public void precompose_INT_PACK
@@ -16,12 +16,17 @@
    limitations under the License.
 
  */
-
 package org.apache.batik.ext.awt.image;
 
+import java.awt.geom.Rectangle2D;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.image.renderable.DeferRable;
 import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.util.CleanerThread;
 import org.apache.batik.util.ParsedURL;
-import org.apache.batik.util.SoftReferenceCache;
 
 /**
  * This class manages a cache of soft references to Images that
@@ -36,41 +41,90 @@ import org.apache.batik.util.SoftReferenceCache;
  *   If someone requests a ParsedURL after it has been added but before it has
  *   been put they will be blocked until the put.
  * </p>
+ * <p>
+ *   The cache holds at most <code>getMaxSize()</code> bytes of
+ *   (estimated) image data, least recently used images are dropped
+ *   first.  The garbage collector may drop images before that, when
+ *   memory runs low.  The size of an image still being decoded is
+ *   counted as soon as its decode completes.  A cache is safe to
+ *   share between threads, the caches of the default
+ *   <code>ImageTagRegistry</code> are shared by all the documents
+ *   loaded in the JVM.
+ * </p>
  *
  * @author <a href="mailto:thomas.deweese@kodak.com">Thomas DeWeese</a>
  * @version $Id$
  */
-public class URLImageCache extends SoftReferenceCache {
+public class URLImageCache {
+
+    /**
+     * The default size of a cache in bytes (64MB), unless overridden
+     * with the <code>org.apache.batik.imageCacheSize</code> system
+     * property.
+     */
+    public static final long DEFAULT_MAX_SIZE;
+
+    static {
+        long size = 64L*1024*1024;
+        try {
+            String s = System.getProperty("org.apache.batik.imageCacheSize");
+            if (s != null)
+                size = Long.parseLong(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        }
+        DEFAULT_MAX_SIZE = size;
+    }
 
     static URLImageCache theCache = new URLImageCache();
 
     public static URLImageCache getDefaultCache() { return theCache; }
 
+    /**
+     * The cached images, in access order.  A key mapping to null is
+     * being loaded by someone.
+     */
+    protected final LinkedHashMap map = new LinkedHashMap(16, 0.75f, true);
+
+    protected long maxSize;
+    protected long size;
+
+    protected long hitCount;
+    protected long missCount;
+    protected long evictionCount;
+
     /**
      * Let people create there own caches.
      */
-    public URLImageCache() { }
+    public URLImageCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache holding at most <code>maxSize</code> bytes of
+     * image data.
+     */
+    public URLImageCache(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException();
+        this.maxSize = maxSize;
+    }
 
     /**
      * Check if <code>request(url)</code> will return with a Filter
-     * (not putting you on the hook for it).  Note that it is possible
-     * that this will return true but between this call and the call
-     * to request the soft-reference will be cleared.  So it
-     * is still possible for request to return NULL, just much less
-     * likely (you can always call 'clear' in that case). 
+     * (not putting you on the hook for it).
      */
     public synchronized boolean isPresent(ParsedURL purl) {
-        return super.isPresentImpl(purl);
+        return map.containsKey(purl);
     }
 
     /**
      * Check if <code>request(url)</code> will return immediately with the
-     * Filter.  Note that it is possible that this will return
-     * true but between this call and the call to request the
-     * soft-reference will be cleared.
+     * Filter.
      */
     public synchronized boolean isDone(ParsedURL purl) {
-        return super.isDoneImpl(purl);
+        Entry e = (Entry)map.get(purl);
+        return (e != null) && (e.get() != null);
     }
 
     /**
@@ -78,26 +132,218 @@ public class URLImageCache extends SoftReferenceCache {
      * to put the Filter associated with ParsedURL into the
      * cache.  */
     public synchronized Filter request(ParsedURL purl) {
-        return (Filter)super.requestImpl(purl);
+        if (map.containsKey(purl)) {
+            Entry e = (Entry)map.get(purl);
+            while (e == null) {
+                try {
+                    // When something is cleared or put we will be notified.
+                    wait();
+                } catch (InterruptedException ie) { }
+
+                // check if purl was cleared, if so it will most likely
+                // never be 'put'.
+                if (!map.containsKey(purl))
+                    break;
+                e = (Entry)map.get(purl);
+            }
+            if (e != null) {
+                Filter filt = (Filter)e.get();
+                if (filt != null) {
+                    hitCount++;
+                    return filt;
+                }
+                // Collected, the cleaner thread hasn't removed it yet.
+                remove(purl);
+            }
+        }
+
+        // So now the caller get's the hot potato.
+        missCount++;
+        map.put(purl, null);
+        return null;
     }
 
     /**
      * Clear the entry for ParsedURL.
      * This is the easiest way to 'get off the hook'.
-     * if you didn't indend to get on it.
+     * if you didn't indend to get on it.  This is also how an image
+     * that changed is invalidated.
      */
     public synchronized void clear(ParsedURL purl) {
-        super.clearImpl(purl);
+        remove(purl);
+        notifyAll();
+    }
+
+    /**
+     * Removes the entry of <code>purl</code> and its size.
+     */
+    protected synchronized void remove(ParsedURL purl) {
+        Entry e = (Entry)map.remove(purl);
+        if ((e != null) && (e.size > 0))
+            size -= e.size;
     }
 
     /**
-     * Associate bi with purl.  bi is only referenced through
-     * a soft reference so don't rely on the cache to keep it
-     * around.  If the map no longer contains our purl it was
-     * probably cleared or flushed since we were put on the hook
-     * for it, so in that case we will do nothing.
+     * Removes all the images from the cache.  Pending requests will be
+     * treated as though clear() was called on their ParsedURL.
+     */
+    public synchronized void flush() {
+        map.clear();
+        size = 0;
+        notifyAll();
+    }
+
+    /**
+     * Associate filt with purl.  If the map no longer contains our
+     * purl it was probably cleared or flushed since we were put on
+     * the hook for it, so in that case we will do nothing.
      */
     public synchronized void put(ParsedURL purl, Filter filt) {
-        super.putImpl(purl, filt);
+        if (!map.containsKey(purl))
+            return;
+        if (filt == null) {
+            // Nothing to keep, let the next request try again.
+            map.remove(purl);
+        } else {
+            remove(purl);
+            Entry e = new Entry(purl, filt);
+            map.put(purl, e);
+            e.size = estimateSize(filt);
+            if (e.size >= 0)
+                size += e.size;
+            else if (filt instanceof DeferRable)
+                // Count it once decoded.
+                ((DeferRable)filt).addSourceListener(e);
+            trim();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Counts the size of <code>e</code>, an image that was still
+     * being decoded when it was put.
+     */
+    protected synchronized void sourceSet(Entry e, Filter filt) {
+        if ((map.get(e.purl) != e) || (e.size >= 0))
+            return;
+        e.size = estimateSize(filt);
+        if (e.size >= 0)
+            size += e.size;
+        trim();
+    }
+
+    /**
+     * Removes <code>e</code>, whose image was garbage collected.
+     */
+    protected synchronized void cleared(Entry e) {
+        if (map.get(e.purl) != e)
+            return;
+        remove(e.purl);
+        notifyAll();
+    }
+
+    /**
+     * Drops least recently used images until the cache fits in
+     * <code>maxSize</code>.  Images still being decoded don't count
+     * until their size is known.
+     */
+    protected synchronized void trim() {
+        Iterator i = map.values().iterator();
+        while ((size > maxSize) && i.hasNext()) {
+            Entry e = (Entry)i.next();
+            if ((e == null) || (e.size < 0))
+                continue;
+            i.remove();
+            size -= e.size;
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of image data held by
+     * <code>filt</code> (assuming 4 bytes per pixel), or -1 if that is
+     * not known yet.
+     */
+    protected long estimateSize(Filter filt) {
+        if ((filt instanceof DeferRable) && !((DeferRable)filt).isSourceSet())
+            return -1;
+        Rectangle2D r = filt.getBounds2D();
+        return 4L*(long)Math.ceil(r.getWidth())*(long)Math.ceil(r.getHeight());
+    }
+
+    /**
+     * Returns the maximum number of bytes of image data kept.
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes of image data kept.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException();
+        this.maxSize = maxSize;
+        trim();
+    }
+
+    /**
+     * Returns the number of bytes of image data currently kept.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of images kept or being loaded.
+     */
+    public synchronized int getEntryCount() {
+        return map.size();
+    }
+
+    /**
+     * Returns the number of requests served from the cache.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of requests that put the caller on the hook.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of images dropped to stay within the
+     * maximum size.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * A soft reference to a cached image and its estimated size, -1
+     * while unknown.
+     */
+    protected class Entry extends CleanerThread.SoftReferenceCleared
+        implements DeferRable.SourceListener {
+        final ParsedURL purl;
+        long size = -1;
+
+        Entry(ParsedURL purl, Filter filter) {
+            super(filter);
+            this.purl = purl;
+        }
+
+        public void sourceSet(DeferRable dr) {
+            URLImageCache.this.sourceSet(this, dr);
+        }
+
+        public void cleared() {
+            URLImageCache.this.cleared(this);
+        }
     }
 }
@@ -21,7 +21,7 @@ package org.apache.batik.ext.awt.image.renderable;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.RenderContext;
 
-import org.apache.batik.ext.awt.image.rendered.ColorMatrixRed;
+import org.apache.batik.ext.awt.image.rendered.PointOpChainRed;
 
 /**
  * Implements the interface expected from a color matrix
@@ -210,6 +210,7 @@ public final class ColorMatrixRable8Bit
         if(srcRI == null)
             return null;
 
-        return new ColorMatrixRed(convertSourceCS(srcRI), matrix);
+        // Folds into the source when it is also a point operation.
+        return PointOpChainRed.applyMatrix(convertSourceCS(srcRI), matrix);
     }
 }
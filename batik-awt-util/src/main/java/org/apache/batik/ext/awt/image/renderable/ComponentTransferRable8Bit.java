@@ -29,6 +29,7 @@ import org.apache.batik.ext.awt.image.LinearTransfer;
 import org.apache.batik.ext.awt.image.TableTransfer;
 import org.apache.batik.ext.awt.image.TransferFunction;
 import org.apache.batik.ext.awt.image.rendered.ComponentTransferRed;
+import org.apache.batik.ext.awt.image.rendered.PointOpChainRed;
 
 /**
  * This class implements the interface expected from a component
@@ -60,6 +61,12 @@ public class ComponentTransferRable8Bit
     private TransferFunction[]
         txfFunc = new TransferFunction[4];
 
+    /**
+     * The transfer functions compiled into one lookup table, computed
+     * lazily and shared by all the renderings of this filter.
+     */
+    private int [] lut;
+
     public ComponentTransferRable8Bit(Filter src,
                                       ComponentTransferFunction alphaFunction,
                                       ComponentTransferFunction redFunction,
@@ -90,7 +97,9 @@ public class ComponentTransferRable8Bit
      * Returns the transfer function for the alpha channel
      */
     public ComponentTransferFunction getAlphaFunction(){
-        return functions[ALPHA];
+        synchronized (functions) {
+            return functions[ALPHA];
+        }
     }
 
     /**
@@ -98,15 +107,20 @@ public class ComponentTransferRable8Bit
      */
     public void setAlphaFunction(ComponentTransferFunction alphaFunction){
         touch();
-        functions[ALPHA] = alphaFunction;
-        txfFunc[ALPHA] = null;
+        synchronized (functions) {
+            functions[ALPHA] = alphaFunction;
+            txfFunc[ALPHA] = null;
+            lut = null;
+        }
     }
 
     /**
      * Returns the transfer function for the red channel
      */
     public ComponentTransferFunction getRedFunction(){
-        return functions[RED];
+        synchronized (functions) {
+            return functions[RED];
+        }
     }
 
     /**
@@ -114,15 +128,20 @@ public class ComponentTransferRable8Bit
      */
     public void setRedFunction(ComponentTransferFunction redFunction){
         touch();
-        functions[RED] = redFunction;
-        txfFunc[RED] = null;
+        synchronized (functions) {
+            functions[RED] = redFunction;
+            txfFunc[RED] = null;
+            lut = null;
+        }
     }
 
     /**
      * Returns the transfer function for the green channel
      */
     public ComponentTransferFunction getGreenFunction(){
-        return functions[GREEN];
+        synchronized (functions) {
+            return functions[GREEN];
+        }
     }
 
     /**
@@ -130,15 +149,20 @@ public class ComponentTransferRable8Bit
      */
     public void setGreenFunction(ComponentTransferFunction greenFunction){
         touch();
-        functions[GREEN] = greenFunction;
-        txfFunc[GREEN] = null;
+        synchronized (functions) {
+            functions[GREEN] = greenFunction;
+            txfFunc[GREEN] = null;
+            lut = null;
+        }
     }
 
     /**
      * Returns the transfer function for the blue channel
      */
     public ComponentTransferFunction getBlueFunction(){
-        return functions[BLUE];
+        synchronized (functions) {
+            return functions[BLUE];
+        }
     }
 
     /**
@@ -146,8 +170,11 @@ public class ComponentTransferRable8Bit
      */
     public void setBlueFunction(ComponentTransferFunction blueFunction){
         touch();
-        functions[BLUE] = blueFunction;
-        txfFunc[BLUE] = null;
+        synchronized (functions) {
+            functions[BLUE] = blueFunction;
+            txfFunc[BLUE] = null;
+            lut = null;
+        }
     }
 
     public RenderedImage createRendering(RenderContext rc){
@@ -159,26 +186,55 @@ public class ComponentTransferRable8Bit
         if(srcRI == null)
             return null;
 
-        return new ComponentTransferRed(convertSourceCS(srcRI),
-                                        getTransferFunctions(),
-                                        rc.getRenderingHints());
+        // Folds into the source when it is also a point operation.
+        return PointOpChainRed.applyTransfer(convertSourceCS(srcRI),
+                                             getLookupTable(),
+                                             rc.getRenderingHints());
+    }
+
+    /**
+     * Returns the transfer functions compiled into one lookup table.
+     */
+    private int [] getLookupTable() {
+        ComponentTransferFunction[] functions;
+        synchronized (this.functions) {
+            if (lut != null)
+                return lut;
+            functions = this.functions.clone();
+        }
+
+        int [] lut = ComponentTransferRed.compileLookupTable
+            (getTransferFunctions(functions));
+        synchronized (this.functions) {
+            // Only keep it if no function changed meanwhile.
+            boolean same = true;
+            for (int i=0; i<4; i++)
+                same &= (this.functions[i] == functions[i]);
+            if (same)
+                this.lut = lut;
+        }
+        return lut;
     }
 
     /**
      * Builds an array of transfer functions for the
-     * ComponentTransferOp.
+     * ComponentTransferOp from a copy of the component transfer
+     * functions.
      */
-    private TransferFunction[] getTransferFunctions(){
+    private TransferFunction[] getTransferFunctions
+        (ComponentTransferFunction[] functions){
         //
-        // Copy array to avoid multi-thread conflicts on
-        // array access.
+        // Copy the array to avoid multi-thread conflicts on array
+        // access, and drop the converted functions of the channels
+        // that changed since the copy was made.
         //
-        TransferFunction[] txfFunc = new TransferFunction[4];
-        System.arraycopy(this.txfFunc, 0, txfFunc, 0, 4);
-
-        ComponentTransferFunction[] functions;
-        functions = new ComponentTransferFunction[4];
-        System.arraycopy(this.functions, 0, functions, 0, 4);
+        TransferFunction[] txfFunc;
+        synchronized (this.functions) {
+            txfFunc = this.txfFunc.clone();
+            for (int i=0; i<4; i++)
+                if (this.functions[i] != functions[i])
+                    txfFunc[i] = null;
+        }
 
         for(int i=0; i<4; i++){
             if(txfFunc[i] == null){
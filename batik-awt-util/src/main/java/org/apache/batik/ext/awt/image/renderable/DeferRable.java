@@ -23,6 +23,8 @@ import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.RenderContext;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
@@ -42,6 +44,19 @@ public class DeferRable implements Filter {
     volatile Filter  src;
     Rectangle2D bounds;
     Map         props;
+    List        listeners;
+
+    /**
+     * Notified once the source of a DeferRable is set.
+     */
+    public interface SourceListener {
+        /**
+         * Called after the source of <code>dr</code> is set, in the
+         * thread that set it.
+         */
+        void sourceSet(DeferRable dr);
+    }
+
     /**
      * Constructor takes nothing
      */
@@ -72,12 +87,45 @@ public class DeferRable implements Filter {
      * This will wake all the threads that might be waiting for
      * the source to be set.
      */
-    public synchronized void setSource(Filter src) {
-        // Only let them set Source once.
-        if (this.src != null) return;
-        this.src    = src;
-        this.bounds = src.getBounds2D();
-        notifyAll();
+    public void setSource(Filter src) {
+        List l;
+        synchronized (this) {
+            // Only let them set Source once.
+            if (this.src != null) return;
+            this.src    = src;
+            this.bounds = src.getBounds2D();
+            notifyAll();
+            l = listeners;
+            listeners = null;
+        }
+        if (l == null)
+            return;
+        for (Object o : l)
+            ((SourceListener)o).sourceSet(this);
+    }
+
+    /**
+     * Adds a listener notified when the source is set.  If it is set
+     * already the listener is notified right away.
+     */
+    public void addSourceListener(SourceListener l) {
+        synchronized (this) {
+            if (src == null) {
+                if (listeners == null)
+                    listeners = new ArrayList(1);
+                listeners.add(l);
+                return;
+            }
+        }
+        l.sourceSet(this);
+    }
+
+    /**
+     * Returns true if the source has been set, i.e. if
+     * <code>getSource()</code> won't block.
+     */
+    public boolean isSourceSet() {
+        return src != null;
     }
 
     public synchronized void setBounds(Rectangle2D bounds) {
@@ -20,6 +20,8 @@ package org.apache.batik.ext.awt.image.renderable;
 
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.RenderedImage;
 import java.awt.image.renderable.RenderContext;
@@ -76,6 +78,11 @@ public class FilterChainRable8Bit extends AbstractRable
      */
     private Rectangle2D filterRegion;
 
+    /**
+     * Cache for the rendered output of this chain. May be null
+     */
+    private FilterResultCache resultCache;
+
     /**
      * Default constructor.
      */
@@ -224,6 +231,24 @@ public class FilterChainRable8Bit extends AbstractRable
         }
     }
 
+    /**
+     * Sets the cache used to keep the rendered output of this chain.
+     * Only set this when the chain's sources won't change without the
+     * chain itself being touched.
+     * @param resultCache the cache to use, null disables caching.
+     */
+    public void setResultCache(FilterResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Returns the cache used to keep the rendered output of this
+     * chain, or null if there is none.
+     */
+    public FilterResultCache getResultCache() {
+        return resultCache;
+    }
+
     /**
      * Returns this filter's bounds
      */
@@ -247,13 +272,44 @@ public class FilterChainRable8Bit extends AbstractRable
         Composite c = g2d.getComposite();
         if (!SVGComposite.OVER.equals(c))
             return false;
-        
+
+        if (resultCache != null) {
+            // Apply the zero pads as their paintRable would, then
+            // draw the cached rendering of what they pad.  Sources
+            // that paint themselves are drawn as usual.
+            Shape clip = g2d.getClip();
+            Filter src = crop;
+            while ((src instanceof PadRable) &&
+                   (((PadRable)src).getPadMode() == PadMode.ZERO_PAD)) {
+                g2d.clip(((PadRable)src).getPadRect());
+                src = ((PadRable)src).getSource();
+            }
+            if (src instanceof PaintRable) {
+                GraphicsUtil.drawImage(g2d, src);
+            } else {
+                AffineTransform at = g2d.getTransform();
+                RenderedImage ri = resultCache.createRendering
+                    (this, src,
+                     new RenderContext(at, g2d.getClip(),
+                                       g2d.getRenderingHints()));
+                if (ri != null) {
+                    g2d.setTransform(GraphicsUtil.IDENTITY);
+                    GraphicsUtil.drawImage(g2d, GraphicsUtil.wrap(ri));
+                    g2d.setTransform(at);
+                }
+            }
+            g2d.setClip(clip);
+            return true;
+        }
+
         GraphicsUtil.drawImage(g2d, getSource());
 
         return true;
     }
 
     public RenderedImage createRendering(RenderContext context){
+        if (resultCache != null)
+            return resultCache.createRendering(this, crop, context);
         return crop.createRendering(context);
     }
 }
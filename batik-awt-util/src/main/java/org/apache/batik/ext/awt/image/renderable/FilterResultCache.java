@@ -0,0 +1,506 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderContext;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.rendered.AffineRed;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.TranslateRed;
+
+/**
+ * A size bounded cache of rendered filter results.
+ *
+ * <p>
+ *   Results are keyed by the identity and time stamp of the filter,
+ *   the user to device transform, the area of interest and the
+ *   rendering hints, so a result is only reused for a request that
+ *   would render exactly the same pixels: a repaint of an unchanged
+ *   view.  The first request renders the filter as usual and keeps a
+ *   copy of the part of the result covering its area of interest.
+ * </p>
+ * <p>
+ *   A hit is drawn from pixels computed for the whole area of interest
+ *   at once, where the uncached result is computed tile by tile when
+ *   drawn.  A few filters, like the box blur approximation used by
+ *   <code>GaussianBlurRed8Bit</code>, give slightly different pixels
+ *   depending on the area they are asked for, so a hit is not always
+ *   pixel identical to drawing the filter again.  Results that are
+ *   resampled when drawn are not cached.
+ * </p>
+ * <p>
+ *   Only rectangular areas of interest are cached.  Requests that
+ *   would keep more than half of the cache are rendered lazily as
+ *   usual.  Results are evicted least recently used first once the
+ *   total size of their rasters goes over <code>getMaxSize()</code>.
+ *   The cache is only valid for filters whose sources don't change
+ *   without touching the filter, i.e. filters built for documents
+ *   that are not dynamic.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class FilterResultCache {
+
+    /**
+     * The default size of the cache in bytes (32MB).
+     */
+    public static final long DEFAULT_MAX_SIZE = 32L*1024*1024;
+
+    /**
+     * The bytes accounted for each result on top of its raster, so
+     * results where the filter has no output are evicted as well.
+     */
+    protected static final int ENTRY_OVERHEAD = 64;
+
+    /**
+     * The cached results, in access order.
+     */
+    protected final LinkedHashMap map = new LinkedHashMap(16, 0.75f, true);
+
+    protected long maxSize;
+    protected long size;
+
+    protected long hitCount;
+    protected long missCount;
+    protected long evictionCount;
+
+    /**
+     * Constructs a cache of <code>DEFAULT_MAX_SIZE</code> bytes.
+     */
+    public FilterResultCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a cache that holds at most <code>maxSize</code> bytes
+     * of raster data.
+     */
+    public FilterResultCache(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the rendering of <code>src</code> in <code>rc</code>,
+     * from the cache if possible.  <code>filter</code> is the filter
+     * that owns <code>src</code>, its time stamp is used to tell if a
+     * cached result is still current.
+     */
+    public RenderedImage createRendering(Filter filter, Filter src,
+                                         RenderContext rc) {
+        AffineTransform at = rc.getTransform();
+        if (at == null)
+            at = new AffineTransform();
+
+        Shape aoi = rc.getAreaOfInterest();
+        if (aoi == null)
+            aoi = filter.getBounds2D();
+        if (!(aoi instanceof Rectangle2D))
+            // The result may depend on more than the bounds.
+            return render(src, rc);
+        Rectangle devAOI = at.createTransformedShape(aoi).getBounds();
+        if (devAOI.isEmpty() ||
+            (4L*devAOI.width*devAOI.height > maxSize/2))
+            // Too large to keep, don't compute it all up front.
+            return render(src, rc);
+
+        RenderingHints hints = rc.getRenderingHints();
+        RenderingHints keyHints = new RenderingHints(null);
+        if (hints != null)
+            keyHints.putAll(hints);
+        // These change with every paint without affecting the result.
+        keyHints.remove(RenderingHintsKeyExt.KEY_AREA_OF_INTEREST);
+        keyHints.remove(RenderingHintsKeyExt.KEY_BUFFERED_IMAGE);
+
+        Key key = new Key(filter, filter.getTimeStamp(), src,
+                          new AffineTransform(at),
+                          (Rectangle2D)((Rectangle2D)aoi).clone(),
+                          keyHints);
+        Entry e;
+        synchronized (this) {
+            e = (Entry)map.get(key);
+            if (e != null)
+                hitCount++;
+            else
+                missCount++;
+        }
+        if (e != null) {
+            if (e.raster == null)
+                return null;
+            return e.layout.wrap(e.createImage(), hints);
+        }
+
+        RenderedImage ri = src.createRendering(rc);
+        e = new Entry();
+        if (ri != null) {
+            CachableRed cr = GraphicsUtil.wrap(ri);
+            Layout layout = new Layout(cr);
+            if (!layout.isTranslation())
+                // Resampled when drawn, keep it uncached.
+                return ri;
+            CachableRed inner = layout.getInner(cr);
+            Rectangle r = getInnerAOI(layout, devAOI).intersection
+                (inner.getBounds());
+            if (r.isEmpty()) {
+                // Nothing inside the area of interest.
+                ri = null;
+            } else {
+                SampleModel sm = inner.getSampleModel()
+                    .createCompatibleSampleModel(r.width, r.height);
+                WritableRaster wr = Raster.createWritableRaster
+                    (sm, new Point(r.x, r.y));
+                inner.copyData(wr);
+                e.layout = layout;
+                e.raster = wr;
+            }
+        }
+        e.size = getRasterSize(e.raster);
+        synchronized (this) {
+            Entry old = (Entry)map.put(key, e);
+            if (old != null)
+                size -= old.size;
+            size += e.size;
+            trim();
+        }
+        return ri;
+    }
+
+    /**
+     * Renders <code>src</code> without the cache.
+     */
+    protected RenderedImage render(Filter src, RenderContext rc) {
+        synchronized (this) {
+            missCount++;
+        }
+        return src.createRendering(rc);
+    }
+
+    /**
+     * Returns the area of the unwrapped result needed to cover
+     * <code>devAOI</code>.  Leaves room for the interpolation kernel
+     * when the result is resampled.
+     */
+    protected static Rectangle getInnerAOI(Layout layout, Rectangle devAOI) {
+        if (layout.toDevice.isIdentity())
+            return new Rectangle(devAOI);
+
+        AffineTransform at = layout.toDevice;
+        if ((at.getType() == AffineTransform.TYPE_TRANSLATION) &&
+            (at.getTranslateX() == Math.floor(at.getTranslateX())) &&
+            (at.getTranslateY() == Math.floor(at.getTranslateY()))) {
+            Rectangle r = new Rectangle(devAOI);
+            r.translate(-(int)at.getTranslateX(), -(int)at.getTranslateY());
+            return r;
+        }
+
+        Rectangle r;
+        try {
+            r = at.createInverse().createTransformedShape
+                (devAOI).getBounds();
+        } catch (NoninvertibleTransformException nite) {
+            return new Rectangle();
+        }
+        r.grow(2, 2);
+        return r;
+    }
+
+    private static long getRasterSize(Raster r) {
+        if (r == null)
+            return ENTRY_OVERHEAD;
+        DataBuffer db = r.getDataBuffer();
+        return ENTRY_OVERHEAD +
+            ((long)db.getSize()*db.getNumBanks()*
+             DataBuffer.getDataTypeSize(db.getDataType()))/8;
+    }
+
+    /**
+     * Evicts least recently used results until the cache fits in
+     * <code>maxSize</code>.
+     */
+    protected synchronized void trim() {
+        Iterator i = map.values().iterator();
+        while ((size > maxSize) && i.hasNext()) {
+            Entry e = (Entry)i.next();
+            i.remove();
+            size -= e.size;
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Removes all the cached results.
+     */
+    public synchronized void flush() {
+        map.clear();
+        size = 0;
+    }
+
+    /**
+     * Removes the cached results of <code>filter</code>.
+     */
+    public synchronized void flush(Filter filter) {
+        Iterator i = map.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry me = (Map.Entry)i.next();
+            if (((Key)me.getKey()).filter == filter) {
+                size -= ((Entry)me.getValue()).size;
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum size of the cache in bytes.
+     */
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum size of the cache in bytes.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException();
+        this.maxSize = maxSize;
+        trim();
+    }
+
+    /**
+     * Returns the number of bytes of raster data currently cached.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of cached results.
+     */
+    public synchronized int getEntryCount() {
+        return map.size();
+    }
+
+    /**
+     * Returns the number of requests served from the cache.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of requests that had to render the filter.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of results evicted to stay within the
+     * maximum size.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * The key of a cached result.
+     */
+    protected static class Key {
+        final Filter filter;
+        final long stamp;
+        final Filter src;
+        final AffineTransform usr2dev;
+        final Rectangle2D aoi;
+        final RenderingHints hints;
+        final int hash;
+
+        Key(Filter filter, long stamp, Filter src, AffineTransform usr2dev,
+            Rectangle2D aoi, RenderingHints hints) {
+            this.filter  = filter;
+            this.stamp   = stamp;
+            this.src     = src;
+            this.usr2dev = usr2dev;
+            this.aoi     = aoi;
+            this.hints   = hints;
+            this.hash = (System.identityHashCode(filter) ^ (int)stamp ^
+                         usr2dev.hashCode() ^ aoi.hashCode() ^
+                         hints.hashCode());
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key)o;
+            return ((filter == k.filter) && (stamp == k.stamp) &&
+                    (src == k.src) && usr2dev.equals(k.usr2dev) &&
+                    aoi.equals(k.aoi) && hints.equals(k.hints));
+        }
+    }
+
+    /**
+     * Describes the affine and translate wrappers around a rendered
+     * result.  They are kept around the cached raster so
+     * <code>GraphicsUtil.drawImage</code> still hands their transform
+     * to Java2D, exactly as it does for the uncached rendering.
+     */
+    protected static class Layout {
+        /**
+         * The wrappers, outermost first: an AffineTransform for an
+         * AffineRed, a Point holding the deltas of a TranslateRed.
+         */
+        final List wrappers = new ArrayList();
+
+        /**
+         * The transform from the unwrapped result to device space.
+         */
+        final AffineTransform toDevice = new AffineTransform();
+
+        final ColorModel cm;
+
+        Layout(CachableRed cr) {
+            while (true) {
+                if (cr instanceof AffineRed) {
+                    AffineRed ar = (AffineRed)cr;
+                    wrappers.add(ar.getTransform());
+                    toDevice.concatenate(ar.getTransform());
+                    cr = ar.getSource();
+                } else if (cr instanceof TranslateRed) {
+                    TranslateRed tr = (TranslateRed)cr;
+                    wrappers.add(new Point(tr.getDeltaX(), tr.getDeltaY()));
+                    toDevice.translate(tr.getDeltaX(), tr.getDeltaY());
+                    cr = tr.getSource();
+                } else {
+                    break;
+                }
+            }
+            cm = cr.getColorModel();
+        }
+
+        /**
+         * Returns true if the wrappers only translate the result.
+         */
+        boolean isTranslation() {
+            for (int i = 0; i < wrappers.size(); i++) {
+                if (!(wrappers.get(i) instanceof Point))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Returns <code>cr</code> without the wrappers of this layout.
+         */
+        CachableRed getInner(CachableRed cr) {
+            for (int i = 0; i < wrappers.size(); i++) {
+                if (cr instanceof AffineRed)
+                    cr = ((AffineRed)cr).getSource();
+                else
+                    cr = ((TranslateRed)cr).getSource();
+            }
+            return cr;
+        }
+
+        /**
+         * Puts the wrappers of this layout back around <code>cr</code>.
+         */
+        CachableRed wrap(CachableRed cr, RenderingHints hints) {
+            for (int i = wrappers.size()-1; i >= 0; i--) {
+                Object w = wrappers.get(i);
+                if (w instanceof AffineTransform) {
+                    cr = new AffineRed(cr, (AffineTransform)w, hints);
+                } else {
+                    Point d = (Point)w;
+                    cr = new TranslateRed(cr, cr.getMinX()+d.x,
+                                          cr.getMinY()+d.y);
+                }
+            }
+            return cr;
+        }
+
+        public int hashCode() {
+            return wrappers.hashCode();
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Layout))
+                return false;
+            Layout l = (Layout)o;
+            return (wrappers.equals(l.wrappers) &&
+                    ((cm == null) ? (l.cm == null) : cm.equals(l.cm)));
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    protected static class Entry {
+        /**
+         * The wrappers around the result, null if it is empty.
+         */
+        Layout layout;
+
+        /**
+         * The pixels of the unwrapped result covering the area of
+         * interest, null if it is empty.
+         */
+        WritableRaster raster;
+
+        long size;
+
+        /**
+         * Returns the cached pixels as an image.
+         */
+        CachableRed createImage() {
+            ColorModel cm = layout.cm;
+            BufferedImage bi = new BufferedImage
+                (cm, raster.createWritableTranslatedChild(0, 0),
+                 cm.isAlphaPremultiplied(), null);
+            return new BufferedImageCachableRed
+                (bi, raster.getMinX(), raster.getMinY());
+        }
+    }
+}
@@ -84,7 +84,7 @@ public class Any2LsRGBRed extends AbstractRed {
      * linearToLinear table is used when the values are considered to
      * be on the sRGB scale to begin with.
      */
-    private static final int[] sRGBToLsRGBLut = new int[256];
+    static final int[] sRGBToLsRGBLut = new int[256];
     static {
         final double scale = 1.0/255;
 
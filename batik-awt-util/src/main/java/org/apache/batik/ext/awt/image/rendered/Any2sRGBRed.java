@@ -96,7 +96,7 @@ public class Any2sRGBRed extends AbstractRed {
      * linearToLinear table is used when the values are considered to
      * be on the sRGB scale to begin with.
      */
-    private static final int[] linearToSRGBLut = new int[256];
+    static final int[] linearToSRGBLut = new int[256];
 
     static {
         final double scale = 1.0/255;
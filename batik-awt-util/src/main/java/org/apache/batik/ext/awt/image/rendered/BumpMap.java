@@ -23,6 +23,9 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SinglePixelPackedSampleModel;
+import java.lang.ref.SoftReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Default BumpMap implementation.
@@ -47,6 +50,31 @@ public final class BumpMap {
      */
     private double scaleX, scaleY;
 
+    /**
+     * The maximum number of normal tiles kept by a bump map.
+     */
+    private static final int MAX_NORMAL_TILES = 16;
+
+    /**
+     * The grid of the tiles the normals are computed and cached in.
+     * Each tile is computed from the texture over the tile grown by
+     * one pixel, as a request for that tile alone would be.  By
+     * default the tiles are aligned on the texture's origin and have
+     * the default tile size.
+     * @see #setTileGrid
+     */
+    private int tileGridXOff, tileGridYOff, tileWidth, tileHeight;
+
+    /**
+     * The computed normal tiles, by tile index, most recently used
+     * last.
+     */
+    private final Map normalTiles = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_NORMAL_TILES;
+            }
+        };
+
     /**
      * Stores the normals for this bumpMap.
      * scaleX and scaleY are the user space to device
@@ -61,6 +89,24 @@ public final class BumpMap {
         this.surfaceScale = surfaceScale;
         this.scaleX = scaleX;
         this.scaleY = scaleY;
+        int defSz = AbstractTiledRed.getDefaultTileSize();
+        setTileGrid(texture.getMinX(), texture.getMinY(), defSz, defSz);
+    }
+
+    /**
+     * Sets the grid the normals are computed and cached in.  A
+     * lighting filter rendering in tiles sets it to its own tile grid
+     * so that every tile it renders reads the same texture area as
+     * when the normals were computed per tile.
+     */
+    void setTileGrid(int xOff, int yOff, int w, int h) {
+        synchronized (normalTiles) {
+            tileGridXOff = xOff;
+            tileGridYOff = yOff;
+            tileWidth    = Math.max(w, 1);
+            tileHeight   = Math.max(h, 1);
+            normalTiles.clear();
+        }
     }
 
     /**
@@ -79,13 +125,111 @@ public final class BumpMap {
          final int w, final int h)
     {
         final double[][][] N = new double[h][w][4];
+        final double[] normals = getNormals(x, y, w, h);
+        int n = 0;
+        for (int i=0; i<h; i++) {
+            final double[][] NRow = N[i];
+            for (int j=0; j<w; j++, n+=4)
+                System.arraycopy(normals, n, NRow[j], 0, 4);
+        }
+        return N;
+    }
+
+    /**
+     * Returns the normals of the w x h pixels starting at (x, y).
+     * The normals are computed in tiles which are kept, so requests over the same area (such as
+     * repaints of a lighting filter) don't compute them again.
+     * @return an array with 4 values per pixel, scanline after
+     *         scanline: the x, y and z components of the normal
+     *         followed by the surface height.
+     */
+    public double[] getNormals(final int x, final int y,
+                               final int w, final int h)
+    {
+        final double[] N = new double[w*h*4];
+        if ((w <= 0) || (h <= 0))
+            return N;
+
+        final int gx, gy, tw, th;
+        synchronized (normalTiles) {
+            gx = tileGridXOff;
+            gy = tileGridYOff;
+            tw = tileWidth;
+            th = tileHeight;
+        }
+        final int tx0 = tileIndex(x-gx, tw), tx1 = tileIndex(x+w-1-gx, tw);
+        final int ty0 = tileIndex(y-gy, th), ty1 = tileIndex(y+h-1-gy, th);
+        for (int ty=ty0; ty<=ty1; ty++) {
+            for (int tx=tx0; tx<=tx1; tx++) {
+                final int tileX = gx+tx*tw;
+                final int tileY = gy+ty*th;
+                final double[] tile = getNormalTile(tileX, tileY, tw, th);
+                // Intersection of the tile with the request.
+                final int minX = Math.max(x, tileX);
+                final int maxX = Math.min(x+w, tileX+tw);
+                final int minY = Math.max(y, tileY);
+                final int maxY = Math.min(y+h, tileY+th);
+                final int len = (maxX-minX)*4;
+                for (int yloc=minY; yloc<maxY; yloc++) {
+                    System.arraycopy
+                        (tile, ((yloc-tileY)*tw + (minX-tileX))*4,
+                         N,    ((yloc-y)*w + (minX-x))*4, len);
+                }
+            }
+        }
+        return N;
+    }
+
+    /**
+     * Returns the index of the normal tile holding the coordinate
+     * v, relative to the tile grid's origin, for tiles of size ts.
+     */
+    private static int tileIndex(int v, int ts) {
+        return (v >= 0) ? v/ts : -((-v-1)/ts) - 1;
+    }
+
+    /**
+     * Returns the normals of the tw x th tile at (tileX, tileY),
+     * computing them if they aren't cached.
+     */
+    private double[] getNormalTile(int tileX, int tileY, int tw, int th) {
+        final Rectangle key = new Rectangle(tileX, tileY, tw, th);
+        synchronized (normalTiles) {
+            SoftReference ref = (SoftReference)normalTiles.get(key);
+            if (ref != null) {
+                double[] tile = (double[])ref.get();
+                if (tile != null)
+                    return tile;
+            }
+        }
+        // computeNormals reads the texture over the tile grown by
+        // one pixel, so the tile gets the normals a request for
+        // exactly this area would get.
+        final double[] tile = computeNormals(tileX, tileY, tw, th);
+        synchronized (normalTiles) {
+            normalTiles.put(key, new SoftReference(tile));
+        }
+        return tile;
+    }
+
+    /**
+     * Computes the normals of the w x h pixels starting at (x, y),
+     * in the layout returned by {@link #getNormals}, without going
+     * through the normal tiles.  Pixels outside the texture get a
+     * null normal.
+     */
+    double[] computeNormals(final int x, final int y,
+                            final int w, final int h)
+    {
+        final double[] N = new double[w*h*4];
 
         Rectangle srcRect = new Rectangle(x-1, y-1, w+2, h+2);
         Rectangle srcBound = new Rectangle
             (texture.getMinX(), texture.getMinY(),
              texture.getWidth(), texture.getHeight());
 
-        if ( ! srcRect.intersects(srcBound) )
+        // Only the pixels inside the texture have a normal.
+        if ( ! srcBound.intersects(new Rectangle(x, y, w, h)) )
             return N;
 
         srcRect = srcRect.intersection(srcBound);
@@ -148,7 +292,7 @@ public final class BumpMap {
         if (yloc == srcRect.y) {
             if (yloc == yEnd) {
                 // Only one row of pixels...
-                final double [][] NRow = N[yloc-y];
+                final int NRow = (yloc-y)*w*4;
                 int xloc=x;
                 if (xloc < srcRect.x)
                     xloc = srcRect.x;
@@ -164,14 +308,14 @@ public final class BumpMap {
                     // Top left pixel, in src (0, 0);
                     crnc = (pixels[p+1] >>> 24)*pixelScale;
 
-                    final double [] n = NRow[xloc-x];
+                    final int n = NRow + (xloc-x)*4;
 
-                    n[0] = 2*surfaceScaleX*(crcc - crnc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    N[n] = 2*surfaceScaleX*(crcc - crnc);
+                    invNorm = 1.0/Math.sqrt(N[n]*N[n] + 1);
+                    N[n] *= invNorm;
+                    N[n+1]  = 0;
+                    N[n+2]  = invNorm;
+                    N[n+3]  = crcc*surfaceScale;
                     p++;
                     xloc++;
                     crpc = crcc;
@@ -184,14 +328,14 @@ public final class BumpMap {
                 for (; xloc<xEnd; xloc++) {
                     // Middle Top row...
                     crnc = (pixels[p+1] >>> 24)*pixelScale;
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = surfaceScaleX * (crpc - crnc );
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    final int n = NRow + (xloc-x)*4;
+
+                    N[n] = surfaceScaleX * (crpc - crnc );
+                    invNorm = 1.0/Math.sqrt(N[n]*N[n] + 1);
+                    N[n] *= invNorm;
+                    N[n+1]  = 0;
+                    N[n+2]  = invNorm;
+                    N[n+3]  = crcc*surfaceScale;
                     p++;
                     crpc = crcc;
                     crcc = crnc;
@@ -200,19 +344,19 @@ public final class BumpMap {
                 if ((xloc < x+w) &&
                     (xloc == srcRect.x+srcRect.width-1)) {
                     // Last pixel of top row
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = 2*surfaceScaleX*(crpc - crcc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                    n[0] *= invNorm;
-                    n[1] *= invNorm;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    final int n = NRow + (xloc-x)*4;
+
+                    N[n] = 2*surfaceScaleX*(crpc - crcc);
+                    invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                    N[n] *= invNorm;
+                    N[n+1] *= invNorm;
+                    N[n+2]  = invNorm;
+                    N[n+3]  = crcc*surfaceScale;
                 }
                 return N;
             }
 
-            final double [][] NRow = N[yloc-y];
+            final int NRow = (yloc-y)*w*4;
             int p  = offset + scanStride*(yloc-srcRect.y);
             int xloc=x;
             if (xloc < srcRect.x)
@@ -231,17 +375,17 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = NRow + (xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX *
+                N[n] = - twoThirdSurfaceScaleX *
                     ((2*crnc + nrnc - 2*crcc - nrcc));
-                n[1] = - twoThirdSurfaceScaleY *
+                N[n+1] = - twoThirdSurfaceScaleY *
                     ((2*nrcc + nrnc - 2*crcc - crnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
                 p++;
                 xloc++;
                 crpc = crcc;
@@ -259,18 +403,18 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = NRow + (xloc-x)*4;
 
-                n[0] = - thirdSurfaceScaleX * (( 2*crnc + nrnc)
+                N[n] = - thirdSurfaceScaleX * (( 2*crnc + nrnc)
                                                - (2*crpc + nrpc));
-                n[1] = - halfSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
+                N[n+1] = - halfSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
                                              - (crpc + 2*crcc + crnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
                 p++;
                 crpc = crcc;
                 nrpc = nrcc;
@@ -281,24 +425,24 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Last pixel of top row
-                final double [] n = NRow[xloc-x];
+                final int n = NRow + (xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + nrcc)
+                N[n] = - twoThirdSurfaceScaleX *(( 2*crcc + nrcc)
                                                  - (2*crpc + nrpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*nrcc + nrpc)
+                N[n+1] = - twoThirdSurfaceScaleY *(( 2*nrcc + nrpc)
                                                  - (2*crcc + crpc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
             }
             yloc++;
         }
 
         for (; yloc<yEnd; yloc++) {
-            final double [][] NRow = N[yloc-y];
+            final int NRow = (yloc-y)*w*4;
             int p  = offset + scanStride*(yloc-srcRect.y);
 
             int xloc=x;
@@ -322,18 +466,18 @@ public final class BumpMap {
                 prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = NRow + (xloc-x)*4;
 
-                n[0] = - halfSurfaceScaleX *(( prnc + 2*crnc + nrnc)
+                N[n] = - halfSurfaceScaleX *(( prnc + 2*crnc + nrnc)
                                              - (prcc + 2*crcc + nrcc));
-                n[1] = - thirdSurfaceScaleY *(( 2*prcc + prnc)
+                N[n+1] = - thirdSurfaceScaleY *(( 2*prcc + prnc)
                                               - ( 2*crcc + crnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 xloc++;
@@ -357,18 +501,18 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = NRow + (xloc-x)*4;
 
-                n[0] = - quarterSurfaceScaleX *(( prnc + 2*crnc + nrnc)
+                N[n] = - quarterSurfaceScaleX *(( prnc + 2*crnc + nrnc)
                                                 - (prpc + 2*crpc + nrpc));
-                n[1] = - quarterSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
+                N[n+1] = - quarterSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
                                                 - (prpc + 2*prcc + prnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 prpc = prcc;
@@ -382,24 +526,24 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Now, proces right column, from (w-1, 1) to (w-1, h-1)
-                final double [] n = NRow[xloc-x];
+                final int n = NRow + (xloc-x)*4;
 
-                n[0] = - halfSurfaceScaleX *( (prcc + 2*crcc + nrcc)
+                N[n] = - halfSurfaceScaleX *( (prcc + 2*crcc + nrcc)
                                              -(prpc + 2*crpc + nrpc));
-                n[1] = - thirdSurfaceScaleY *(( nrpc + 2*nrcc)
+                N[n+1] = - thirdSurfaceScaleY *(( nrpc + 2*nrcc)
                                               - ( prpc + 2*prcc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
             }
         }
 
         if ((yloc < y+h) &&
             (yloc == srcRect.y+srcRect.height-1)) {
-            final double [][] NRow = N[yloc-y];
+            final int NRow = (yloc-y)*w*4;
             int p  = offset + scanStride*(yloc-srcRect.y);
             int xloc=x;
             if (xloc < srcRect.x)
@@ -419,15 +563,15 @@ public final class BumpMap {
                 crnc = (pixels[p + 1] >>> 24)*pixelScale;
                 prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = NRow + (xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX * ((2*crnc + prnc - 2*crcc - prcc));
-                n[1] = - twoThirdSurfaceScaleY * ((2*crcc + crnc - 2*prcc - prnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                N[n] = - twoThirdSurfaceScaleX * ((2*crnc + prnc - 2*crcc - prcc));
+                N[n+1] = - twoThirdSurfaceScaleY * ((2*crcc + crnc - 2*prcc - prnc));
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 xloc++;
@@ -450,18 +594,18 @@ public final class BumpMap {
                 //                    prpc + "," + prcc + "," + prnc + "  " +
                 //                    crpc + "," + crcc + "," + crnc );
 
-                final double [] n = NRow[xloc-x];
+                final int n = NRow + (xloc-x)*4;
 
-                n[0] = - thirdSurfaceScaleX *(( 2*crnc + prnc)
+                N[n] = - thirdSurfaceScaleX *(( 2*crnc + prnc)
                                               - (2*crpc + prpc));
-                n[1] = - halfSurfaceScaleY *(( crpc + 2*crcc + crnc)
+                N[n+1] = - halfSurfaceScaleY *(( crpc + 2*crcc + crnc)
                                              - (prpc + 2*prcc + prnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 crpc = crcc;
@@ -473,18 +617,18 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Bottom right corner
-                final double [] n = NRow[xloc-x];
+                final int n = NRow + (xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + prcc)
+                N[n] = - twoThirdSurfaceScaleX *(( 2*crcc + prcc)
                                                  - (2*crpc + prpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*crcc + crpc)
+                N[n+1] = - twoThirdSurfaceScaleY *(( 2*crcc + crpc)
                                                  - (2*prcc + prpc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n]*N[n] + N[n+1]*N[n+1] + 1);
+                N[n] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
             }
         }
         return N;
@@ -20,24 +20,52 @@ package org.apache.batik.ext.awt.image.rendered;
 
 import java.awt.RenderingHints;
 import java.awt.image.ByteLookupTable;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.LookupOp;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.TransferFunction;
 
 /**
+ * Applies a lookup table to each component of its source.  The four
+ * transfer functions are compiled into one table of 4x256 entries
+ * which is applied, on packed ARGB data, in a single pass that also
+ * unpremultiplies the source.  Bands whose table is the identity are
+ * left untouched.
  *
  * @author <a href="mailto:thomas.deweese@kodak.com">Thomas DeWeese</a>
  * @version $Id$
  */
 public class ComponentTransferRed extends AbstractRed {
-    LookupOp operation;
 
     /**
-     * The constructor will instantiate a LookupOp instance using
-     * a LookupOp, which is built using the four LUT
-     * data obtained by the TransferFunction objects
+     * The compiled lookup table, 4x256 entries in alpha, red, green,
+     * blue order.
+     */
+    private final int [] lut;
+
+    /**
+     * True if the alpha table is the identity.
+     */
+    private final boolean alphaIdentity;
+
+    /**
+     * True if all four tables are the identity.
+     */
+    private final boolean identity;
+
+    /**
+     * Used for sources that are not packed ARGB, created lazily.
+     */
+    private LookupOp operation;
+
+    private final RenderingHints hints;
+
+    /**
+     * Applies the lookup tables of the TransferFunction objects
      * funcs[0] : Alpha component transfer function
      * funcs[1] : Red component transfer function
      * funcs[2] : Green component transfer function
@@ -46,36 +74,153 @@ public class ComponentTransferRed extends AbstractRed {
     public ComponentTransferRed(CachableRed src,
                                 TransferFunction [] funcs,
                                 RenderingHints hints) {
+        this(src, compileLookupTable(funcs), hints);
+    }
+
+    /**
+     * Applies a lookup table built by {@link #compileLookupTable}.
+     * The table is shared, not copied, and must not be modified.
+     */
+    public ComponentTransferRed(CachableRed src,
+                                int [] lut,
+                                RenderingHints hints) {
         super(src, src.getBounds(),
               GraphicsUtil.coerceColorModel(src.getColorModel(), false),
               src.getSampleModel(),
               null);
 
-        byte [][] tableData = {funcs[1].getLookupTable(),
-                               funcs[2].getLookupTable(),
-                               funcs[3].getLookupTable(),
-                               funcs[0].getLookupTable()};
-
-        // Note that we create an anonymous subclass here.
-        // For what ever reason this makes the Op work correctly.
-        // If you remove this, it seems to get the color channels messed
-        // up.  The downside is that I suspect that this means we are
-        // falling into a more general, and hence slower case, but
-        // at least it works....
-        operation  =  new LookupOp(new ByteLookupTable(0, tableData), hints)
-            { };
+        this.lut   = lut;
+        this.hints = hints;
+
+        alphaIdentity = isIdentity(lut, 0);
+        identity = (alphaIdentity        &&
+                    isIdentity(lut, 256) &&
+                    isIdentity(lut, 512) &&
+                    isIdentity(lut, 768));
+    }
+
+    /**
+     * Compiles the lookup tables of <code>funcs</code> (in alpha, red,
+     * green, blue order) into one table of 4x256 entries in the same
+     * order.
+     */
+    public static int [] compileLookupTable(TransferFunction [] funcs) {
+        int [] lut = new int[1024];
+        for (int b=0; b<4; b++) {
+            byte [] table = funcs[b].getLookupTable();
+            int off = b*256;
+            for (int i=0; i<256; i++)
+                lut[off+i] = table[i]&0xFF;
+        }
+        return lut;
+    }
+
+    private static boolean isIdentity(int [] lut, int off) {
+        for (int i=0; i<256; i++)
+            if (lut[off+i] != i)
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the compiled lookup table applied by this image, in
+     * alpha, red, green, blue order.  The table is shared and must
+     * not be modified.
+     */
+    int [] getLookupTable() {
+        return lut;
     }
 
     public WritableRaster copyData(WritableRaster wr){
         CachableRed src = (CachableRed)getSources().get(0);
+        ColorModel srcCM = src.getColorModel();
 
         wr = src.copyData(wr);
-        GraphicsUtil.coerceData(wr, src.getColorModel(), false);
 
-        WritableRaster srcWR = wr.createWritableTranslatedChild(0,0);
+        if (!srcCM.hasAlpha() ||
+            !GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), true)) {
+            GraphicsUtil.coerceData(wr, srcCM, false);
+            if (!identity) {
+                WritableRaster srcWR = wr.createWritableTranslatedChild(0,0);
+                getLookupOp().filter(srcWR, srcWR);
+            }
+            return wr;
+        }
+
+        final boolean divide = srcCM.isAlphaPremultiplied();
+        if (identity && !divide)
+            return wr;
+
+        final int width  = wr.getWidth();
+        final int height = wr.getHeight();
+        DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+        final int scanStride = sppsm.getScanlineStride();
+        final int base
+            = (db.getOffset() +
+               sppsm.getOffset(wr.getMinX()-wr.getSampleModelTranslateX(),
+                               wr.getMinY()-wr.getSampleModelTranslateY()));
+        final int [] pixels = db.getBankData()[0];
+        final int [] lut = this.lut;
+        final boolean lookup = !identity;
+        final boolean lookupAlpha = !alphaIdentity;
 
-        operation.filter(srcWR, srcWR);
+        for (int y=0; y<height; y++) {
+            int sp = base + y*scanStride;
+            final int end = sp + width;
+            while (sp < end) {
+                int pel = pixels[sp];
+                int a = pel>>>24;
+                int r = (pel >> 16) & 0xFF;
+                int g = (pel >>  8) & 0xFF;
+                int b =  pel        & 0xFF;
 
+                if (divide) {
+                    // Same arithmetic as GraphicsUtil.coerceData.
+                    if (a == 0) {
+                        r = g = b = 0xFF;
+                    } else if (a < 255) {
+                        int aFP = (0x00FF0000/a);
+                        r = ((r*aFP)>>>16)&0xFF;
+                        g = ((g*aFP)>>>16)&0xFF;
+                        b = ((b*aFP)>>>16)&0xFF;
+                    }
+                }
+
+                if (lookup) {
+                    if (lookupAlpha)
+                        a = lut[a];
+                    r = lut[256+r];
+                    g = lut[512+g];
+                    b = lut[768+b];
+                }
+                pixels[sp++] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
         return wr;
     }
+
+    private synchronized LookupOp getLookupOp() {
+        if (operation == null) {
+            byte [][] tableData = new byte[4][256];
+            for (int i=0; i<256; i++) {
+                tableData[0][i] = (byte)lut[256+i];
+                tableData[1][i] = (byte)lut[512+i];
+                tableData[2][i] = (byte)lut[768+i];
+                tableData[3][i] = (byte)lut[    i];
+            }
+
+            // Note that we create an anonymous subclass here.
+            // For what ever reason this makes the Op work correctly.
+            // If you remove this, it seems to get the color channels
+            // messed up.  The downside is that I suspect that this
+            // means we are falling into a more general, and hence
+            // slower case, but at least it works....
+            operation = new LookupOp(new ByteLookupTable(0, tableData),
+                                     hints)
+                { };
+        }
+        return operation;
+    }
 }
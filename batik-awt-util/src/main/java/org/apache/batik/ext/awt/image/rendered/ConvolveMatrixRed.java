@@ -0,0 +1,427 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Kernel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+
+/**
+ * Convolves an image with a convolution matrix as defined for the
+ * SVG feConvolveMatrix filter.  The pixels around the source are
+ * produced according to the edge mode, and the convolution works
+ * directly on packed integer ARGB data.  Zero entries of the kernel
+ * are skipped, and kernels that are the product of a column and a
+ * row vector are applied in two one dimensional passes when that
+ * takes fewer operations.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRed extends AbstractRed {
+
+    /**
+     * The kernel width and height.
+     */
+    protected int kw, kh;
+
+    /**
+     * The kernel target, the source pixel lined up with the
+     * destination pixel.
+     */
+    protected int targetX, targetY;
+
+    /**
+     * How the pixels outside the source are produced.
+     */
+    protected PadMode edgeMode;
+
+    /**
+     * True if the alpha channel of the source is kept and only the
+     * color channels are convolved.
+     */
+    protected boolean preserveAlpha;
+
+    /**
+     * The non zero taps of the kernel: the offset of the source
+     * pixel from the top left pixel of the kernel window, and the
+     * weight.
+     */
+    protected int[] tapX, tapY;
+    protected float[] tapWeight;
+
+    /**
+     * If the kernel is separable, the weights applied along each
+     * row and each column of the window, or null.
+     */
+    protected float[] rowWeights, colWeights;
+
+    /**
+     * @param src the source image, with integer packed RGB or ARGB
+     *        data.
+     * @param kernel the convolution kernel, already divided by the
+     *        divisor.
+     * @param target the position of the target pixel in the kernel.
+     * @param edgeMode how the pixels outside the source are produced.
+     * @param preserveAlpha true if only the color channels should be
+     *        convolved.
+     * @param bounds the bounds of the result.
+     */
+    public ConvolveMatrixRed(CachableRed src, Kernel kernel, Point target,
+                             PadMode edgeMode, boolean preserveAlpha,
+                             Rectangle bounds) {
+        super(); // Remember to call super.init()
+
+        if (!GraphicsUtil.is_INT_PACK_Data(src.getSampleModel(), false))
+            throw new IllegalArgumentException
+                ("ConvolveMatrixRed only works with integer packed RGB " +
+                 "and ARGB sources");
+
+        this.kw            = kernel.getWidth();
+        this.kh            = kernel.getHeight();
+        this.targetX       = target.x;
+        this.targetY       = target.y;
+        this.edgeMode      = edgeMode;
+        this.preserveAlpha = preserveAlpha;
+
+        initTaps(kernel.getKernelData(null));
+
+        ColorSpace cs = src.getColorModel().getColorSpace();
+        ColorModel cm = new DirectColorModel(cs, 32,
+                                             0x00FF0000, 0x0000FF00,
+                                             0x000000FF, 0xFF000000,
+                                             !preserveAlpha,
+                                             DataBuffer.TYPE_INT);
+
+        int defSz = AbstractTiledRed.getDefaultTileSize();
+        int tw = Math.min(bounds.width,  defSz);
+        int th = Math.min(bounds.height, defSz);
+        if (tw < 1) tw = 1;
+        if (th < 1) th = 1;
+        SampleModel sm = cm.createCompatibleSampleModel(tw, th);
+
+        init(src, bounds, cm, sm, bounds.x, bounds.y, null);
+    }
+
+    /**
+     * Sets up the taps, and the separable weights when the kernel
+     * is separable.  The kernel is flipped as in the SVG
+     * definition, so tap (i, j) of the window uses
+     * kernelMatrix(kw-i-1, kh-j-1).
+     */
+    private void initTaps(float[] kd) {
+        int n = 0;
+        float max = 0;
+        int maxI = 0;
+        for (int i=0; i<kd.length; i++) {
+            if (kd[i] != 0) n++;
+            float v = Math.abs(kd[i]);
+            if (v > max) {
+                max = v;
+                maxI = i;
+            }
+        }
+
+        tapX = new int[n];
+        tapY = new int[n];
+        tapWeight = new float[n];
+        n = 0;
+        for (int j=0; j<kh; j++) {
+            for (int i=0; i<kw; i++) {
+                float v = kd[(kh-j-1)*kw + (kw-i-1)];
+                if (v == 0) continue;
+                tapX[n] = i;
+                tapY[n] = j;
+                tapWeight[n] = v;
+                n++;
+            }
+        }
+
+        // A separable kernel is the product of its row and column
+        // through the largest entry, divided by that entry.
+        if ((n == 0) || (kw+kh >= n))
+            return;
+        int mr = maxI/kw, mc = maxI%kw;
+        float pivot = kd[maxI];
+        float[] col = new float[kh];
+        float[] row = new float[kw];
+        for (int j=0; j<kh; j++)
+            col[j] = kd[j*kw + mc]/pivot;
+        for (int i=0; i<kw; i++)
+            row[i] = kd[mr*kw + i];
+        float eps = max*1e-6f;
+        for (int j=0; j<kh; j++)
+            for (int i=0; i<kw; i++)
+                if (Math.abs(col[j]*row[i] - kd[j*kw + i]) > eps)
+                    return;
+
+        rowWeights = new float[kw];
+        colWeights = new float[kh];
+        for (int i=0; i<kw; i++)
+            rowWeights[i] = row[kw-i-1];
+        for (int j=0; j<kh; j++)
+            colWeights[j] = col[kh-j-1];
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        Rectangle r = wr.getBounds().intersection(getBounds());
+        if (r.isEmpty())
+            return wr;
+
+        // The source pixels under the kernel for all of r.
+        final int pw = r.width  + kw - 1;
+        final int ph = r.height + kh - 1;
+        int[] pad = getPaddedSource(r.x - targetX, r.y - targetY, pw, ph);
+
+        DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+        int dstOff = (db.getOffset() +
+                      sppsm.getOffset(r.x - wr.getSampleModelTranslateX(),
+                                      r.y - wr.getSampleModelTranslateY()));
+        int dstStride = sppsm.getScanlineStride();
+        int[] dst = db.getBankData()[0];
+
+        if (rowWeights != null)
+            convolveSeparable(pad, pw, ph, dst, dstOff, dstStride,
+                              r.width, r.height);
+        else
+            convolve(pad, pw, dst, dstOff, dstStride, r.width, r.height);
+        return wr;
+    }
+
+    /**
+     * Returns the pw x ph source pixels starting at (x0, y0) as
+     * packed ARGB, premultiplied unless preserveAlpha is set.  The
+     * pixels outside the source are produced according to the edge
+     * mode.
+     */
+    protected int[] getPaddedSource(int x0, int y0, int pw, int ph) {
+        CachableRed src = (CachableRed)getSources().get(0);
+        Rectangle srcR = src.getBounds();
+        int[] pad = new int[pw*ph];
+        if (srcR.isEmpty())
+            return pad;
+
+        // Source column and row of each padded column and row,
+        // relative to the source origin, or -1 for a transparent
+        // black pixel.
+        int[] cols = mapEdge(x0, pw, srcR.x, srcR.width);
+        int[] rows = mapEdge(y0, ph, srcR.y, srcR.height);
+
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+        for (int c : cols) {
+            if (c < 0) continue;
+            if (c < minX) minX = c;
+            if (c > maxX) maxX = c;
+        }
+        int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        for (int c : rows) {
+            if (c < 0) continue;
+            if (c < minY) minY = c;
+            if (c > maxY) maxY = c;
+        }
+        if ((minX > maxX) || (minY > maxY))
+            return pad;
+
+        int sw = maxX-minX+1;
+        int sh = maxY-minY+1;
+        ColorModel srcCM = src.getColorModel();
+        WritableRaster srcWR = srcCM.createCompatibleWritableRaster(sw, sh);
+        src.copyData(srcWR.createWritableTranslatedChild(srcR.x+minX,
+                                                         srcR.y+minY));
+        if (srcCM.hasAlpha())
+            GraphicsUtil.coerceData(srcWR, srcCM, !preserveAlpha);
+        int alpha = srcCM.hasAlpha() ? 0 : 0xFF000000;
+
+        DataBufferInt db = (DataBufferInt)srcWR.getDataBuffer();
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)srcWR.getSampleModel();
+        int srcOff = db.getOffset();
+        int srcStride = sppsm.getScanlineStride();
+        int[] srcPixels = db.getBankData()[0];
+
+        int p = 0;
+        for (int j=0; j<ph; j++) {
+            if (rows[j] < 0) {
+                p += pw;
+                continue;
+            }
+            int sp = srcOff + (rows[j]-minY)*srcStride - minX;
+            for (int i=0; i<pw; i++, p++) {
+                if (cols[i] >= 0)
+                    pad[p] = srcPixels[sp + cols[i]] | alpha;
+            }
+        }
+        return pad;
+    }
+
+    /**
+     * Maps the len coordinates starting at v0 to offsets in a source
+     * covering [s0, s0+sLen).  Coordinates outside the source map to
+     * -1 with ZERO_PAD, to the nearest edge with REPLICATE and wrap
+     * around with WRAP.
+     */
+    protected int[] mapEdge(int v0, int len, int s0, int sLen) {
+        int[] ret = new int[len];
+        int mode = edgeMode.getMode();
+        for (int i=0; i<len; i++) {
+            int v = v0+i;
+            if ((v >= s0) && (v < s0+sLen)) {
+                ret[i] = v-s0;
+                continue;
+            }
+            switch (mode) {
+            case PadMode.MODE_REPLICATE:
+                ret[i] = (v < s0) ? 0 : sLen-1;
+                break;
+            case PadMode.MODE_WRAP:
+                int m = (v-s0)%sLen;
+                if (m < 0) m += sLen;
+                ret[i] = m;
+                break;
+            default:
+                ret[i] = -1;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Applies the kernel taps to the padded source.
+     */
+    protected void convolve(int[] pad, int pw,
+                            int[] dst, int dstOff, int dstStride,
+                            int w, int h) {
+        final int n = tapWeight.length;
+        final int[] tapOff = new int[n];
+        for (int k=0; k<n; k++)
+            tapOff[k] = tapY[k]*pw + tapX[k];
+        final float[] weight = tapWeight;
+        final int alphaOff = targetY*pw + targetX;
+
+        for (int y=0; y<h; y++) {
+            int dp = dstOff + y*dstStride;
+            int base = y*pw;
+            for (int x=0; x<w; x++, base++) {
+                float a=0, r=0, g=0, b=0;
+                for (int k=0; k<n; k++) {
+                    final int pel = pad[base + tapOff[k]];
+                    final float wt = weight[k];
+                    a += wt*(pel>>>24);
+                    r += wt*((pel>>16)&0xFF);
+                    g += wt*((pel>> 8)&0xFF);
+                    b += wt*( pel     &0xFF);
+                }
+                dst[dp++] = toPixel(a, r, g, b, pad[base+alphaOff]);
+            }
+        }
+    }
+
+    /**
+     * Applies the kernel as a horizontal pass with rowWeights
+     * followed by a vertical pass with colWeights.
+     */
+    protected void convolveSeparable(int[] pad, int pw, int ph,
+                                     int[] dst, int dstOff, int dstStride,
+                                     int w, int h) {
+        final float[] rw = rowWeights;
+        final float[] cw = colWeights;
+
+        // Horizontal pass, 4 channels per pixel.
+        final float[] tmp = new float[ph*w*4];
+        int t = 0;
+        for (int y=0; y<ph; y++) {
+            int base = y*pw;
+            for (int x=0; x<w; x++, base++) {
+                float a=0, r=0, g=0, b=0;
+                for (int i=0; i<kw; i++) {
+                    final int pel = pad[base+i];
+                    final float wt = rw[i];
+                    a += wt*(pel>>>24);
+                    r += wt*((pel>>16)&0xFF);
+                    g += wt*((pel>> 8)&0xFF);
+                    b += wt*( pel     &0xFF);
+                }
+                tmp[t++] = a;
+                tmp[t++] = r;
+                tmp[t++] = g;
+                tmp[t++] = b;
+            }
+        }
+
+        // Vertical pass.
+        final int rowLen = w*4;
+        final int alphaOff = targetY*pw + targetX;
+        for (int y=0; y<h; y++) {
+            int dp = dstOff + y*dstStride;
+            for (int x=0; x<w; x++) {
+                float a=0, r=0, g=0, b=0;
+                int tp = y*rowLen + x*4;
+                for (int j=0; j<kh; j++, tp+=rowLen) {
+                    final float wt = cw[j];
+                    a += wt*tmp[tp];
+                    r += wt*tmp[tp+1];
+                    g += wt*tmp[tp+2];
+                    b += wt*tmp[tp+3];
+                }
+                dst[dp++] = toPixel(a, r, g, b, pad[y*pw+x+alphaOff]);
+            }
+        }
+    }
+
+    /**
+     * Rounds and clamps the convolved channels to a pixel.  With
+     * preserveAlpha the alpha of the source pixel is used, otherwise
+     * alpha is raised so the result stays a valid premultiplied
+     * pixel.
+     */
+    private int toPixel(float fa, float fr, float fg, float fb, int srcPel) {
+        int r = clamp(fr);
+        int g = clamp(fg);
+        int b = clamp(fb);
+        int a;
+        if (preserveAlpha) {
+            a = srcPel>>>24;
+        } else {
+            a = clamp(fa);
+            if (a < r) a = r;
+            if (a < g) a = g;
+            if (a < b) a = b;
+        }
+        return (a<<24) | (r<<16) | (g<<8) | b;
+    }
+
+    private static int clamp(float v) {
+        int i = (int)(v + 0.5f);
+        if ((i & 0xFFFFFF00) != 0)
+            i = (v < 0) ? 0 : 255;
+        return i;
+    }
+}
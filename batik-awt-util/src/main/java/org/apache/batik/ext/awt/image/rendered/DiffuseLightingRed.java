@@ -114,100 +114,91 @@ public class DiffuseLightingRed extends AbstractRed{
                              minY-wr.getSampleModelTranslateY()));
 
         final int scanStride = sppsm.getScanlineStride();
+
+        final double[] N = bumpMap.getNormals(minX, minY, w, h);
+
+        // Every pixel only depends on its own normal so bands of
+        // rows can be lit in parallel.
+        ParallelBands.run(h, (long)w*h, new ParallelBands.Band() {
+                public void run(int start, int end) {
+                    genRows(pixels, offset+start*scanStride, scanStride,
+                            N, minX, minY+start, w, end-start,
+                            start*w*4, lightColor);
+                }
+            });
+
+        return wr;
+    }
+
+    /**
+     * Lights the w x h pixels starting at (x0, y0).
+     * @param p the offset of pixel (x0, y0) in pixels.
+     * @param N the normals, as returned by BumpMap.getNormals.
+     * @param n the offset of the normal of pixel (x0, y0) in N.
+     */
+    private void genRows(final int[] pixels, int p, final int scanStride,
+                         final double[] N, final int x0, final int y0,
+                         final int w, final int h, int n,
+                         final double[] lightColor) {
+        // Copy variable on stack for faster access in tight loop
+        final double kd255 = 255.*kd;
+        final double lr = lightColor[0];
+        final double lg = lightColor[1];
+        final double lb = lightColor[2];
         final int adjust = scanStride - w;
-        int p = offset;
-        int r=0, g=0, b=0;
-        int i=0, j=0;
-
-        // System.out.println("Getting diffuse red : " + minX + "/" + minY + "/" + w + "/" + h);
-        double x = scaleX*minX;
-        double y = scaleY*minY;
-        double NL = 0;
-
-        // final double[] L = new double[3];
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
-        if(!light.isConstant()){
-            final double[][] LA = new double[w][3];
-
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    // Get Light Vector
-                    final double [] L = LA[j];
-                    
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
-                    
-                    r = (int)(NL*lightColor[0]);
-                    g = (int)(NL*lightColor[1]);
-                    b = (int)(NL*lightColor[2]);
-                    
-                    // If any high bits are set we are not in range.
-                    // If the highest bit is set then we are negative so
-                    // clamp to zero else we are > 255 so clamp to 255.
-                    if ((r & 0xFFFFFF00) != 0)
-                        r = ((r & 0x80000000) != 0)?0:255;
-                    if ((g & 0xFFFFFF00) != 0)
-                        g = ((g & 0x80000000) != 0)?0:255;
-                    if ((b & 0xFFFFFF00) != 0)
-                        b = ((b & 0x80000000) != 0)?0:255;
-                    
-                    pixels[p++] = (0xff000000
-                                   |
-                                   r << 16
-                                   |
-                                   g << 8
-                                   |
-                                   b);
-                    
+        double NL;
+
+        if (light.isConstant()) {
+            // Constant light, such as a DistantLight: the light
+            // vector is the same for all the pixels.
+            final double[] L = new double[3];
+            light.getLight(0, 0, 0, L);
+            final double L0 = L[0], L1 = L[1], L2 = L[2];
+
+            for (int i=0; i<h; i++) {
+                for (int j=0; j<w; j++, n+=4) {
+                    NL = kd255*(N[n]*L0 + N[n+1]*L1 + N[n+2]*L2);
+                    pixels[p++] = toPixel(NL*lr, NL*lg, NL*lb);
                 }
                 p += adjust;
             }
-        }
-        else{
-            // System.out.println(">>>>>>>> Processing constant light ...");
-            // Constant light
+        } else {
+            // PointLight or SpotLight: the light vector depends
+            // on the position of each pixel.
             final double[] L = new double[3];
-            light.getLight(0, 0, 0, L);
-
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double[] N = NR[j];
-                    
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
-                    
-                    r = (int)(NL*lightColor[0]);
-                    g = (int)(NL*lightColor[1]);
-                    b = (int)(NL*lightColor[2]);
-                    
-                    // If any high bits are set we are not in range.
-                    // If the highest bit is set then we are negative so
-                    // clamp to zero else we are > 255 so clamp to 255.
-                    if ((r & 0xFFFFFF00) != 0)
-                        r = ((r & 0x80000000) != 0)?0:255;
-                    if ((g & 0xFFFFFF00) != 0)
-                        g = ((g & 0x80000000) != 0)?0:255;
-                    if ((b & 0xFFFFFF00) != 0)
-                        b = ((b & 0x80000000) != 0)?0:255;
-                    
-                    pixels[p++] = (0xff000000
-                                   |
-                                   r << 16
-                                   |
-                                   g << 8
-                                   |
-                                   b);
+            for (int i=0; i<h; i++) {
+                // x and y are in user space
+                final double y = scaleY*(y0+i);
+                for (int j=0; j<w; j++, n+=4) {
+                    light.getLight(scaleX*(x0+j), y, N[n+3], L);
+                    NL = kd255*(N[n]*L[0] + N[n+1]*L[1] + N[n+2]*L[2]);
+                    pixels[p++] = toPixel(NL*lr, NL*lg, NL*lb);
                 }
                 p += adjust;
             }
         }
-        
-        return wr;
+    }
+
+    /**
+     * Returns the opaque pixel with the given color components,
+     * clamped to [0, 255].
+     */
+    private static int toPixel(double red, double green, double blue) {
+        int r = (int)red;
+        int g = (int)green;
+        int b = (int)blue;
+
+        // If any high bits are set we are not in range.
+        // If the highest bit is set then we are negative so
+        // clamp to zero else we are > 255 so clamp to 255.
+        if ((r & 0xFFFFFF00) != 0)
+            r = ((r & 0x80000000) != 0)?0:255;
+        if ((g & 0xFFFFFF00) != 0)
+            g = ((g & 0x80000000) != 0)?0:255;
+        if ((b & 0xFFFFFF00) != 0)
+            b = ((b & 0x80000000) != 0)?0:255;
+
+        return 0xff000000 | r << 16 | g << 8 | b;
     }
 
 }
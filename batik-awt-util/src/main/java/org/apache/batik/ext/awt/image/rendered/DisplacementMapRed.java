@@ -25,6 +25,8 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.batik.ext.awt.image.ARGBChannel;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
@@ -35,13 +37,18 @@ import org.apache.batik.ext.awt.image.PadMode;
  * This implementation of RenderableImage will render its input
  * GraphicsNode on demand for tiles.
  *
+ * The part of the image the displacements of the requested area
+ * reach is fetched once, premultiplied, and then sampled with fixed
+ * point bilinear interpolation.  When that part is much larger than
+ * the requested area, as with large scales, the image is instead
+ * fetched tile by tile as the displacements use them.  The displacement for each of the 256
+ * possible channel values is computed once per instance, and large
+ * requests are split in bands of rows processed in parallel.
+ *
  * @author <a href="mailto:vincent.hardy@eng.sun.com">Vincent Hardy</a>
  * @version $Id$
  */
 public class DisplacementMapRed extends AbstractRed {
-    // Use these to control timing and Nearest Neighbot vs. Bilinear Interp.
-    private static final boolean TIME   = false;
-    private static final boolean USE_NN = false;
 
     /**
      * The displacement scale factor along the x axis
@@ -84,35 +91,18 @@ public class DisplacementMapRed extends AbstractRed {
     RenderingHints hints;
 
     /**
-     * Computed tile Offsets Soft referencces to TileOffsets instances...
+     * The displacement, in 17.15 fixed point, for each value of the
+     * x and y channels of the displacement map.
      */
-    TileOffsets [] xOffsets;
-    TileOffsets [] yOffsets;
-
-    static class TileOffsets {
-        int [] tile;
-        int [] off;
-        TileOffsets(int len, int base, int stride,
-                    int loc, int endLoc, int slop, int tile, int endTile) {
-            this.tile = new int[len+1];
-            this.off  = new int[len+1];
-
-            if (tile == endTile) endLoc -= slop;
-
-            for (int i=0; i<len; i++) {
-                this.tile[i] = tile;
-                this.off [i] = base+(loc*stride);
-                loc++;
-                if (loc == endLoc) {
-                    loc = 0;
-                    tile++;
-                    if (tile == endTile) endLoc -=slop;
-                }
-            }
-            this.tile[len] = this.tile[len-1];
-            this.off [len] = this.off [len-1];
-        }
-    }
+    private final int [] xDisplace = new int[256];
+    private final int [] yDisplace = new int[256];
+
+    /**
+     * The image is fetched in one piece for a request when that
+     * piece is at most this many times as large as the request (or
+     * as a default tile, for small requests).
+     */
+    private static final int MAX_GATHER_RATIO = 4;
 
     /**
      * @param image the image to distort
@@ -148,8 +138,9 @@ public class DisplacementMapRed extends AbstractRed {
         this.yChannel = yChannel;
         this.hints   = rh;
 
-        maxOffX = (int)Math.ceil(scaleX/2);
-        maxOffY = (int)Math.ceil(scaleY/2);
+        // The scale may be negative, the reach is the same either way.
+        maxOffX = (int)Math.ceil(Math.abs(scaleX)/2);
+        maxOffY = (int)Math.ceil(Math.abs(scaleY)/2);
 
         Rectangle rect = image.getBounds();
 
@@ -159,341 +150,165 @@ public class DisplacementMapRed extends AbstractRed {
         image = new PadRed(image, r, PadMode.ZERO_PAD, null);
         image = new TileCacheRed(image);
         this.image = image;
-        ColorModel cm = image.getColorModel();
-        if (!USE_NN)
-            // For Bilinear we need alpha premult.
-            cm = GraphicsUtil.coerceColorModel(cm, true);
+
+        // For Bilinear we need alpha premult.
+        ColorModel cm = GraphicsUtil.coerceColorModel(image.getColorModel(),
+                                                      true);
 
         init(image, rect, cm, image.getSampleModel(),
              rect.x, rect.y, null);
 
-        xOffsets = new TileOffsets[getNumXTiles()];
-        yOffsets = new TileOffsets[getNumYTiles()];
+        // Fixed point representation of scale factor.
+        final int fpScaleX = (int)((scaleX/255.0)*(1<<15)+0.5);
+        final int fpAdjX   = (int)(-127.5*fpScaleX-0.5);
+        final int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
+        final int fpAdjY   = (int)(-127.5*fpScaleY-0.5);
+
+        for (int i=0; i<256; i++) {
+            xDisplace[i] = fpScaleX*i + fpAdjX;
+            yDisplace[i] = fpScaleY*i + fpAdjY;
+        }
     }
 
     public WritableRaster copyData(WritableRaster wr) {
-        copyToRaster(wr);
-        return wr;
-    }
+        if (!GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), true)) {
+            // Goes through getTile, which hands us compatible tiles.
+            copyToRaster(wr);
+            return wr;
+        }
 
-    public Raster getTile(int tileX, int tileY) {
-        WritableRaster dest = makeTile(tileX, tileY);
-        Rectangle srcR   = dest.getBounds();
+        Rectangle r = wr.getBounds().intersection(getBounds());
+        if (r.isEmpty())
+            return wr;
 
         // Get Raster from offsetes
-        Raster     mapRas = offsets.getData(srcR);
+        Raster     mapRas = offsets.getData(r);
         ColorModel mapCM  = offsets.getColorModel();
         // ensure map isn't pre-multiplied.
         GraphicsUtil.coerceData((WritableRaster)mapRas, mapCM, false);
 
-        TileOffsets xinfo = getXOffsets(tileX);
-        TileOffsets yinfo = getYOffsets(tileY);
-
-        if (USE_NN)
-            filterNN(mapRas, dest,
-                     xinfo.tile, xinfo.off,
-                     yinfo.tile, yinfo.off);
-        else if (image.getColorModel().isAlphaPremultiplied())
-            filterBL(mapRas, dest,
-                     xinfo.tile, xinfo.off,
-                     yinfo.tile, yinfo.off);
-        else
-            filterBLPre(mapRas, dest,
-                        xinfo.tile, xinfo.off,
-                        yinfo.tile, yinfo.off);
-
-        return dest;
-    }
-
-    public TileOffsets getXOffsets(int xTile) {
-        TileOffsets ret = xOffsets[xTile-getMinTileX()];
-        if (ret != null)
-            return ret;
-
-        SinglePixelPackedSampleModel sppsm;
-        sppsm = (SinglePixelPackedSampleModel)getSampleModel();
-        int base  = sppsm.getOffset(0, 0);
-        int tw    = sppsm.getWidth();
-
-        // The span we need to cover in the input image.
-        int width = tw+2*maxOffX;
-
-        // The start and end X in image's tile coordinate system...
-        int x0      = getTileGridXOffset() + xTile * tw - maxOffX
-                          - image.getTileGridXOffset();
-        int x1      = x0 + width-1;
-
-        int tile    = (int)Math.floor(x0/(double)tw);
-        int endTile = (int)Math.floor(x1/(double)tw);
-        int loc     = x0-(tile*tw);
-        int endLoc  = tw;
-
-        // Amount not used from right edge tile
-        int slop = ((endTile+1)*tw-1) - x1;
-
-        ret = new TileOffsets(width, base, 1,
-                              loc, endLoc, slop, tile, endTile);
-
-        xOffsets[xTile-getMinTileX()] = ret;
-        return ret;
-    }
-
-    public TileOffsets getYOffsets(int yTile) {
-        TileOffsets ret = yOffsets[yTile-getMinTileY()];
-        if (ret != null)
-            return ret;
-
-        SinglePixelPackedSampleModel sppsm;
-        sppsm = (SinglePixelPackedSampleModel)getSampleModel();
-        int stride  = sppsm.getScanlineStride();
-        int th      = sppsm.getHeight();
-
-        // The span we need to cover in the input image.
-        int height  = th+2*maxOffY;
-
-        // The start and end Y in image's tile coordinate system...
-        int y0      = getTileGridYOffset() + yTile * th - maxOffY
-                          - image.getTileGridYOffset();
-        int y1      = y0 + height - 1;
-
-        int tile    = (int)Math.floor(y0/(double)th);
-        int endTile = (int)Math.floor(y1/(double)th);
-        int loc     = y0-(tile*th);
-        int endLoc  = th;
-
-        // Amount not used from bottom edge tile
-        int slop = ((endTile+1)*th-1) - y1;
+        // Only the part of the image the displacements reach is
+        // needed, and outside of the image everything is
+        // transparent.  The one pixel border lets the pixels on the
+        // edges be interpolated with the transparent ones.
+        Rectangle imgR = getReach(mapRas, r).intersection(getBounds());
+        if (imgR.isEmpty()) {
+            int [] zeros = new int[r.width];
+            for (int y=r.y; y<r.y+r.height; y++)
+                wr.setDataElements(r.x, y, r.width, 1, zeros);
+            return wr;
+        }
+        imgR.grow(1, 1);
+
+        int defSz = AbstractTiledRed.getDefaultTileSize();
+        long maxArea = MAX_GATHER_RATIO *
+            Math.max((long)r.width*r.height, (long)defSz*defSz);
+        if ((long)imgR.width*imgR.height > maxArea) {
+            filterTiles(mapRas, r, wr);
+            return wr;
+        }
 
-        ret = new TileOffsets(height, 0, stride,
-                              loc, endLoc, slop, tile, endTile);
+        ColorModel imgCM = image.getColorModel();
+        WritableRaster imgWR = imgCM.createCompatibleWritableRaster
+            (imgR.width, imgR.height);
+        image.copyData(imgWR.createWritableTranslatedChild(imgR.x, imgR.y));
+        GraphicsUtil.coerceData(imgWR, imgCM, true);
 
-        yOffsets[yTile-getMinTileY()] = ret;
-        return ret;
+        filterBL(mapRas, r, imgWR, imgR, wr);
+        return wr;
     }
 
-    public void filterBL(Raster off, WritableRaster dst,
-                         int [] xTile, int [] xOff,
-                         int [] yTile, int [] yOff) {
-        final int w      = dst.getWidth();
-        final int h      = dst.getHeight();
-        final int xStart = maxOffX;
-        final int yStart = maxOffY;
-        final int xEnd   = xStart+w;
-        final int yEnd   = yStart+h;
-
-        // Access the integer buffer for each image.
-        DataBufferInt dstDB = (DataBufferInt)dst.getDataBuffer();
+    /**
+     * Returns the part of the image the displacements of the map
+     * pixels in r reach, including the pixels right and below the
+     * displaced positions that the bilinear filter also uses.
+     */
+    protected Rectangle getReach(Raster off, Rectangle r) {
         DataBufferInt offDB = (DataBufferInt)off.getDataBuffer();
-
-        // Offset defines where in the stack the real data begin
-        SinglePixelPackedSampleModel dstSPPSM, offSPPSM;
-
-        dstSPPSM = (SinglePixelPackedSampleModel)dst.getSampleModel();
-        final int dstOff = dstDB.getOffset() +
-            dstSPPSM.getOffset(dst.getMinX() - dst.getSampleModelTranslateX(),
-                               dst.getMinY() - dst.getSampleModelTranslateY());
-
+        SinglePixelPackedSampleModel offSPPSM;
         offSPPSM = (SinglePixelPackedSampleModel)off.getSampleModel();
         final int offOff = offDB.getOffset() +
-            offSPPSM.getOffset(dst.getMinX() - off.getSampleModelTranslateX(),
-                               dst.getMinY() - off.getSampleModelTranslateY());
-
-        // Stride is the distance between two consecutive column elements,
-        // in the one-dimention dataBuffer
-        final int dstScanStride = dstSPPSM.getScanlineStride();
+            offSPPSM.getOffset(r.x - off.getSampleModelTranslateX(),
+                               r.y - off.getSampleModelTranslateY());
         final int offScanStride = offSPPSM.getScanlineStride();
-
-        final int dstAdjust = dstScanStride - w;
-        final int offAdjust = offScanStride - w;
-
-        // Access the pixel value array
-        final int[] dstPixels = dstDB.getBankData()[0];
         final int[] offPixels = offDB.getBankData()[0];
-
-        // Below is the number of shifts for each axis
-        // e.g when xChannel is ALPHA, the pixel needs
-        // to be shifted 24, RED 16, GREEN 8 and BLUE 0
         final int xShift = xChannel.toInt()*8;
         final int yShift = yChannel.toInt()*8;
 
-        // The pointer of img and dst indicating where the pixel values are
-        int dp = dstOff, ip = offOff;
-
-        // Fixed point representation of scale factor.
-        final int fpScaleX = (int)((scaleX/255.0)*(1<<15)+0.5);
-        final int fpAdjX   = (int)(-127.5*fpScaleX-0.5);
-        final int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
-        final int fpAdjY   = (int)(-127.5*fpScaleY-0.5);
-
-        long start = System.currentTimeMillis();
-
-        int pel00, pel01, pel10, pel11, xFrac, yFrac, newPel;
-        int sp0, sp1, pel0, pel1;
-
-        int x, y, x0, y0, xDisplace, yDisplace, dPel;
-
-        int xt=xTile[0]-1, yt=yTile[0]-1, xt1, yt1;
-        int [] imgPix = null;
-
-        for (y=yStart; y<yEnd; y++) {
-            for (x=xStart; x<xEnd; x++, dp++, ip++) {
-                dPel = offPixels[ip];
-
-                xDisplace = (fpScaleX*((dPel>>xShift)&0xff))+fpAdjX;
-                yDisplace = (fpScaleY*((dPel>>yShift)&0xff))+fpAdjY;
-
-                x0 = x+(xDisplace>>15);
-                y0 = y+(yDisplace>>15);
-
-                if ((xt != xTile[x0]) ||
-                    (yt != yTile[y0])) {
-                    xt = xTile[x0]; yt = yTile[y0];
-                    imgPix = ((DataBufferInt)image.getTile(xt, yt)
-                              .getDataBuffer()).getBankData()[0];
-                }
-                pel00  = imgPix[xOff[x0]+yOff[y0]];
-
-                xt1 = xTile[x0+1];
-                yt1 = yTile[y0+1];
-                if ((yt == yt1)) {
-                    // Same tile vertically, check across...
-                    if ((xt == xt1)) {
-                        // All from same tile..
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                    } else {
-                        // Different tile horizontally...
-                        pel01  = imgPix[xOff[x0]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                        xt = xt1;
-                    }
-                } else {
-                    // Steped into next tile down, check across...
-                    if ((xt == xt1)) {
-                        // Different tile horizontally.
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                        yt = yt1;
-                    } else {
-                        // Ugg we are at the 4way intersection of tiles...
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel01  = imgPix[xOff[x0]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        xt = xt1;
-                    }
-                }
-
-                xFrac = xDisplace&0x7FFF;
-                yFrac = yDisplace&0x7FFF;
-
-                // Combine the alpha channels.
-                sp0  = (pel00>>>16) & 0xFF00;
-                sp1  = (pel10>>>16) & 0xFF00;
-                pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                sp0  = (pel01>>>16) & 0xFF00;
-                sp1  = (pel11>>>16) & 0xFF00;
-                pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                newPel = (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
-                          &0x7F800000)<<  1;
-
-                // Combine the red channels.
-                sp0  = (pel00>>  8) & 0xFF00;
-                sp1  = (pel10>>  8) & 0xFF00;
-                pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                sp0  = (pel01>>  8) & 0xFF00;
-                sp1  = (pel11>>  8) & 0xFF00;
-                pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                newPel |= (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
-                           &0x7F800000)>>> 7;
-
-                // Combine the green channels.
-                sp0  = (pel00     ) & 0xFF00;
-                sp1  = (pel10     ) & 0xFF00;
-                pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                sp0  = (pel01     ) & 0xFF00;
-                sp1  = (pel11     ) & 0xFF00;
-                pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                newPel |= (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
-                           &0x7F800000)>>>15;
-
-                // Combine the blue channels.
-                sp0  = (pel00<<  8) & 0xFF00;
-                sp1  = (pel10<<  8) & 0xFF00;
-                pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                sp0  = (pel01<<  8) & 0xFF00;
-                sp1  = (pel11<<  8) & 0xFF00;
-                pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                newPel |= (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
-                           &0x7F800000)>>>23;
-
-                dstPixels[dp] = newPel;
+        // The displacement is linear in the channel value so the
+        // extreme values give the extreme displacements.
+        int minXV = 255, maxXV = 0, minYV = 255, maxYV = 0;
+        for (int y=0; y<r.height; y++) {
+            int ip = offOff + y*offScanStride;
+            for (int x=0; x<r.width; x++, ip++) {
+                int dPel = offPixels[ip];
+                int xv = (dPel>>xShift)&0xff;
+                int yv = (dPel>>yShift)&0xff;
+                if (xv < minXV) minXV = xv;
+                if (xv > maxXV) maxXV = xv;
+                if (yv < minYV) minYV = yv;
+                if (yv > maxYV) maxYV = yv;
             }
-
-            dp += dstAdjust;
-            ip += offAdjust;
         }
+        int dx0 = Math.min(xDisplace[minXV], xDisplace[maxXV])>>15;
+        int dx1 = Math.max(xDisplace[minXV], xDisplace[maxXV])>>15;
+        int dy0 = Math.min(yDisplace[minYV], yDisplace[maxYV])>>15;
+        int dy1 = Math.max(yDisplace[minYV], yDisplace[maxYV])>>15;
+        return new Rectangle(r.x+dx0, r.y+dy0,
+                             r.width +dx1-dx0+1, r.height+dy1-dy0+1);
+    }
 
-        if (TIME) {
-            long end = System.currentTimeMillis();
-            System.out.println("Time: " + (end-start));
-        }
-    }// end of the filter() method for Raster
-
-    public void filterBLPre(Raster off, WritableRaster dst,
-                            int [] xTile, int [] xOff,
-                            int [] yTile, int [] yOff) {
-        final int w      = dst.getWidth();
-        final int h      = dst.getHeight();
-        final int xStart = maxOffX;
-        final int yStart = maxOffY;
-        final int xEnd   = xStart+w;
-        final int yEnd   = yStart+h;
+    /**
+     * Fills the area r of dst with the image pixels in img (which
+     * covers imgR) displaced by the map pixels in off.  Displaced
+     * positions that fall outside imgR give transparent pixels.
+     */
+    protected void filterBL(Raster off, Rectangle r,
+                            Raster img, Rectangle imgR,
+                            WritableRaster dst) {
+        final int w = r.width;
 
         // Access the integer buffer for each image.
         DataBufferInt dstDB = (DataBufferInt)dst.getDataBuffer();
         DataBufferInt offDB = (DataBufferInt)off.getDataBuffer();
+        DataBufferInt imgDB = (DataBufferInt)img.getDataBuffer();
 
         // Offset defines where in the stack the real data begin
-        SinglePixelPackedSampleModel dstSPPSM, offSPPSM;
+        SinglePixelPackedSampleModel dstSPPSM, offSPPSM, imgSPPSM;
 
         dstSPPSM = (SinglePixelPackedSampleModel)dst.getSampleModel();
         final int dstOff = dstDB.getOffset() +
-            dstSPPSM.getOffset(dst.getMinX() - dst.getSampleModelTranslateX(),
-                               dst.getMinY() - dst.getSampleModelTranslateY());
+            dstSPPSM.getOffset(r.x - dst.getSampleModelTranslateX(),
+                               r.y - dst.getSampleModelTranslateY());
 
         offSPPSM = (SinglePixelPackedSampleModel)off.getSampleModel();
         final int offOff = offDB.getOffset() +
-            offSPPSM.getOffset(dst.getMinX() - off.getSampleModelTranslateX(),
-                               dst.getMinY() - off.getSampleModelTranslateY());
+            offSPPSM.getOffset(r.x - off.getSampleModelTranslateX(),
+                               r.y - off.getSampleModelTranslateY());
+
+        imgSPPSM = (SinglePixelPackedSampleModel)img.getSampleModel();
+        final int imgScanStride = imgSPPSM.getScanlineStride();
+        final int imgOff = imgDB.getOffset() +
+            imgSPPSM.getOffset(img.getMinX() - img.getSampleModelTranslateX(),
+                               img.getMinY() - img.getSampleModelTranslateY());
+
+        // The undisplaced position of the first pixel of r relative
+        // to imgR, and the last positions whose pixel right and
+        // below is still in imgR.
+        final int x0 = r.x - imgR.x;
+        final int y0 = r.y - imgR.y;
+        final int lastX = imgR.width-2;
+        final int lastY = imgR.height-2;
 
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
         final int dstScanStride = dstSPPSM.getScanlineStride();
         final int offScanStride = offSPPSM.getScanlineStride();
 
-        final int dstAdjust = dstScanStride - w;
-        final int offAdjust = offScanStride - w;
-
         // Access the pixel value array
         final int[] dstPixels = dstDB.getBankData()[0];
         final int[] offPixels = offDB.getBankData()[0];
+        final int[] imgPixels = imgDB.getBankData()[0];
 
         // Below is the number of shifts for each axis
         // e.g when xChannel is ALPHA, the pixel needs
@@ -501,255 +316,186 @@ public class DisplacementMapRed extends AbstractRed {
         final int xShift = xChannel.toInt()*8;
         final int yShift = yChannel.toInt()*8;
 
-        // The pointer of img and dst indicating where the pixel values are
-        int dp = dstOff, ip = offOff;
-
-        // Fixed point representation of scale factor.
-        // Fixed point representation of scale factor.
-        final int fpScaleX = (int)((scaleX/255.0)*(1<<15)+0.5);
-        final int fpAdjX   = (int)(-127.5*fpScaleX-0.5);
-        final int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
-        final int fpAdjY   = (int)(-127.5*fpScaleY-0.5);
-
-        long start = System.currentTimeMillis();
-
-        int pel00, pel01, pel10, pel11, xFrac, yFrac, newPel;
-        int sp0, sp1, pel0, pel1, a00, a01, a10, a11;
-
-        int x, y, x0, y0, xDisplace, yDisplace, dPel;
-        final int norm = (1<<24)/255;
-
-        int xt=xTile[0]-1, yt=yTile[0]-1, xt1, yt1;
-        int [] imgPix = null;
-
-        for (y=yStart; y<yEnd; y++) {
-            for (x=xStart; x<xEnd; x++, dp++, ip++) {
-                dPel = offPixels[ip];
-
-                xDisplace = (fpScaleX*((dPel>>xShift)&0xff))+fpAdjX;
-                yDisplace = (fpScaleY*((dPel>>yShift)&0xff))+fpAdjY;
-
-                x0 = x+(xDisplace>>15);
-                y0 = y+(yDisplace>>15);
-
-                if ((xt != xTile[x0]) || (yt != yTile[y0])) {
-                    xt = xTile[x0];
-                    yt = yTile[y0];
-                    imgPix = ((DataBufferInt)image.getTile(xt, yt)
-                              .getDataBuffer()).getBankData()[0];
-                }
-                pel00  = imgPix[xOff[x0]+yOff[y0]];
-
-                xt1 = xTile[x0+1];
-                yt1 = yTile[y0+1];
-                if ((yt == yt1)) {
-                    // Same tile vertically, check across...
-                    if ((xt == xt1)) {
-                        // All from same tile..
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                    } else {
-                        // Different tile horizontally...
-                        pel01  = imgPix[xOff[x0]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                        xt = xt1;
-                    }
-                } else {
-                    // Steped into next tile down, check across...
-                    if ((xt == xt1)) {
-                        // Different tile horizontally.
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel01  = imgPix[xOff[x0]  +yOff[y0+1]];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-                        yt = yt1;
-                    } else {
-                        // Ugg we are at the 4way intersection of tiles...
-                        imgPix = ((DataBufferInt)image.getTile(xt, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel01  = imgPix[xOff[x0]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt1)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel11  = imgPix[xOff[x0+1]+yOff[y0+1]];
-
-                        imgPix = ((DataBufferInt)image.getTile(xt1, yt)
-                                  .getDataBuffer()).getBankData()[0];
-                        pel10  = imgPix[xOff[x0+1]+yOff[y0]];
-                        xt = xt1;
+        final int [] xDisplace = this.xDisplace;
+        final int [] yDisplace = this.yDisplace;
+
+        ParallelBands.run(r.height, (long)w*r.height, new ParallelBands.Band() {
+                public void run(int start, int end) {
+                    for (int y=start; y<end; y++) {
+                        int dp = dstOff + y*dstScanStride;
+                        int ip = offOff + y*offScanStride;
+                        for (int x=0; x<w; x++) {
+                            int dPel = offPixels[ip++];
+                            int xd = xDisplace[(dPel>>xShift)&0xff];
+                            int yd = yDisplace[(dPel>>yShift)&0xff];
+
+                            int ix = x0 + x + (xd>>15);
+                            int iy = y0 + y + (yd>>15);
+                            if ((ix < 0) || (iy < 0) ||
+                                (ix > lastX) || (iy > lastY)) {
+                                dstPixels[dp++] = 0;
+                                continue;
+                            }
+                            int p = imgOff + iy*imgScanStride + ix;
+                            dstPixels[dp++] = interpolate
+                                (imgPixels[p],   imgPixels[p+1],
+                                 imgPixels[p+imgScanStride],
+                                 imgPixels[p+imgScanStride+1],
+                                 xd&0x7FFF, yd&0x7FFF);
+                        }
                     }
                 }
-
-                xFrac = xDisplace&0x7FFF;
-                yFrac = yDisplace&0x7FFF;
-
-                // Combine the alpha channels.
-                sp0  = (pel00>>>16) & 0xFF00;
-                sp1  = (pel10>>>16) & 0xFF00;
-                pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                a00 = ((sp0>>8)*norm + 0x80)>>8;
-                a10 = ((sp1>>8)*norm + 0x80)>>8;
-
-                sp0  = (pel01>>>16) & 0xFF00;
-                sp1  = (pel11>>>16) & 0xFF00;
-                pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                a01 = ((sp0>>8)*norm + 0x80)>>8;
-                a11 = ((sp1>>8)*norm + 0x80)>>8;
-                newPel = (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
-                          &0x7F800000)<<  1;
-
-                // Combine the red channels.
-                sp0  = ((((pel00>> 16) & 0xFF)*a00) + 0x80)>>8;
-                sp1  = ((((pel10>> 16) & 0xFF)*a10) + 0x80)>>8;
-                pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                sp0  = ((((pel01>> 16) & 0xFF)*a01) + 0x80)>>8;
-                sp1  = ((((pel11>> 16) & 0xFF)*a11) + 0x80)>>8;
-                pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                newPel |= (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
-                           &0x7F800000)>>> 7;
-
-                // Combine the green channels.
-                sp0  = ((((pel00>> 8) & 0xFF)*a00) + 0x80)>>8;
-                sp1  = ((((pel10>> 8) & 0xFF)*a10) + 0x80)>>8;
-                pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                sp0  = ((((pel01>> 8) & 0xFF)*a01) + 0x80)>>8;
-                sp1  = ((((pel11>> 8) & 0xFF)*a11) + 0x80)>>8;
-                pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                newPel |= (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
-                           &0x7F800000)>>>15;
-
-                // Combine the blue channels.
-                sp0  = (((pel00 & 0xFF)*a00) + 0x80)>>8;
-                sp1  = (((pel10 & 0xFF)*a10) + 0x80)>>8;
-                pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                sp0  = (((pel01 & 0xFF)*a01) + 0x80)>>8;
-                sp1  = (((pel11 & 0xFF)*a11) + 0x80)>>8;
-                pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
-                newPel |= (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
-                           &0x7F800000)>>>23;
-
-                dstPixels[dp] = newPel;
-            }
-
-            dp += dstAdjust;
-            ip += offAdjust;
-        }
-
-        if (TIME) {
-            long end = System.currentTimeMillis();
-            System.out.println("Time: " + (end-start));
-        }
-    }// end of the filter() method for Raster
+            });
+    }
 
     /**
-     * Does displacement map using Nearest neighbor interpolation
-     *
-     * @param off the displacement map
-     * @param dst stores the filtered image. If null, a destination will
-     *        be created. img and dst can refer to the same Raster, in
-     *        which situation the img will be modified.
+     * Fills the area r of dst like filterBL, but reads the image
+     * tile by tile as the displaced positions reach them, so only the
+     * tiles that are used are fetched.
      */
-    public void filterNN(Raster off, WritableRaster dst,
-                         int [] xTile, int [] xOff,
-                         int [] yTile, int [] yOff) {
-        final int w      = dst.getWidth();
-        final int h      = dst.getHeight();
-        final int xStart = maxOffX;
-        final int yStart = maxOffY;
-        final int xEnd   = xStart+w;
-        final int yEnd   = yStart+h;
-
-        // Access the integer buffer for each image.
+    protected void filterTiles(Raster off, Rectangle r,
+                               WritableRaster dst) {
         DataBufferInt dstDB = (DataBufferInt)dst.getDataBuffer();
         DataBufferInt offDB = (DataBufferInt)off.getDataBuffer();
-
-        // Offset defines where in the stack the real data begin
         SinglePixelPackedSampleModel dstSPPSM, offSPPSM;
-
         dstSPPSM = (SinglePixelPackedSampleModel)dst.getSampleModel();
-        final int dstOff = dstDB.getOffset() +
-            dstSPPSM.getOffset(dst.getMinX() - dst.getSampleModelTranslateX(),
-                               dst.getMinY() - dst.getSampleModelTranslateY());
-
         offSPPSM = (SinglePixelPackedSampleModel)off.getSampleModel();
+        final int dstOff = dstDB.getOffset() +
+            dstSPPSM.getOffset(r.x - dst.getSampleModelTranslateX(),
+                               r.y - dst.getSampleModelTranslateY());
         final int offOff = offDB.getOffset() +
-            offSPPSM.getOffset(off.getMinX() - off.getSampleModelTranslateX(),
-                               off.getMinY() - off.getSampleModelTranslateY());
-
-        // Stride is the distance between two consecutive column elements,
-        // in the one-dimention dataBuffer
+            offSPPSM.getOffset(r.x - off.getSampleModelTranslateX(),
+                               r.y - off.getSampleModelTranslateY());
         final int dstScanStride = dstSPPSM.getScanlineStride();
         final int offScanStride = offSPPSM.getScanlineStride();
-
-        final int dstAdjust = dstScanStride - w;
-        final int offAdjust = offScanStride - w;
-
-        // Access the pixel value array
         final int[] dstPixels = dstDB.getBankData()[0];
         final int[] offPixels = offDB.getBankData()[0];
-
-        // Below is the number of shifts for each axis
-        // e.g when xChannel is ALPHA, the pixel needs
-        // to be shifted 24, RED 16, GREEN 8 and BLUE 0
         final int xShift = xChannel.toInt()*8;
         final int yShift = yChannel.toInt()*8;
 
-        final int fpScaleX = (int)((scaleX/255.0)*(1<<15)+0.5);
-        final int fpScaleY = (int)((scaleY/255.0)*(1<<15)+0.5);
-
-        // Calculate the shift to make '.5' no movement.
-        // This also includes rounding factor (0x4000) for Fixed Point stuff.
-        final int fpAdjX   = (int)(-127.5*fpScaleX-0.5) + 0x4000;
-        final int fpAdjY   = (int)(-127.5*fpScaleY-0.5) + 0x4000;
-
-        // The pointer of img and dst indicating where the pixel values are
-        int dp = dstOff, ip = offOff;
-
-        long start = System.currentTimeMillis();
-        int y=yStart, xt=xTile[0]-1, yt=yTile[0]-1;
-        int [] imgPix = null;
-
-        int x0, y0, xDisplace, yDisplace, dPel;
-        while (y<yEnd) {
-            int x=xStart;
-            while (x<xEnd) {
-                dPel = offPixels[ip];
-
-                xDisplace = (fpScaleX*((dPel>>xShift)&0xff))+fpAdjX;
-                yDisplace = (fpScaleY*((dPel>>yShift)&0xff))+fpAdjY;
-
-                x0 = x+(xDisplace>>15);
-                y0 = y+(yDisplace>>15);
+        ImageTiles tiles = new ImageTiles();
+        for (int y=0; y<r.height; y++) {
+            int dp = dstOff + y*dstScanStride;
+            int ip = offOff + y*offScanStride;
+            for (int x=0; x<r.width; x++) {
+                int dPel = offPixels[ip++];
+                int xd = xDisplace[(dPel>>xShift)&0xff];
+                int yd = yDisplace[(dPel>>yShift)&0xff];
+                int ix = r.x + x + (xd>>15);
+                int iy = r.y + y + (yd>>15);
+                dstPixels[dp++] = interpolate
+                    (tiles.getPixel(ix, iy),   tiles.getPixel(ix+1, iy),
+                     tiles.getPixel(ix, iy+1), tiles.getPixel(ix+1, iy+1),
+                     xd&0x7FFF, yd&0x7FFF);
+            }
+        }
+    }
 
-                if ((xt != xTile[x0]) ||
-                    (yt != yTile[y0])) {
-                    xt = xTile[x0]; yt = yTile[y0];
-                    imgPix = ((DataBufferInt)image.getTile(xt, yt)
-                              .getDataBuffer()).getBankData()[0];
+    /**
+     * The premultiplied pixels of the image, fetched a tile at a
+     * time when first used.
+     */
+    private class ImageTiles {
+        final Rectangle bounds = getBounds();
+        final int tw = image.getTileWidth();
+        final int th = image.getTileHeight();
+        final int gx = image.getTileGridXOffset();
+        final int gy = image.getTileGridYOffset();
+        final Map tiles = new HashMap();
+        int lastTX = Integer.MIN_VALUE, lastTY;
+        int [] last;
+
+        /**
+         * Returns the pixel at (x, y), transparent outside of the
+         * image.
+         */
+        int getPixel(int x, int y) {
+            if (!bounds.contains(x, y))
+                return 0;
+            int tx = tileIndex(x-gx, tw);
+            int ty = tileIndex(y-gy, th);
+            if ((tx != lastTX) || (ty != lastTY)) {
+                Long key = Long.valueOf(((long)ty << 32) |
+                                        (tx & 0xFFFFFFFFL));
+                last = (int [])tiles.get(key);
+                if (last == null) {
+                    last = fetch(gx+tx*tw, gy+ty*th);
+                    tiles.put(key, last);
                 }
-                dstPixels[dp] = imgPix[xOff[x0]+yOff[y0]];
-
-                dp++;
-                ip++;
-                x++;
+                lastTX = tx;
+                lastTY = ty;
             }
-
-            dp += dstAdjust;
-            ip += offAdjust;
-            y++;
+            return last[(y-gy-ty*th)*tw + (x-gx-tx*tw)];
         }
-        if (TIME) {
-            long end = System.currentTimeMillis();
-            System.out.println("Time: " + (end-start));
+
+        private int [] fetch(int x, int y) {
+            ColorModel imgCM = image.getColorModel();
+            WritableRaster wr = imgCM.createCompatibleWritableRaster(tw, th);
+            image.copyData(wr.createWritableTranslatedChild(x, y));
+            GraphicsUtil.coerceData(wr, imgCM, true);
+            int [] ret = new int[tw*th];
+            wr.getDataElements(0, 0, tw, th, ret);
+            return ret;
         }
-    }// end of the filter() method for Raster
-}
+    }
 
+    /**
+     * Returns the index of the tile of size ts holding v, relative
+     * to the tile grid's origin.
+     */
+    private static int tileIndex(int v, int ts) {
+        return (v >= 0) ? v/ts : -((-v-1)/ts) - 1;
+    }
 
+    /**
+     * Bilinear interpolation of four premultiplied pixels, xFrac and
+     * yFrac are in 15 bit fixed point.
+     */
+    private static int interpolate(int pel00, int pel10,
+                                   int pel01, int pel11,
+                                   int xFrac, int yFrac) {
+        int sp0, sp1, pel0, pel1, newPel;
+
+        // Combine the alpha channels.
+        sp0  = (pel00>>>16) & 0xFF00;
+        sp1  = (pel10>>>16) & 0xFF00;
+        pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
+        sp0  = (pel01>>>16) & 0xFF00;
+        sp1  = (pel11>>>16) & 0xFF00;
+        pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
+        newPel = (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
+                  &0x7F800000)<<  1;
+
+        // Combine the red channels.
+        sp0  = (pel00>>  8) & 0xFF00;
+        sp1  = (pel10>>  8) & 0xFF00;
+        pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
+        sp0  = (pel01>>  8) & 0xFF00;
+        sp1  = (pel11>>  8) & 0xFF00;
+        pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
+        newPel |= (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
+                   &0x7F800000)>>> 7;
+
+        // Combine the green channels.
+        sp0  = (pel00     ) & 0xFF00;
+        sp1  = (pel10     ) & 0xFF00;
+        pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
+        sp0  = (pel01     ) & 0xFF00;
+        sp1  = (pel11     ) & 0xFF00;
+        pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
+        newPel |= (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
+                   &0x7F800000)>>>15;
+
+        // Combine the blue channels.
+        sp0  = (pel00<<  8) & 0xFF00;
+        sp1  = (pel10<<  8) & 0xFF00;
+        pel0 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
+        sp0  = (pel01<<  8) & 0xFF00;
+        sp1  = (pel11<<  8) & 0xFF00;
+        pel1 = (sp0 + (((sp1-sp0)*xFrac+0x4000)>>15)) & 0xFFFF;
+        newPel |= (((pel0<<15) + (pel1-pel0)*yFrac + 0x00400000)
+                   &0x7F800000)>>>23;
+
+        return newPel;
+    }
+}
@@ -80,6 +80,12 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
      */
     private final ColorSpace lRGB = ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB);
 
+    /*
+     * The number of columns processed together when filtering
+     * the columns.
+     */
+    private static final int STRIP_WIDTH = 32;
+
     /**
      * @param radiusX defines the radius of filter operation on X-axis. Should not be negative.
      *        A value of zero will disable the effect of the operation on X-axis, as described
@@ -230,593 +236,6 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
         return dest;
     }
 
-    /*
-     * This method compares the two input variables according
-     * to the doDilation boolean variable.
-     */
-    static final boolean isBetter (final int v1, final int v2, final boolean doDilation) {
-        if (v1 > v2)
-            return doDilation;
-        if (v1 < v2)
-            return !doDilation;
-        return true;
-    }
-
-    /*
-     * This method deals with the condition that the Kernel is wider than
-     * the Image
-     */
-    private void specialProcessRow(Raster src, WritableRaster dest){
-        final int w = src.getWidth();
-        final int h = src.getHeight();
-
-        // Access the integer buffer for each image.
-        DataBufferInt srcDB = (DataBufferInt)src.getDataBuffer();
-        DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
-
-        // Offset defines where in the stack the real data begin
-        SinglePixelPackedSampleModel sppsm;
-        sppsm = (SinglePixelPackedSampleModel)src.getSampleModel();
-
-        final int srcOff = srcDB.getOffset() +
-            sppsm.getOffset(src.getMinX() - src.getSampleModelTranslateX(),
-                            src.getMinY() - src.getSampleModelTranslateY());
-
-
-        sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        final int dstOff = dstDB.getOffset() +
-            sppsm.getOffset(dest.getMinX() - dest.getSampleModelTranslateX(),
-                            dest.getMinY() - dest.getSampleModelTranslateY());
-
-        // Stride is the distance between two consecutive column elements,
-        // in the one-dimention dataBuffer
-        final int srcScanStride = ((SinglePixelPackedSampleModel)src.getSampleModel()).getScanlineStride();
-        final int dstScanStride = ((SinglePixelPackedSampleModel)dest.getSampleModel()).getScanlineStride();
-
-        // Access the pixel value array
-        final int[] srcPixels = srcDB.getBankData()[0];
-        final int[] destPixels = dstDB.getBankData()[0];
-
-        // The pointer of src and dest indicating where the pixel values are
-        int sp, dp;
-
-        // Declaration for the circular buffer's implementation
-        // These are the circular buffers' head pointer and
-        // the index pointers
-
-        // bufferHead points to the leftmost element in the circular buffer
-        int bufferHead;
-
-        int maxIndexA;
-        int maxIndexR;
-        int maxIndexG;
-        int maxIndexB;
-
-        // Temp variables
-        int pel, currentPixel, lastPixel;
-        int a,r,g,b;
-        int a1,r1,g1,b1;
-
-        // If image width is less than or equal to the radiusX,
-        // all the pixels share the same max/min value
-        if (w<=radiusX){
-            for (int i=0; i<h; i++){
-                // pointing to the first pixels of each row
-                sp = srcOff + i*srcScanStride;
-                dp = dstOff + i*dstScanStride;
-                pel = srcPixels[sp++];
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-
-                for (int k=1; k<w; k++){
-                    currentPixel = srcPixels[sp++];
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                    }
-                }
-                // all the element share the same max/min value
-                for (int k=0; k<w; k++){
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-            }
-        }
-
-        // When radiusX < w <= 2*radiusX
-        else {
-
-            // The width of the circular buffer is w
-            final int [] bufferA = new int [w];
-            final int [] bufferR = new int [w];
-            final int [] bufferG = new int [w];
-            final int [] bufferB = new int [w];
-
-            for (int i=0; i<h; i++){
-                // initialization of pointers, indice
-                // at the head of each row
-                sp = srcOff + i*srcScanStride;
-                dp = dstOff + i*dstScanStride;
-
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                pel = srcPixels[sp++];
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusX; k++){
-                    currentPixel = srcPixels[sp++];
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                destPixels[dp++] = (a << 24) | r | g | b;
-
-                //
-                // 1 <= j <= w-radiusX-1 : The left margin of each row.
-                //
-                for (int j=1; j<=w-radiusX-1; j++){
-                    lastPixel = srcPixels[sp++];
-
-                    // here is the Alpha channel
-
-                    // we retrieve the previous max/min value
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[j+radiusX] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = j+radiusX;
-                    }
-
-                    // now we deal with the Red channel
-
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[j+radiusX] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = j+radiusX;
-                    }
-
-                    // now we deal with the Green channel
-
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[j+radiusX] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = j+radiusX;
-                    }
-
-                    // now we deal with the Blue channel
-
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[j+radiusX] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = j+radiusX;
-                    }
-                    // now we have gone through the four channels and
-                    // updated the index array. then we'll pack the
-                    // new max/min value according to each channel's
-                    // max/min vlue
-
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-                // Now is the inner body of the row:
-                // all elements in this segment share the same max/min value
-                for (int j = w-radiusX; j<= radiusX; j++){
-                    destPixels[dp] = destPixels[dp-1];
-                    dp++;
-                }
-                // Now the circular buffer is full
-                // Now is the right margin of the row when radiusX < w <= 2*radiusX
-                for (int j = radiusX+1; j<w; j++){
-
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[bufferHead+1];
-                        maxIndexA = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    else {
-                        a = bufferA[maxIndexA];
-                    }
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[bufferHead+1];
-                        maxIndexR = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    else {
-                        r = bufferR[maxIndexR];
-                    }
-
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[bufferHead+1];
-                        maxIndexG = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                    }
-
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[bufferHead+1];
-                        maxIndexB = bufferHead+1;
-                        for (int m= bufferHead+2; m< w; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                    }
-
-                    // discard the leftmost element
-                    bufferHead++;
-
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                }
-                // return to the first pixel of the next row
-            }
-        }// When radiusX < w <=2*radiusX
-    }
-
-    /*
-     * This method deals with the condition when the Kernel is
-     * higher than the image.
-     */
-    private void specialProcessColumn(Raster src, WritableRaster dest){
-
-        final int w = src.getWidth();
-        final int h = src.getHeight();
-
-        // Access the integer buffer for each image.
-        DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
-
-        // Offset defines where in the stack the real data begin
-        final int dstOff = dstDB.getOffset();
-
-        // Stride is the distance between two consecutive column elements,
-        // in the one-dimention dataBuffer
-        final int dstScanStride = ((SinglePixelPackedSampleModel)dest.getSampleModel()).getScanlineStride();
-
-        // Access the pixel value array
-        final int[] destPixels = dstDB.getBankData()[0];
-
-        // The pointer of src and dest indicating where the pixel values are
-        int dp, cp;
-
-        // Declaration for the circular buffer's implementation
-        // These are the circular buffers' head pointer and
-        // the index pointers
-
-        // bufferHead points to the leftmost element in the circular buffer
-        int bufferHead;
-
-        int maxIndexA;
-        int maxIndexR;
-        int maxIndexG;
-        int maxIndexB;
-
-        // Temp variables
-        int pel, currentPixel, lastPixel;
-        int a,r,g,b;
-        int a1,r1,g1,b1;
-
-        // Here all the pixels share the same
-        // max/min value
-        if (h<=radiusY){
-            for (int j=0; j<w; j++){
-                dp = dstOff + j;
-                cp = dstOff + j;
-                pel = destPixels[cp];
-                cp += dstScanStride;
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-
-                for (int k=1; k<h; k++){
-                    currentPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                    }
-                }
-                for (int k=0; k<h; k++){
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-                // return to the first pixel of the next column
-            }
-        }
-
-        // When radiusY < h <= 2*radiusY
-        else {
-
-            // The height of the circular buffer is h
-            final int [] bufferA = new int [h];
-            final int [] bufferR = new int [h];
-            final int [] bufferG = new int [h];
-            final int [] bufferB = new int [h];
-
-            for (int j=0; j<w; j++){
-                // initialization of pointers, indice
-                // at the head of each column
-                dp = dstOff + j;
-                cp = dstOff + j;
-
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                pel = destPixels[cp];
-                cp += dstScanStride;
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusY; k++){
-                    currentPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                // fill the first pixel of each column
-                destPixels[dp] = (a << 24) | r | g | b;
-                dp += dstScanStride;
-
-                //
-                // 1 <= i <= h-1-radiusY : The upper margin of each column.
-                //
-                for (int i=1; i<=h-radiusY-1; i++){
-                    lastPixel = destPixels[cp];
-                    cp += dstScanStride;
-
-                    // here is the Alpha channel
-
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[i+radiusY] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = i+radiusY;
-                    }
-
-                    // now we deal with the Red channel
-
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[i+radiusY] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = i+radiusY;
-                    }
-
-                    // now we deal with the Green channel
-
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[i+radiusY] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = i+radiusY;
-                    }
-
-                    // now we deal with the Blue channel
-
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[i+radiusY] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = i+radiusY;
-                    }
-                    // now we have gone through the four channels and
-                    // updated the index array. then we'll pack the
-                    // new max/min value according to each channel's
-                    // max/min vlue
-
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-                // Now is the inner body of the column
-                // when radiusY < h <= 2*radiusY
-                for (int i = h-radiusY; i<= radiusY; i++){
-                    destPixels[dp] = destPixels[dp-dstScanStride];
-                    dp += dstScanStride;
-                }
-                // The circular buffer is full now
-
-                for (int i = radiusY+1; i<h; i++){
-
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[bufferHead+1];
-                        maxIndexA = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    else {
-                        a = bufferA[maxIndexA];
-                    }
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[bufferHead+1];
-                        maxIndexR = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    else {
-                        r = bufferR[maxIndexR];
-                    }
-
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[bufferHead+1];
-                        maxIndexG = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                    }
-
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[bufferHead+1];
-                        maxIndexB = bufferHead+1;
-                        for (int m= bufferHead+2; m< h; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                    }
-
-                    // discard the leftmost element
-                    bufferHead++;
-
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-                // return to the first pixel of the next column
-            }
-        } // when radiusY < h <= 2*radiusY
-    }
-
     /**
      * Filters src and writes result into dest. If dest if null, then
      * a Raster is created. If dest and src refer to the same object,
@@ -833,10 +252,20 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
     public WritableRaster filter(Raster src, WritableRaster dest){
 
         //
-        //This method sorts the pixel values in the kernel window in two steps:
-        // 1. sort by row and store the result into an intermediate matrix
-        // 2. sort the intermediate matrix by column and output the max/min value
-        //    into the destination matrix element
+        // The kernel is separable: the rows are processed first
+        // into dest, then the columns of dest are processed in place.
+        //
+        // Each pass uses the van Herk/Gil-Werman algorithm, which
+        // takes three max/min per pixel whatever the radius.  The
+        // line is padded with radius values on each side that
+        // don't change the result (0 for dilation, 0xffffffff for
+        // erosion) and cut into blocks of range pixels.  For every
+        // block g holds the running max/min from the start of the
+        // block and hb the running max/min from the end of the
+        // block.  Any window of range pixels covers the end of one
+        // block and the start of the next so its result is
+        // combine(hb[first pixel], g[last pixel]).
+        //
 
         //check destation
         if(dest!=null) checkCompatible(dest.getSampleModel());
@@ -854,675 +283,148 @@ public class MorphologyOp implements BufferedImageOp, RasterOp {
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
 
         // Offset defines where in the stack the real data begin
-        final int srcOff = srcDB.getOffset();
-        final int dstOff = dstDB.getOffset();
+        SinglePixelPackedSampleModel srcSPPSM, dstSPPSM;
+        srcSPPSM = (SinglePixelPackedSampleModel)src.getSampleModel();
+        dstSPPSM = (SinglePixelPackedSampleModel)dest.getSampleModel();
+
+        final int srcOff = srcDB.getOffset() +
+            srcSPPSM.getOffset(src.getMinX() - src.getSampleModelTranslateX(),
+                               src.getMinY() - src.getSampleModelTranslateY());
+        final int dstOff = dstDB.getOffset() +
+            dstSPPSM.getOffset(dest.getMinX() - dest.getSampleModelTranslateX(),
+                               dest.getMinY() - dest.getSampleModelTranslateY());
 
         // Stride is the distance between two consecutive column elements,
         // in the one-dimention dataBuffer
-        final int srcScanStride = ((SinglePixelPackedSampleModel)src.getSampleModel()).getScanlineStride();
-        final int dstScanStride = ((SinglePixelPackedSampleModel)dest.getSampleModel()).getScanlineStride();
+        final int srcScanStride = srcSPPSM.getScanlineStride();
+        final int dstScanStride = dstSPPSM.getScanlineStride();
 
         // Access the pixel value array
         final int[] srcPixels = srcDB.getBankData()[0];
         final int[] destPixels = dstDB.getBankData()[0];
 
-        // The pointer of src and dest indicating where the pixel values are
-        int sp, dp, cp;
-
-        // Declaration for the circular buffer's implementation
-        // These are the circular buffers' head pointer and
-        // the index pointers
-
-        // bufferHead points to the leftmost element in the circular buffer
-        int bufferHead;
-
-        int maxIndexA;
-        int maxIndexR;
-        int maxIndexG;
-        int maxIndexB;
-
-        // Temp variables
-        int pel, currentPixel, lastPixel;
-        int a,r,g,b;
-        int a1,r1,g1,b1;
-
-        // In both round, we are using an optimization approach
-        // to reduce excessive computation to sort values around
-        // the current pixel. The idea is as follows:
-        //           ----------------
-        //           |*|V|V|$|N|V|V|&|
-        //           ----------------
-        // For example, suppose we've finished pixel"$" and come
-        // to "N", the radius is 3. Then we must have got the max/min
-        // value and index array for "$". If the max/min is at
-        // "*"(using the index array to judge this),
-        // we need to recompute a max/min and the index array
-        // for "N"; if the max/min is not at "*", we can
-        // reuse the current max/min: we simply compare it with
-        // "&", and update the max/min and the index array.
-
-        //
-        // The first round: sort by row
-        //
-        if (w<=2*radiusX){
-            specialProcessRow(src, dest);
-        }
-
-        // when the size is large enough, we can
-        // use standard optimization method
-        else {
-
-            final int [] bufferA = new int [rangeX];
-            final int [] bufferR = new int [rangeX];
-            final int [] bufferG = new int [rangeX];
-            final int [] bufferB = new int [rangeX];
-
-            for (int i=0; i<h; i++){
-                // initialization of pointers, indice
-                // at the head of each row
-                sp = srcOff + i*srcScanStride;
-                dp = dstOff + i*dstScanStride;
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                //
-                // j=0 : Initialization, compute the max/min and
-                //       index array for the use of other pixels.
-                //
-                pel = srcPixels[sp++];
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusX; k++){
-                    currentPixel = srcPixels[sp++];
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
+        if ((w == 0) || (h == 0))
+            return dest;
+
+        // A window reaching past both ends of a line covers the
+        // whole line wherever it is, so larger radii give the same
+        // result and would only size the work arrays.
+        final int rx = Math.min(radiusX, w-1);
+        final int ry = Math.min(radiusY, h-1);
+
+        // First round: each row of src into dest.  The rows are
+        // independent of each other so bands of rows are processed
+        // in parallel.
+        ParallelBands.run(h, (long)w*h, new ParallelBands.Band() {
+                public void run(int start, int end) {
+                    int[] g  = new int[w+2*rx];
+                    int[] hb = new int[w+2*rx];
+                    for (int i=start; i<end; i++)
+                        processLines(srcPixels, srcOff+i*srcScanStride, 1,
+                                     destPixels, dstOff+i*dstScanStride, 1,
+                                     w, 1, rx, 2*rx+1, g, hb);
                 }
-                destPixels[dp++] = (a << 24) | r | g | b;
-
-                //
-                // 1 <= j <= radiusX : The left margin of each row.
-                //
-                for (int j=1; j<=radiusX; j++){
-                    lastPixel = srcPixels[sp++];
-
-                    // here is the Alpha channel
-
-                    // we retrieve the previous max/min value
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[j+radiusX] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = j+radiusX;
-                    }
-
-                    // now we deal with the Red channel
-
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[j+radiusX] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = j+radiusX;
-                    }
-
-                    // now we deal with the Green channel
-
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[j+radiusX] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = j+radiusX;
+            });
+
+        // Second round: each column of dest in place.  The columns
+        // are processed in strips so the pixels are read along the
+        // scanlines.
+        final int nStrips = (w+STRIP_WIDTH-1)/STRIP_WIDTH;
+        ParallelBands.run(nStrips, (long)w*h, new ParallelBands.Band() {
+                public void run(int start, int end) {
+                    int sw = Math.min(STRIP_WIDTH, w);
+                    int[] g  = new int[(h+2*ry)*sw];
+                    int[] hb = new int[(h+2*ry)*sw];
+                    for (int s=start; s<end; s++) {
+                        int x = s*STRIP_WIDTH;
+                        int off = dstOff+x;
+                        processLines(destPixels, off, dstScanStride,
+                                     destPixels, off, dstScanStride,
+                                     h, Math.min(STRIP_WIDTH, w-x),
+                                     ry, 2*ry+1, g, hb);
                     }
-
-                    // now we deal with the Blue channel
-
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[j+radiusX] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = j+radiusX;
-                    }
-                    // now we have gone through the four channels and
-                    // updated the index array. then we'll pack the
-                    // new max/min value according to each channel's
-                    // max/min vlue
-
-                    destPixels[dp++] = (a << 24) | r | g | b;
                 }
+            });
 
-                //
-                // radiusX <= j <= w-1-radiusX : Inner body of the row, between
-                //                               left and right margins
-                //
-                for (int j=radiusX+1; j<=w-1-radiusX; j++){
-                    lastPixel = srcPixels[sp++];
-                    a1 = lastPixel>>>24;
-                    r1 = lastPixel&0xff0000;
-                    g1 = lastPixel&0xff00;
-                    b1 = lastPixel&0xff;
-                    bufferA[bufferHead] = a1;
-                    bufferR[bufferHead] = r1;
-                    bufferG[bufferHead] = g1;
-                    bufferB[bufferHead] = b1;
-
-                    // Alpha channel:
-                    // we need to recompute a local max/min
-                    // and update the max/min index
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[0];
-                        maxIndexA = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        a = bufferA[maxIndexA];
-                        if (isBetter(a1, a, doDilation)){
-                            a = a1;
-                            maxIndexA = bufferHead;
-                        }
-                    }
-
-                    // Red channel
-                    // we need to recompute a local max/min
-                    // and update the index array
-
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[0];
-                        maxIndexR = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        r = bufferR[maxIndexR];
-                        if (isBetter(r1, r, doDilation)){
-                            r = r1;
-                            maxIndexR = bufferHead;
-                        }
-                    }
-
-                    // Green channel
-                    // we need to recompute a local max/min
-                    // and update the index array
-
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[0];
-                        maxIndexG = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                        if (isBetter(g1, g, doDilation)){
-                            g = g1;
-                            maxIndexG = bufferHead;
-                        }
-                    }
-
-                    // Blue channel
-                    // we need to recompute a local max/min
-                    // and update the index array
-
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[0];
-                        maxIndexB = 0;
-                        for (int m= 1; m< rangeX; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                        if (isBetter(b1, b, doDilation)){
-                            b = b1;
-                            maxIndexB = bufferHead;
-                        }
-                    }
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                    bufferHead = (bufferHead+1)%rangeX;
-                }
-
-                //
-                // w-radiusX <= j < w : The right margin of the row
-                //
-
-                // Head will be updated to indicate the current head
-                // of the remaining buffer
-                int head;
-                // Tail is where the last element is
-                final int tail = (bufferHead == 0)?rangeX-1:bufferHead -1;
-                int count = rangeX-1;
-
-                for (int j=w-radiusX; j<w; j++){
-                    head = (bufferHead+1)%rangeX;
-                    // Dealing with Alpha Channel:
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            a1 = bufferA[hd];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    // Dealing with Red Channel:
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            r1 = bufferR[hd];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    // Dealing with Green Channel:
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            g1 = bufferG[hd];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    // Dealing with Blue Channel:
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[tail];
-                        int hd = head;
-                        for(int m=1; m<count; m++) {
-                            b1 = bufferB[hd];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = hd;
-                            }
-                            hd = (hd+1)%rangeX;
-                        }
-                    }
-                    destPixels[dp++] = (a << 24) | r | g | b;
-                    bufferHead = (bufferHead+1)%rangeX;
-                    // we throw another element
-                    count--;
-                }// end of the right margin of this row
-
-                // return to the beginning of the next row
-            }
-        }// end of the first round!
-
-        //
-        // Second round: sort by column
-        // the difference from the first round is that
-        // now we are accessing the intermediate matrix
-        //
+        return dest;
+    }// end of the filter() method for Raster
 
-        // When the image size is smaller than the
-        // Kernel size
-        if (h<=2*radiusY){
-            specialProcessColumn(src, dest);
+    /**
+     * Computes the max/min over a window of range pixels for nLines
+     * adjacent lines of n pixels each.  The first pixel of line l is
+     * at inOff+l in the input and outOff+l in the output and the
+     * following pixels of the line are step apart.  The input is
+     * completely read before the output is written so both can be
+     * the same.
+     * @param g work array of at least (n+2*radius)*nLines ints.
+     * @param hb work array of at least (n+2*radius)*nLines ints.
+     */
+    private void processLines(int[] in, int inOff, int inStep,
+                              int[] out, int outOff, int outStep,
+                              int n, int nLines, int radius, int range,
+                              int[] g, int[] hb) {
+        final boolean dilate = doDilation;
+        final int pad = dilate ? 0 : 0xffffffff;
+        final int len = n + 2*radius;
+
+        // Copy the padded lines in hb, interleaved so that the
+        // pixels at the same position of all the lines are
+        // adjacent.
+        int p = 0;
+        for (int i=0; i<radius*nLines; i++)
+            hb[p++] = pad;
+        int sp = inOff;
+        for (int i=0; i<n; i++, sp += inStep) {
+            System.arraycopy(in, sp, hb, p, nLines);
+            p += nLines;
+        }
+        for (int i=0; i<radius*nLines; i++)
+            hb[p++] = pad;
+
+        // Running max/min from the start of each block.
+        for (int b=0; b<len; b+=range) {
+            int e = Math.min(b+range, len)*nLines;
+            p = b*nLines;
+            System.arraycopy(hb, p, g, p, nLines);
+            for (p+=nLines; p<e; p++)
+                g[p] = combine(g[p-nLines], hb[p], dilate);
         }
 
-        // when the size is large enough, we can
-        // use standard optimization method
-        else {
-            final int [] bufferA = new int [rangeY];
-            final int [] bufferR = new int [rangeY];
-            final int [] bufferG = new int [rangeY];
-            final int [] bufferB = new int [rangeY];
-
-            for (int j=0; j<w; j++){
-                // initialization of pointers, indice
-                // at the head of each column
-                dp = dstOff + j;
-                cp = dstOff + j;
-                bufferHead = 0;
-                maxIndexA = 0;
-                maxIndexR = 0;
-                maxIndexG = 0;
-                maxIndexB = 0;
-
-                // i=0 : The first pixel
-                pel = destPixels[cp];
-                cp += dstScanStride;
-                a = pel>>>24;
-                r = pel&0xff0000;
-                g = pel&0xff00;
-                b = pel&0xff;
-                bufferA[0] = a;
-                bufferR[0] = r;
-                bufferG[0] = g;
-                bufferB[0] = b;
-
-                for (int k=1; k<=radiusY; k++){
-                    currentPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = currentPixel>>>24;
-                    r1 = currentPixel&0xff0000;
-                    g1 = currentPixel&0xff00;
-                    b1 = currentPixel&0xff;
-                    bufferA[k] = a1;
-                    bufferR[k] = r1;
-                    bufferG[k] = g1;
-                    bufferB[k] = b1;
-
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = k;
-                    }
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = k;
-                    }
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = k;
-                    }
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = k;
-                    }
-                }
-                destPixels[dp] = (a << 24) | r | g | b;
-                // go to the next element in the column.
-                dp += dstScanStride;
-
-                // 1 <= i <= radiusY : The upper margin of each row
-                for (int i=1; i<=radiusY; i++){
-                    int maxI = i+radiusY;
-                    // we can reuse the previous max/min value
-                    lastPixel = destPixels[cp];
-                    cp += dstScanStride;
-
-                    // here is the Alpha channel
-                    a = bufferA[maxIndexA];
-                    a1 = lastPixel>>>24;
-                    bufferA[maxI] = a1;
-                    if (isBetter(a1, a, doDilation)){
-                        a = a1;
-                        maxIndexA = maxI;
-                    }
-
-                    // now we deal with the Red channel
-                    r = bufferR[maxIndexR];
-                    r1 = lastPixel&0xff0000;
-                    bufferR[maxI] = r1;
-                    if (isBetter(r1, r, doDilation)){
-                        r = r1;
-                        maxIndexR = maxI;
-                    }
-
-                    // now we deal with the Green channel
-                    g = bufferG[maxIndexG];
-                    g1 = lastPixel&0xff00;
-                    bufferG[maxI] = g1;
-                    if (isBetter(g1, g, doDilation)){
-                        g = g1;
-                        maxIndexG = maxI;
-                    }
-
-                    // now we deal with the Blue channel
-                    b = bufferB[maxIndexB];
-                    b1 = lastPixel&0xff;
-                    bufferB[maxI] = b1;
-                    if (isBetter(b1, b, doDilation)){
-                        b = b1;
-                        maxIndexB = maxI;
-                    }
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                }
-
-                //
-                // radiusY +1 <= i <= h-1-radiusY:
-                //    inner body of the column between upper and lower margins
-                //
-
-                for (int i=radiusY+1; i<=h-1-radiusY; i++){
-
-                    lastPixel = destPixels[cp];
-                    cp += dstScanStride;
-                    a1 = lastPixel>>>24;
-                    r1 = lastPixel&0xff0000;
-                    g1 = lastPixel&0xff00;
-                    b1 = lastPixel&0xff;
-                    bufferA[bufferHead] = a1;
-                    bufferR[bufferHead] = r1;
-                    bufferG[bufferHead] = g1;
-                    bufferB[bufferHead] = b1;
-
-                    // here we check if the previous max/min value can be
-                    // reused safely and, if possible, reuse the previous
-                    // maximum value
-
-                    // Alpha channel:
-
-                    // Recompute the local max/min
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[0];
-                        maxIndexA = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            a1 = bufferA[m];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        a = bufferA[maxIndexA];
-                        if (isBetter(a1, a, doDilation)){
-                            a = a1;
-                            maxIndexA = bufferHead;
-                        }
-                    }
-
-                    // Red channel:
-
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[0];
-                        maxIndexR = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            r1 = bufferR[m];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        r = bufferR[maxIndexR];
-                        if (isBetter(r1, r, doDilation)){
-                            r = r1;
-                            maxIndexR = bufferHead;
-                        }
-                    }
-
-                    // Green channel
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[0];
-                        maxIndexG = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            g1 = bufferG[m];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        g = bufferG[maxIndexG];
-                        if (isBetter(g1, g, doDilation)){
-                            g = g1;
-                            maxIndexG = bufferHead;
-                        }
-                    }
-
-                    // Blue channel:
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[0];
-                        maxIndexB = 0;
-                        for (int m= 1; m<= 2*radiusY; m++){
-                            b1 = bufferB[m];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = m;
-                            }
-                        }
-                    }
-                    // we can reuse the previous max/min value
-                    else {
-                        b = bufferB[maxIndexB];
-                        if (isBetter(b1, b, doDilation)){
-                            b = b1;
-                            maxIndexB = bufferHead;
-                        }
-                    }
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                    bufferHead = (bufferHead+1)%rangeY;
-                }
+        // Running max/min from the end of each block, in place.
+        for (int b=0; b<len; b+=range) {
+            int e = Math.min(b+range, len)*nLines;
+            for (p=e-nLines-1; p>=b*nLines; p--)
+                hb[p] = combine(hb[p], hb[p+nLines], dilate);
+        }
 
-                //
-                // h-radiusY <= i <= h-1 : The lower margin of the column
-                //
-
-                // head will be updated to indicate the current head
-                // of the remaining buffer:
-                int head;
-                // tail is where the last element in the buffer is
-                final int tail = (bufferHead == 0)?2*radiusY:bufferHead -1;
-                int count = rangeY-1;
-
-                for (int i= h-radiusY; i<h-1; i++){
-                    head = (bufferHead +1)%rangeY;
-
-                    if (maxIndexA == bufferHead){
-                        a = bufferA[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            a1 = bufferA[hd];
-                            if (isBetter(a1, a, doDilation)){
-                                a = a1;
-                                maxIndexA = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    if (maxIndexR == bufferHead){
-                        r = bufferR[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            r1 = bufferR[hd];
-                            if (isBetter(r1, r, doDilation)){
-                                r = r1;
-                                maxIndexR = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    if (maxIndexG == bufferHead){
-                        g = bufferG[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            g1 = bufferG[hd];
-                            if (isBetter(g1, g, doDilation)){
-                                g = g1;
-                                maxIndexG = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    if (maxIndexB == bufferHead){
-                        b = bufferB[tail];
-                        int hd = head;
-                        for (int m=1; m<count; m++){
-                            b1 = bufferB[hd];
-                            if (isBetter(b1, b, doDilation)){
-                                b = b1;
-                                maxIndexB = hd;
-                            }
-                            hd = (hd+1)%rangeY;
-                        }
-                    }
-                    destPixels[dp] = (a << 24) | r | g | b;
-                    dp += dstScanStride;
-                    bufferHead = (bufferHead+1)%rangeY;
-                    // we throw out this useless element
-                    count--;
-                }
-                // return to the beginning of the next column
-            }
-        }// end of the second round!
+        int gp = 2*radius*nLines;
+        p = 0;
+        int dp = outOff;
+        for (int i=0; i<n; i++, dp += outStep) {
+            for (int l=0; l<nLines; l++, p++, gp++)
+                out[dp+l] = combine(hb[p], g[gp], dilate);
+        }
+    }
 
-        return dest;
-    }// end of the filter() method for Raster
+    /**
+     * Returns the per channel max (when dilate is true) or min of
+     * two packed 8 bit per channel pixels.
+     */
+    private static int combine(int p1, int p2, boolean dilate) {
+        int a1 = p1>>>24, a2 = p2>>>24;
+        int r1 = p1&0xff0000, r2 = p2&0xff0000;
+        int g1 = p1&0xff00, g2 = p2&0xff00;
+        int b1 = p1&0xff, b2 = p2&0xff;
+        if (dilate)
+            return (((a1 > a2) ? a1 : a2) << 24) |
+                ((r1 > r2) ? r1 : r2) |
+                ((g1 > g2) ? g1 : g2) |
+                ((b1 > b2) ? b1 : b2);
+        return (((a1 < a2) ? a1 : a2) << 24) |
+            ((r1 < r2) ? r1 : r2) |
+            ((g1 < g2) ? g1 : g2) |
+            ((b1 < b2) ? b1 : b2);
+    }
 
       /**
        * This implementation of filter does the morphology operation
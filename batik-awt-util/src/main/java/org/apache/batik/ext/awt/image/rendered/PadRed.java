@@ -71,6 +71,25 @@ public class PadRed extends AbstractRed {
 
     }
 
+    /**
+     * Returns the pad mode of this image.
+     */
+    public PadMode getPadMode() {
+        return padMode;
+    }
+
+    /**
+     * Returns true if this image zero pads its source but lies entirely
+     * within the source's bounds, so it only crops it.  Per pixel
+     * operations can then be applied to the source before the crop
+     * without changing the result.
+     */
+    public boolean isCrop() {
+        CachableRed src = (CachableRed)getSources().get(0);
+        return ((padMode == PadMode.ZERO_PAD) &&
+                src.getBounds().contains(getBounds()));
+    }
+
     public WritableRaster copyData(WritableRaster wr) {
         // Get my source.
         CachableRed src = (CachableRed)getSources().get(0);
@@ -0,0 +1,129 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Splits pixel operations in bands that are processed in parallel
+ * on a shared pool of daemon threads.  Operations using this must
+ * produce the same result regardless of how the work is split.
+ *
+ * @version $Id$
+ */
+public final class ParallelBands {
+
+    /**
+     * Operations covering at least this many pixels are split in bands.
+     */
+    static final int PARALLEL_THRESHOLD = 256*256;
+
+    /**
+     * The threads processing the bands, created on first use.
+     */
+    private static ExecutorService executor;
+
+    /**
+     * The work done on one band.
+     */
+    interface Band {
+        /**
+         * Processes the lines [start, end) of the band.
+         */
+        void run(int start, int end);
+    }
+
+    private ParallelBands() {
+    }
+
+    /**
+     * Processes the lines [0, n) using band.  If the operation covers
+     * at least PARALLEL_THRESHOLD pixels the lines are split in one
+     * band per processor, the last of which runs in the calling thread.
+     * @param n the number of lines.
+     * @param pixels the number of pixels covered by the operation.
+     * @param band the work to do.
+     */
+    static void run(int n, long pixels, final Band band) {
+        int nBands = 1;
+        if (pixels >= PARALLEL_THRESHOLD)
+            nBands = Math.min(Runtime.getRuntime().availableProcessors(), n);
+        if (nBands <= 1) {
+            band.run(0, n);
+            return;
+        }
+
+        ExecutorService ex = getExecutor();
+        Future[] futures = new Future[nBands-1];
+        int start = 0;
+        for (int b = 0; b < nBands; b++) {
+            final int s = start;
+            final int e = (n*(b+1))/nBands;
+            start = e;
+            if (b == nBands-1) {
+                band.run(s, e);
+                break;
+            }
+            futures[b] = ex.submit(new Runnable() {
+                    public void run() {
+                        band.run(s, e);
+                    }
+                });
+        }
+
+        try {
+            for (Future future : futures)
+                future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        } catch (ExecutionException ee) {
+            Throwable t = ee.getCause();
+            if (t instanceof RuntimeException)
+                throw (RuntimeException)t;
+            if (t instanceof Error)
+                throw (Error)t;
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Returns the shared pool of daemon threads, one per processor, so
+     * other parallel image work, such as compressing tiles, doesn't
+     * start threads of its own.  The pool must not be shut down.
+     */
+    public static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool
+                (Runtime.getRuntime().availableProcessors(),
+                 new ThreadFactory() {
+                     public Thread newThread(Runnable r) {
+                         Thread t = new Thread(r, "ParallelBands");
+                         t.setDaemon(true);
+                         return t;
+                     }
+                 });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,414 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.ext.awt.image.TransferFunction;
+
+/**
+ * Applies a chain of point-wise operations (color matrices and
+ * component transfer lookup tables) to its source in a single pass
+ * over the tile.  Each stage works on unpremultiplied 8 bit components
+ * and is clamped exactly as <code>ColorMatrixRed</code> and
+ * <code>ComponentTransferRed</code> would clamp it, so the result is
+ * identical to rendering the stages one after another.
+ *
+ * Instances are built through {@link #applyMatrix},
+ * {@link #applyTransfer} and {@link #applyConversion}, which look at
+ * the image they are given and fold it into the new chain when it is
+ * itself a point operation.  The sRGB/linear sRGB conversions of
+ * <code>Any2sRGBRed</code> and <code>Any2LsRGBRed</code> are lookup
+ * tables on the same unpremultiplied components, so they are folded
+ * too, and a conversion that is immediately undone by the opposite
+ * one costs a single composed table.  Consecutive lookup tables are
+ * composed into one table.
+ *
+ * @version $Id$
+ */
+public class PointOpChainRed extends AbstractRed {
+
+    private static final int STAGE_LUT    = 0;
+    private static final int STAGE_MATRIX = 1;
+
+    /**
+     * The kind of each stage, one of STAGE_LUT or STAGE_MATRIX.
+     */
+    private final int [] kinds;
+
+    /**
+     * For lookup stages, 4x256 entries in alpha, red, green, blue order.
+     */
+    private final int [][] luts;
+
+    /**
+     * For matrix stages, the 4x5 matrix flattened and divided by 255.
+     */
+    private final float [][] matrices;
+
+    /**
+     * The sRGB to linear sRGB conversion of Any2LsRGBRed as a lookup
+     * stage.
+     */
+    private static final int [] TO_LINEAR_LUT =
+        createConversionLut(Any2LsRGBRed.sRGBToLsRGBLut);
+
+    /**
+     * The linear sRGB to sRGB conversion of Any2sRGBRed as a lookup
+     * stage.
+     */
+    private static final int [] TO_SRGB_LUT =
+        createConversionLut(Any2sRGBRed.linearToSRGBLut);
+
+    protected PointOpChainRed(CachableRed src, int [] kinds,
+                              int [][] luts, float [][] matrices) {
+        this(src, getUnpremultipliedCM(src.getColorModel()),
+             kinds, luts, matrices);
+    }
+
+    /**
+     * @param cm The unpremultiplied color model of the result, its
+     *           colorspace is the one the last stage leaves the data in.
+     */
+    protected PointOpChainRed(CachableRed src, ColorModel cm, int [] kinds,
+                              int [][] luts, float [][] matrices) {
+        this.kinds    = kinds;
+        this.luts     = luts;
+        this.matrices = matrices;
+
+        SampleModel sm =
+            cm.createCompatibleSampleModel(src.getWidth(),
+                                           src.getHeight());
+
+        init(src, src.getBounds(), cm, sm,
+             src.getTileGridXOffset(), src.getTileGridYOffset(), null);
+    }
+
+    /**
+     * Returns an image that applies <code>matrix</code> to
+     * <code>src</code>.  If <code>src</code> is a point operation the
+     * matrix is fused into it, otherwise a plain
+     * <code>ColorMatrixRed</code> is returned.
+     */
+    public static CachableRed applyMatrix(CachableRed src,
+                                          float [][] matrix) {
+        float [] m = new float[20];
+        for (int i=0; i<4; i++)
+            for (int j=0; j<5; j++)
+                m[i*5+j] = matrix[i][j]/255f;
+        CachableRed ret = fuse(src, STAGE_MATRIX, null, m, null);
+        if (ret == null)
+            return new ColorMatrixRed(src, matrix);
+        return ret;
+    }
+
+    /**
+     * Returns an image that applies <code>funcs</code> (in alpha, red,
+     * green, blue order) to <code>src</code>.  If <code>src</code> is a
+     * point operation the lookup tables are fused into it, otherwise a
+     * plain <code>ComponentTransferRed</code> is returned.
+     */
+    public static CachableRed applyTransfer(CachableRed src,
+                                            TransferFunction [] funcs,
+                                            RenderingHints hints) {
+        return applyTransfer
+            (src, ComponentTransferRed.compileLookupTable(funcs), hints);
+    }
+
+    /**
+     * Returns an image that applies <code>lut</code>, as compiled by
+     * {@link ComponentTransferRed#compileLookupTable}, to
+     * <code>src</code>.  The table is shared, not copied.
+     */
+    public static CachableRed applyTransfer(CachableRed src,
+                                            int [] lut,
+                                            RenderingHints hints) {
+        CachableRed ret = fuse(src, STAGE_LUT, lut, null, null);
+        if (ret == null)
+            return new ComponentTransferRed(src, lut, hints);
+        return ret;
+    }
+
+    /**
+     * Returns <code>src</code> converted to linear sRGB (if
+     * <code>toLinear</code> is true) or to sRGB, with the conversion
+     * fused into it, or null if <code>src</code> is not a point
+     * operation.  <code>src</code> must be in the other colorspace.
+     * This is used by <code>GraphicsUtil.convertToLsRGB</code> and
+     * <code>GraphicsUtil.convertTosRGB</code>, so a conversion that
+     * follows a chain doesn't cost a pass of its own.
+     */
+    public static CachableRed applyConversion(CachableRed src,
+                                              boolean toLinear) {
+        ColorModel cm = toLinear ? GraphicsUtil.Linear_sRGB_Unpre
+                                 : GraphicsUtil.sRGB_Unpre;
+        return fuse(src, STAGE_LUT,
+                    toLinear ? TO_LINEAR_LUT : TO_SRGB_LUT, null, cm);
+    }
+
+    /**
+     * Returns the 4x256 lookup table which applies <code>rgbLut</code>
+     * to the color components and leaves alpha alone.
+     */
+    private static int [] createConversionLut(int [] rgbLut) {
+        int [] lut = new int[1024];
+        for (int i=0; i<256; i++) {
+            lut[    i] = i;
+            lut[256+i] = rgbLut[i];
+            lut[512+i] = rgbLut[i];
+            lut[768+i] = rgbLut[i];
+        }
+        return lut;
+    }
+
+    /**
+     * Returns <code>src</code> with one more stage if it is a point
+     * operation, or null if it is not.  Filter primitives hand their
+     * result to the next one through a <code>PadRed</code>, one that
+     * only crops is looked through: the stage is fused into its source
+     * and the crop is applied to the fused chain.
+     *
+     * @param cm The color model of the result when the stage converts
+     *           the data to another colorspace, null otherwise.
+     */
+    protected static CachableRed fuse(CachableRed src, int kind,
+                                      int [] lut, float [] m,
+                                      ColorModel cm) {
+        if (src instanceof PadRed) {
+            PadRed pad = (PadRed)src;
+            if (!pad.isCrop())
+                return null;
+            CachableRed ret = fuse
+                ((CachableRed)pad.getSources().get(0), kind, lut, m, cm);
+            if (ret == null)
+                return null;
+            if ((ret instanceof PadRed) &&
+                ret.getBounds().equals(pad.getBounds()))
+                return ret;
+            return new PadRed(ret, pad.getBounds(), PadMode.ZERO_PAD, null);
+        }
+
+        PointOpChainRed chain = asChain(src);
+        if (chain == null)
+            return null;
+        return chain.append(kind, lut, m, cm);
+    }
+
+    /**
+     * Returns <code>src</code> as a chain of point operations, or null
+     * if it is not one (or one that can't be folded without changing
+     * its result).
+     */
+    protected static PointOpChainRed asChain(CachableRed src) {
+        if (src instanceof PointOpChainRed)
+            return (PointOpChainRed)src;
+
+        if (src instanceof ColorMatrixRed) {
+            CachableRed base = (CachableRed)src.getSources().get(0);
+            float [][] matrix = ((ColorMatrixRed)src).getMatrix();
+            float [] m = new float[20];
+            for (int i=0; i<4; i++)
+                for (int j=0; j<5; j++)
+                    m[i*5+j] = matrix[i][j]/255f;
+            return new PointOpChainRed(base, new int [] { STAGE_MATRIX },
+                                       new int [1][], new float [][] { m });
+        }
+
+        if (src instanceof ComponentTransferRed) {
+            // ComponentTransferRed works on whatever layout its source
+            // has, only fold it when that is packed ARGB so the lookup
+            // sees the same values it would see in the chain.
+            CachableRed base = (CachableRed)src.getSources().get(0);
+            ColorModel cm = base.getColorModel();
+            if ((cm == null) || !cm.hasAlpha() ||
+                !GraphicsUtil.is_INT_PACK_Data(base.getSampleModel(), true))
+                return null;
+
+            int [] lut = ((ComponentTransferRed)src).getLookupTable();
+            return new PointOpChainRed(base, new int [] { STAGE_LUT },
+                                       new int [][] { lut }, new float [1][]);
+        }
+
+        if (src instanceof Any2LsRGBRed) {
+            Any2LsRGBRed conv = (Any2LsRGBRed)src;
+            if (!conv.srcIssRGB)
+                return null;
+            return asConversionChain(conv, TO_LINEAR_LUT);
+        }
+
+        if (src instanceof Any2sRGBRed) {
+            Any2sRGBRed conv = (Any2sRGBRed)src;
+            if (!conv.srcIsLsRGB)
+                return null;
+            return asConversionChain(conv, TO_SRGB_LUT);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the given colorspace conversion as a single lookup
+     * stage, or null if its source is not packed ARGB.  Only then does
+     * the conversion take its lookup table path, which the chain
+     * reproduces exactly.
+     */
+    private static PointOpChainRed asConversionChain(CachableRed conv,
+                                                     int [] lut) {
+        CachableRed base = (CachableRed)conv.getSources().get(0);
+        ColorModel cm = base.getColorModel();
+        if ((cm == null) || !cm.hasAlpha() ||
+            !GraphicsUtil.is_INT_PACK_Data(base.getSampleModel(), true))
+            return null;
+        return new PointOpChainRed(base, conv.getColorModel(),
+                                   new int [] { STAGE_LUT },
+                                   new int [][] { lut }, new float [1][]);
+    }
+
+    /**
+     * Returns a new chain with one more stage.  A lookup stage that
+     * follows a lookup stage is composed with it.
+     *
+     * @param cm The color model of the result when the stage converts
+     *           the data to another colorspace, null otherwise.
+     */
+    protected PointOpChainRed append(int kind, int [] lut, float [] m,
+                                     ColorModel cm) {
+        CachableRed src = (CachableRed)getSources().get(0);
+        int n = kinds.length;
+        if (cm == null)
+            cm = getColorModel();
+
+        if ((kind == STAGE_LUT) && (kinds[n-1] == STAGE_LUT)) {
+            int [] prev = luts[n-1];
+            int [] comp = new int[1024];
+            for (int b=0; b<1024; b+=256)
+                for (int i=0; i<256; i++)
+                    comp[b+i] = lut[b+prev[b+i]];
+
+            int [][] newLuts = luts.clone();
+            newLuts[n-1] = comp;
+            return new PointOpChainRed(src, cm, kinds, newLuts, matrices);
+        }
+
+        int [] newKinds = new int[n+1];
+        int [][] newLuts = new int[n+1][];
+        float [][] newMatrices = new float[n+1][];
+        System.arraycopy(kinds,    0, newKinds,    0, n);
+        System.arraycopy(luts,     0, newLuts,     0, n);
+        System.arraycopy(matrices, 0, newMatrices, 0, n);
+        newKinds[n]    = kind;
+        newLuts[n]     = lut;
+        newMatrices[n] = m;
+        return new PointOpChainRed(src, cm, newKinds, newLuts, newMatrices);
+    }
+
+    private static ColorModel getUnpremultipliedCM(ColorModel srcCM) {
+        ColorSpace srcCS = null;
+        if (srcCM != null)
+            srcCS = srcCM.getColorSpace();
+        if (srcCS == null)
+            return GraphicsUtil.Linear_sRGB_Unpre;
+        if (srcCS == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB))
+            return GraphicsUtil.Linear_sRGB_Unpre;
+        return GraphicsUtil.sRGB_Unpre;
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        CachableRed src = (CachableRed)getSources().get(0);
+        wr = src.copyData(wr);
+
+        // Unpremultiply data if required
+        GraphicsUtil.coerceData(wr, src.getColorModel(), false);
+
+        final int minX = wr.getMinX();
+        final int minY = wr.getMinY();
+        final int w = wr.getWidth();
+        final int h = wr.getHeight();
+        DataBufferInt dbf = (DataBufferInt)wr.getDataBuffer();
+        final int[] pixels = dbf.getBankData()[0];
+
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+
+        final int offset =
+            (dbf.getOffset() +
+             sppsm.getOffset(minX-wr.getSampleModelTranslateX(),
+                             minY-wr.getSampleModelTranslateY()));
+
+        final int adjust = sppsm.getScanlineStride() - w;
+
+        final int [] kinds = this.kinds;
+        final int [][] luts = this.luts;
+        final float [][] matrices = this.matrices;
+        final int nStages = kinds.length;
+
+        int p = offset;
+        for (int i=0; i<h; i++) {
+            final int end = p+w;
+            while (p<end) {
+                int pel = pixels[p];
+
+                int a = pel >>> 24;
+                int r = (pel >> 16) & 0xff;
+                int g = (pel >> 8 ) & 0xff;
+                int b =  pel        & 0xff;
+
+                for (int s=0; s<nStages; s++) {
+                    if (kinds[s] == STAGE_LUT) {
+                        final int [] lut = luts[s];
+                        a = lut[    a];
+                        r = lut[256+r];
+                        g = lut[512+g];
+                        b = lut[768+b];
+                        continue;
+                    }
+
+                    final float [] m = matrices[s];
+                    // Same expression (and rounding) as ColorMatrixRed.
+                    int dr = (int)((m[ 0]*r + m[ 1]*g + m[ 2]*b + m[ 3]*a + m[ 4])*255.0f);
+                    int dg = (int)((m[ 5]*r + m[ 6]*g + m[ 7]*b + m[ 8]*a + m[ 9])*255.0f);
+                    int db = (int)((m[10]*r + m[11]*g + m[12]*b + m[13]*a + m[14])*255.0f);
+                    int da = (int)((m[15]*r + m[16]*g + m[17]*b + m[18]*a + m[19])*255.0f);
+
+                    if ((dr & 0xFFFFFF00) != 0)
+                        dr = ((dr & 0x80000000) != 0)?0:255;
+                    if ((dg & 0xFFFFFF00) != 0)
+                        dg = ((dg & 0x80000000) != 0)?0:255;
+                    if ((db & 0xFFFFFF00) != 0)
+                        db = ((db & 0x80000000) != 0)?0:255;
+                    if ((da & 0xFFFFFF00) != 0)
+                        da = ((da & 0x80000000) != 0)?0:255;
+
+                    a = da; r = dr; g = dg; b = db;
+                }
+
+                pixels[p++] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+            p += adjust;
+        }
+        return wr;
+    }
+}
@@ -45,6 +45,18 @@ public class SpecularLightingRed extends AbstractTiledRed{
      */
     private double specularExponent;
 
+    /**
+     * The number of intervals in powTable.
+     */
+    private static final int POW_TABLE_SIZE = 4096;
+
+    /**
+     * x raised to the specular exponent for POW_TABLE_SIZE+1
+     * values of x evenly spaced in [0, 1], or null if the
+     * exponent is below 1.
+     */
+    private double[] powTable;
+
     /**
      * Light used for specular lighting
      */
@@ -87,6 +99,7 @@ public class SpecularLightingRed extends AbstractTiledRed{
         this.scaleX = scaleX;
         this.scaleY = scaleY;
         this.linear = linear;
+        this.powTable = createPowTable(specularExponent);
 
         ColorModel cm;
         if (linear)
@@ -103,6 +116,21 @@ public class SpecularLightingRed extends AbstractTiledRed{
                                              
         init((CachableRed)null, litRegion, cm, sm,
              litRegion.x, litRegion.y, null);
+        bumpMap.setTileGrid(litRegion.x, litRegion.y, tw, th);
+    }
+
+    /**
+     * Builds the table of the powers of the specular exponent.
+     * Interpolating the curve is only accurate enough when it
+     * has no vertical tangent, that is for exponents of at least 1.
+     */
+    private static double[] createPowTable(double specularExponent) {
+        if (!(specularExponent >= 1))
+            return null;
+        double[] table = new double[POW_TABLE_SIZE+1];
+        for (int i=0; i<=POW_TABLE_SIZE; i++)
+            table[i] = Math.pow(i/(double)POW_TABLE_SIZE, specularExponent);
+        return table;
     }
 
     public WritableRaster copyData(WritableRaster wr) {
@@ -111,10 +139,6 @@ public class SpecularLightingRed extends AbstractTiledRed{
     }
 
     public void genRect(WritableRaster wr) {
-        // Copy variable on stack for faster access in tight loop
-        final double scaleX = this.scaleX;
-        final double scaleY = this.scaleY;
-
         final double[] lightColor = light.getColor(linear);
 
         final int w = wr.getWidth();
@@ -132,18 +156,9 @@ public class SpecularLightingRed extends AbstractTiledRed{
             (db.getOffset() +
              sppsm.getOffset(minX-wr.getSampleModelTranslateX(), 
                              minY-wr.getSampleModelTranslateY()));
-        // int offset = db.getOffset();
         final int scanStride = sppsm.getScanlineStride();
-        final int adjust = scanStride - w;
-        int p = offset;
-        int a=0, i=0, j=0;
-
-        // x and y are in user space
-        double x = scaleX*minX;
-        double y = scaleY*minY;
-        double norm = 0;
 
-        int pixel = 0, tmp;
+        int pixel, tmp;
         double mult;
         mult = (lightColor[0]>lightColor[1])?lightColor[0]:lightColor[1];
         mult = (mult>lightColor[2])?mult:lightColor[2];
@@ -157,24 +172,45 @@ public class SpecularLightingRed extends AbstractTiledRed{
 
         mult*=255*ks;
 
-        // System.out.println("Pixel: 0x" + Integer.toHexString(pixel));
+        final int rgb = pixel;
+        final double alphaScale = mult;
+        final double[] N = bumpMap.getNormals(minX, minY, w, h);
+
+        // Every pixel only depends on its own normal so bands of
+        // rows can be lit in parallel.
+        ParallelBands.run(h, (long)w*h, new ParallelBands.Band() {
+                public void run(int start, int end) {
+                    genRows(pixels, offset+start*scanStride, scanStride,
+                            N, minX, minY+start, w, end-start,
+                            start*w*4, rgb, alphaScale);
+                }
+            });
+    }
 
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
+    /**
+     * Lights the w x h pixels starting at (x0, y0).
+     * @param p the offset of pixel (x0, y0) in pixels.
+     * @param N the normals, as returned by BumpMap.getNormals.
+     * @param n the offset of the normal of pixel (x0, y0) in N.
+     * @param pixel the RGB components of the lit pixels.
+     * @param mult the factor from the specular intensity to alpha.
+     */
+    private void genRows(final int[] pixels, int p, final int scanStride,
+                         final double[] N, final int x0, final int y0,
+                         final int w, final int h, int n,
+                         final int pixel, final double mult) {
+        final int adjust = scanStride - w;
+        double norm;
+        int a;
 
-        // System.out.println("Entering Specular Lighting");
         if (light instanceof SpotLight) {
             SpotLight slight = (SpotLight)light;
-            final double[][] LA = new double[w][4];
-            for(i=0; i<h; i++){
-                // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                slight.getLightRow4(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    // Get Light Vector
-                    final double [] L = LA[j];
+            final double[] L = new double[4];
+            for (int i=0; i<h; i++) {
+                // x and y are in user space
+                final double y = scaleY*(y0+i);
+                for (int j=0; j<w; j++, n+=4) {
+                    slight.getLight4(scaleX*(x0+j), y, N[n+3], L);
                     double vs = L[3];
                     if (vs == 0) {
                         a = 0;
@@ -182,8 +218,8 @@ public class SpecularLightingRed extends AbstractTiledRed{
                         L[2] += 1;
                         norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
                         norm = Math.sqrt(norm);
-                        double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
-                        vs = vs*Math.pow(dot/norm, specularExponent);
+                        double dot = N[n]*L[0] + N[n+1]*L[1] + N[n+2]*L[2];
+                        vs = vs*pow(dot/norm);
                         a = (int)(mult*vs + 0.5);
                         if ((a & 0xFFFFFF00) != 0)
                             a = ((a & 0x80000000) != 0)?0:255;
@@ -192,34 +228,28 @@ public class SpecularLightingRed extends AbstractTiledRed{
                 }
                 p += adjust;
             }
-        } else if(!light.isConstant()){
-            final double[][] LA = new double[w][4];
-            for(i=0; i<h; i++){
-                // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    // Get Light Vector
-                    final double [] L = LA[j];
+        } else if (!light.isConstant()) {
+            // PointLight: the light vector depends on the position
+            // of each pixel.
+            final double[] L = new double[3];
+            for (int i=0; i<h; i++) {
+                final double y = scaleY*(y0+i);
+                for (int j=0; j<w; j++, n+=4) {
+                    light.getLight(scaleX*(x0+j), y, N[n+3], L);
                     L[2] += 1;
                     norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
                     norm = Math.sqrt(norm);
-                    double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
-                    // vs = vs/norm;
-                    norm = Math.pow(dot/norm, specularExponent);
-                    a = (int)(mult*norm + 0.5);
+                    double dot = N[n]*L[0] + N[n+1]*L[1] + N[n+2]*L[2];
+                    a = (int)(mult*pow(dot/norm) + 0.5);
                     if ((a & 0xFFFFFF00) != 0)
                         a = ((a & 0x80000000) != 0)?0:255;
                     pixels[p++] = (a << 24 | pixel);
                 }
                 p += adjust;
             }
-        }
-        else{
-            // Get constant light vector
+        } else {
+            // Constant light, such as a DistantLight: the half-way
+            // vector is the same for all the pixels.
             final double[] L = new double[3];
             light.getLight(0, 0, 0, L);
 
@@ -231,24 +261,35 @@ public class SpecularLightingRed extends AbstractTiledRed{
                 L[1] /= norm;
                 L[2] /= norm;
             }
+            final double H0 = L[0], H1 = L[1], H2 = L[2];
 
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    a = (int)(mult*Math.pow(N[0]*L[0] + N[1]*L[1] + N[2]*L[2], 
-                                            specularExponent) + 0.5);
-                    
+            for (int i=0; i<h; i++) {
+                for (int j=0; j<w; j++, n+=4) {
+                    a = (int)(mult*pow(N[n]*H0 + N[n+1]*H1 + N[n+2]*H2)
+                              + 0.5);
                     if ((a & 0xFFFFFF00) != 0)
                         a = ((a & 0x80000000) != 0)?0:255;
-
                     pixels[p++] = (a << 24 | pixel);
                 }
                 p += adjust;
             }
         }
-        // System.out.println("Exiting Specular Lighting");
     }
+
+    /**
+     * Returns v raised to the specular exponent.  Values in [0, 1],
+     * the cosines of the angles facing the light, are interpolated
+     * in powTable.
+     */
+    private double pow(double v) {
+        final double[] table = powTable;
+        if ((table == null) || !(v >= 0) || (v > 1))
+            return Math.pow(v, specularExponent);
+        final double f = v*POW_TABLE_SIZE;
+        final int i = (int)f;
+        if (i == POW_TABLE_SIZE)
+            return table[i];
+        return table[i] + (f-i)*(table[i+1]-table[i]);
+    }
+
 }
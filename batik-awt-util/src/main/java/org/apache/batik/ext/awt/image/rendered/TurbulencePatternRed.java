@@ -29,6 +29,9 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * This class creates a RenderedImage in conformance to the one
  * defined for the feTurbulence filter of the SVG specification.  What
@@ -210,8 +213,25 @@ public final class TurbulencePatternRed extends AbstractRed {
     private static final int BSize = 0x100;
     private static final int BM = 0xff;
     private static final double PerlinN = 0x1000;
-    private final int[] latticeSelector = new int[BSize + 1];
-    private final double[] gradient = new double[(BSize+1)*8];
+    private final int[] latticeSelector;
+    private final double[] gradient;
+
+    /**
+     * The number of lattices kept in <code>latticeCache</code>.
+     */
+    private static final int LATTICE_CACHE_SIZE = 16;
+
+    /**
+     * Lattices by seed, so patterns with the same seed share their
+     * (read only) latticeSelector and gradient tables.  Each entry is
+     * a two element array holding the two tables.
+     */
+    private static final Map latticeCache =
+        new LinkedHashMap(LATTICE_CACHE_SIZE, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > LATTICE_CACHE_SIZE;
+            }
+        };
 
     public double getBaseFrequencyX(){
         return baseFrequencyX;
@@ -256,7 +276,29 @@ public final class TurbulencePatternRed extends AbstractRed {
         return result;
     }
 
-    private void initLattice(int seed) {
+    /**
+     * Returns the lattice tables for <code>seed</code>, from the cache
+     * if another pattern already built them.
+     */
+    private Object[] getLattice(int seed) {
+        Integer key = seed;
+        synchronized (latticeCache) {
+            Object[] lattice = (Object[])latticeCache.get(key);
+            if (lattice != null)
+                return lattice;
+        }
+        int[] ls = new int[BSize + 1];
+        double[] g = new double[(BSize+1)*8];
+        initLattice(seed, ls, g);
+        Object[] lattice = new Object[] { ls, g };
+        synchronized (latticeCache) {
+            latticeCache.put(key, lattice);
+        }
+        return lattice;
+    }
+
+    private void initLattice(int seed, int[] latticeSelector,
+                             double[] gradient) {
         double u, v, s;
         int i, j, k, s1, s2;
         seed = setupSeed(seed);
@@ -1051,154 +1093,261 @@ public final class TurbulencePatternRed extends AbstractRed {
                 ("Cannot generate a noise pattern into a null raster");
 
 
-        int w = dest.getWidth();
-        int h = dest.getHeight();
+        final int w = dest.getWidth();
+        final int h = dest.getHeight();
 
         // Access the integer buffer for the destination Raster
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
         SinglePixelPackedSampleModel sppsm;
-        int minX = dest.getMinX();
-        int minY = dest.getMinY();
+        final int minX = dest.getMinX();
+        final int minY = dest.getMinY();
         sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        int dstOff = dstDB.getOffset() +
+        final int dstOff = dstDB.getOffset() +
             sppsm.getOffset(minX - dest.getSampleModelTranslateX(),
                             minY - dest.getSampleModelTranslateY());
 
         final int[] destPixels = dstDB.getBankData()[0];
-        int dstAdjust = sppsm.getScanlineStride() - w;
+        final int scanStride = sppsm.getScanlineStride();
+
+        // Every pixel's noise only depends on its own position so
+        // bands can be generated independently of each other.
+        ParallelBands.run(h, (long)w*h, new ParallelBands.Band() {
+                public void run(int start, int end) {
+                    fillRect(destPixels, dstOff + start*scanStride,
+                             scanStride, minX, minY+start, w, end-start);
+                }
+            });
+
+        return dest;
+    }
+
+    /**
+     * Generates the noise for the w x h pixels starting at (x0, y0).
+     * The position of each pixel in filter space is computed directly
+     * from the transform (rather than accumulated along the rows) so
+     * the result doesn't depend on how the image is split in tiles or
+     * bands.
+     * @param destPixels the destination pixels.
+     * @param dp the offset of pixel (x0, y0) in destPixels.
+     * @param scanStride the scanline stride of destPixels.
+     */
+    private void fillRect(final int[] destPixels, int dp, int scanStride,
+                          int x0, int y0, int w, int h) {
+        final double m00 = txf.getScaleX();
+        final double m01 = txf.getShearX();
+        final double m02 = txf.getTranslateX();
+        final double m10 = txf.getShearY();
+        final double m11 = txf.getScaleY();
+        final double m12 = txf.getTranslateY();
+
+        if ((stitchInfo == null) && (channels.length == 4) &&
+            (m01 == 0) && (m10 == 0)) {
+            fillSeparable_4(destPixels, dp, scanStride, x0, y0, w, h);
+            return;
+        }
 
         // Generate pixel pattern now
-        int i, end, dp=dstOff;
+        int i, end;
+        final int dstAdjust = scanStride - w;
         final int[] rgb = new int[4];
         final double[] fSum = {0, 0, 0, 0};
         final double[] noise = {0, 0, 0, 0};
-
-        final double tx0, tx1, ty0, ty1;
-        tx0 = tx[0];
-        tx1 = tx[1];
-        // Update for y step, (note we substract all the stuff we
-        // added while going across the scan line).
-        ty0 = ty[0]-(w*tx0);
-        ty1 = ty[1]-(w*tx1);
-
-        double[] p = {minX, minY};
-        txf.transform(p, 0, p, 0, 1);
-        double point_0 = p[0];
-        double point_1 = p[1];
-
-        if(isFractalNoise){
-            if(stitchInfo == null){
-                if (channels.length == 4) {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++) {
-                            destPixels[dp] = turbulenceFractal_4
-                                (point_0, point_1, fSum);
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
+        final StitchInfo si = (stitchInfo == null) ? null : new StitchInfo();
+
+        for (int y = y0; y < y0+h; y++) {
+            int x = x0;
+            for (end=dp+w; dp<end; dp++, x++) {
+                double point_0 = x*m00 + y*m01 + m02;
+                double point_1 = x*m10 + y*m11 + m12;
+                if (isFractalNoise) {
+                    if (si != null) {
+                        si.assign(this.stitchInfo);
+                        turbulenceFractalStitch(rgb, point_0, point_1,
+                                                fSum, noise, si);
+                    } else if (channels.length == 4) {
+                        destPixels[dp] = turbulenceFractal_4
+                            (point_0, point_1, fSum);
+                        continue;
+                    } else {
+                        turbulenceFractal(rgb, point_0, point_1,
+                                          fSum, noise);
                     }
                 } else {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
-                            turbulenceFractal(rgb, point_0, point_1, fSum, noise);
-
-                            // Write RGB value.
-                            destPixels[dp] = ((rgb[3]<<24) |
-                                              (rgb[0]<<16) |
-                                              (rgb[1]<<8)  |
-                                              (rgb[2]   ));
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
+                    if (si != null) {
+                        si.assign(this.stitchInfo);
+                        turbulenceStitch(rgb, point_0, point_1,
+                                         fSum, noise, si);
+                    } else if (channels.length == 4) {
+                        destPixels[dp] = turbulence_4
+                            (point_0, point_1, fSum);
+                        continue;
+                    } else {
+                        turbulence(rgb, point_0, point_1, fSum, noise);
                     }
                 }
+
+                // Write RGB value.
+                destPixels[dp] = ((rgb[3]<<24) |
+                                  (rgb[0]<<16) |
+                                  (rgb[1]<<8)  |
+                                  (rgb[2]   ));
             }
-            else{
-                StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
-                    for(end=dp+w; dp<end; dp++){
-                        si.assign(this.stitchInfo);
-                        turbulenceFractalStitch(rgb, point_0, point_1,
-                                                fSum, noise, si);
+            dp += dstAdjust;
+        }
+    }
 
-                        // Write RGB value.
-                        destPixels[dp] = ((rgb[3]<<24) |
-                                          (rgb[0]<<16) |
-                                          (rgb[1]<<8)  |
-                                          (rgb[2]   ));
-                        point_0 += tx0;
-                        point_1 += tx1;
-                    }
-                    point_0 += ty0;
-                    point_1 += ty1;
-                    dp += dstAdjust;
-                }
+    /**
+     * Generates four channels of noise for the w x h pixels starting
+     * at (x0, y0) when the transform has no rotation or shear.  In
+     * that case the lattice cell and interpolation weights along x
+     * only depend on the column and those along y only on the row, so
+     * they are computed once per column and once per row, for each
+     * octave, instead of for every pixel.  The arithmetic is otherwise
+     * the same as turbulence_4 and turbulenceFractal_4.
+     */
+    private void fillSeparable_4(final int[] destPixels, int dp,
+                                 int scanStride, int x0, int y0,
+                                 int w, int h) {
+        final int nOct = Math.max(numOctaves, 0);
+        final double m00 = txf.getScaleX();
+        final double m02 = txf.getTranslateX();
+        final double m11 = txf.getScaleY();
+        final double m12 = txf.getTranslateY();
+
+        // Per column (and octave) lattice selectors and x weights.
+        final int[]    colI   = new int   [w*nOct];
+        final int[]    colJ   = new int   [w*nOct];
+        final double[] colRx0 = new double[w*nOct];
+        final double[] colSx  = new double[w*nOct];
+        for (int c=0, k=0; c<w; c++) {
+            double pointX = ((x0+c)*m00 + m02)*baseFrequencyX;
+            for (int o=0; o<nOct; o++, k++) {
+                double px = pointX+PerlinN;
+                int b0 = ((int)px)&BM;
+                colI[k] = latticeSelector[b0  ];
+                colJ[k] = latticeSelector[b0+1];
+                double rx0 = px - (int)px;
+                colRx0[k] = rx0;
+                colSx [k] = s_curve(rx0);
+                pointX *= 2;
             }
         }
-        else{ // Loop for turbulence noise
-            if(stitchInfo == null){
-                if (channels.length == 4) {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
-                            destPixels[dp] = turbulence_4
-                                (point_0, point_1, fSum);
-
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                } else {
-                    for(i=0; i<h; i++){
-                        for(end=dp+w; dp<end; dp++){
-                            turbulence(rgb, point_0, point_1, fSum, noise);
-
-                            // Write RGB value.
-                            destPixels[dp] = ((rgb[3]<<24) |
-                                              (rgb[0]<<16) |
-                                              (rgb[1]<<8)  |
-                                              (rgb[2]   ));
-                            point_0 += tx0;
-                            point_1 += tx1;
-                        }
-                        point_0 += ty0;
-                        point_1 += ty1;
-                        dp += dstAdjust;
-                    }
-                }
+
+        // Per octave lattice row and y weights of the current row.
+        final int[]    rowB   = new int   [nOct];
+        final double[] rowRy0 = new double[nOct];
+        final double[] rowSy  = new double[nOct];
+
+        final int dstAdjust = scanStride - w;
+        final double[] g = gradient;
+        for (int y=y0; y<y0+h; y++) {
+            double pointY = (y*m11 + m12)*baseFrequencyY;
+            for (int o=0; o<nOct; o++) {
+                double py = pointY+PerlinN;
+                rowB[o] = ((int)py)&BM;
+                double ry0 = py - (int)py;
+                rowRy0[o] = ry0;
+                rowSy [o] = s_curve(ry0);
+                pointY *= 2;
             }
-            else{
-                StitchInfo si = new StitchInfo();
-                for(i=0; i<h; i++){
-                    for(end=dp+w; dp<end; dp++){
-                        si.assign(this.stitchInfo);
-                        turbulenceStitch(rgb, point_0, point_1,
-                                         fSum, noise, si);
 
-                        // Write RGB value.
-                        destPixels[dp] = ((rgb[3]<<24) |
-                                          (rgb[0]<<16) |
-                                          (rgb[1]<<8)  |
-                                          (rgb[2]   ));
-                        point_0 += tx0;
-                        point_1 += tx1;
+            int k = 0;
+            for (int end=dp+w; dp<end; dp++) {
+                double f0, f1, f2, f3, ratio;
+                if (isFractalNoise) {
+                    f0 = f1 = f2 = f3 = ratio = 127.5;
+                } else {
+                    f0 = f1 = f2 = f3 = 0;
+                    ratio = 255;
+                }
+                for (int o=0; o<nOct; o++, k++) {
+                    final int b0 = ((colI[k] + rowB[o])&BM)<<3;
+                    final int b1 = ((colJ[k] + rowB[o])&BM)<<3;
+                    final double rx0 = colRx0[k];
+                    final double rx1 = rx0 - 1.0;
+                    final double sx  = colSx[k];
+                    final double ry0 = rowRy0[o];
+                    final double ry1 = ry0 - 1.0;
+                    final double sy  = rowSy[o];
+
+                    final double n0 =
+                        lerp(sy,
+                             lerp(sx,
+                                  rx0*g[b0+0] + ry0*g[b0+1],
+                                  rx1*g[b1+0] + ry0*g[b1+1]),
+                             lerp(sx,
+                                  rx0*g[b0+8+0] + ry1*g[b0+8+1],
+                                  rx1*g[b1+8+0] + ry1*g[b1+8+1]));
+                    final double n1 =
+                        lerp(sy,
+                             lerp(sx,
+                                  rx0*g[b0+2] + ry0*g[b0+3],
+                                  rx1*g[b1+2] + ry0*g[b1+3]),
+                             lerp(sx,
+                                  rx0*g[b0+8+2] + ry1*g[b0+8+3],
+                                  rx1*g[b1+8+2] + ry1*g[b1+8+3]));
+                    final double n2 =
+                        lerp(sy,
+                             lerp(sx,
+                                  rx0*g[b0+4] + ry0*g[b0+5],
+                                  rx1*g[b1+4] + ry0*g[b1+5]),
+                             lerp(sx,
+                                  rx0*g[b0+8+4] + ry1*g[b0+8+5],
+                                  rx1*g[b1+8+4] + ry1*g[b1+8+5]));
+                    final double n3 =
+                        lerp(sy,
+                             lerp(sx,
+                                  rx0*g[b0+6] + ry0*g[b0+7],
+                                  rx1*g[b1+6] + ry0*g[b1+7]),
+                             lerp(sx,
+                                  rx0*g[b0+8+6] + ry1*g[b0+8+7],
+                                  rx1*g[b1+8+6] + ry1*g[b1+8+7]));
+
+                    if (isFractalNoise) {
+                        f0 += n0*ratio;
+                        f1 += n1*ratio;
+                        f2 += n2*ratio;
+                        f3 += n3*ratio;
+                    } else {
+                        if (n0<0) f0 -= (n0 * ratio);
+                        else      f0 += (n0 * ratio);
+                        if (n1<0) f1 -= (n1 * ratio);
+                        else      f1 += (n1 * ratio);
+                        if (n2<0) f2 -= (n2 * ratio);
+                        else      f2 += (n2 * ratio);
+                        if (n3<0) f3 -= (n3 * ratio);
+                        else      f3 += (n3 * ratio);
                     }
-                    point_0 += ty0;
-                    point_1 += ty1;
-                    dp += dstAdjust;
+                    ratio *= .5;
                 }
+                destPixels[dp] = toARGB(f0, f1, f2, f3);
             }
+            dp += dstAdjust;
         }
+    }
 
-        return dest;
+    /**
+     * Clamps the four noise sums to [0, 255] and packs them in an
+     * ARGB pixel, f3 being alpha.
+     */
+    private static int toARGB(double f0, double f1, double f2, double f3) {
+        int i, j;
+        i = (int)f0;
+        if ((i & 0xFFFFFF00) == 0) j  = i<<16;
+        else                       j  = ((i & 0x80000000) != 0)?0:0xFF0000;
+
+        i = (int)f1;
+        if ((i & 0xFFFFFF00) == 0) j |= i<<8;
+        else                       j |= ((i & 0x80000000) != 0)?0:0xFF00;
+
+        i = (int)f2;
+        if ((i & 0xFFFFFF00) == 0) j |= i;
+        else                       j |= ((i & 0x80000000) != 0)?0:0xFF;
+
+        i = (int)f3;
+        if ((i & 0xFFFFFF00) == 0) j |= i<<24;
+        else                       j |= ((i & 0x80000000) != 0)?0:0xFF000000;
+        return j;
     }
 
     /**
@@ -1326,7 +1475,9 @@ public final class TurbulencePatternRed extends AbstractRed {
             //                     " maxLatticeY = " + maxLatticeY);
         }
 
-        initLattice(seed);
+        Object[] lattice = getLattice(seed);
+        latticeSelector = (int[])lattice[0];
+        gradient = (double[])lattice[1];
 
         ColorModel cm;
         if (alpha)
@@ -0,0 +1,530 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.spi;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the image decodes started by the <code>RegistryEntry</code>
+ * implementations, so the number of decoding threads stays bounded
+ * no matter how many images a document references.
+ *
+ * <p>
+ *   By default decodes run on a pool of daemon threads, one per
+ *   processor unless the <code>org.apache.batik.decode.threads</code>
+ *   system property says otherwise.  Any <code>ExecutorService</code>
+ *   can be used instead, such as one creating virtual threads.  When
+ *   more than <code>getMaxPending()</code> decodes are waiting (the
+ *   <code>org.apache.batik.decode.queue</code> property, 256 by
+ *   default) new decodes are run in the calling thread, which slows
+ *   down the producer rather than queuing without bounds.
+ * </p>
+ * <p>
+ *   Decodes started while a <code>Group</code> is current for the
+ *   calling thread belong to that group and can be cancelled together,
+ *   e.g. when the document that needed them is disposed.  Images are
+ *   shared through the image caches, so a decode can have several
+ *   requesters: the group that started it and those that joined it
+ *   through <code>request</code>.  Cancelling a group only cancels
+ *   the decodes no other requester waits for, and only those that
+ *   haven't started yet.  A running decode always completes.
+ * </p>
+ *
+ * @version $Id$
+ */
+public class DecodeExecutor {
+
+    /**
+     * The system property giving the number of threads of the
+     * default executor.
+     */
+    public static final String THREADS_PROPERTY =
+        "org.apache.batik.decode.threads";
+
+    /**
+     * The system property giving the maximum number of decodes the
+     * default executor keeps waiting.
+     */
+    public static final String QUEUE_PROPERTY =
+        "org.apache.batik.decode.queue";
+
+    /**
+     * The default maximum number of waiting decodes.
+     */
+    public static final int DEFAULT_MAX_PENDING = 256;
+
+    private static DecodeExecutor defaultExecutor;
+
+    /**
+     * The group of the decodes started by each thread.
+     */
+    private static final ThreadLocal currentGroup = new ThreadLocal();
+
+    /**
+     * The decodes that haven't completed, keyed by the image they
+     * produce.  Cancelled decodes are mapped to <code>CANCELLED</code>.
+     */
+    private static final Map decodes = new WeakHashMap();
+
+    private static final Object CANCELLED = new Object();
+
+    /**
+     * Returns the executor used by the registry entries, creating it
+     * on first use.
+     */
+    public static synchronized DecodeExecutor getDefault() {
+        if (defaultExecutor == null) {
+            int nThreads = getIntProperty
+                (THREADS_PROPERTY,
+                 Runtime.getRuntime().availableProcessors());
+            int maxPending = getIntProperty
+                (QUEUE_PROPERTY, DEFAULT_MAX_PENDING);
+            defaultExecutor = new DecodeExecutor
+                (createThreadPool(nThreads), maxPending);
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Sets the executor used by the registry entries.  The previous
+     * executor is not shut down.
+     */
+    public static synchronized void setDefault(DecodeExecutor executor) {
+        defaultExecutor = executor;
+    }
+
+    /**
+     * Makes <code>group</code> the group of the decodes started by
+     * the calling thread.
+     * @param group the new group, may be null.
+     * @return the previous group of the calling thread.
+     */
+    public static Group setCurrentGroup(Group group) {
+        Group old = (Group)currentGroup.get();
+        currentGroup.set(group);
+        return old;
+    }
+
+    /**
+     * Returns the group of the decodes started by the calling thread.
+     */
+    public static Group getCurrentGroup() {
+        return (Group)currentGroup.get();
+    }
+
+    /**
+     * Adds the current group of the calling thread to the requesters
+     * of the decode producing <code>result</code>, so cancelling the
+     * group that started the decode doesn't take the image away from
+     * the calling thread.  Call this when <code>result</code> is
+     * taken from a cache.
+     * @return false if the decode was cancelled, <code>result</code>
+     *         will never hold the image and should not be used.
+     */
+    public static boolean request(Object result) {
+        Object d;
+        synchronized (decodes) {
+            d = decodes.get(result);
+        }
+        if (d == null)
+            // Not decoded by us, or already done.
+            return true;
+        if (d == CANCELLED)
+            return false;
+        return ((Decode)d).request(getCurrentGroup());
+    }
+
+    private static int getIntProperty(String name, int def) {
+        try {
+            String s = System.getProperty(name);
+            if (s != null) {
+                int i = Integer.parseInt(s);
+                if (i > 0)
+                    return i;
+            }
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        }
+        return def;
+    }
+
+    /**
+     * Creates a pool of <code>nThreads</code> daemon threads that are
+     * released when idle.
+     */
+    protected static ExecutorService createThreadPool(int nThreads) {
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor
+            (nThreads, nThreads, 30, TimeUnit.SECONDS,
+             new LinkedBlockingQueue(),
+             new ThreadFactory() {
+                 public Thread newThread(Runnable r) {
+                     Thread t = new Thread(r, "Batik image decoder");
+                     t.setDaemon(true);
+                     return t;
+                 }
+             });
+        tpe.allowCoreThreadTimeOut(true);
+        return tpe;
+    }
+
+    protected final ExecutorService service;
+    protected final int maxPending;
+
+    protected int pending;
+    protected long decodeCount;
+    protected long cancelCount;
+    protected long callerRunsCount;
+    protected long totalDecodeTime;
+    protected long maxDecodeTime;
+
+    /**
+     * @param service the executor the decodes are run on.
+     * @param maxPending the maximum number of decodes waiting for a
+     *        thread of <code>service</code>.
+     */
+    public DecodeExecutor(ExecutorService service, int maxPending) {
+        if (maxPending < 0)
+            throw new IllegalArgumentException();
+        this.service    = service;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Starts <code>task</code>.  The task runs in the calling thread
+     * if too many decodes are already waiting, or if the service
+     * doesn't accept it.  If the current group of the calling thread
+     * is cancelled before the task has run, the task's
+     * <code>cancelled</code> method is called instead.
+     */
+    public void execute(DecodeTask task) {
+        execute(task, null);
+    }
+
+    /**
+     * Starts <code>task</code>, which produces <code>result</code>.
+     * Those who get <code>result</code> from somewhere else than the
+     * caller join the decode through <code>request</code>.
+     * @see #execute(DecodeTask)
+     */
+    public void execute(DecodeTask task, Object result) {
+        Group group = getCurrentGroup();
+        Decode d = new Decode(task, result);
+        if (!d.request(group)) {
+            // The group was cancelled already.
+            d.cancel(false);
+            return;
+        }
+        if (result != null) {
+            synchronized (decodes) {
+                if (!d.isDone())
+                    decodes.put(result, d);
+            }
+        }
+
+        boolean queue;
+        synchronized (this) {
+            queue = (pending < maxPending);
+            if (queue) {
+                pending++;
+                d.queued = true;
+            } else {
+                callerRunsCount++;
+            }
+        }
+        if (queue) {
+            try {
+                service.execute(d);
+                return;
+            } catch (RejectedExecutionException ree) {
+                d.dequeue();
+                synchronized (this) {
+                    callerRunsCount++;
+                }
+            }
+        }
+        d.run();
+    }
+
+    /**
+     * Shuts down the service the decodes are run on.
+     */
+    public void shutdown() {
+        service.shutdown();
+    }
+
+    /**
+     * Returns the maximum number of decodes kept waiting.
+     */
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Returns the number of decodes waiting for a thread.
+     */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    /**
+     * Returns the number of decodes run.
+     */
+    public synchronized long getDecodeCount() {
+        return decodeCount;
+    }
+
+    /**
+     * Returns the number of decodes cancelled.
+     */
+    public synchronized long getCancelCount() {
+        return cancelCount;
+    }
+
+    /**
+     * Returns the number of decodes run in the thread that started
+     * them because too many were waiting.
+     */
+    public synchronized long getCallerRunsCount() {
+        return callerRunsCount;
+    }
+
+    /**
+     * Returns the total time spent decoding, in milliseconds.
+     */
+    public synchronized long getTotalDecodeTime() {
+        return totalDecodeTime / 1000000;
+    }
+
+    /**
+     * Returns the longest time spent on a single decode, in
+     * milliseconds.
+     */
+    public synchronized long getMaxDecodeTime() {
+        return maxDecodeTime / 1000000;
+    }
+
+    /**
+     * A decode.  <code>run</code> decodes the image and hands it
+     * over, usually through a <code>DeferRable</code>.
+     */
+    public abstract static class DecodeTask implements Runnable {
+
+        /**
+         * Called instead of <code>run</code> when the decode is
+         * cancelled before it started.  Nobody but the cancelled
+         * requesters holds the image then, this must release those
+         * waiting for it, for instance by providing a broken link
+         * image.
+         */
+        public abstract void cancelled();
+
+        /**
+         * Called when <code>run</code> ended with an exception or an
+         * error.  This must release anyone waiting for the image, for
+         * instance by providing a broken link image.
+         * @param t what <code>run</code> threw.
+         */
+        public abstract void failed(Throwable t);
+    }
+
+    /**
+     * A set of decodes that can be cancelled together.
+     */
+    public static class Group {
+        protected Set decodes = new HashSet();
+        protected boolean cancelled;
+
+        synchronized boolean add(Decode d) {
+            if (cancelled)
+                return false;
+            decodes.add(d);
+            return true;
+        }
+
+        synchronized void remove(Decode d) {
+            decodes.remove(d);
+        }
+
+        /**
+         * Withdraws this group from the decodes it requested that
+         * haven't finished, and from any decode requested in this
+         * group from now on.  The decodes nobody else requested are
+         * cancelled if they haven't started.
+         */
+        public void cancel() {
+            Object[] ds;
+            synchronized (this) {
+                cancelled = true;
+                ds = decodes.toArray();
+                decodes.clear();
+            }
+            for (Object d : ds)
+                ((Decode)d).release(this);
+        }
+
+        /**
+         * Returns true if the group was cancelled.
+         */
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Runs a decode task and keeps the statistics.
+     */
+    protected class Decode extends FutureTask {
+        protected final DecodeTask task;
+        protected final Object result;
+        protected boolean queued;
+
+        /**
+         * The groups waiting for this decode.
+         */
+        protected final Set groups = new HashSet();
+
+        /**
+         * True once a requester outside of any group waits for this
+         * decode, it can't be cancelled then.
+         */
+        protected boolean ungrouped;
+
+        protected boolean started;
+
+        /**
+         * True once this decode is cancelled, or about to be.
+         */
+        protected boolean dropped;
+
+        Decode(DecodeTask task, Object result) {
+            super(task, null);
+            this.task   = task;
+            this.result = result;
+        }
+
+        /**
+         * Adds <code>group</code> to the requesters of this decode.
+         * Returns false if the decode was cancelled.
+         */
+        synchronized boolean request(Group group) {
+            if (dropped)
+                return false;
+            if (group == null) {
+                ungrouped = true;
+            } else if (!groups.contains(group)) {
+                if (!group.add(this))
+                    // Don't wait for it in a cancelled group.
+                    return ungrouped || !groups.isEmpty() || started;
+                groups.add(group);
+            }
+            return true;
+        }
+
+        /**
+         * Removes <code>group</code> from the requesters of this
+         * decode, and cancels it if it was the last one and the
+         * decode hasn't started.
+         */
+        void release(Group group) {
+            synchronized (this) {
+                groups.remove(group);
+                if (started || ungrouped || !groups.isEmpty())
+                    return;
+                dropped = true;
+            }
+            cancel(false);
+        }
+
+        public void run() {
+            dequeue();
+            synchronized (this) {
+                if (dropped)
+                    return;
+                started = true;
+            }
+            if (isDone())
+                return;
+            long start = System.nanoTime();
+            super.run();
+            long t = System.nanoTime() - start;
+            synchronized (DecodeExecutor.this) {
+                decodeCount++;
+                totalDecodeTime += t;
+                if (t > maxDecodeTime)
+                    maxDecodeTime = t;
+            }
+        }
+
+        /**
+         * Takes this decode out of the pending count if it was queued.
+         */
+        protected void dequeue() {
+            synchronized (DecodeExecutor.this) {
+                if (!queued)
+                    return;
+                queued = false;
+                pending--;
+            }
+        }
+
+        protected void done() {
+            Object[] gs;
+            synchronized (this) {
+                gs = groups.toArray();
+            }
+            for (Object g : gs)
+                ((Group)g).remove(this);
+            if (result != null) {
+                synchronized (decodes) {
+                    if (isCancelled())
+                        decodes.put(result, CANCELLED);
+                    else
+                        decodes.remove(result);
+                }
+            }
+            if (isCancelled()) {
+                synchronized (DecodeExecutor.this) {
+                    cancelCount++;
+                }
+                task.cancelled();
+                return;
+            }
+            try {
+                get();
+            } catch (ExecutionException ee) {
+                // FutureTask keeps what run threw, hand it to the task.
+                task.failed(ee.getCause());
+            } catch (InterruptedException ie) {
+                // Can't happen, the decode is done.
+            }
+        }
+    }
+}
@@ -97,6 +97,9 @@ public class ImageTagRegistry implements ErrorConstants {
             cache.clear(purl);
             return null;
         }
+        if (!DecodeExecutor.request(ret))
+            // Its decode was cancelled, it has to be read again.
+            return null;
 
         // System.out.println("Image came from cache" + purl);
         if (colorSpace != null)
@@ -132,6 +135,9 @@ public class ImageTagRegistry implements ErrorConstants {
             else             cache = imgCache;
 
             ret = cache.request(purl);
+            if ((ret != null) && !DecodeExecutor.request(ret))
+                // Its decode was cancelled, read it again.
+                ret = null;
             if (ret != null) {
                 // System.out.println("Image came from cache" + purl);
                 if (colorSpace != null)
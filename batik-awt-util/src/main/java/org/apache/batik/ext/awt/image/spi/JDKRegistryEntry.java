@@ -87,7 +87,7 @@ public class JDKRegistryEntry extends AbstractRegistryEntry
      *                    any default color correction the file may
      *                    specify applied.
      */
-    public Filter handleURL(ParsedURL purl, boolean needRawData) {
+    public Filter handleURL(final ParsedURL purl, boolean needRawData) {
 
         final URL url;
         try {
@@ -107,7 +107,7 @@ public class JDKRegistryEntry extends AbstractRegistryEntry
             errParam = new Object[] {"JDK"};
         }
 
-        Thread t = new Thread() {
+        DecodeExecutor.DecodeTask t = new DecodeExecutor.DecodeTask() {
                 public void run() {
                     Filter filt = null;
                     try {
@@ -132,8 +132,19 @@ public class JDKRegistryEntry extends AbstractRegistryEntry
 
                     dr.setSource(filt);
                 }
+
+                public void cancelled() {
+                    // Only the cancelled requesters hold dr.
+                    dr.setSource(ImageTagRegistry.getBrokenLinkImage
+                                 (JDKRegistryEntry.this, errCode, errParam));
+                }
+
+                public void failed(Throwable t) {
+                    dr.setSource(ImageTagRegistry.getBrokenLinkImage
+                                 (JDKRegistryEntry.this, errCode, errParam));
+                }
             };
-        t.start();
+        DecodeExecutor.getDefault().execute(t, dr);
         return dr;
     }
 
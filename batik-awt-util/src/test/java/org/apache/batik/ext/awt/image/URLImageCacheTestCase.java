@@ -0,0 +1,189 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image;
+
+import java.awt.image.BufferedImage;
+
+import org.apache.batik.ext.awt.image.renderable.DeferRable;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.RedRable;
+import org.apache.batik.util.ParsedURL;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that URLImageCache keeps the most recently used images within
+ * its maximum size, and counts images once they are decoded.
+ *
+ * @version $Id$
+ */
+public class URLImageCacheTestCase {
+
+    /**
+     * The estimated size of a 100x100 image.
+     */
+    static final long IMAGE_SIZE = 4*100*100;
+
+    static ParsedURL url(String name) {
+        return new ParsedURL("http://example.org/" + name + ".png");
+    }
+
+    static Filter image() {
+        return new RedRable(GraphicsUtil.wrap
+            (new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB)));
+    }
+
+    static void load(URLImageCache cache, ParsedURL purl, Filter f) {
+        assertNull(cache.request(purl));
+        cache.put(purl, f);
+    }
+
+    @Test
+    public void testHit() {
+        URLImageCache cache = new URLImageCache(3*IMAGE_SIZE);
+        Filter a = image();
+        load(cache, url("a"), a);
+        assertTrue(cache.isDone(url("a")));
+        assertSame(a, cache.request(url("a")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(IMAGE_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        URLImageCache cache = new URLImageCache(3*IMAGE_SIZE);
+        Filter a = image();
+        load(cache, url("a"), a);
+        load(cache, url("b"), image());
+        load(cache, url("c"), image());
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(3*IMAGE_SIZE, cache.getSize());
+
+        // Using a makes b the least recently used image.
+        assertSame(a, cache.request(url("a")));
+        load(cache, url("d"), image());
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3*IMAGE_SIZE, cache.getSize());
+        assertTrue(cache.isPresent(url("a")));
+        assertFalse(cache.isPresent(url("b")));
+        assertTrue(cache.isPresent(url("c")));
+        assertTrue(cache.isPresent(url("d")));
+    }
+
+    @Test
+    public void testPendingNotEvicted() {
+        URLImageCache cache = new URLImageCache(IMAGE_SIZE);
+        // Someone is on the hook for a.
+        assertNull(cache.request(url("a")));
+        load(cache, url("b"), image());
+        load(cache, url("c"), image());
+
+        assertTrue(cache.isPresent(url("a")));
+        assertFalse(cache.isDone(url("a")));
+        assertFalse(cache.isPresent(url("b")));
+        assertTrue(cache.isDone(url("c")));
+        assertEquals(IMAGE_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testDeferredSizeCountedOnceKnown() {
+        URLImageCache cache = new URLImageCache(2*IMAGE_SIZE);
+        DeferRable dr = new DeferRable();
+        load(cache, url("a"), dr);
+        // Still decoding, so its size isn't known.
+        assertEquals(0, cache.getSize());
+
+        // Counted as soon as it is decoded.
+        dr.setSource(image());
+        assertEquals(IMAGE_SIZE, cache.getSize());
+        load(cache, url("b"), image());
+        assertEquals(2*IMAGE_SIZE, cache.getSize());
+        load(cache, url("c"), image());
+        assertFalse(cache.isPresent(url("a")));
+        assertEquals(2*IMAGE_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testClearAndShrink() {
+        URLImageCache cache = new URLImageCache(3*IMAGE_SIZE);
+        load(cache, url("a"), image());
+        load(cache, url("b"), image());
+        load(cache, url("c"), image());
+
+        cache.clear(url("b"));
+        assertEquals(2*IMAGE_SIZE, cache.getSize());
+
+        cache.setMaxSize(IMAGE_SIZE);
+        assertEquals(IMAGE_SIZE, cache.getSize());
+        assertFalse(cache.isPresent(url("a")));
+        assertTrue(cache.isPresent(url("c")));
+
+        cache.flush();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getEntryCount());
+        // Nobody is on the hook for a flushed URL.
+        cache.put(url("c"), image());
+        assertFalse(cache.isPresent(url("c")));
+    }
+
+    @Test
+    public void testDeferredOverBudgetEvicted() {
+        URLImageCache cache = new URLImageCache(IMAGE_SIZE);
+        load(cache, url("a"), image());
+        DeferRable dr = new DeferRable();
+        load(cache, url("b"), dr);
+        assertTrue(cache.isPresent(url("a")));
+
+        // Decoding b takes the cache over its size, a goes.
+        dr.setSource(image());
+        assertFalse(cache.isPresent(url("a")));
+        assertTrue(cache.isDone(url("b")));
+        assertEquals(IMAGE_SIZE, cache.getSize());
+    }
+
+    @Test
+    public void testCollectedImageDropped() {
+        URLImageCache cache = new URLImageCache(3*IMAGE_SIZE);
+        load(cache, url("a"), image());
+        load(cache, url("b"), image());
+
+        // What the garbage collector does when memory runs low.
+        URLImageCache.Entry e = (URLImageCache.Entry)cache.map.get(url("a"));
+        e.clear();
+        assertFalse(cache.isDone(url("a")));
+        // Whoever asks for it next is on the hook to load it again.
+        assertNull(cache.request(url("a")));
+        assertEquals(IMAGE_SIZE, cache.getSize());
+        cache.put(url("a"), image());
+        assertEquals(2*IMAGE_SIZE, cache.getSize());
+
+        e = (URLImageCache.Entry)cache.map.get(url("b"));
+        e.clear();
+        e.cleared();
+        assertFalse(cache.isPresent(url("b")));
+        assertEquals(IMAGE_SIZE, cache.getSize());
+    }
+}
@@ -0,0 +1,281 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.rendered.BufferedImageCachableRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that FilterResultCache reuses results across repaints of the
+ * same area only, and drops them when the filter changes.
+ *
+ * @version $Id$
+ */
+public class FilterResultCacheTestCase {
+
+    /**
+     * A filter that renders a pattern depending only on user space
+     * coordinates and counts how often it is rendered.
+     */
+    static class PatternRable extends AbstractRable {
+        int renderCount;
+        RenderedImage last;
+        Rectangle2D bounds;
+
+        PatternRable(Rectangle2D bounds) {
+            this.bounds = bounds;
+        }
+
+        public Rectangle2D getBounds2D() {
+            return (Rectangle2D)bounds.clone();
+        }
+
+        public RenderedImage createRendering(RenderContext rc) {
+            renderCount++;
+            last = null;
+            AffineTransform at = rc.getTransform();
+            Shape aoi = rc.getAreaOfInterest();
+            Rectangle2D r = bounds;
+            if (aoi != null) {
+                r = aoi.getBounds2D().createIntersection(bounds);
+                if (r.isEmpty())
+                    return null;
+            }
+            Rectangle dev = at.createTransformedShape(r).getBounds();
+            BufferedImage bi = new BufferedImage
+                (dev.width, dev.height, BufferedImage.TYPE_INT_ARGB_PRE);
+            for (int y = 0; y < dev.height; y++) {
+                for (int x = 0; x < dev.width; x++) {
+                    int ux = (int)Math.floor(dev.x+x-at.getTranslateX());
+                    int uy = (int)Math.floor(dev.y+y-at.getTranslateY());
+                    bi.setRGB(x, y, pixel(ux, uy));
+                }
+            }
+            last = new BufferedImageCachableRed(bi, dev.x, dev.y);
+            return last;
+        }
+
+        static int pixel(int ux, int uy) {
+            return 0xFF000000 | ((ux & 0xFF) << 16) | ((uy & 0xFF) << 8) |
+                ((ux*uy) & 0xFF);
+        }
+    }
+
+    private static RenderContext context(int tx, int ty, Shape aoi) {
+        return new RenderContext
+            (AffineTransform.getTranslateInstance(tx, ty), aoi,
+             new RenderingHints(null));
+    }
+
+    /**
+     * Checks that the rendering covers <code>devAOI</code> with the
+     * pattern for a translation of (tx, ty).
+     */
+    private static void checkPixels(RenderedImage ri, int tx, int ty,
+                                    Rectangle devAOI) {
+        assertNotNull(ri);
+        CachableRed cr = GraphicsUtil.wrap(ri);
+        assertTrue(cr.getBounds().contains(devAOI));
+        Raster r = cr.getData(devAOI);
+        int [] px = new int[1];
+        for (int y = devAOI.y; y < devAOI.y+devAOI.height; y++) {
+            for (int x = devAOI.x; x < devAOI.x+devAOI.width; x++) {
+                r.getDataElements(x, y, px);
+                assertEquals("pixel " + x + "," + y,
+                             PatternRable.pixel(x-tx, y-ty), px[0]);
+            }
+        }
+    }
+
+    @Test
+    public void testRepaintHits() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache();
+        Rectangle aoi = new Rectangle(0, 0, 300, 200);
+
+        checkPixels(cache.createRendering(f, f, context(0, 0, aoi)),
+                    0, 0, aoi);
+        checkPixels(cache.createRendering(f, f, context(0, 0, aoi)),
+                    0, 0, aoi);
+        assertEquals(1, f.renderCount);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertTrue(cache.getSize() > 0);
+    }
+
+    @Test
+    public void testFirstRenderingUncached() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache();
+        RenderContext rc = context(0, 0, new Rectangle(0, 0, 300, 200));
+
+        // A miss hands out the filter's own rendering.
+        RenderedImage ri = cache.createRendering(f, f, rc);
+        assertSame(f.last, ri);
+    }
+
+    @Test
+    public void testOtherAreaMisses() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache();
+
+        cache.createRendering(f, f, context(0, 0, new Rectangle(0, 0, 300, 200)));
+        Rectangle part = new Rectangle(37, 51, 90, 40);
+        checkPixels(cache.createRendering(f, f, context(0, 0, part)),
+                    0, 0, part);
+        assertEquals(2, f.renderCount);
+        checkPixels(cache.createRendering(f, f, context(0, 0, part)),
+                    0, 0, part);
+        assertEquals(2, f.renderCount);
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testPanMisses() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache();
+        Rectangle2D all = new Rectangle(0, 0, 300, 200);
+
+        cache.createRendering(f, f, context(0, 0, all));
+        RenderedImage ri = cache.createRendering(f, f, context(-23, 17, all));
+        checkPixels(ri, -23, 17, new Rectangle(-23, 17, 300, 200));
+        assertEquals(2, f.renderCount);
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testNonRectangularAreaNotCached() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache();
+        Shape aoi = new Ellipse2D.Double(0, 0, 300, 200);
+
+        cache.createRendering(f, f, context(0, 0, aoi));
+        cache.createRendering(f, f, context(0, 0, aoi));
+        assertEquals(2, f.renderCount);
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testEmptyResultCached() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache();
+        Rectangle outside = new Rectangle(400, 400, 50, 50);
+
+        assertNull(cache.createRendering(f, f, context(0, 0, outside)));
+        assertNull(cache.createRendering(f, f, context(0, 0, outside)));
+        assertEquals(1, f.renderCount);
+    }
+
+    @Test
+    public void testTouchInvalidates() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache();
+        Rectangle aoi = new Rectangle(0, 0, 300, 200);
+
+        cache.createRendering(f, f, context(0, 0, aoi));
+        f.touch();
+        cache.createRendering(f, f, context(0, 0, aoi));
+        assertEquals(2, f.renderCount);
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test
+    public void testTransformChangeMisses() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache();
+        Rectangle aoi = new Rectangle(0, 0, 300, 200);
+
+        cache.createRendering(f, f, context(0, 0, aoi));
+        cache.createRendering
+            (f, f, new RenderContext(AffineTransform.getScaleInstance(2, 2),
+                                     aoi, new RenderingHints(null)));
+        assertEquals(2, f.renderCount);
+    }
+
+    @Test
+    public void testFlush() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        PatternRable g = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache();
+        Rectangle aoi = new Rectangle(0, 0, 300, 200);
+
+        cache.createRendering(f, f, context(0, 0, aoi));
+        cache.createRendering(g, g, context(0, 0, aoi));
+        cache.flush(f);
+        cache.createRendering(f, f, context(0, 0, aoi));
+        cache.createRendering(g, g, context(0, 0, aoi));
+        assertEquals(2, f.renderCount);
+        assertEquals(1, g.renderCount);
+
+        cache.flush();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getEntryCount());
+        cache.createRendering(g, g, context(0, 0, aoi));
+        assertEquals(2, g.renderCount);
+    }
+
+    @Test
+    public void testEviction() {
+        FilterResultCache cache = new FilterResultCache(2*1024*1024);
+        Rectangle aoi = new Rectangle(0, 0, 300, 200);
+        for (int i = 0; i < 10; i++) {
+            PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+            checkPixels(cache.createRendering(f, f, context(0, 0, aoi)),
+                        0, 0, aoi);
+            assertTrue(cache.getSize() <= cache.getMaxSize());
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+
+        cache.setMaxSize(0);
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testLargeRequestNotCached() {
+        PatternRable f = new PatternRable(new Rectangle(0, 0, 300, 200));
+        FilterResultCache cache = new FilterResultCache(64*1024);
+        Rectangle aoi = new Rectangle(0, 0, 300, 200);
+
+        checkPixels(cache.createRendering(f, f, context(0, 0, aoi)),
+                    0, 0, aoi);
+        cache.createRendering(f, f, context(0, 0, aoi));
+        assertEquals(2, f.renderCount);
+        assertEquals(0, cache.getEntryCount());
+    }
+}
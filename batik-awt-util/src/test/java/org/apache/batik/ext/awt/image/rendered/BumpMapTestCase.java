@@ -0,0 +1,146 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the normals BumpMap serves from its tiles are those
+ * computed for each request on its own.
+ *
+ * @version $Id$
+ */
+public class BumpMapTestCase {
+
+    /**
+     * A texture of random alpha values at (x, y) that records the
+     * areas read from it.
+     */
+    private static class Texture extends BufferedImageCachableRed {
+        List requests = new ArrayList();
+
+        Texture(int x, int y, int w, int h) {
+            super(createImage(w, h), x, y);
+        }
+
+        public Raster getData(Rectangle rect) {
+            synchronized (requests) {
+                requests.add(new Rectangle(rect));
+            }
+            return super.getData(rect);
+        }
+    }
+
+    private static BufferedImage createImage(int w, int h) {
+        BufferedImage bi =
+            new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        Random rnd = new Random(11);
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++)
+                bi.setRGB(x, y, rnd.nextInt(256) << 24);
+        return bi;
+    }
+
+    /**
+     * Compares the tiled normals of rect with those computed for
+     * rect alone by a fresh bump map.
+     */
+    private static void checkRequest(BumpMap bm, Texture texture,
+                                     Rectangle rect) {
+        double[] tiled = bm.getNormals(rect.x, rect.y,
+                                       rect.width, rect.height);
+        BumpMap ref = new BumpMap(texture, -3, 1.5, 0.75);
+        double[] expected = ref.computeNormals(rect.x, rect.y,
+                                               rect.width, rect.height);
+        assertEquals(expected.length, tiled.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != tiled[i])
+                assertEquals(rect + " at pixel " + (i/4),
+                             expected[i], tiled[i], 0);
+        }
+    }
+
+    private static void checkRequests(BumpMap bm, Texture texture) {
+        Rectangle bounds = texture.getBounds();
+        Random rnd = new Random(5);
+        for (int i = 0; i < 40; i++) {
+            int x = bounds.x - 4 + rnd.nextInt(bounds.width + 8);
+            int y = bounds.y - 4 + rnd.nextInt(bounds.height + 8);
+            int w = 1 + rnd.nextInt(200);
+            int h = 1 + rnd.nextInt(200);
+            checkRequest(bm, texture, new Rectangle(x, y, w, h));
+        }
+        // The whole texture and a margin around it.
+        checkRequest(bm, texture, bounds);
+        Rectangle r = new Rectangle(bounds);
+        r.grow(3, 3);
+        checkRequest(bm, texture, r);
+    }
+
+    /**
+     * Requests crossing the seams of the default tile grid.
+     */
+    @Test
+    public void testDefaultGrid() {
+        Texture texture = new Texture(-37, 21, 300, 170);
+        BumpMap bm = new BumpMap(texture, -3, 1.5, 0.75);
+        checkRequests(bm, texture);
+        // Asking again is served from the tiles.
+        checkRequests(bm, texture);
+    }
+
+    /**
+     * Requests crossing the seams of a grid set by the caller.
+     */
+    @Test
+    public void testCallerGrid() {
+        Texture texture = new Texture(5, -9, 260, 190);
+        BumpMap bm = new BumpMap(texture, -3, 1.5, 0.75);
+        bm.setTileGrid(7, -7, 61, 45);
+        checkRequests(bm, texture);
+    }
+
+    /**
+     * Each tile of the grid reads the texture over the tile grown by
+     * one pixel, as a request for that tile alone would.
+     */
+    @Test
+    public void testTileReadsPaddedArea() {
+        Texture texture = new Texture(0, 0, 200, 150);
+        BumpMap bm = new BumpMap(texture, 2, 1, 1);
+        bm.setTileGrid(2, 2, 64, 64);
+        bm.getNormals(2, 2, 128, 128);
+        bm.getNormals(66, 66, 64, 64);
+        List requests = texture.requests;
+        assertEquals(4, requests.size());
+        assertTrue(requests.contains(new Rectangle(1, 1, 66, 66)));
+        assertTrue(requests.contains(new Rectangle(65, 1, 66, 66)));
+        assertTrue(requests.contains(new Rectangle(1, 65, 66, 66)));
+        assertTrue(requests.contains(new Rectangle(65, 65, 66, 66)));
+    }
+}
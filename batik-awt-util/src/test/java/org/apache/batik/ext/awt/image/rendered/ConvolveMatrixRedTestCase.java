@@ -0,0 +1,265 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.PadMode;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks ConvolveMatrixRed against the convolution as written in the
+ * feConvolveMatrix definition, computed pixel by pixel.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRedTestCase {
+
+    private static final PadMode[] EDGE_MODES = {
+        PadMode.ZERO_PAD, PadMode.REPLICATE, PadMode.WRAP
+    };
+
+    /**
+     * A 3x3 kernel that isn't separable, with a zero entry.
+     */
+    private static final float[] GENERAL = {
+        1, -1,  2,
+        0,  3, -2,
+        1,  2,  1
+    };
+
+    /**
+     * A 5x3 separable kernel, the product of (1 2 1) and
+     * (1 -1 4 0 2).
+     */
+    private static final float[] SEPARABLE = {
+        1, -1, 4, 0, 2,
+        2, -2, 8, 0, 4,
+        1, -1, 4, 0, 2
+    };
+
+    /**
+     * Returns an image of random pixels, premultiplied or not.
+     */
+    private static BufferedImage createImage(int w, int h, boolean pre,
+                                             long seed) {
+        BufferedImage bi = new BufferedImage
+            (w, h, pre ? BufferedImage.TYPE_INT_ARGB_PRE
+                       : BufferedImage.TYPE_INT_ARGB);
+        int[] data = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+        Random rnd = new Random(seed);
+        for (int i = 0; i < data.length; i++) {
+            int a = rnd.nextInt(256);
+            int m = pre ? a : 255;
+            data[i] = ((a << 24) | (rnd.nextInt(m+1) << 16) |
+                       (rnd.nextInt(m+1) << 8) | rnd.nextInt(m+1));
+        }
+        return bi;
+    }
+
+    /**
+     * Returns the source coordinate used for v, or -1 for a
+     * transparent black pixel.
+     */
+    private static int edge(int v, int s0, int len, PadMode mode) {
+        v -= s0;
+        if ((v >= 0) && (v < len))
+            return v;
+        if (mode == PadMode.REPLICATE)
+            return (v < 0) ? 0 : len-1;
+        if (mode == PadMode.WRAP)
+            return ((v % len) + len) % len;
+        return -1;
+    }
+
+    private static int round(double v) {
+        int i = (int)Math.floor(v + 0.5);
+        return (i < 0) ? 0 : ((i > 255) ? 255 : i);
+    }
+
+    /**
+     * Computes
+     * RESULT(x, y) = SUM(I=0..orderY-1, J=0..orderX-1)
+     *     SOURCE(x-targetX+J, y-targetY+I)
+     *     * kernelMatrix(orderX-J-1, orderY-I-1) / divisor
+     * for one destination pixel.
+     */
+    private static int spec(int[] src, Rectangle srcR, float[] kernel,
+                            int orderX, int orderY, float divisor,
+                            Point target, PadMode mode,
+                            boolean preserveAlpha, int x, int y) {
+        double[] sum = new double[4];
+        for (int i = 0; i < orderY; i++) {
+            for (int j = 0; j < orderX; j++) {
+                int sx = edge(x-target.x+j, srcR.x, srcR.width,  mode);
+                int sy = edge(y-target.y+i, srcR.y, srcR.height, mode);
+                if ((sx < 0) || (sy < 0))
+                    continue;
+                int pel = src[sy*srcR.width+sx];
+                double k = kernel[(orderY-i-1)*orderX + (orderX-j-1)]
+                    / divisor;
+                sum[0] += k*(pel>>>24);
+                sum[1] += k*((pel>>16)&0xFF);
+                sum[2] += k*((pel>> 8)&0xFF);
+                sum[3] += k*( pel     &0xFF);
+            }
+        }
+        int r = round(sum[1]), g = round(sum[2]), b = round(sum[3]);
+        int a;
+        if (preserveAlpha) {
+            int sx = edge(x, srcR.x, srcR.width,  mode);
+            int sy = edge(y, srcR.y, srcR.height, mode);
+            a = ((sx < 0) || (sy < 0)) ? 0 : src[sy*srcR.width+sx]>>>24;
+        } else {
+            // Premultiplied result: the color can't exceed alpha.
+            a = Math.max(round(sum[0]), Math.max(r, Math.max(g, b)));
+        }
+        return (a<<24) | (r<<16) | (g<<8) | b;
+    }
+
+    private static void check(float[] kernel, int orderX, int orderY,
+                              float divisor, Point target,
+                              BufferedImage bi, Rectangle srcR,
+                              Rectangle bounds) {
+        int[] srcPixels = (int[])bi.getRaster().getDataElements
+            (0, 0, srcR.width, srcR.height, null);
+        boolean preserveAlpha = !bi.isAlphaPremultiplied();
+
+        float[] kd = new float[kernel.length];
+        for (int i = 0; i < kd.length; i++)
+            kd[i] = kernel[i]/divisor;
+
+        for (int m = 0; m < EDGE_MODES.length; m++) {
+            PadMode mode = EDGE_MODES[m];
+            CachableRed src =
+                new BufferedImageCachableRed(bi, srcR.x, srcR.y);
+            ConvolveMatrixRed red = new ConvolveMatrixRed
+                (src, new Kernel(orderX, orderY, kd), target, mode,
+                 preserveAlpha, bounds);
+
+            // The whole result, then an area that doesn't start on
+            // a tile.
+            Rectangle[] areas = {
+                bounds,
+                new Rectangle(bounds.x+3, bounds.y+2,
+                              bounds.width/2, bounds.height/3)
+            };
+            for (int n = 0; n < areas.length; n++) {
+                Rectangle r = areas[n];
+                Raster ras = red.getData(r);
+                int[] res = (int[])ras.getDataElements
+                    (r.x, r.y, r.width, r.height, null);
+                for (int y = 0; y < r.height; y++) {
+                    for (int x = 0; x < r.width; x++) {
+                        int exp = spec(srcPixels, srcR, kernel, orderX,
+                                       orderY, divisor, target, mode,
+                                       preserveAlpha, r.x+x, r.y+y);
+                        int act = res[y*r.width+x];
+                        if (!close(exp, act))
+                            fail(mode.getMode() + " preserveAlpha="
+                                 + preserveAlpha + " at (" + (r.x+x)
+                                 + ", " + (r.y+y) + ") expected "
+                                 + Integer.toHexString(exp) + " got "
+                                 + Integer.toHexString(act));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * True if the channels of both pixels differ by at most one,
+     * the difference float accumulation may make when rounding.
+     */
+    private static boolean close(int p1, int p2) {
+        for (int s = 0; s < 32; s += 8) {
+            if (Math.abs(((p1>>>s)&0xFF) - ((p2>>>s)&0xFF)) > 1)
+                return false;
+        }
+        return true;
+    }
+
+    @Test
+    public void testGeneralKernel() {
+        Rectangle srcR = new Rectangle(10, 20, 23, 17);
+        BufferedImage bi = createImage(srcR.width, srcR.height, true, 1);
+        check(GENERAL, 3, 3, 4, new Point(1, 1), bi, srcR,
+              new Rectangle(5, 14, 35, 30));
+        check(GENERAL, 3, 3, 6, new Point(0, 2), bi, srcR,
+              new Rectangle(12, 22, 15, 11));
+    }
+
+    @Test
+    public void testSeparableKernel() {
+        Rectangle srcR = new Rectangle(-4, 3, 31, 19);
+        BufferedImage bi = createImage(srcR.width, srcR.height, true, 2);
+        check(SEPARABLE, 5, 3, 24, new Point(3, 0), bi, srcR,
+              new Rectangle(-10, -2, 44, 30));
+    }
+
+    @Test
+    public void testPreserveAlpha() {
+        Rectangle srcR = new Rectangle(0, 0, 27, 21);
+        BufferedImage bi = createImage(srcR.width, srcR.height, false, 3);
+        check(GENERAL, 3, 3, 5, new Point(2, 1), bi, srcR,
+              new Rectangle(-3, -3, 33, 27));
+        check(SEPARABLE, 5, 3, 16, new Point(2, 1), bi, srcR,
+              new Rectangle(-3, -3, 33, 27));
+    }
+
+    /**
+     * A kernel larger than the source wraps around it several
+     * times.
+     */
+    @Test
+    public void testKernelLargerThanSource() {
+        Rectangle srcR = new Rectangle(7, 7, 2, 3);
+        BufferedImage bi = createImage(srcR.width, srcR.height, true, 4);
+        check(SEPARABLE, 5, 3, 24, new Point(4, 2), bi, srcR,
+              new Rectangle(2, 2, 12, 13));
+    }
+
+    /**
+     * The kernel is flipped: a single tap at the top left of the
+     * matrix takes the pixel at the bottom right of the window.
+     */
+    @Test
+    public void testKernelIsFlipped() {
+        float[] kernel = { 1, 0, 0,  0, 0, 0 };
+        Rectangle srcR = new Rectangle(0, 0, 8, 8);
+        BufferedImage bi = createImage(srcR.width, srcR.height, true, 5);
+        check(kernel, 3, 2, 1, new Point(0, 0), bi, srcR, srcR);
+        int[] src = (int[])bi.getRaster().getDataElements(0, 0, 8, 8, null);
+        ConvolveMatrixRed red = new ConvolveMatrixRed
+            (new BufferedImageCachableRed(bi), new Kernel(3, 2, kernel),
+             new Point(0, 0), PadMode.ZERO_PAD, false, srcR);
+        int[] res = (int[])red.getData(srcR).getDataElements
+            (0, 0, 8, 8, null);
+        assertEquals(src[1*8+2], res[0]);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.ARGBChannel;
+
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks DisplacementMapRed against the displacement computed pixel
+ * by pixel, and that it only gathers the part of the image it needs.
+ *
+ * @version $Id$
+ */
+public class DisplacementMapRedTestCase {
+
+    /**
+     * Records the areas of the image gathered in one piece, and
+     * whether the image was read tile by tile.
+     */
+    private static class Recorder extends DisplacementMapRed {
+        List gathered = new ArrayList();
+        boolean tiled;
+
+        Recorder(CachableRed image, CachableRed offsets, float scale) {
+            super(image, offsets, ARGBChannel.R, ARGBChannel.G,
+                  scale, scale, null);
+        }
+
+        protected void filterBL(Raster off, Rectangle r,
+                                Raster img, Rectangle imgR,
+                                WritableRaster dst) {
+            synchronized (gathered) {
+                gathered.add(new Rectangle(imgR));
+            }
+            super.filterBL(off, r, img, imgR, dst);
+        }
+
+        protected void filterTiles(Raster off, Rectangle r,
+                                   WritableRaster dst) {
+            tiled = true;
+            super.filterTiles(off, r, dst);
+        }
+    }
+
+    private static BufferedImage createImage(int w, int h, boolean pre,
+                                             long seed) {
+        BufferedImage bi = new BufferedImage
+            (w, h, pre ? BufferedImage.TYPE_INT_ARGB_PRE
+                       : BufferedImage.TYPE_INT_ARGB);
+        int[] data = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+        Random rnd = new Random(seed);
+        for (int i = 0; i < data.length; i++) {
+            int a = pre ? rnd.nextInt(256) : 255;
+            data[i] = ((a << 24) | (rnd.nextInt(a+1) << 16) |
+                       (rnd.nextInt(a+1) << 8) | rnd.nextInt(a+1));
+        }
+        return bi;
+    }
+
+    /**
+     * The displacement of a channel value, as DisplacementMapRed
+     * computes it, in pixels.
+     */
+    private static double displace(float scale, int v) {
+        int fpScale = (int)((scale/255.0)*(1<<15)+0.5);
+        int fpAdj   = (int)(-127.5*fpScale-0.5);
+        return (fpScale*v + fpAdj)/(double)(1<<15);
+    }
+
+    private static double sample(int[] img, int w, int h, int x, int y,
+                                 int shift) {
+        if ((x < 0) || (y < 0) || (x >= w) || (y >= h))
+            return 0;
+        return (img[y*w+x] >>> shift) & 0xFF;
+    }
+
+    /**
+     * P'(x,y) = P(x + scale * (XC(x,y) - .5), y + scale * (YC(x,y) - .5))
+     * with bilinear interpolation, pixels outside the image being
+     * transparent.
+     */
+    private static int expected(int[] img, int w, int h, int mapPel,
+                                float scale, int x, int y) {
+        double dx = displace(scale, (mapPel >> 16) & 0xFF);
+        double dy = displace(scale, (mapPel >>  8) & 0xFF);
+        double sx = x + dx, sy = y + dy;
+        int ix = (int)Math.floor(sx), iy = (int)Math.floor(sy);
+        double fx = sx - ix, fy = sy - iy;
+        int ret = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            double v =
+                (1-fy)*((1-fx)*sample(img, w, h, ix,   iy,   shift) +
+                        fx    *sample(img, w, h, ix+1, iy,   shift)) +
+                fy    *((1-fx)*sample(img, w, h, ix,   iy+1, shift) +
+                        fx    *sample(img, w, h, ix+1, iy+1, shift));
+            ret |= ((int)Math.floor(v+0.5)) << shift;
+        }
+        return ret;
+    }
+
+    private static boolean close(int p1, int p2) {
+        for (int s = 0; s < 32; s += 8) {
+            if (Math.abs(((p1>>>s)&0xFF) - ((p2>>>s)&0xFF)) > 1)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Renders the area r of a w x h image displaced with scale and
+     * compares it with the expected pixels.
+     */
+    private static Recorder check(int w, int h, float scale, Rectangle r) {
+        BufferedImage bi = createImage(w, h, true, 1);
+        BufferedImage map = createImage(w, h, false, 2);
+        Recorder red = new Recorder(new BufferedImageCachableRed(bi),
+                                    new BufferedImageCachableRed(map),
+                                    scale);
+
+        int[] imgPixels = (int[])bi.getRaster().getDataElements
+            (0, 0, w, h, null);
+        int[] mapPixels = (int[])map.getRaster().getDataElements
+            (0, 0, w, h, null);
+        Raster ras = red.getData(r);
+        int[] res = (int[])ras.getDataElements
+            (r.x, r.y, r.width, r.height, null);
+        for (int y = r.y; y < r.y+r.height; y++) {
+            for (int x = r.x; x < r.x+r.width; x++) {
+                int exp = expected(imgPixels, w, h, mapPixels[y*w+x],
+                                   scale, x, y);
+                int act = res[(y-r.y)*r.width + (x-r.x)];
+                if (!close(exp, act))
+                    fail("scale " + scale + " at (" + x + ", " + y
+                         + ") expected " + Integer.toHexString(exp)
+                         + " got " + Integer.toHexString(act));
+            }
+        }
+        return red;
+    }
+
+    /**
+     * A small scale, the image is read in one piece.
+     */
+    @Test
+    public void testSmallScale() {
+        Recorder red = check(80, 60, 12, new Rectangle(0, 0, 80, 60));
+        assertTrue(!red.tiled);
+        red = check(80, 60, -7, new Rectangle(13, 9, 30, 20));
+        assertTrue(!red.tiled);
+        // The reach of the displacements, not the whole image.
+        Rectangle r = (Rectangle)red.gathered.get(0);
+        assertTrue(r.toString(), r.width <= 30+8+3 && r.height <= 20+8+3);
+    }
+
+    /**
+     * A scale larger than the image: only the image is gathered, not
+     * the area the scale could reach.
+     */
+    @Test
+    public void testScaleLargerThanImage() {
+        Recorder red = check(50, 40, 3000, new Rectangle(0, 0, 50, 40));
+        assertTrue(!red.tiled);
+        Rectangle bounds = new Rectangle(-1, -1, 52, 42);
+        for (int i = 0; i < red.gathered.size(); i++) {
+            Rectangle r = (Rectangle)red.gathered.get(i);
+            assertTrue(r.toString(), bounds.contains(r));
+        }
+    }
+
+    /**
+     * A large scale over a large image, for a small area: the
+     * displaced pixels are read tile by tile instead of gathering
+     * most of the image.
+     */
+    @Test
+    public void testLargeScale() {
+        Recorder red = check(700, 650, 1500,
+                             new Rectangle(310, 290, 24, 18));
+        assertTrue(red.tiled);
+        assertTrue(red.gathered.isEmpty());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks MorphologyOp against a brute force per pixel max/min over
+ * the kernel window, pixels outside the image being ignored.
+ *
+ * @version $Id$
+ */
+public class MorphologyOpTestCase {
+
+    private static final int[][] RADII = {
+        { 1, 1 }, { 2, 3 }, { 5, 1 }, { 1, 7 },
+        { 12, 9 }, { 40, 2 }, { 3, 100 }, { 1000, 1000 }
+    };
+
+    /**
+     * Returns a premultiplied raster of random pixels.
+     */
+    private static WritableRaster createRaster(int w, int h, long seed) {
+        BufferedImage bi =
+            new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        Random rnd = new Random(seed);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int a = rnd.nextInt(256);
+                int r = rnd.nextInt(a+1);
+                int g = rnd.nextInt(a+1);
+                int b = rnd.nextInt(a+1);
+                bi.setRGB(x, y, (a<<24)|(r<<16)|(g<<8)|b);
+            }
+        }
+        return bi.getRaster();
+    }
+
+    /**
+     * The per channel max/min over the window, computed directly.
+     */
+    private static int[] bruteForce(Raster src, int rx, int ry,
+                                    boolean dilate) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        int x0 = src.getMinX();
+        int y0 = src.getMinY();
+        int[] ret = new int[w*h*4];
+        int[] px = new int[4];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int[] acc = new int[4];
+                for (int b = 0; b < 4; b++)
+                    acc[b] = dilate ? 0 : 255;
+                for (int j = Math.max(0, y-ry);
+                     j <= Math.min(h-1, y+ry); j++) {
+                    for (int i = Math.max(0, x-rx);
+                         i <= Math.min(w-1, x+rx); i++) {
+                        src.getPixel(x0+i, y0+j, px);
+                        for (int b = 0; b < 4; b++)
+                            acc[b] = dilate ? Math.max(acc[b], px[b])
+                                            : Math.min(acc[b], px[b]);
+                    }
+                }
+                System.arraycopy(acc, 0, ret, (y*w+x)*4, 4);
+            }
+        }
+        return ret;
+    }
+
+    private static void check(Raster src, boolean dilate) {
+        for (int i = 0; i < RADII.length; i++) {
+            int rx = RADII[i][0];
+            int ry = RADII[i][1];
+            MorphologyOp op = new MorphologyOp(rx, ry, dilate);
+            WritableRaster dst = op.filter(src, null);
+            int w = src.getWidth();
+            int h = src.getHeight();
+            int[] expected = bruteForce(src, rx, ry, dilate);
+            int[] actual = dst.getPixels(dst.getMinX(), dst.getMinY(),
+                                         w, h, (int[])null);
+            String msg = (dilate ? "dilate " : "erode ") + rx + "x" + ry
+                + " on " + w + "x" + h;
+            for (int p = 0; p < expected.length; p++) {
+                if (expected[p] != actual[p]) {
+                    assertEquals(msg + " at pixel " + (p/4),
+                                 expected[p], actual[p]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDilate() {
+        check(createRaster(57, 43, 1), true);
+    }
+
+    @Test
+    public void testErode() {
+        check(createRaster(57, 43, 2), false);
+    }
+
+    /**
+     * Radii much larger than the image must neither change the result
+     * nor size the work arrays after the radius.
+     */
+    @Test
+    public void testHugeRadius() {
+        Raster src = createRaster(9, 6, 3);
+        for (int d = 0; d < 2; d++) {
+            boolean dilate = (d == 0);
+            MorphologyOp op = new MorphologyOp(Integer.MAX_VALUE/4,
+                                               Integer.MAX_VALUE/4,
+                                               dilate);
+            WritableRaster dst = op.filter(src, null);
+            int[] expected = bruteForce(src, 9, 6, dilate);
+            int[] actual = dst.getPixels(0, 0, 9, 6, (int[])null);
+            for (int p = 0; p < expected.length; p++)
+                assertEquals(expected[p], actual[p]);
+        }
+    }
+
+    /**
+     * Single row and single column images, where the clamped radius
+     * is zero along one axis.
+     */
+    @Test
+    public void testThinImages() {
+        check(createRaster(37, 1, 4), true);
+        check(createRaster(1, 29, 5), false);
+        check(createRaster(1, 1, 6), true);
+    }
+
+    /**
+     * A child raster that doesn't start at the beginning of its
+     * data buffer nor at the origin.
+     */
+    @Test
+    public void testChildRaster() {
+        WritableRaster parent = createRaster(70, 50, 7);
+        Raster child = parent.createChild(11, 7, 45, 31, 20, 30, null);
+        check(child, true);
+        check(child, false);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.ext.awt.image.TransferFunction;
+import org.apache.batik.ext.awt.image.GammaTransfer;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that fusing point operations and colorspace conversions into
+ * one PointOpChainRed gives the same pixels as rendering them one
+ * after another.
+ *
+ * @version $Id$
+ */
+public class PointOpChainRedTestCase {
+
+    private static final float [][] MATRIX = {
+        { 0.5f, 0.3f, 0.2f, 0, 10 },
+        { 0.1f, 0.8f, 0.1f, 0, 0 },
+        { 0.2f, 0.2f, 0.9f, 0, -20 },
+        { 0, 0, 0, 0.7f, 0 }
+    };
+
+    /**
+     * Returns a premultiplied sRGB image of random pixels.
+     */
+    static CachableRed createImage(int w, int h) {
+        BufferedImage bi =
+            new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        Random rnd = new Random(17);
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++)
+                bi.setRGB(x, y, rnd.nextInt());
+        return GraphicsUtil.wrap(bi);
+    }
+
+    static TransferFunction [] createTransfer() {
+        TransferFunction [] funcs = new TransferFunction[4];
+        funcs[0] = new GammaTransfer(1, 1, 0);
+        funcs[1] = new GammaTransfer(2, 0.5f, 0.1f);
+        funcs[2] = new GammaTransfer(1, 0.7f, 0);
+        funcs[3] = new GammaTransfer(0.5f, 1, 0);
+        return funcs;
+    }
+
+    static void assertSamePixels(CachableRed expected, CachableRed actual) {
+        assertEquals(expected.getBounds(), actual.getBounds());
+        assertSame(expected.getColorModel().getColorSpace(),
+                   actual.getColorModel().getColorSpace());
+        Raster e = expected.getData();
+        Raster a = actual.getData();
+        Rectangle r = expected.getBounds();
+        int [] pe = new int[4];
+        int [] pa = new int[4];
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                e.getPixel(x, y, pe);
+                a.getPixel(x, y, pa);
+                for (int b = 0; b < 4; b++) {
+                    if (pe[b] != pa[b])
+                        throw new AssertionError
+                            ("Band " + b + " at " + x + "," + y + " is " +
+                             pa[b] + " instead of " + pe[b]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLeadingConversion() {
+        CachableRed src = createImage(37, 23);
+        CachableRed expected = new ColorMatrixRed
+            (new Any2LsRGBRed(src), MATRIX);
+        CachableRed actual = PointOpChainRed.applyMatrix
+            (GraphicsUtil.convertToLsRGB(src), MATRIX);
+        assertTrue(actual instanceof PointOpChainRed);
+        assertSamePixels(expected, actual);
+    }
+
+    @Test
+    public void testTrailingConversion() {
+        CachableRed src = createImage(37, 23);
+        TransferFunction [] funcs = createTransfer();
+        CachableRed expected = new Any2sRGBRed
+            (new ComponentTransferRed
+             (new ColorMatrixRed(new Any2LsRGBRed(src), MATRIX),
+              funcs, null));
+        CachableRed chain = PointOpChainRed.applyTransfer
+            (PointOpChainRed.applyMatrix
+             (GraphicsUtil.convertToLsRGB(src), MATRIX), funcs, null);
+        CachableRed actual = GraphicsUtil.convertTosRGB(chain);
+        assertTrue(actual instanceof PointOpChainRed);
+        assertSame(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                   actual.getColorModel().getColorSpace());
+        assertSamePixels(expected, actual);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        CachableRed src = createImage(37, 23);
+        CachableRed expected = new Any2sRGBRed(new Any2LsRGBRed(src));
+        CachableRed actual = GraphicsUtil.convertTosRGB
+            (GraphicsUtil.convertToLsRGB(src));
+        // Both conversions are one composed lookup table.
+        assertTrue(actual instanceof PointOpChainRed);
+        assertSame(src, actual.getSources().get(0));
+        assertSamePixels(expected, actual);
+
+        expected = new Any2LsRGBRed(expected);
+        actual = GraphicsUtil.convertToLsRGB(actual);
+        assertTrue(actual instanceof PointOpChainRed);
+        assertSamePixels(expected, actual);
+    }
+
+    @Test
+    public void testConversionThroughCrop() {
+        CachableRed src = createImage(37, 23);
+        Rectangle crop = new Rectangle(3, 4, 20, 10);
+        CachableRed matrix = PointOpChainRed.applyMatrix
+            (GraphicsUtil.convertToLsRGB(src), MATRIX);
+        CachableRed expected = new Any2sRGBRed
+            (new PadRed(new ColorMatrixRed(new Any2LsRGBRed(src), MATRIX),
+                        crop, PadMode.ZERO_PAD, null));
+        CachableRed actual = GraphicsUtil.convertTosRGB
+            (new PadRed(matrix, crop, PadMode.ZERO_PAD, null));
+        assertTrue(actual instanceof PadRed);
+        assertTrue(actual.getSources().get(0) instanceof PointOpChainRed);
+        assertSamePixels(expected, actual);
+    }
+
+    @Test
+    public void testPlainConversion() {
+        // Nothing to fuse with.
+        CachableRed src = createImage(5, 5);
+        assertTrue(GraphicsUtil.convertToLsRGB(src) instanceof Any2LsRGBRed);
+        CachableRed opaque = GraphicsUtil.wrap
+            (new BufferedImage(5, 5, BufferedImage.TYPE_INT_RGB));
+        CachableRed lin = GraphicsUtil.convertToLsRGB(opaque);
+        assertTrue(GraphicsUtil.convertTosRGB(lin) instanceof Any2sRGBRed);
+    }
+}
@@ -0,0 +1,356 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.Raster;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks TurbulencePatternRed against the reference turbulence
+ * function of the feTurbulence definition, and that the pattern
+ * doesn't depend on how it is split or on other patterns sharing its
+ * lattice.
+ *
+ * @version $Id$
+ */
+public class TurbulencePatternRedTestCase {
+
+    private static final ColorSpace SRGB =
+        ColorSpace.getInstance(ColorSpace.CS_sRGB);
+
+    /**
+     * The reference implementation from the feTurbulence definition.
+     * The lattice points are stitched before they are masked, since
+     * the masked points can never reach the wrap values.
+     */
+    private static class Reference {
+        static final int BSize = 0x100;
+        static final int BM = 0xff;
+        static final int PerlinN = 0x1000;
+        static final int RAND_m = 2147483647;
+        static final int RAND_a = 16807;
+        static final int RAND_q = 127773;
+        static final int RAND_r = 2836;
+
+        final int[] uLatticeSelector = new int[BSize + BSize + 2];
+        final double[][][] fGradient = new double[4][BSize + BSize + 2][2];
+
+        int nWidth, nHeight, nWrapX, nWrapY;
+
+        static int setupSeed(int lSeed) {
+            if (lSeed <= 0) lSeed = -(lSeed % (RAND_m - 1)) + 1;
+            if (lSeed > RAND_m - 1) lSeed = RAND_m - 1;
+            return lSeed;
+        }
+
+        static int random(int lSeed) {
+            int result = RAND_a * (lSeed % RAND_q) - RAND_r * (lSeed / RAND_q);
+            if (result <= 0) result += RAND_m;
+            return result;
+        }
+
+        Reference(int lSeed) {
+            int i = 0, j, k;
+            lSeed = setupSeed(lSeed);
+            for (k = 0; k < 4; k++) {
+                for (i = 0; i < BSize; i++) {
+                    uLatticeSelector[i] = i;
+                    for (j = 0; j < 2; j++)
+                        fGradient[k][i][j] = (double)
+                            (((lSeed = random(lSeed)) % (BSize + BSize))
+                             - BSize) / BSize;
+                    double s = Math.sqrt
+                        (fGradient[k][i][0] * fGradient[k][i][0] +
+                         fGradient[k][i][1] * fGradient[k][i][1]);
+                    fGradient[k][i][0] /= s;
+                    fGradient[k][i][1] /= s;
+                }
+            }
+            while (--i > 0) {
+                k = uLatticeSelector[i];
+                uLatticeSelector[i] =
+                    uLatticeSelector[j = (lSeed = random(lSeed)) % BSize];
+                uLatticeSelector[j] = k;
+            }
+            for (i = 0; i < BSize + 2; i++) {
+                uLatticeSelector[BSize + i] = uLatticeSelector[i];
+                for (k = 0; k < 4; k++)
+                    for (j = 0; j < 2; j++)
+                        fGradient[k][BSize + i][j] = fGradient[k][i][j];
+            }
+        }
+
+        static double sCurve(double t) {
+            return t * t * (3. - 2. * t);
+        }
+
+        static double lerp(double t, double a, double b) {
+            return a + t * (b - a);
+        }
+
+        double noise2(int nColorChannel, double[] vec, boolean stitch) {
+            double t = vec[0] + PerlinN;
+            int bx0 = (int)t;
+            int bx1 = bx0+1;
+            double rx0 = t - (int)t;
+            double rx1 = rx0 - 1.0;
+            t = vec[1] + PerlinN;
+            int by0 = (int)t;
+            int by1 = by0+1;
+            double ry0 = t - (int)t;
+            double ry1 = ry0 - 1.0;
+            if (stitch) {
+                if (bx0 >= nWrapX) bx0 -= nWidth;
+                if (bx1 >= nWrapX) bx1 -= nWidth;
+                if (by0 >= nWrapY) by0 -= nHeight;
+                if (by1 >= nWrapY) by1 -= nHeight;
+            }
+            bx0 &= BM; bx1 &= BM; by0 &= BM; by1 &= BM;
+            int i = uLatticeSelector[bx0];
+            int j = uLatticeSelector[bx1];
+            int b00 = uLatticeSelector[i + by0];
+            int b10 = uLatticeSelector[j + by0];
+            int b01 = uLatticeSelector[i + by1];
+            int b11 = uLatticeSelector[j + by1];
+            double sx = sCurve(rx0);
+            double sy = sCurve(ry0);
+            double[] q;
+            q = fGradient[nColorChannel][b00];
+            double u = rx0 * q[0] + ry0 * q[1];
+            q = fGradient[nColorChannel][b10];
+            double v = rx1 * q[0] + ry0 * q[1];
+            double a = lerp(sx, u, v);
+            q = fGradient[nColorChannel][b01];
+            u = rx0 * q[0] + ry1 * q[1];
+            q = fGradient[nColorChannel][b11];
+            v = rx1 * q[0] + ry1 * q[1];
+            double b = lerp(sx, u, v);
+            return lerp(sy, a, b);
+        }
+
+        double turbulence(int nColorChannel, double[] point,
+                          double fBaseFreqX, double fBaseFreqY,
+                          int nNumOctaves, boolean bFractalSum,
+                          Rectangle2D tile) {
+            boolean stitch = (tile != null);
+            if (stitch) {
+                double fTileWidth = tile.getWidth();
+                double fTileHeight = tile.getHeight();
+                if (fBaseFreqX != 0.0) {
+                    double fLoFreq = Math.floor(fTileWidth * fBaseFreqX) / fTileWidth;
+                    double fHiFreq = Math.ceil(fTileWidth * fBaseFreqX) / fTileWidth;
+                    if (fBaseFreqX / fLoFreq < fHiFreq / fBaseFreqX)
+                        fBaseFreqX = fLoFreq;
+                    else
+                        fBaseFreqX = fHiFreq;
+                }
+                if (fBaseFreqY != 0.0) {
+                    double fLoFreq = Math.floor(fTileHeight * fBaseFreqY) / fTileHeight;
+                    double fHiFreq = Math.ceil(fTileHeight * fBaseFreqY) / fTileHeight;
+                    if (fBaseFreqY / fLoFreq < fHiFreq / fBaseFreqY)
+                        fBaseFreqY = fLoFreq;
+                    else
+                        fBaseFreqY = fHiFreq;
+                }
+                nWidth = (int)(fTileWidth * fBaseFreqX + 0.5);
+                nWrapX = (int)(tile.getX() * fBaseFreqX + PerlinN + nWidth);
+                nHeight = (int)(fTileHeight * fBaseFreqY + 0.5);
+                nWrapY = (int)(tile.getY() * fBaseFreqY + PerlinN + nHeight);
+            }
+            double fSum = 0.0;
+            double[] vec = { point[0] * fBaseFreqX, point[1] * fBaseFreqY };
+            double ratio = 1;
+            for (int nOctave = 0; nOctave < nNumOctaves; nOctave++) {
+                if (bFractalSum)
+                    fSum += noise2(nColorChannel, vec, stitch) / ratio;
+                else
+                    fSum += Math.abs(noise2(nColorChannel, vec, stitch))
+                        / ratio;
+                vec[0] *= 2;
+                vec[1] *= 2;
+                ratio *= 2;
+                if (stitch) {
+                    nWidth += nWidth;
+                    nWrapX = 2 * nWrapX - PerlinN;
+                    nHeight += nHeight;
+                    nWrapY = 2 * nWrapY - PerlinN;
+                }
+            }
+            return fSum;
+        }
+
+        /**
+         * Returns the ARGB pixel at the given point in filter space.
+         */
+        int pixel(double[] point, double bfx, double bfy, int octaves,
+                  boolean fractal, Rectangle2D tile, boolean alpha) {
+            int ret = alpha ? 0 : 0xFF000000;
+            int[] shifts = { 16, 8, 0, 24 };
+            for (int c = 0; c < (alpha ? 4 : 3); c++) {
+                double v = turbulence(c, point, bfx, bfy, octaves,
+                                      fractal, tile);
+                v = fractal ? (v * 255 + 255) / 2 : v * 255;
+                int i = (int)v;
+                i = (i < 0) ? 0 : ((i > 255) ? 255 : i);
+                ret |= i << shifts[c];
+            }
+            return ret;
+        }
+    }
+
+    private static TurbulencePatternRed create(double bf, int octaves,
+                                               int seed, boolean fractal,
+                                               Rectangle2D tile,
+                                               AffineTransform txf,
+                                               Rectangle bounds,
+                                               boolean alpha) {
+        return new TurbulencePatternRed(bf, bf, octaves, seed, fractal,
+                                        tile, txf, bounds, SRGB, alpha);
+    }
+
+    private static int[] render(TurbulencePatternRed red, Rectangle r) {
+        Raster ras = red.getData(r);
+        return (int[])ras.getDataElements(r.x, r.y, r.width, r.height,
+                                           null);
+    }
+
+    private static boolean close(int p1, int p2) {
+        for (int s = 0; s < 32; s += 8) {
+            if (Math.abs(((p1>>>s)&0xFF) - ((p2>>>s)&0xFF)) > 1)
+                return false;
+        }
+        return true;
+    }
+
+    private static void check(double bf, int octaves, int seed,
+                              boolean fractal, Rectangle2D tile,
+                              AffineTransform txf, boolean alpha) {
+        Rectangle bounds = new Rectangle(-20, 10, 90, 70);
+        TurbulencePatternRed red = create(bf, octaves, seed, fractal, tile,
+                                          txf, bounds, alpha);
+        int[] res = render(red, bounds);
+        Reference ref = new Reference(seed);
+        double[] point = new double[2];
+        for (int y = 0; y < bounds.height; y++) {
+            for (int x = 0; x < bounds.width; x++) {
+                point[0] = bounds.x + x;
+                point[1] = bounds.y + y;
+                txf.transform(point, 0, point, 0, 1);
+                int exp = ref.pixel(point, bf, bf, octaves, fractal,
+                                    tile, alpha);
+                int act = res[y*bounds.width + x];
+                if (!alpha)
+                    act |= 0xFF000000;
+                if (!close(exp, act))
+                    fail("at (" + (bounds.x+x) + ", " + (bounds.y+y)
+                         + ") expected " + Integer.toHexString(exp)
+                         + " got " + Integer.toHexString(act));
+            }
+        }
+    }
+
+    @Test
+    public void testTurbulence() {
+        check(0.05, 3, 7, false, null, new AffineTransform(), true);
+    }
+
+    @Test
+    public void testFractalNoise() {
+        check(0.05, 3, 7, true, null, new AffineTransform(), true);
+        check(0.02, 2, -15, true, null,
+              AffineTransform.getScaleInstance(1.5, 0.75), true);
+    }
+
+    /**
+     * A rotation, which doesn't go through the separable path.
+     */
+    @Test
+    public void testRotated() {
+        AffineTransform txf = AffineTransform.getRotateInstance(0.3);
+        check(0.05, 3, 3, false, null, txf, true);
+        check(0.05, 3, 3, true, null, txf, true);
+    }
+
+    @Test
+    public void testNoAlpha() {
+        check(0.05, 3, 11, false, null, new AffineTransform(), false);
+        check(0.05, 3, 11, true, null, new AffineTransform(), false);
+    }
+
+    @Test
+    public void testStitch() {
+        Rectangle2D tile = new Rectangle2D.Double(0, 0, 64, 64);
+        check(0.0625, 3, 5, false, tile, new AffineTransform(), true);
+        check(0.0625, 3, 5, true, tile, new AffineTransform(), true);
+    }
+
+    /**
+     * The pattern is the same whether it is rendered at once or
+     * piece by piece.
+     */
+    @Test
+    public void testSplitRendering() {
+        Rectangle bounds = new Rectangle(0, 0, 300, 280);
+        AffineTransform[] txfs = {
+            new AffineTransform(),
+            AffineTransform.getRotateInstance(0.4)
+        };
+        for (int t = 0; t < txfs.length; t++) {
+            TurbulencePatternRed red = create(0.03, 4, 1, true, null,
+                                              txfs[t], bounds, true);
+            int[] whole = render(red, bounds);
+            Rectangle r = new Rectangle(37, 101, 53, 29);
+            int[] part = render(red, r);
+            for (int y = 0; y < r.height; y++)
+                for (int x = 0; x < r.width; x++)
+                    assertEquals(whole[(r.y+y)*bounds.width + r.x+x],
+                                 part[y*r.width + x]);
+        }
+    }
+
+    /**
+     * Patterns sharing their lattice give the same pixels as the first
+     * one, and a different seed gives another pattern.
+     */
+    @Test
+    public void testSharedLattice() {
+        Rectangle bounds = new Rectangle(0, 0, 40, 30);
+        AffineTransform txf = new AffineTransform();
+        int[] a = render(create(0.05, 3, 42, false, null, txf, bounds,
+                                true), bounds);
+        int[] b = render(create(0.05, 3, 42, false, null, txf, bounds,
+                                true), bounds);
+        int[] c = render(create(0.05, 3, 43, false, null, txf, bounds,
+                                true), bounds);
+        boolean differs = false;
+        for (int i = 0; i < a.length; i++) {
+            assertEquals(a[i], b[i]);
+            differs |= (a[i] != c[i]);
+        }
+        assertTrue(differs);
+    }
+}
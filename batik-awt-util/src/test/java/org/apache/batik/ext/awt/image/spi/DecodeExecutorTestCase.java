@@ -0,0 +1,270 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.spi;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every decode given to a DecodeExecutor ends up either
+ * run, cancelled or failed, so nobody waits forever for its image.
+ *
+ * @version $Id$
+ */
+public class DecodeExecutorTestCase {
+
+    /**
+     * A decode task recording what happened to it.
+     */
+    static class Task extends DecodeExecutor.DecodeTask {
+        final RuntimeException toThrow;
+        final CountDownLatch finished = new CountDownLatch(1);
+        volatile boolean ran;
+        volatile boolean cancelled;
+        volatile Throwable failure;
+
+        Task(RuntimeException toThrow) {
+            this.toThrow = toThrow;
+        }
+
+        public void run() {
+            ran = true;
+            if (toThrow != null)
+                throw toThrow;
+            finished.countDown();
+        }
+
+        public void cancelled() {
+            cancelled = true;
+            finished.countDown();
+        }
+
+        public void failed(Throwable t) {
+            failure = t;
+            finished.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private ExecutorService service;
+    private DecodeExecutor executor;
+    private CountDownLatch gate;
+
+    @Before
+    public void setUp() {
+        service = Executors.newSingleThreadExecutor();
+        executor = new DecodeExecutor(service, 16);
+        // Keep the only thread busy until the test opens the gate.
+        gate = new CountDownLatch(1);
+        service.execute(new Runnable() {
+                public void run() {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException ie) { }
+                }
+            });
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testRun() throws Exception {
+        Task t = new Task(null);
+        executor.execute(t);
+        assertEquals(1, executor.getPendingCount());
+        gate.countDown();
+        t.await();
+        assertTrue(t.ran);
+        assertFalse(t.cancelled);
+    }
+
+    @Test
+    public void testRuntimeExceptionIsReported() throws Exception {
+        RuntimeException ex = new IllegalStateException("corrupt image");
+        Task t = new Task(ex);
+        executor.execute(t);
+        gate.countDown();
+        t.await();
+        assertSame(ex, t.failure);
+        assertFalse(t.cancelled);
+    }
+
+    @Test
+    public void testGroupCancel() throws Exception {
+        DecodeExecutor.Group g = new DecodeExecutor.Group();
+        DecodeExecutor.Group old = DecodeExecutor.setCurrentGroup(g);
+        Task t = new Task(null);
+        try {
+            executor.execute(t);
+        } finally {
+            DecodeExecutor.setCurrentGroup(old);
+        }
+        g.cancel();
+        t.await();
+        assertTrue(t.cancelled);
+        assertEquals(1, executor.getCancelCount());
+
+        gate.countDown();
+        Task after = new Task(null);
+        executor.execute(after);
+        after.await();
+        assertFalse(t.ran);
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    @Test
+    public void testCancelledGroupRejectsDecodes() throws Exception {
+        DecodeExecutor.Group g = new DecodeExecutor.Group();
+        g.cancel();
+        DecodeExecutor.Group old = DecodeExecutor.setCurrentGroup(g);
+        Task t = new Task(null);
+        try {
+            executor.execute(t);
+        } finally {
+            DecodeExecutor.setCurrentGroup(old);
+        }
+        assertTrue(t.cancelled);
+        assertFalse(t.ran);
+        assertEquals(0, executor.getPendingCount());
+    }
+
+    private void execute(DecodeExecutor.Group g, Task t, Object result) {
+        DecodeExecutor.Group old = DecodeExecutor.setCurrentGroup(g);
+        try {
+            executor.execute(t, result);
+        } finally {
+            DecodeExecutor.setCurrentGroup(old);
+        }
+    }
+
+    private static boolean request(DecodeExecutor.Group g, Object result) {
+        DecodeExecutor.Group old = DecodeExecutor.setCurrentGroup(g);
+        try {
+            return DecodeExecutor.request(result);
+        } finally {
+            DecodeExecutor.setCurrentGroup(old);
+        }
+    }
+
+    @Test
+    public void testSharedDecodeNotCancelled() throws Exception {
+        DecodeExecutor.Group g1 = new DecodeExecutor.Group();
+        DecodeExecutor.Group g2 = new DecodeExecutor.Group();
+        Object result = new Object();
+        Task t = new Task(null);
+        execute(g1, t, result);
+        // A second document takes the image from the cache.
+        assertTrue(request(g2, result));
+
+        g1.cancel();
+        assertFalse(t.cancelled);
+        gate.countDown();
+        t.await();
+        assertTrue(t.ran);
+        assertFalse(t.cancelled);
+    }
+
+    @Test
+    public void testLastRequesterCancels() throws Exception {
+        DecodeExecutor.Group g1 = new DecodeExecutor.Group();
+        DecodeExecutor.Group g2 = new DecodeExecutor.Group();
+        Object result = new Object();
+        Task t = new Task(null);
+        execute(g1, t, result);
+        assertTrue(request(g2, result));
+
+        g1.cancel();
+        g2.cancel();
+        t.await();
+        assertTrue(t.cancelled);
+        // Whoever finds it in a cache now has to decode it again.
+        assertFalse(request(new DecodeExecutor.Group(), result));
+        assertFalse(request(null, result));
+    }
+
+    @Test
+    public void testUngroupedRequesterKeepsDecode() throws Exception {
+        DecodeExecutor.Group g = new DecodeExecutor.Group();
+        Object result = new Object();
+        Task t = new Task(null);
+        execute(g, t, result);
+        assertTrue(request(null, result));
+
+        g.cancel();
+        gate.countDown();
+        t.await();
+        assertTrue(t.ran);
+        assertFalse(t.cancelled);
+    }
+
+    @Test
+    public void testRunningDecodeCompletes() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        Task t = new Task(null) {
+                public void run() {
+                    running.countDown();
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException ie) {
+                        throw new IllegalStateException("interrupted");
+                    }
+                    super.run();
+                }
+            };
+        DecodeExecutor.Group g = new DecodeExecutor.Group();
+        execute(g, t, new Object());
+        gate.countDown();
+        assertTrue(running.await(10, TimeUnit.SECONDS));
+
+        g.cancel();
+        proceed.countDown();
+        t.await();
+        assertTrue(t.ran);
+        assertFalse(t.cancelled);
+        assertEquals(null, t.failure);
+    }
+
+    @Test
+    public void testCompletedDecodeRequest() throws Exception {
+        Object result = new Object();
+        Task t = new Task(null);
+        execute(new DecodeExecutor.Group(), t, result);
+        gate.countDown();
+        t.await();
+        assertTrue(request(new DecodeExecutor.Group(), result));
+    }
+}
@@ -55,6 +55,8 @@ import org.apache.batik.dom.AbstractNode;
 import org.apache.batik.dom.events.NodeEventTarget;
 import org.apache.batik.dom.svg.SVGContext;
 import org.apache.batik.dom.xbl.XBLManager;
+import org.apache.batik.ext.awt.image.renderable.FilterResultCache;
+import org.apache.batik.ext.awt.image.spi.DecodeExecutor;
 import org.apache.batik.gvt.CompositeGraphicsNode;
 import org.apache.batik.gvt.GraphicsNode;
 import org.apache.batik.script.Interpreter;
@@ -270,6 +272,17 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     protected float animationLimitingAmount;
 
+    /**
+     * The cache of rendered filter results for this document, null
+     * (the default) if filter results are not cached.
+     */
+    protected FilterResultCache filterResultCache;
+
+    /**
+     * The group of the image decodes started for this document.
+     */
+    protected DecodeExecutor.Group decodeGroup = new DecodeExecutor.Group();
+
     /**
      * By default we share a unique instance of InterpreterPool.
      */
@@ -619,6 +632,37 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         this.documentSize = d;
     }
 
+    /**
+     * Returns the cache used for the rendered results of the filters
+     * of this document, or null if filter results are not cached.
+     * Resource documents share the cache of their primary document.
+     */
+    public FilterResultCache getFilterResultCache() {
+        if (primaryContext != null)
+            return primaryContext.getFilterResultCache();
+        return filterResultCache;
+    }
+
+    /**
+     * Sets the cache used for the rendered results of the filters of
+     * this document.  Call this method before the build phase.  The
+     * cache is off by default: a cached result may differ slightly
+     * from drawing the filter again, see FilterResultCache.
+     * @param cache the cache to use, null disables filter result caching.
+     */
+    public void setFilterResultCache(FilterResultCache cache) {
+        filterResultCache = cache;
+    }
+
+    /**
+     * Returns the group of the image decodes started for this
+     * document.  The decodes that are still running or waiting are
+     * cancelled when this context is disposed.
+     */
+    public DecodeExecutor.Group getDecodeGroup() {
+        return decodeGroup;
+    }
+
     /**
      * Returns true if the document is dynamic, false otherwise.
      */
@@ -1475,6 +1519,10 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         if (elementNodeMap != null) {
             elementNodeMap.clear();
         }        
+        if ((filterResultCache != null) && (primaryContext == null)) {
+            filterResultCache.flush();
+        }
+        decodeGroup.cancel();
     }
 
     /**
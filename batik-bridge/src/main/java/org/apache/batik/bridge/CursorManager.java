@@ -44,6 +44,7 @@ import org.apache.batik.ext.awt.image.renderable.AffineRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
 import org.apache.batik.ext.awt.image.spi.BrokenLinkProvider;
+import org.apache.batik.ext.awt.image.spi.DecodeExecutor;
 import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
 import org.apache.batik.gvt.GraphicsNode;
 import org.apache.batik.util.ParsedURL;
@@ -513,7 +514,14 @@ public class CursorManager implements SVGConstants, ErrorConstants {
         // an SVG image. Try as a raster image.
         if (f == null) {
             ImageTagRegistry reg = ImageTagRegistry.getRegistry();
-            Filter filter = reg.readURL(purl);
+            Filter filter;
+            DecodeExecutor.Group group =
+                DecodeExecutor.setCurrentGroup(ctx.getDecodeGroup());
+            try {
+                filter = reg.readURL(purl);
+            } finally {
+                DecodeExecutor.setCurrentGroup(group);
+            }
             if (filter == null) {
                 return null;
             }
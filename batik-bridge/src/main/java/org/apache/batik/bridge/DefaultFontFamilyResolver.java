@@ -19,23 +19,37 @@
 package org.apache.batik.bridge;
 
 import java.awt.Font;
+import java.awt.FontFormatException;
 import java.awt.GraphicsEnvironment;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.batik.gvt.font.AWTFontFamily;
 import org.apache.batik.gvt.font.AWTGVTFont;
 import org.apache.batik.gvt.font.GVTFontFace;
 import org.apache.batik.gvt.font.GVTFontFamily;
+import org.apache.batik.util.ParsedURL;
 
 /**
  * The is a utility class that is used for resolving UnresolvedFontFamilies.
  *
+ * <p>The resolver is shared by all the documents of the process, its
+ * tables can be used from several threads.  Family names are looked up
+ * by their case-folded key, and both the resolved and the unknown
+ * families are remembered.  Font files can be registered with
+ * {@link #registerFont(File)}, for instance on headless servers which
+ * have no fonts installed.
+ *
  * @author <a href="mailto:bella.robinson@cmis.csiro.au">Bella Robinson</a>
  * @version $Id$
  */
@@ -53,29 +67,54 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
     private static final AWTFontFamily DEFAULT_FONT_FAMILY =
             new AWTFontFamily("SansSerif");
 
+    /**
+     * The maximum number of entries of the key and unknown family
+     * caches, which are filled from the documents.
+     */
+    private static final int MAX_CACHED_NAMES = 4096;
+
+    /**
+     * The value of the caches for the names which could not be resolved.
+     */
+    private static final Object NOT_FOUND = new Object();
+
     /**
      * List of all available fonts on the current system, plus a few common
-     * alternatives.
+     * alternatives.  The keys are the case-folded names.
      */
-    protected static final Map fonts = new HashMap();
+    protected static final Map fonts = new ConcurrentHashMap();
 
-    protected static final List awtFontFamilies = new ArrayList();
+    protected static final List awtFontFamilies = new CopyOnWriteArrayList();
 
-    protected static final List awtFonts = new ArrayList();
+    protected static final List awtFonts = new CopyOnWriteArrayList();
+
+    /**
+     * The case-folded keys of the family names seen so far.
+     */
+    private static final Map familyKeys = new ConcurrentHashMap();
+
+    /**
+     * The family returned by getFamilyThatCanDisplay for each char
+     * looked up so far, or NOT_FOUND.
+     */
+    private static final Map displayFamilies = new ConcurrentHashMap();
 
     /**
      * This sets up the list of available fonts.
      */
     static {
-        fonts.put("sans-serif",      "SansSerif");
-        fonts.put("serif",           "Serif");
-        fonts.put("times",           "Serif");
-        fonts.put("times new roman", "Serif");
-        fonts.put("cursive",         "Dialog");
-        fonts.put("fantasy",         "Symbol");
-        fonts.put("monospace",       "Monospaced");
-        fonts.put("monospaced",      "Monospaced");
-        fonts.put("courier",         "Monospaced");
+        // The fallback order of getFamilyThatCanDisplay follows the
+        // iteration order of this map.
+        Map names = new HashMap();
+        names.put("sans-serif",      "SansSerif");
+        names.put("serif",           "Serif");
+        names.put("times",           "Serif");
+        names.put("times new roman", "Serif");
+        names.put("cursive",         "Dialog");
+        names.put("fantasy",         "Symbol");
+        names.put("monospace",       "Monospaced");
+        names.put("monospaced",      "Monospaced");
+        names.put("courier",         "Monospaced");
 
         //
         // Load all fonts. Work around
@@ -87,21 +126,7 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
 
         int nFonts = fontNames != null ? fontNames.length : 0;
         for(int i=0; i<nFonts; i++){
-            fonts.put(fontNames[i].toLowerCase(), fontNames[i]);
-
-            // also add the font name with the spaces removed
-            StringTokenizer st = new StringTokenizer(fontNames[i]);
-            String fontNameWithoutSpaces = "";
-            while (st.hasMoreTokens()) {
-                fontNameWithoutSpaces += st.nextToken();
-            }
-            fonts.put(fontNameWithoutSpaces.toLowerCase(), fontNames[i]);
-
-            // also add the font name with spaces replaced by dashes
-            String fontNameWithDashes = fontNames[i].replace(' ', '-');
-            if (!fontNameWithDashes.equals(fontNames[i])) {
-                fonts.put(fontNameWithDashes.toLowerCase(), fontNames[i]);
-            }
+            addFamilyNames(names, fontNames[i]);
         }
 
         //Also register all font names, not just font families.
@@ -109,32 +134,132 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
         //Without this, matching "Univers 45 Light" is not possible.
         Font[] allFonts = env.getAllFonts();
         for (Font f : allFonts) {
-            fonts.put(f.getFontName().toLowerCase(), f.getFontName());
+            names.put(toKey(f.getFontName()), f.getFontName());
         }
 
         // first add the default font
-        awtFontFamilies.add(DEFAULT_FONT_FAMILY);
-        awtFonts.add(new AWTGVTFont(DEFAULT_FONT_FAMILY.getFamilyName(), 0, 12));
+        List families = new ArrayList();
+        List awtFontList = new ArrayList();
+        families.add(DEFAULT_FONT_FAMILY);
+        awtFontList.add(new AWTGVTFont(DEFAULT_FONT_FAMILY.getFamilyName(), 0, 12));
 
-        Collection fontValues = fonts.values();
+        Collection fontValues = names.values();
         for (Object fontValue : fontValues) {
             String fontFamily = (String) fontValue;
             AWTFontFamily awtFontFamily = new AWTFontFamily(fontFamily);
-            awtFontFamilies.add(awtFontFamily);
+            families.add(awtFontFamily);
             AWTGVTFont font = new AWTGVTFont(fontFamily, 0, 12);
-            awtFonts.add(font);
+            awtFontList.add(font);
         }
 
+        fonts.putAll(names);
+        awtFonts.addAll(awtFontList);
+        awtFontFamilies.addAll(families);
+    }
+
+    /**
+     * Adds the keys of the given font family name to the given map: the
+     * name itself, the name without spaces and the name with dashes
+     * instead of spaces.
+     */
+    private static void addFamilyNames(Map names, String fontName) {
+        names.put(toKey(fontName), fontName);
+
+        // also add the font name with the spaces removed
+        StringTokenizer st = new StringTokenizer(fontName);
+        String fontNameWithoutSpaces = "";
+        while (st.hasMoreTokens()) {
+            fontNameWithoutSpaces += st.nextToken();
+        }
+        names.put(toKey(fontNameWithoutSpaces), fontName);
+
+        // also add the font name with spaces replaced by dashes
+        String fontNameWithDashes = fontName.replace(' ', '-');
+        if (!fontNameWithDashes.equals(fontName)) {
+            names.put(toKey(fontNameWithDashes), fontName);
+        }
+    }
+
+    /**
+     * Returns the case-folded key of the given name.
+     */
+    private static String toKey(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the case-folded key of the given family name.  The keys
+     * are remembered, so documents which use the same names over and
+     * over only fold them once.
+     */
+    protected static String getFamilyKey(String familyName) {
+        String key = (String)familyKeys.get(familyName);
+        if (key == null) {
+            key = toKey(familyName);
+            if (familyKeys.size() < MAX_CACHED_NAMES) {
+                familyKeys.put(familyName, key);
+            }
+        }
+        return key;
     }
 
     /**
      * This keeps track of all the resolved font families. This is to hopefully
-     * reduce the number of font family objects used.
+     * reduce the number of font family objects used.  The names which
+     * could not be resolved are kept too, so they are only looked up once.
      */
-    protected static final Map resolvedFontFamilies = new HashMap();
+    protected static final Map resolvedFontFamilies = new ConcurrentHashMap();
+
+    /**
+     * Registers the fonts of the given font file, so they can be used
+     * by name in the documents.  This is mostly useful on headless
+     * servers, where the fonts may not be installed.
+     *
+     * @param file A TrueType font file.
+     * @return The registered font.
+     */
+    public Font registerFont(File file)
+        throws FontFormatException, IOException {
+        Font font = Font.createFont(Font.TRUETYPE_FONT, file);
+        registerFont(font);
+        return font;
+    }
+
+    /**
+     * Registers the given font, so it can be used by name in the
+     * documents.
+     *
+     * @param font The font to register.
+     */
+    public void registerFont(Font font) {
+        synchronized (DefaultFontFamilyResolver.class) {
+            GraphicsEnvironment env;
+            env = GraphicsEnvironment.getLocalGraphicsEnvironment();
+            env.registerFont(font);
+
+            String familyName = font.getFamily();
+            boolean isNewFamily = !fonts.containsValue(familyName);
+            Map names = new HashMap();
+            addFamilyNames(names, familyName);
+            names.put(toKey(font.getFontName()), font.getFontName());
+            fonts.putAll(names);
+
+            if (isNewFamily) {
+                // awtFonts first, getFamilyThatCanDisplay relies on
+                // awtFonts being at least as long as awtFontFamilies.
+                awtFonts.add(new AWTGVTFont(familyName, 0, 12));
+                awtFontFamilies.add(new AWTFontFamily(familyName));
+            }
+
+            // The new font may resolve names which were unknown, and
+            // display chars which no font could.
+            resolvedFontFamilies.clear();
+            displayFamilies.clear();
+        }
+    }
 
     public AWTFontFamily resolve(String familyName, FontFace fontFace) {
-        String fontName = (String)fonts.get(fontFace.getFamilyName().toLowerCase());
+        String fontName = (String)fonts.get(getFamilyKey(fontFace.getFamilyName()));
         if (fontName == null) {
             return null;
         } else {
@@ -148,14 +273,29 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
         return new AWTFontFamily(ff, font);
     }
 
+    /**
+     * Loads the font at the given URL.  The fonts of local files are
+     * shared by all the documents, see {@link FontFaceCache}.
+     */
+    public GVTFontFamily loadFont(ParsedURL purl, FontFace ff) throws Exception {
+        Font font = FontFaceCache.getFont(purl);
+        if (font == null) {
+            return loadFont(purl.openStream(), ff);
+        }
+        return new AWTFontFamily(ff, font);
+    }
+
     /** {@inheritDoc} */
     public GVTFontFamily resolve(String familyName) {
 
-        familyName = familyName.toLowerCase();
+        familyName = getFamilyKey(familyName);
 
         // first see if this font family has already been resolved
-        GVTFontFamily resolvedFF =
-                (GVTFontFamily)resolvedFontFamilies.get(familyName);
+        Object resolved = resolvedFontFamilies.get(familyName);
+        if (resolved == NOT_FOUND) {
+            return null;
+        }
+        GVTFontFamily resolvedFF = (GVTFontFamily)resolved;
 
         if (resolvedFF == null) { // hasn't been resolved yet
             // try to find a matching family name in the list of
@@ -163,23 +303,30 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
             String awtFamilyName = (String)fonts.get(familyName);
             if (awtFamilyName != null) {
                 resolvedFF = new AWTFontFamily(awtFamilyName);
+                resolvedFontFamilies.put(familyName, resolvedFF);
+            } else if (resolvedFontFamilies.size() < MAX_CACHED_NAMES) {
+                resolvedFontFamilies.put(familyName, NOT_FOUND);
             }
-
-            resolvedFontFamilies.put(familyName, resolvedFF);
         }
 
-        //  if (resolvedFF != null) {
-        //      System.out.println("resolved " + fontFamily.getFamilyName() +
-        //                         " to " + resolvedFF.getFamilyName());
-        //  } else {
-        //      System.out.println("could not resolve " +
-        //                         fontFamily.getFamilyName());
-        //  }
         return resolvedFF;
     }
 
     /** {@inheritDoc} */
     public GVTFontFamily getFamilyThatCanDisplay(char c) {
+        Character ch = c;
+        Object family = displayFamilies.get(ch);
+        if (family == null) {
+            family = findFamilyThatCanDisplay(c);
+            displayFamilies.put(ch, family == null ? NOT_FOUND : family);
+        }
+        return family == NOT_FOUND ? null : (GVTFontFamily)family;
+    }
+
+    /**
+     * Returns the first font family which can display the given char.
+     */
+    private static GVTFontFamily findFamilyThatCanDisplay(char c) {
         for (int i = 0; i < awtFontFamilies.size(); i++) {
             AWTFontFamily fontFamily = (AWTFontFamily)awtFontFamilies.get(i);
             AWTGVTFont font = (AWTGVTFont)awtFonts.get(i);
@@ -137,6 +137,28 @@ public class DocumentLoader {
         return state.getDocument();
     }
 
+    /**
+     * Adds a document to the cache, for instance a copy of a document
+     * shared by several loaders.  A document already cached for the
+     * given uri is kept.
+     * @param uri the uri of the document, without fragment identifier
+     * @param document the document
+     * @return the cached document
+     */
+    public Document addDocument(String uri, Document document) {
+        synchronized (cacheMap) {
+            DocumentState state = (DocumentState)cacheMap.get(uri);
+            if (state != null) {
+                Document ret = state.getDocument();
+                if (ret != null) {
+                    return ret;
+                }
+            }
+            cacheMap.put(uri, new DocumentState(uri, document, null));
+        }
+        return document;
+    }
+
     /**
      * Returns the userAgent used by this DocumentLoader
      */
@@ -160,7 +182,7 @@ public class DocumentLoader {
      *
      * @param e the element
      * @return -1 the document has been removed from the cache or has not
-     * been loaded by this document loader.
+     * been loaded by this document loader, or was added to the cache.
      */
     public int getLineNumber(Element e) {
         String uri = ((SVGDocument)e.getOwnerDocument()).getURL();
@@ -168,7 +190,7 @@ public class DocumentLoader {
         synchronized (cacheMap) {
             state = (DocumentState)cacheMap.get(uri);
         }
-        if (state == null) {
+        if (state == null || state.desc == null) {
             return -1;
         } else {
             return state.desc.getLocationLine(e);
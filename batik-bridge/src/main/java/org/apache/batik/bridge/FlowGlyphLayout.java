@@ -47,5 +47,15 @@ public class FlowGlyphLayout extends GlyphLayout {
         super(aci, charMap, offset, frc);
     }
 
+    /**
+     * Flow layouts are moved around glyph by glyph when the text is
+     * wrapped into its flow regions, they are never reused.
+     */
+    public boolean reuse(AttributedCharacterIterator aci,
+                         int [] charMap,
+                         FontRenderContext frc) {
+        return false;
+    }
+
 
 }
@@ -41,6 +41,7 @@ import org.apache.batik.gvt.font.GVTFont;
 import org.apache.batik.gvt.font.GVTGlyphVector;
 import org.apache.batik.gvt.font.GVTLineMetrics;
 import org.apache.batik.gvt.font.MultiGlyphVector;
+import org.apache.batik.gvt.text.AttributedCharArray;
 import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
 
 /**
@@ -70,6 +71,7 @@ public class FlowTextPainter extends StrokingTextPainter {
             return textRuns;
         }
 
+        aci = createLayoutACI(aci);
         AttributedCharacterIterator[] chunkACIs = getTextChunkACIs(aci);
         textRuns = computeTextRuns(node, aci, chunkACIs);
 
@@ -100,6 +102,25 @@ public class FlowTextPainter extends StrokingTextPainter {
         return node.getTextRuns();
     }
 
+    /**
+     * Returns the layout copy of the given ACI.  The words of flowed
+     * text are found here, on the copy, where the WORD_LIMIT runs can
+     * all be added in one pass.  Flowed text is always copied, even
+     * when the ACI doesn't start at 0, since the words are needed to
+     * wrap it.
+     */
+    protected AttributedCharacterIterator createLayoutACI
+        (AttributedCharacterIterator aci) {
+        aci.first();
+        if (aci.getAttribute(FLOW_REGIONS) == null ||
+            aci.getAttribute(WORD_LIMIT) != null) {
+            return super.createLayoutACI(aci);
+        }
+        AttributedCharArray text = new AttributedCharArray(aci);
+        TextLineBreaks.findLineBrk(text);
+        return text.getIterator();
+    }
+
     public static final char SOFT_HYPHEN       = 0x00AD;
     public static final char ZERO_WIDTH_SPACE  = 0x200B;
     public static final char ZERO_WIDTH_JOINER = 0x200D;
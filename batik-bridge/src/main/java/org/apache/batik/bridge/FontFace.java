@@ -25,6 +25,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.svg.SVGDocument;
 
+import org.apache.batik.dom.AbstractDocument;
 import org.apache.batik.dom.AbstractNode;
 import org.apache.batik.gvt.font.GVTFontFace;
 import org.apache.batik.gvt.font.GVTFontFamily;
@@ -156,6 +157,10 @@ public abstract class FontFace extends GVTFontFace
 
         if (purl.getRef() != null) {
             // Reference must be to a SVGFont.
+            if (pDocURL == null || !pDocURL.sameFile(purl)) {
+                // Font documents are shared by all the documents.
+                FontFaceCache.loadFontDocument(ctx.getDocumentLoader(), purl);
+            }
             Element ref = ctx.getReferencedElement(e, purlStr);
             if (!ref.getNamespaceURI().equals(SVG_NAMESPACE_URI) ||
                 !ref.getLocalName().equals(SVG_FONT_TAG)) {
@@ -167,7 +172,16 @@ public abstract class FontFace extends GVTFontFace
 
             Element fontElt = ref;
             if (doc != rdoc) {
-                fontElt = (Element)doc.importNode(ref, true);
+                // The copy is not in the document, nobody can listen
+                // to its mutation events.
+                AbstractDocument ad = (AbstractDocument)doc;
+                boolean eventsEnabled = ad.getEventsEnabled();
+                ad.setEventsEnabled(false);
+                try {
+                    fontElt = (Element)doc.importNode(ref, true);
+                } finally {
+                    ad.setEventsEnabled(eventsEnabled);
+                }
                 String base = AbstractNode.getBaseURI(ref);
                 Element g = doc.createElementNS(SVG_NAMESPACE_URI, SVG_G_TAG);
                 g.appendChild(fontElt);
@@ -200,7 +214,11 @@ public abstract class FontFace extends GVTFontFace
         }
         // Must be a reference to a 'Web Font'.
         try {
-            return ctx.getFontFamilyResolver().loadFont(purl.openStream(), this);
+            FontFamilyResolver resolver = ctx.getFontFamilyResolver();
+            if (resolver instanceof DefaultFontFamilyResolver) {
+                return ((DefaultFontFamilyResolver)resolver).loadFont(purl, this);
+            }
+            return resolver.loadFont(purl.openStream(), this);
         } catch (Exception ex) {
         }
         return null;
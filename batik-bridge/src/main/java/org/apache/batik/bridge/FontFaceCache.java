@@ -0,0 +1,206 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Font;
+import java.awt.FontFormatException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.batik.dom.svg.SVGDocumentFactory;
+import org.apache.batik.util.ParsedURL;
+
+import org.w3c.dom.Document;
+
+/**
+ * This class caches the fonts referenced by the documents, across
+ * documents: the web fonts of the '@font-face' rules and the font
+ * documents holding the SVG fonts referenced by URL.  Documents which
+ * all use the same font files only load and parse them once per
+ * process.
+ *
+ * <p>The entries are indexed by URL, and are only used as long as the
+ * last modification time of the resource does not change.  Only the
+ * resources whose modification time is cheap to get are cached, that
+ * is local files and jar entries.  A cached font document is never
+ * given out, each document loader gets its own copy, since the bridge
+ * contexts attach their state to the documents they use.
+ *
+ * @version $Id$
+ */
+final class FontFaceCache {
+
+    /**
+     * The maximum number of entries.
+     */
+    private static final int MAX_ENTRIES = 64;
+
+    /**
+     * The entries, indexed by URL.
+     */
+    private static final Map entries =
+        new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+
+    private FontFaceCache() {
+    }
+
+    /**
+     * Returns the web font at the given URL, loading it if it is not
+     * in the cache.  Returns null if the font cannot be cached.
+     */
+    static Font getFont(ParsedURL purl)
+        throws FontFormatException, IOException {
+        String uri = getURI(purl);
+        long lastModified = getLastModified(uri);
+        if (lastModified == -1) {
+            return null;
+        }
+        Object cached = get(uri, lastModified);
+        Font font = cached instanceof Font ? (Font)cached : null;
+        if (font == null) {
+            InputStream in = purl.openStream();
+            try {
+                font = Font.createFont(Font.TRUETYPE_FONT, in);
+            } finally {
+                in.close();
+            }
+            put(uri, lastModified, font);
+        }
+        return font;
+    }
+
+    /**
+     * Makes sure the given document loader has the font document at
+     * the given URL, copying it from the cache when it can.  Otherwise
+     * the document is left to the loader.
+     */
+    static void loadFontDocument(DocumentLoader loader, ParsedURL purl) {
+        String uri = getURI(purl);
+        if (loader.checkCache(uri) != null) {
+            return;
+        }
+        SVGDocumentFactory factory = loader.documentFactory;
+        if (factory == null) {
+            return;
+        }
+        long lastModified = getLastModified(uri);
+        if (lastModified == -1) {
+            return;
+        }
+        Object cached = get(uri, lastModified);
+        Document doc = cached instanceof Document ? (Document)cached : null;
+        if (doc == null) {
+            try {
+                doc = factory.createSVGDocument(uri);
+            } catch (IOException ex) {
+                // Let the loader report it.
+                return;
+            }
+            put(uri, lastModified, doc);
+        }
+        Document copy;
+        synchronized (doc) {
+            copy = (Document)doc.cloneNode(true);
+        }
+        loader.addDocument(uri, copy);
+    }
+
+    /**
+     * Returns the URI of the given URL, without fragment identifier.
+     */
+    private static String getURI(ParsedURL purl) {
+        String uri = purl.toString();
+        String frag = purl.getRef();
+        if (frag != null) {
+            uri = uri.substring(0, uri.length() - (frag.length() + 1));
+        }
+        return uri;
+    }
+
+    /**
+     * Returns the last modification time of the resource at the given
+     * URI, or -1 if it is unknown or too expensive to get.
+     */
+    private static long getLastModified(String uri) {
+        long lastModified = 0;
+        try {
+            if (uri.startsWith("file:")) {
+                lastModified = new File(new URL(uri).toURI()).lastModified();
+            } else if (uri.startsWith("jar:")) {
+                URLConnection conn = new URL(uri).openConnection();
+                lastModified = conn.getLastModified();
+            }
+        } catch (Exception ex) {
+            // Not cached.
+        }
+        return lastModified == 0 ? -1 : lastModified;
+    }
+
+    /**
+     * Returns the cached value for the given URI and time, if any.
+     */
+    private static Object get(String uri, long lastModified) {
+        synchronized (entries) {
+            Entry e = (Entry)entries.get(uri);
+            if (e == null) {
+                return null;
+            }
+            Object value = e.value.get();
+            if (value == null || e.lastModified != lastModified) {
+                entries.remove(uri);
+                return null;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Caches the given value.
+     */
+    private static void put(String uri, long lastModified, Object value) {
+        synchronized (entries) {
+            entries.put(uri, new Entry(lastModified, value));
+        }
+    }
+
+    /**
+     * A cache entry.
+     */
+    private static final class Entry {
+
+        final long lastModified;
+
+        final SoftReference value;
+
+        Entry(long lastModified, Object value) {
+            this.lastModified = lastModified;
+            this.value = new SoftReference(value);
+        }
+    }
+}
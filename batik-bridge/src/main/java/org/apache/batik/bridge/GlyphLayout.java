@@ -31,12 +31,16 @@ import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.geom.Line2D;
+import java.lang.ref.SoftReference;
 import java.text.AttributedCharacterIterator;
 import java.text.CharacterIterator;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.batik.gvt.font.AWTGVTFont;
+import org.apache.batik.gvt.font.AWTGVTGlyphVector;
 import org.apache.batik.gvt.font.AltGlyphHandler;
 import org.apache.batik.gvt.font.GVTFont;
 import org.apache.batik.gvt.font.GVTGlyphMetrics;
@@ -138,6 +142,9 @@ public class GlyphLayout implements TextSpanLayout {
     private static final Integer WRITING_MODE_TTB
         = GVTAttributedCharacterIterator.TextAttribute.WRITING_MODE_TTB;
 
+    private static final AttributedCharacterIterator.Attribute PAINT_INFO
+        = GVTAttributedCharacterIterator.TextAttribute.PAINT_INFO;
+
     private static final Integer ORIENTATION_AUTO
         = GVTAttributedCharacterIterator.TextAttribute.ORIENTATION_AUTO;
 
@@ -299,6 +306,133 @@ public class GlyphLayout implements TextSpanLayout {
         }
     }
 
+    /**
+     * Makes this layout the layout of the given ACI, if laying out
+     * that ACI from scratch would give the same glyphs: same
+     * characters, attributes and font render context, and the same
+     * character map but for the position of the run in its text node.
+     * This lets a text node whose text changed keep the layouts of the
+     * runs the change did not touch.  Only laid out layouts of AWT
+     * fonts which are not on a text path and not scaled for textLength
+     * can be reused, the state left by those is not reset.
+     *
+     * @return true if this layout now uses the given ACI, false if it
+     *         was left unchanged.
+     */
+    public boolean reuse(AttributedCharacterIterator aci,
+                         int [] charMap,
+                         FontRenderContext frc) {
+        if (!layoutApplied || !spacingApplied || isAltGlyph
+            || textPath != null || xScale != 1 || yScale != 1
+            || !(gv instanceof AWTGVTGlyphVector)
+            || !frc.equals(gv.getFontRenderContext())
+            || !sameCharMap(charMap, this.charMap)
+            || !sameText(aci, this.aci)) {
+            return false;
+        }
+        this.aci = aci;
+        this.charMap = charMap;
+        return true;
+    }
+
+    /**
+     * Returns whether the two given character maps are the same once
+     * shifted to start at the same character index.
+     */
+    protected static boolean sameCharMap(int [] a, int [] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        if (a.length == 0) {
+            return true;
+        }
+        int shift = b[0] - a[0];
+        for (int i = 1; i < a.length; i++) {
+            if (b[i] - a[i] != shift) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the two given ACIs have the same characters and
+     * attributes, as far as the glyph layout is concerned.
+     */
+    protected static boolean sameText(AttributedCharacterIterator a,
+                                      AttributedCharacterIterator b) {
+        int aBegin = a.getBeginIndex();
+        int bBegin = b.getBeginIndex();
+        int n = a.getEndIndex() - aBegin;
+        if (n != b.getEndIndex() - bBegin) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (a.setIndex(aBegin + i) != b.setIndex(bBegin + i)) {
+                return false;
+            }
+        }
+        int i = 0;
+        while (i < n) {
+            a.setIndex(aBegin + i);
+            b.setIndex(bBegin + i);
+            Map aAtts = a.getAttributes();
+            Map bAtts = b.getAttributes();
+            if (aAtts.size() != bAtts.size()) {
+                return false;
+            }
+            for (Object o : aAtts.entrySet()) {
+                Map.Entry e = (Map.Entry) o;
+                if (e.getKey() == PAINT_INFO) {
+                    // Painted from the ACI, does not change the glyphs.
+                    continue;
+                }
+                if (!sameValue(e.getValue(), bAtts.get(e.getKey()))) {
+                    return false;
+                }
+            }
+            i = Math.min(a.getRunLimit() - aBegin, b.getRunLimit() - bBegin);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the two given attribute values lay out the same
+     * way.  The attributes rebuilt for each layout of a text node,
+     * the element references and the AWT fonts, are compared by what
+     * they refer to.
+     */
+    protected static boolean sameValue(Object a, Object b) {
+        if (a == b || (a != null && a.equals(b))) {
+            return true;
+        }
+        if (a instanceof SoftReference && b instanceof SoftReference) {
+            Object referent = ((SoftReference) a).get();
+            return referent != null && referent == ((SoftReference) b).get();
+        }
+        if (a instanceof AWTGVTFont && b instanceof AWTGVTFont) {
+            AWTGVTFont fa = (AWTGVTFont) a;
+            AWTGVTFont fb = (AWTGVTFont) b;
+            return fa.getClass() == fb.getClass()
+                && fa.getSize() == fb.getSize()
+                && fa.getAWTFont().equals(fb.getAWTFont());
+        }
+        if (a instanceof List && b instanceof List) {
+            List la = (List) a;
+            List lb = (List) b;
+            if (la.size() != lb.size()) {
+                return false;
+            }
+            for (int i = 0; i < la.size(); i++) {
+                if (!sameValue(la.get(i), lb.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
     public GVTGlyphMetrics getGlyphMetrics(int glyphIndex) {
         return gv.getGlyphMetrics(glyphIndex);
     }
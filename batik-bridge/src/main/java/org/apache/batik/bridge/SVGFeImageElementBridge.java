@@ -27,6 +27,7 @@ import org.apache.batik.ext.awt.image.PadMode;
 import org.apache.batik.ext.awt.image.renderable.AffineRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.PadRable8Bit;
+import org.apache.batik.ext.awt.image.spi.DecodeExecutor;
 import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
 import org.apache.batik.gvt.GraphicsNode;
 import org.apache.batik.util.ParsedURL;
@@ -259,7 +260,14 @@ public class SVGFeImageElementBridge
 
         // Need to fit the raster image to the filter region so that
         // we have the same behavior as raster images in the <image> element.
-        Filter filter = ImageTagRegistry.getRegistry().readURL(purl);
+        Filter filter;
+        DecodeExecutor.Group group =
+            DecodeExecutor.setCurrentGroup(ctx.getDecodeGroup());
+        try {
+            filter = ImageTagRegistry.getRegistry().readURL(purl);
+        } finally {
+            DecodeExecutor.setCurrentGroup(group);
+        }
 
         Rectangle2D bounds = filter.getBounds2D();
         AffineTransform scale = new AffineTransform();
@@ -121,6 +121,14 @@ public class SVGFilterElementBridge extends AnimatableGenericSVGBridge
                                    filteredNode, ctx);
         }
         filterChain.setSource(in);
+
+        // The sources of a static document never change, so the
+        // rendered result can be reused across repaints.
+        if (!ctx.isDynamic() &&
+            (filterChain instanceof FilterChainRable8Bit)) {
+            ((FilterChainRable8Bit)filterChain).setResultCache
+                (ctx.getFilterResultCache());
+        }
         return filterChain;
     }
 
@@ -61,7 +61,17 @@ public class SVGFontElementBridge extends AbstractSVGBridge {
                                  Element textElement,
                                  float size,
                                  GVTFontFace fontFace) {
+        return createFont(ctx, fontElement, textElement, size, fontFace,
+                          createGlyphIndex(fontElement));
+    }
 
+    /**
+     * Returns the index of the glyphs of the specified &lt;font&gt;
+     * element, which can be shared by all the fonts created for it.
+     *
+     * @param fontElement The font element.
+     */
+    SVGGlyphIndex createGlyphIndex(Element fontElement) {
 
         // construct a list of glyph codes that this font can display and
         // a list of the glyph elements
@@ -91,6 +101,25 @@ public class SVGFontElementBridge extends AbstractSVGBridge {
             glyphElementArray[i] = glyphElement;
         }
 
+        return new SVGGlyphIndex(glyphCodes, glyphNames, glyphLangs,
+                                 glyphOrientations, glyphForms,
+                                 glyphElementArray);
+    }
+
+    /**
+     * Constructs a new SVGGVTFont that represents the specified &lt;font&gt; element
+     * at the requested size, with the glyphs of an existing index.
+     *
+     * @param glyphIndex The glyphs of the font element, from
+     * createGlyphIndex.
+     */
+    SVGGVTFont createFont(BridgeContext ctx,
+                          Element fontElement,
+                          Element textElement,
+                          float size,
+                          GVTFontFace fontFace,
+                          SVGGlyphIndex glyphIndex) {
+
         // get the missing glyph element
         NodeList missingGlyphElements = fontElement.getElementsByTagNameNS
             (SVG_NAMESPACE_URI, SVG_MISSING_GLYPH_TAG);
@@ -121,9 +150,7 @@ public class SVGFontElementBridge extends AbstractSVGBridge {
 
         // return the new SVGGVTFont
         return new SVGGVTFont
-            (size, fontFace, glyphCodes, glyphNames, glyphLangs,
-             glyphOrientations, glyphForms, ctx,
-             glyphElementArray, missingGlyphElement,
+            (size, fontFace, glyphIndex, ctx, missingGlyphElement,
              hkernElementArray, vkernElementArray, textElement);
     }
 }
@@ -22,6 +22,8 @@ import java.lang.ref.SoftReference;
 import java.text.AttributedCharacterIterator;
 import java.util.Map;
 
+import org.apache.batik.constants.XMLConstants;
+import org.apache.batik.dom.events.NodeEventTarget;
 import org.apache.batik.gvt.font.GVTFont;
 import org.apache.batik.gvt.font.GVTFontFace;
 import org.apache.batik.gvt.font.GVTFontFamily;
@@ -31,6 +33,8 @@ import org.apache.batik.util.SVGConstants;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.w3c.dom.events.Event;
+import org.w3c.dom.events.EventListener;
 
 /**
  * A font family class for SVG fonts.
@@ -49,7 +53,15 @@ public class SVGFontFamily implements GVTFontFamily {
     protected BridgeContext ctx;
     protected Boolean complex = null;
 
+    /**
+     * The glyphs of the font element, shared by the derived fonts.
+     */
+    protected SVGGlyphIndex glyphIndex;
 
+    /**
+     * Listens to the changes of the font element in dynamic documents.
+     */
+    protected EventListener fontMutationListener;
 
     /**
      * Constructs an SVGFontFamily.
@@ -109,7 +121,48 @@ public class SVGFontFamily implements GVTFontFamily {
         SoftReference sr = (SoftReference)attrs.get(TEXT_COMPOUND_ID);
         Element textElement = (Element)sr.get();
         return fontBridge.createFont(ctx, fontElement, textElement,
-                                     size, fontFace);
+                                     size, fontFace,
+                                     getGlyphIndex(fontBridge));
+    }
+
+    /**
+     * Returns the index of the glyphs of the font element, building it
+     * if needed.  In a dynamic document the index is dropped whenever
+     * the content of the font element changes.
+     */
+    protected synchronized SVGGlyphIndex getGlyphIndex
+        (SVGFontElementBridge fontBridge) {
+        if (glyphIndex == null) {
+            if (ctx.isDynamic() && (fontMutationListener == null)) {
+                fontMutationListener = new FontMutationListener();
+                NodeEventTarget target = (NodeEventTarget)fontElement;
+                String[] types = { "DOMAttrModified", "DOMNodeInserted",
+                                   "DOMNodeRemoved",
+                                   "DOMCharacterDataModified" };
+                for (String type : types) {
+                    target.addEventListenerNS
+                        (XMLConstants.XML_EVENTS_NAMESPACE_URI, type,
+                         fontMutationListener, true, null);
+                    ctx.storeEventListenerNS
+                        (target, XMLConstants.XML_EVENTS_NAMESPACE_URI, type,
+                         fontMutationListener, true);
+                }
+            }
+            glyphIndex = fontBridge.createGlyphIndex(fontElement);
+        }
+        return glyphIndex;
+    }
+
+    /**
+     * Drops the glyph index when the font element or its content
+     * changes.
+     */
+    protected class FontMutationListener implements EventListener {
+        public void handleEvent(Event evt) {
+            synchronized (SVGFontFamily.this) {
+                glyphIndex = null;
+            }
+        }
     }
 
     /**
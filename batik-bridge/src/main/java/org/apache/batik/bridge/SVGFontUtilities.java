@@ -19,6 +19,8 @@
 package org.apache.batik.bridge;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -33,6 +35,7 @@ import org.apache.batik.util.SVGConstants;
 import org.apache.batik.anim.dom.SVGOMDocument;
 import org.apache.batik.css.engine.CSSEngine;
 import org.apache.batik.css.engine.FontFaceRule;
+import org.apache.batik.css.engine.value.Value;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -80,6 +83,56 @@ public abstract class SVGFontUtilities implements SVGConstants {
     }
 
 
+    /**
+     * Resolves the font families of the given font-family property
+     * value, in order, skipping the families which cannot be found.
+     * The list is computed once per font-family value, weight and
+     * style, and shared by all the text elements which use them.
+     *
+     * @param textElement The text element that the font families will
+     * be attached to.
+     * @param ctx The bridge context.
+     * @param fontFamilies The computed value of the font-family property.
+     * @param fontWeight The weight of the font to use when trying to
+     * match an SVG font family.
+     * @param fontStyle The style of the font to use when trying to
+     * match as SVG font family.
+     *
+     * @return An unmodifiable list of the resolved GVTFontFamily objects.
+     */
+    public static List getFontFamilies(Element textElement,
+                                       BridgeContext ctx,
+                                       Value fontFamilies,
+                                       String fontWeight,
+                                       String fontStyle) {
+        List key = Arrays.asList(new Object[] {
+            fontFamilies.getCssText(), fontWeight, fontStyle });
+        Map fontFamilyMap = ctx.getFontFamilyMap();
+        List ret = (List)fontFamilyMap.get(key);
+        if (ret != null) {
+            return ret;
+        }
+
+        int len = fontFamilies.getLength();
+        ret = new ArrayList(len);
+        for (int i = 0; i < len; i++) {
+            String fontFamilyName = fontFamilies.item(i).getStringValue();
+            GVTFontFamily fontFamily;
+            fontFamily = getFontFamily(textElement, ctx, fontFamilyName,
+                                       fontWeight, fontStyle);
+            if (fontFamily instanceof UnresolvedFontFamily) {
+                fontFamily = ctx.getFontFamilyResolver().resolve
+                    (fontFamily.getFamilyName());
+            }
+            if (fontFamily != null) {
+                ret.add(fontFamily);
+            }
+        }
+        ret = Collections.unmodifiableList(ret);
+        fontFamilyMap.put(key, ret);
+        return ret;
+    }
+
     /**
      * Given a font family name tries to find a matching SVG font
      * object.  If finds one, returns an SVGFontFamily otherwise
@@ -23,7 +23,6 @@ import java.awt.font.FontRenderContext;
 import java.text.AttributedCharacterIterator;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
-import java.util.StringTokenizer;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -59,7 +58,6 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
     private GVTFontFace fontFace;
     private String[] glyphUnicodes;
     private String[] glyphNames;
-    private String[] glyphLangs;
     private String[] glyphOrientations;
     private String[] glyphForms;
     private Element[] glyphElements;
@@ -74,6 +72,15 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
     private String orientation;
     private float  scale;
     private GVTLineMetrics lineMetrics=null;
+    private SVGGlyphIndex glyphIndex;
+
+    /**
+     * Whether each glyph matches the language and orientation of the
+     * text: 0 if not known yet, MATCH or NO_MATCH.
+     */
+    private byte[] glyphMatches;
+    private static final byte MATCH = 1;
+    private static final byte NO_MATCH = 2;
 
     /**
      * Constructs a new SVGGVTFont of the specified size.
@@ -109,15 +116,35 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
                       Element[] hkernElements,
                       Element[] vkernElements,
                       Element textElement) {
+        this(fontSize, fontFace,
+             new SVGGlyphIndex(glyphUnicodes, glyphNames, glyphLangs,
+                               glyphOrientations, glyphForms, glyphElements),
+             ctx, missingGlyphElement, hkernElements, vkernElements,
+             textElement);
+    }
+
+    /**
+     * Constructs a new SVGGVTFont of the specified size, sharing the
+     * glyph index of an other font.
+     */
+    SVGGVTFont(float fontSize,
+               GVTFontFace fontFace,
+               SVGGlyphIndex glyphIndex,
+               BridgeContext ctx,
+               Element missingGlyphElement,
+               Element[] hkernElements,
+               Element[] vkernElements,
+               Element textElement) {
         this.fontFace = fontFace;
         this.fontSize = fontSize;
-        this.glyphUnicodes = glyphUnicodes;
-        this.glyphNames = glyphNames;
-        this.glyphLangs = glyphLangs;
-        this.glyphOrientations = glyphOrientations;
-        this.glyphForms = glyphForms;
+        this.glyphIndex = glyphIndex;
+        this.glyphUnicodes = glyphIndex.glyphUnicodes;
+        this.glyphNames = glyphIndex.glyphNames;
+        this.glyphOrientations = glyphIndex.glyphOrientations;
+        this.glyphForms = glyphIndex.glyphForms;
         this.ctx = ctx;
-        this.glyphElements = glyphElements;
+        this.glyphElements = glyphIndex.glyphElements;
+        this.glyphMatches = new byte[glyphUnicodes.length];
         this.missingGlyphElement = missingGlyphElement;
         this.hkernElements = hkernElements;
         this.vkernElements = vkernElements;
@@ -145,27 +172,38 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * elements these tables will be empty.
      */
     private void createKerningTables() {
+        // The tables only depend on the font element, so they are
+        // shared by the fonts using the same glyph index.
+        synchronized (glyphIndex) {
+            if (glyphIndex.hKerningTable != null) {
+                hKerningTable = glyphIndex.hKerningTable;
+                vKerningTable = glyphIndex.vKerningTable;
+                return;
+            }
 
-        Kern[] hEntries = new Kern[hkernElements.length];
-        for (int i = 0; i < hkernElements.length; i++) {
-            Element hkernElement = hkernElements[i];
-            SVGHKernElementBridge hkernBridge =
-                (SVGHKernElementBridge)ctx.getBridge(hkernElement);
-            Kern hkern = hkernBridge.createKern(ctx, hkernElement, this);
-            hEntries[i] = hkern;
-        }
-        hKerningTable = new KerningTable(hEntries);
-
-        Kern[] vEntries = new Kern[vkernElements.length];
-        for (int i = 0; i < vkernElements.length; i++) {
-            Element vkernElement = vkernElements[i];
-            SVGVKernElementBridge vkernBridge =
-                (SVGVKernElementBridge)ctx.getBridge(vkernElement);
-            Kern vkern = vkernBridge.createKern(ctx, vkernElement, this);
-            vEntries[i] = vkern;
-        }
-        vKerningTable = new KerningTable(vEntries);
+            Kern[] hEntries = new Kern[hkernElements.length];
+            for (int i = 0; i < hkernElements.length; i++) {
+                Element hkernElement = hkernElements[i];
+                SVGHKernElementBridge hkernBridge =
+                    (SVGHKernElementBridge)ctx.getBridge(hkernElement);
+                Kern hkern = hkernBridge.createKern(ctx, hkernElement, this);
+                hEntries[i] = hkern;
+            }
+            hKerningTable = new KerningTable(hEntries);
+
+            Kern[] vEntries = new Kern[vkernElements.length];
+            for (int i = 0; i < vkernElements.length; i++) {
+                Element vkernElement = vkernElements[i];
+                SVGVKernElementBridge vkernBridge =
+                    (SVGVKernElementBridge)ctx.getBridge(vkernElement);
+                Kern vkern = vkernBridge.createKern(ctx, vkernElement, this);
+                vEntries[i] = vkern;
+            }
+            vKerningTable = new KerningTable(vEntries);
 
+            glyphIndex.hKerningTable = hKerningTable;
+            glyphIndex.vKerningTable = vKerningTable;
+        }
     }
 
     /**
@@ -221,17 +259,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return An array of matching glyph codes. This may be empty.
      */
     public int[] getGlyphCodesForName(String name) {
-        List glyphCodes = new ArrayList();
-        for (int i = 0; i < glyphNames.length; i++) {
-            if (glyphNames[i] != null && glyphNames[i].equals(name)) {
-                glyphCodes.add(i);
-            }
-        }
-        int[] glyphCodeArray = new int[glyphCodes.size()];
-        for (int i = 0; i < glyphCodes.size(); i++) {
-            glyphCodeArray[i] = (Integer) glyphCodes.get(i);
-        }
-        return glyphCodeArray;
+        return glyphIndex.getGlyphCodesForName(name);
     }
 
     /**
@@ -243,17 +271,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return An array of matching glyph codes. This may be empty.
      */
     public int[] getGlyphCodesForUnicode(String unicode) {
-        List glyphCodes = new ArrayList();
-        for (int i = 0; i < glyphUnicodes.length; i++) {
-            if (glyphUnicodes[i] != null && glyphUnicodes[i].equals(unicode)) {
-                glyphCodes.add(i);
-            }
-        }
-        int[] glyphCodeArray = new int[glyphCodes.size()];
-        for (int i = 0; i < glyphCodes.size(); i++) {
-            glyphCodeArray[i] = (Integer) glyphCodes.get(i);
-        }
-        return glyphCodeArray;
+        return glyphIndex.getGlyphCodesForUnicode(unicode);
     }
 
     /**
@@ -263,19 +281,18 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * xml:lang attibute of the text node, or if the xml:lang
      * attribute exactly equals a prefix of one glyph languages.
      *
-     * @param glyphLang A comma separated list of languages that are associated
-     * with a glyph.
+     * @param glyphLangs The languages that are associated with a glyph,
+     * or null.
      *
      * @return Whether or not the glyph language matches the language of the
      * text node.
      */
-    private boolean languageMatches(String glyphLang) {
-        if (glyphLang == null || glyphLang.length() == 0) {
+    private boolean languageMatches(String[] glyphLangs) {
+        if (glyphLangs == null) {
             return true;  // will match all languages
         }
-        StringTokenizer st = new StringTokenizer(glyphLang, ",");
-        while (st.hasMoreTokens()) {
-            String s = st.nextToken();
+        for (int i = 0; i < glyphLangs.length; i++) {
+            String s = glyphLangs[i];
             if (s.equals(language)
                || (s.startsWith(language) && s.length() > language.length()
                    && s.charAt(language.length()) == '-')) {
@@ -302,6 +319,68 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
         return glyphOrientation.equals(orientation);
     }
 
+    /**
+     * Returns true if the language and orientation of the glyph match
+     * the text to be rendered by this font.
+     */
+    private boolean glyphMatches(int glyphCode) {
+        byte m = glyphMatches[glyphCode];
+        if (m == 0) {
+            m = (languageMatches(glyphIndex.glyphLangSets[glyphCode])
+                 && orientationMatches(glyphOrientations[glyphCode]))
+                ? MATCH : NO_MATCH;
+            glyphMatches[glyphCode] = m;
+        }
+        return m == MATCH;
+    }
+
+    /**
+     * Returns the glyph to use for the characters starting at the
+     * current index of ci.  This is the first glyph of the font whose
+     * unicode value starts the remaining characters and whose language,
+     * orientation and arabic form match.  If a glyph is found ci is
+     * left on the last character it represents, otherwise on the
+     * character it was on.
+     *
+     * @param ci The characters to match.
+     * @param aci ci if it is an AttributedCharacterIterator, or null.
+     *
+     * @return The glyph code, or -1 if no glyph matches.
+     */
+    private int matchGlyph(CharacterIterator ci,
+                           AttributedCharacterIterator aci) {
+        int start = ci.getIndex();
+        int best = -1;
+        int bestLength = 0;
+        SVGGlyphIndex.Node node = glyphIndex.root;
+        char c = ci.current();
+        for (int len = 1; c != CharacterIterator.DONE; len++) {
+            node = node.getChild(c);
+            if (node == null) {
+                break;
+            }
+            for (int k = 0; k < node.glyphCount; k++) {
+                int i = node.glyphs[k];
+                if (best != -1 && i > best) {
+                    break;
+                }
+                if (glyphMatches(i)
+                    && formMatches(glyphUnicodes[i], glyphForms[i],
+                                   aci, start)) {
+                    best = i;
+                    bestLength = len;
+                    break;
+                }
+            }
+            if (node.childCount == 0) {
+                break;
+            }
+            c = ci.setIndex(start + len);
+        }
+        ci.setIndex((best == -1) ? start : start + bestLength - 1);
+        return best;
+    }
+
 
     /**
      * Returns true if the glyph form matches that of the current character in
@@ -413,10 +492,9 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return true if the glyph can be displayed.
      */
     public boolean canDisplayGivenName(String name) {
-        for (int i = 0; i < glyphNames.length; i++) {
-            if (glyphNames[i] != null && glyphNames[i].equals(name)
-                && languageMatches(glyphLangs[i])
-                && orientationMatches(glyphOrientations[i])) {
+        int[] glyphCodes = glyphIndex.getGlyphCodesForName(name);
+        for (int i = 0; i < glyphCodes.length; i++) {
+            if (glyphMatches(glyphCodes[i])) {
                 return true;
             }
         }
@@ -433,10 +511,9 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return true if the character can be displayed.
      */
     public boolean canDisplay(char c) {
-        for (int i = 0; i < glyphUnicodes.length; i++) {
-            if (glyphUnicodes[i].indexOf(c) != -1
-                && languageMatches(glyphLangs[i])
-                && orientationMatches(glyphOrientations[i])) {
+        int[] glyphCodes = glyphIndex.getGlyphCodesContaining(c);
+        for (int i = 0; i < glyphCodes.length; i++) {
+            if (glyphMatches(glyphCodes[i])) {
                 return true;
             }
         }
@@ -483,44 +560,7 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
 
         while (c != CharacterIterator.DONE && currentIndex < limit) {
 
-            boolean foundMatchingGlyph = false;
-
-            for (int i = 0; i < glyphUnicodes.length; i++) {
-                if (glyphUnicodes[i].indexOf(c) == 0
-                    && languageMatches(glyphLangs[i])
-                    && orientationMatches(glyphOrientations[i])
-                    && formMatches(glyphUnicodes[i], glyphForms[i],
-                                   aci, currentIndex)) {
-                    // found a possible match
-
-                    if (glyphUnicodes[i].length() == 1)  { // not a ligature
-                        foundMatchingGlyph = true;
-                        break;
-
-                    } else {
-                        // glyphCodes[i] is a ligature so try and
-                        // match the rest of the glyphCode chars
-                        boolean matched = true;
-                        for (int j = 1; j < glyphUnicodes[i].length(); j++) {
-                            c = iter.next();
-                            if (glyphUnicodes[i].charAt(j) != c) {
-                                matched = false;
-                                break;
-                            }
-                        }
-                        if (matched) { // found a matching ligature!
-                            foundMatchingGlyph = true;
-                            break;
-
-                        } else {
-                            // did not match ligature, keep looking
-                            // for another glyph
-                            c = iter.setIndex(currentIndex);
-                        }
-                    }
-                }
-            }
-            if (!foundMatchingGlyph) {
+            if (matchGlyph(iter, aci) == -1) {
                 return currentIndex;
             }
             c = iter.next();
@@ -579,68 +619,22 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
         List glyphs = new ArrayList();
         char c = ci.first();
         while (c != CharacterIterator.DONE) {
-            boolean foundMatchingGlyph = false;
-            for (int i = 0; i < glyphUnicodes.length; i++) {
-                if (glyphUnicodes[i].indexOf(c) == 0 &&
-                    languageMatches(glyphLangs[i]) &&
-                    orientationMatches(glyphOrientations[i]) &&
-                    formMatches(glyphUnicodes[i], glyphForms[i], aci,
-                                ci.getIndex())) {  // found a possible match
-
-                    if (glyphUnicodes[i].length() == 1)  { // not a ligature
-                        Element glyphElement = glyphElements[i];
-                        SVGGlyphElementBridge glyphBridge =
-                            (SVGGlyphElementBridge)ctx.getBridge(glyphElement);
-                        TextPaintInfo tpi = null;
-                        if (aci != null) {
-                            tpi = (TextPaintInfo)aci.getAttribute(PAINT_INFO);
-                        }
-                        Glyph glyph = glyphBridge.createGlyph
-                            (ctx, glyphElement, textElement, i,
-                             fontSize, fontFace, tpi);
-                        glyphs.add(glyph);
-                        foundMatchingGlyph = true;
-                        break;
-                    } else {
-                        // glyphCodes[i] is a ligature so try and
-                        // match the rest of the glyphCode chars
-                        int current = ci.getIndex();
-                        boolean matched = true;
-                        for (int j = 1; j < glyphUnicodes[i].length(); j++) {
-                            c = ci.next();
-                            if (glyphUnicodes[i].charAt(j) != c) {
-                                matched = false;
-                                break;
-                            }
-                        }
-                        if (matched) { // found a matching ligature!
-
-                            Element glyphElement = glyphElements[i];
-                            SVGGlyphElementBridge glyphBridge
-                                = (SVGGlyphElementBridge)ctx.getBridge
-                                (glyphElement);
-                            TextPaintInfo tpi = null;
-                            if (aci != null) {
-                                aci.setIndex(ci.getIndex());
-                                tpi = (TextPaintInfo)aci.getAttribute
-                                    (PAINT_INFO);
-                            }
-                            Glyph glyph = glyphBridge.createGlyph
-                                (ctx, glyphElement, textElement, i,
-                                 fontSize, fontFace, tpi);
-                            glyphs.add(glyph);
-                            foundMatchingGlyph = true;
-                            break;
-
-                        } else {
-                            // did not match ligature, keep looking
-                            // for another glyph
-                            c = ci.setIndex(current);
-                        }
-                    }
+            int i = matchGlyph(ci, aci);
+            if (i != -1) {
+                Element glyphElement = glyphElements[i];
+                SVGGlyphElementBridge glyphBridge =
+                    (SVGGlyphElementBridge)ctx.getBridge(glyphElement);
+                TextPaintInfo tpi = null;
+                if (aci != null) {
+                    // the last character of a ligature
+                    aci.setIndex(ci.getIndex());
+                    tpi = (TextPaintInfo)aci.getAttribute(PAINT_INFO);
                 }
-            }
-            if (!foundMatchingGlyph) {
+                Glyph glyph = glyphBridge.createGlyph
+                    (ctx, glyphElement, textElement, i,
+                     fontSize, fontFace, tpi);
+                glyphs.add(glyph);
+            } else {
                 // add the missing glyph
                 SVGGlyphElementBridge glyphBridge =
                     (SVGGlyphElementBridge)ctx.getBridge(missingGlyphElement);
@@ -712,10 +706,9 @@ public final class SVGGVTFont implements GVTFont, SVGConstants {
      * @return The new font object.
      */
     public GVTFont deriveFont(float size) {
-        return new SVGGVTFont(size, fontFace, glyphUnicodes, glyphNames,
-                              glyphLangs, glyphOrientations, glyphForms, ctx,
-                              glyphElements, missingGlyphElement,
-                              hkernElements, vkernElements, textElement);
+        return new SVGGVTFont(size, fontFace, glyphIndex, ctx,
+                              missingGlyphElement, hkernElements,
+                              vkernElements, textElement);
     }
 
     public String getFamilyName() {
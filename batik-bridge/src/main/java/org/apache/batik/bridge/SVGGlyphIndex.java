@@ -0,0 +1,261 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.batik.gvt.font.KerningTable;
+
+import org.w3c.dom.Element;
+
+/**
+ * The glyphs of an SVG font, indexed for text layout.  The unicode
+ * values of the glyphs, ligatures included, are held in a prefix trie
+ * so the glyphs that can start at a character are found without
+ * looking at every glyph of the font.  The glyph languages are parsed
+ * once.
+ *
+ * <p>An index only depends on the &lt;font&gt; element, it is shared by
+ * all the SVGGVTFonts created for it.
+ *
+ * @version $Id$
+ */
+final class SVGGlyphIndex {
+
+    private static final int [] NO_GLYPHS = new int[0];
+
+    final String[] glyphUnicodes;
+    final String[] glyphNames;
+    final String[] glyphOrientations;
+    final String[] glyphForms;
+    final Element[] glyphElements;
+
+    /**
+     * The languages of each glyph, null if the glyph matches all
+     * languages.
+     */
+    final String[][] glyphLangSets;
+
+    /**
+     * The root of the trie, holding the glyphs with an empty unicode.
+     */
+    final Node root;
+
+    /**
+     * The kerning tables of the font, created by the first SVGGVTFont
+     * using this index.  Accessed while synchronized on the index.
+     */
+    KerningTable hKerningTable;
+    KerningTable vKerningTable;
+
+    /**
+     * Glyph codes by glyph name.
+     */
+    private final Map nameIndex;
+
+    /**
+     * Glyph codes by character, for all the characters of each
+     * unicode value.  Built on first use.
+     */
+    private Map charIndex;
+
+    SVGGlyphIndex(String[] glyphUnicodes, String[] glyphNames,
+                  String[] glyphLangs, String[] glyphOrientations,
+                  String[] glyphForms, Element[] glyphElements) {
+        this.glyphUnicodes = glyphUnicodes;
+        this.glyphNames = glyphNames;
+        this.glyphOrientations = glyphOrientations;
+        this.glyphForms = glyphForms;
+        this.glyphElements = glyphElements;
+
+        int n = glyphUnicodes.length;
+        glyphLangSets = new String[n][];
+        for (int i = 0; i < n; i++) {
+            String lang = glyphLangs[i];
+            if (lang == null || lang.length() == 0) {
+                continue;
+            }
+            StringTokenizer st = new StringTokenizer(lang, ",");
+            String[] langs = new String[st.countTokens()];
+            for (int j = 0; j < langs.length; j++) {
+                langs[j] = st.nextToken();
+            }
+            glyphLangSets[i] = langs;
+        }
+
+        root = new Node();
+        for (int i = 0; i < n; i++) {
+            String u = glyphUnicodes[i];
+            if (u == null) {
+                continue;
+            }
+            Node node = root;
+            for (int j = 0; j < u.length(); j++) {
+                node = node.getOrAddChild(u.charAt(j));
+            }
+            node.addGlyph(i);
+        }
+        root.trim();
+
+        nameIndex = new HashMap();
+        for (int i = 0; i < glyphNames.length; i++) {
+            if (glyphNames[i] != null) {
+                add(nameIndex, glyphNames[i], i);
+            }
+        }
+        trim(nameIndex);
+    }
+
+    /**
+     * Returns the codes of the glyphs whose unicode value is exactly
+     * the given string, in increasing order.
+     */
+    int[] getGlyphCodesForUnicode(String unicode) {
+        Node node = root;
+        for (int j = 0; node != null && j < unicode.length(); j++) {
+            node = node.getChild(unicode.charAt(j));
+        }
+        if (node == null || node.glyphCount == 0) {
+            return NO_GLYPHS;
+        }
+        return Arrays.copyOf(node.glyphs, node.glyphCount);
+    }
+
+    /**
+     * Returns the codes of the glyphs with the given name, in
+     * increasing order.
+     */
+    int[] getGlyphCodesForName(String name) {
+        int[] codes = (int[])nameIndex.get(name);
+        return (codes == null) ? NO_GLYPHS : codes.clone();
+    }
+
+    /**
+     * Returns the codes of the glyphs whose unicode value contains the
+     * given character, in increasing order.
+     */
+    synchronized int[] getGlyphCodesContaining(char c) {
+        if (charIndex == null) {
+            Map m = new HashMap();
+            for (int i = 0; i < glyphUnicodes.length; i++) {
+                String u = glyphUnicodes[i];
+                for (int j = 0; u != null && j < u.length(); j++) {
+                    if (u.indexOf(u.charAt(j)) == j) {
+                        add(m, u.charAt(j), i);
+                    }
+                }
+            }
+            trim(m);
+            charIndex = m;
+        }
+        int[] codes = (int[])charIndex.get(c);
+        return (codes == null) ? NO_GLYPHS : codes;
+    }
+
+    private static void add(Map m, Object key, int glyph) {
+        List l = (List)m.get(key);
+        if (l == null) {
+            l = new ArrayList(1);
+            m.put(key, l);
+        }
+        l.add(glyph);
+    }
+
+    /**
+     * Replaces the lists of glyph codes in m with arrays.
+     */
+    private static void trim(Map m) {
+        for (Object o : m.entrySet()) {
+            Map.Entry e = (Map.Entry)o;
+            List l = (List)e.getValue();
+            int[] codes = new int[l.size()];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = (Integer)l.get(i);
+            }
+            e.setValue(codes);
+        }
+    }
+
+    /**
+     * A node of the trie.  The children are sorted by character once
+     * the trie is built.
+     */
+    static final class Node {
+
+        char[] chars = new char[0];
+        Node[] children = new Node[0];
+        int childCount;
+
+        /**
+         * The glyphs whose unicode value ends at this node, in
+         * increasing order.
+         */
+        int[] glyphs = NO_GLYPHS;
+        int glyphCount;
+
+        Node getChild(char c) {
+            int i = Arrays.binarySearch(chars, 0, childCount, c);
+            return (i < 0) ? null : children[i];
+        }
+
+        Node getOrAddChild(char c) {
+            int i = Arrays.binarySearch(chars, 0, childCount, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            i = -i - 1;
+            if (childCount == chars.length) {
+                int len = Math.max(2, childCount * 2);
+                chars = Arrays.copyOf(chars, len);
+                children = Arrays.copyOf(children, len);
+            }
+            System.arraycopy(chars, i, chars, i + 1, childCount - i);
+            System.arraycopy(children, i, children, i + 1, childCount - i);
+            Node n = new Node();
+            chars[i] = c;
+            children[i] = n;
+            childCount++;
+            return n;
+        }
+
+        void addGlyph(int glyph) {
+            if (glyphCount == glyphs.length) {
+                glyphs = Arrays.copyOf(glyphs, Math.max(1, glyphCount * 2));
+            }
+            glyphs[glyphCount++] = glyph;
+        }
+
+        /**
+         * Releases the unused space of this node and its children.
+         */
+        void trim() {
+            chars = Arrays.copyOf(chars, childCount);
+            children = Arrays.copyOf(children, childCount);
+            glyphs = Arrays.copyOf(glyphs, glyphCount);
+            for (int i = 0; i < childCount; i++) {
+                children[i].trim();
+            }
+        }
+    }
+}
@@ -45,6 +45,7 @@ import org.apache.batik.dom.svg.LiveAttributeException;
 import org.apache.batik.ext.awt.image.renderable.ClipRable8Bit;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.spi.BrokenLinkProvider;
+import org.apache.batik.ext.awt.image.spi.DecodeExecutor;
 import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
 import org.apache.batik.gvt.CanvasGraphicsNode;
 import org.apache.batik.gvt.CompositeGraphicsNode;
@@ -257,8 +258,14 @@ public class SVGImageElementBridge extends AbstractGraphicsNodeBridge {
              * We tell the registry what the source purl is but we
              * tell it not to open that url.
              */
-            Filter img = reg.readURL(reference, purl, colorspace,
-                                     false, false);
+            Filter img;
+            DecodeExecutor.Group group =
+                DecodeExecutor.setCurrentGroup(ctx.getDecodeGroup());
+            try {
+                img = reg.readURL(reference, purl, colorspace, false, false);
+            } finally {
+                DecodeExecutor.setCurrentGroup(group);
+            }
             if (img != null) {
                 try {
                     reference.tie();
@@ -332,8 +339,14 @@ public class SVGImageElementBridge extends AbstractGraphicsNodeBridge {
             // Finally try to load the image as a raster image (JPG or
             // PNG) allowing the registry to open the url (so the
             // JDK readers can be checked).
-            Filter img = reg.readURL(reference, purl, colorspace,
-                                     true, true);
+            Filter img;
+            DecodeExecutor.Group group =
+                DecodeExecutor.setCurrentGroup(ctx.getDecodeGroup());
+            try {
+                img = reg.readURL(reference, purl, colorspace, true, true);
+            } finally {
+                DecodeExecutor.setCurrentGroup(group);
+            }
             if (img != null) {
                 // It's a bouncing baby Raster...
                 return createRasterImageNode(ctx, e, img, purl);
@@ -64,7 +64,6 @@ import org.apache.batik.gvt.font.GVTFont;
 import org.apache.batik.gvt.font.GVTFontFamily;
 import org.apache.batik.gvt.font.GVTGlyphMetrics;
 import org.apache.batik.gvt.font.GVTGlyphVector;
-import org.apache.batik.gvt.font.UnresolvedFontFamily;
 import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
 import org.apache.batik.gvt.text.TextPaintInfo;
 import org.apache.batik.gvt.text.TextPath;
@@ -129,6 +128,11 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
         AttributedCharacterIterator.Attribute BASELINE_SHIFT
         = GVTAttributedCharacterIterator.TextAttribute.BASELINE_SHIFT;
 
+    /**
+     * The attributed string of the current layout of the text node, in
+     * dynamic documents.  It is set to null when a change of the text
+     * content discards the layout.
+     */
     protected AttributedString laidoutText;
 
     // This is used to track the TextPainterInfo for each element
@@ -635,7 +639,8 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
 
         addGlyphPositionAttributes(as, e, ctx);
         if (ctx.isDynamic()) {
-            laidoutText = new AttributedString(as.getIterator());
+            // Only used as a flag, no need for a copy of the text.
+            laidoutText = as;
         }
 
         // Install the ACI in the text node.
@@ -1505,22 +1510,11 @@ public class SVGTextElementBridge extends AbstractGraphicsNodeBridge
         //  make a list of GVTFont objects
         Value val = CSSUtilities.getComputedStyle
             (element, SVGCSSEngine.FONT_FAMILY_INDEX);
-        List fontFamilyList = new ArrayList();
-        List fontList = new ArrayList();
-        int len = val.getLength();
-        for (int i = 0; i < len; i++) {
-            Value it = val.item(i);
-            String fontFamilyName = it.getStringValue();
-            GVTFontFamily fontFamily;
-            fontFamily = SVGFontUtilities.getFontFamily(element, ctx, fontFamilyName,
-                    fontWeightString, fontStyleString);
-            if (fontFamily != null && fontFamily instanceof UnresolvedFontFamily) {
-                fontFamily = ctx.getFontFamilyResolver().resolve(fontFamily.getFamilyName());
-            }
-            if (fontFamily == null) {
-                continue;
-            }
-            fontFamilyList.add(fontFamily);
+        List fontFamilyList = SVGFontUtilities.getFontFamilies
+            (element, ctx, val, fontWeightString, fontStyleString);
+        List fontList = new ArrayList(fontFamilyList.size());
+        for (Object ff : fontFamilyList) {
+            GVTFontFamily fontFamily = (GVTFontFamily) ff;
             if (fontFamily.isComplex()) {
                 usingComplexSVGFont = true;
             }
@@ -30,7 +30,6 @@ import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.text.AttributedCharacterIterator;
-import java.text.AttributedString;
 import java.text.CharacterIterator;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -42,6 +41,7 @@ import org.apache.batik.gvt.font.GVTFont;
 import org.apache.batik.gvt.font.GVTFontFamily;
 import org.apache.batik.gvt.font.GVTGlyphMetrics;
 import org.apache.batik.gvt.font.GVTLineMetrics;
+import org.apache.batik.gvt.text.AttributedCharArray;
 import org.apache.batik.gvt.text.AttributedCharacterSpanIterator;
 import org.apache.batik.gvt.text.BidiAttributedCharacterIterator;
 import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
@@ -138,6 +138,11 @@ public class StrokingTextPainter extends BasicTextPainter {
      */
     protected static TextPainter singleton = new StrokingTextPainter();
 
+    /**
+     * The cache of bidi levels and font matches of the text chunks.
+     */
+    private final TextLayoutCache textLayoutCache = new TextLayoutCache();
+
     /**
      * Returns a unique instance of this class.
      */
@@ -187,6 +192,7 @@ public class StrokingTextPainter extends BasicTextPainter {
             return textRuns;
         }
 
+        aci = createLayoutACI(aci);
         AttributedCharacterIterator[] chunkACIs = getTextChunkACIs(aci);
         textRuns = computeTextRuns(node, aci, chunkACIs);
 
@@ -195,6 +201,22 @@ public class StrokingTextPainter extends BasicTextPainter {
         return node.getTextRuns();
    }
 
+    /**
+     * Returns a copy of the given text node ACI backed by an
+     * AttributedCharArray.  The text runs are computed from this copy,
+     * since the layout walks the attributes of each character many
+     * times and AttributedCharArray answers those lookups from its
+     * current run, without building attribute maps.
+     */
+    protected AttributedCharacterIterator createLayoutACI
+        (AttributedCharacterIterator aci) {
+        if (aci.getBeginIndex() != 0) {
+            // The copy starts at 0, keep the indices of the text node.
+            return aci;
+        }
+        return new AttributedCharArray(aci).getIterator();
+    }
+
     public List computeTextRuns(TextNode node,
                                 AttributedCharacterIterator aci,
                                 AttributedCharacterIterator [] chunkACIs) {
@@ -203,9 +225,15 @@ public class StrokingTextPainter extends BasicTextPainter {
         // reorder each chunk ACI for bidi text
         int chunkStart = aci.getBeginIndex();
         for (int i = 0; i < chunkACIs.length; i++) {
+            TextLayoutCache.Key key
+                = textLayoutCache.createBidiKey(chunkACIs[i]);
+            int[] levels = textLayoutCache.getBidiLevels(key);
             BidiAttributedCharacterIterator iter;
             iter = new BidiAttributedCharacterIterator
-                (chunkACIs[i], fontRenderContext, chunkStart);
+                (chunkACIs[i], levels, fontRenderContext, chunkStart);
+            if (levels == null) {
+                textLayoutCache.putBidiLevels(key, iter.getCharacterLevels());
+            }
             chunkACIs    [i] = iter;
             chunkCharMaps[i] = iter.getCharMap();
             chunkStart += (chunkACIs[i].getEndIndex()-
@@ -422,8 +450,14 @@ public class StrokingTextPainter extends BasicTextPainter {
     protected AttributedCharacterIterator createModifiedACIForFontMatching
         (AttributedCharacterIterator aci) {
 
+        TextLayoutCache.Key key = textLayoutCache.createFontMatchingKey(aci);
+        TextLayoutCache.FontMatch match = textLayoutCache.getFontMatch(key);
+        if (match != null) {
+            return match.apply(aci);
+        }
+        match = new TextLayoutCache.FontMatch();
+
         aci.first();
-        AttributedString as = null;
         int asOff = 0;
         int begin = aci.getBeginIndex();
         boolean moreChunks = true;
@@ -446,16 +480,15 @@ public class StrokingTextPainter extends BasicTextPainter {
             // then use the default font
             if (fonts.size() == 0) {
                 // create a list of fonts of the correct size
-                fonts.add(getFontFamilyResolver().getDefault().deriveFont(fontSize, aci));
+                GVTFont font = getFontFamilyResolver().getDefault().deriveFont(fontSize, aci);
+                fonts.add(font);
+                match.addDefaultFont(start - begin, font);
             }
 
             // now for each char or group of chars in the string,
             // find a font that can display it.
             boolean[] fontAssigned = new boolean[aciLength];
 
-            if (as == null)
-                as = new AttributedString(aci);
-
             GVTFont defaultFont = null;
             int numSet=0;
             int firstUnset=start;
@@ -503,8 +536,8 @@ public class StrokingTextPainter extends BasicTextPainter {
                         for (int j = currentIndex; j < displayUpToIndex; j++) {
                             if (fontAssigned[j - start]) {
                                 if (runStart != -1) {
-                                    as.addAttribute(GVT_FONT, font,
-                                            runStart - begin, j - begin);
+                                    match.addFont(runStart - begin, j - begin,
+                                                  font, fonts);
                                     runStart = -1;
                                 }
                             } else {
@@ -515,9 +548,9 @@ public class StrokingTextPainter extends BasicTextPainter {
                             numSet++;
                         }
                         if (runStart != -1) {
-                            as.addAttribute(GVT_FONT, font,
-                                    runStart - begin,
-                                    displayUpToIndex - begin);
+                            match.addFont(runStart - begin,
+                                          displayUpToIndex - begin,
+                                          font, fonts);
                         }
 
                         // set currentIndex to be one after the char
@@ -537,8 +570,7 @@ public class StrokingTextPainter extends BasicTextPainter {
             for (int i = 0; i < aciLength; i++) {
                 if (fontAssigned[i]) {
                     if (runStart != -1) {
-                        as.addAttribute(GVT_FONT, prevF,
-                                        runStart+asOff, i+asOff);
+                        match.addFont(runStart+asOff, i+asOff, prevF, fonts);
                         runStart = -1;
                         prevF  = null;
                         prevFF = null;
@@ -559,8 +591,7 @@ public class StrokingTextPainter extends BasicTextPainter {
                             prevF = fontFamily.deriveFont(fontSize, aci);
                     } else if (prevFF != fontFamily) {
                         // Font family changed...
-                        as.addAttribute(GVT_FONT, prevF,
-                                        runStart+asOff, i+asOff);
+                        match.addFont(runStart+asOff, i+asOff, prevF, fonts);
 
                         runStart = i;
                         prevFF = fontFamily;
@@ -572,8 +603,7 @@ public class StrokingTextPainter extends BasicTextPainter {
                 }
             }
             if (runStart != -1) {
-                as.addAttribute(GVT_FONT, prevF,
-                                runStart+asOff, aciLength+asOff);
+                match.addFont(runStart+asOff, aciLength+asOff, prevF, fonts);
             }
 
             asOff += aciLength;
@@ -582,11 +612,8 @@ public class StrokingTextPainter extends BasicTextPainter {
             }
             start = end;
         }
-        if (as != null)
-            return as.getIterator();
-
-        // Didn't do anything return original ACI
-        return aci;
+        textLayoutCache.putFontMatch(key, match);
+        return match.apply(aci);
     }
 
     protected FontFamilyResolver getFontFamilyResolver() {
@@ -617,6 +644,13 @@ public class StrokingTextPainter extends BasicTextPainter {
         boolean isChunkStart  = true;
         TextSpanLayout layout = null;
         Set textRunBoundaryAttributes = getTextRunBoundaryAttributes();
+
+        // The layouts of a chunk scaled for textLength are laid out again
+        // once the chunk is measured, they cannot be taken from the
+        // previous layout of the node.
+        Float length = (Float) aci.getAttribute
+            (GVTAttributedCharacterIterator.TextAttribute.BBOX_WIDTH);
+        boolean reuse = (length == null) || length.isNaN();
         do {
             int start = aci.getRunStart(textRunBoundaryAttributes);
             int end   = aci.getRunLimit(textRunBoundaryAttributes);
@@ -645,8 +679,16 @@ public class StrokingTextPainter extends BasicTextPainter {
                 frc = aaOffFontRenderContext;
             }
 
-            layout = getTextLayoutFactory().createTextLayout
-                (runaci, subCharMap, offset, frc);
+            layout = null;
+            if (reuse) {
+                // Keep the glyphs of the runs an edit of the text did
+                // not change, adjustChunkOffsets moves them if needed.
+                layout = node.reusePreviousLayout(runaci, subCharMap, frc);
+            }
+            if (layout == null) {
+                layout = getTextLayoutFactory().createTextLayout
+                    (runaci, subCharMap, offset, frc);
+            }
 
             textRuns.add(new TextRun(layout, runaci, isChunkStart));
 
@@ -0,0 +1,402 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.font.TextAttribute;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.batik.gvt.font.AWTGVTFont;
+import org.apache.batik.gvt.font.GVTFont;
+import org.apache.batik.gvt.text.AttributedCharArray;
+import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
+
+/**
+ * This class caches the results of the text layout steps which only
+ * depend on the characters of a text chunk and on its font attributes:
+ * the bidi embedding levels and the font matching.  Documents which
+ * repeat the same labels many times only pay for those steps once.
+ *
+ * <p>Only chunks whose fonts are all AWT fonts are cached for font
+ * matching, since SVG fonts depend on the text element they were
+ * created for.  The glyph layouts themselves are not cached, they are
+ * positioned and painted per text node.
+ *
+ * @version $Id$
+ */
+class TextLayoutCache {
+
+    /**
+     * The default maximum number of entries of each table.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    protected static final AttributedCharacterIterator.Attribute GVT_FONT
+        = GVTAttributedCharacterIterator.TextAttribute.GVT_FONT;
+
+    protected static final AttributedCharacterIterator.Attribute GVT_FONTS
+        = GVTAttributedCharacterIterator.TextAttribute.GVT_FONTS;
+
+    protected static final AttributedCharacterIterator.Attribute
+        TEXT_COMPOUND_ID
+        = GVTAttributedCharacterIterator.TextAttribute.TEXT_COMPOUND_ID;
+
+    protected static final AttributedCharacterIterator.Attribute
+        ALT_GLYPH_HANDLER
+        = GVTAttributedCharacterIterator.TextAttribute.ALT_GLYPH_HANDLER;
+
+    /**
+     * The attributes the bidi algorithm depends on.
+     */
+    protected static final Set BIDI_ATTRIBUTES = new HashSet();
+    static {
+        BIDI_ATTRIBUTES.add(TextAttribute.RUN_DIRECTION);
+        BIDI_ATTRIBUTES.add(TextAttribute.BIDI_EMBEDDING);
+        BIDI_ATTRIBUTES.add(TextAttribute.NUMERIC_SHAPING);
+    }
+
+    /**
+     * The bidi levels, indexed by key.
+     */
+    protected Map bidiLevels = new Table();
+
+    /**
+     * The font matches, indexed by key.
+     */
+    protected Map fontMatches = new Table();
+
+    /**
+     * The maximum number of entries of each table.
+     */
+    protected int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    /**
+     * Returns the key to use to look up the bidi levels of the given
+     * text chunk.
+     */
+    public Key createBidiKey(AttributedCharacterIterator aci) {
+        int begin = aci.getBeginIndex();
+        int end = aci.getEndIndex();
+        if (begin == end) {
+            return null;
+        }
+        // The chunk is usually a span of the text node ACI, whose
+        // getRunLimit(Set) would look past the end of the chunk: walk
+        // the runs of all the attributes and merge them instead.
+        List runs = new ArrayList();
+        Map prev = null;
+        int i = begin;
+        while (i < end) {
+            aci.setIndex(i);
+            Map values = new HashMap();
+            for (Object att : BIDI_ATTRIBUTES) {
+                Object v = aci.getAttribute((AttributedCharacterIterator.Attribute) att);
+                if (v != null) {
+                    values.put(att, v);
+                }
+            }
+            i = aci.getRunLimit();
+            if (values.equals(prev)) {
+                runs.set(runs.size() - 2, i - begin);
+            } else {
+                runs.add(i - begin);
+                runs.add(values);
+                prev = values;
+            }
+        }
+        return new Key(getText(aci), runs.toArray());
+    }
+
+    /**
+     * Returns the key to use to look up the font match of the given
+     * text chunk, or null if the font match of this chunk cannot be
+     * cached.
+     */
+    public Key createFontMatchingKey(AttributedCharacterIterator aci) {
+        int begin = aci.getBeginIndex();
+        int end = aci.getEndIndex();
+        if (begin == end) {
+            return null;
+        }
+
+        // The java.awt.font attributes are used to derive the fallback
+        // fonts, all of them must be part of the key.
+        Set atts = new HashSet();
+        for (Object att : aci.getAllAttributeKeys()) {
+            if (att instanceof TextAttribute) {
+                atts.add(att);
+            }
+        }
+        Set textAtts = new HashSet(atts);
+        atts.add(GVT_FONTS);
+        atts.add(TEXT_COMPOUND_ID);
+        atts.add(ALT_GLYPH_HANDLER);
+
+        List runs = new ArrayList();
+        Object compound = null;
+        int compoundCount = 0;
+        int i = begin;
+        while (i < end) {
+            aci.setIndex(i);
+            if (aci.getAttribute(ALT_GLYPH_HANDLER) != null) {
+                return null;
+            }
+            List fonts = (List) aci.getAttribute(GVT_FONTS);
+            if (fonts == null) {
+                return null;
+            }
+            Object[] awtFonts = new Object[fonts.size()];
+            for (int j = 0; j < awtFonts.length; j++) {
+                Object font = fonts.get(j);
+                if (!(font instanceof AWTGVTFont)) {
+                    return null;
+                }
+                awtFonts[j] = ((AWTGVTFont) font).getAWTFont();
+            }
+            Object id = aci.getAttribute(TEXT_COMPOUND_ID);
+            if (i == begin || id != compound) {
+                compound = id;
+                compoundCount++;
+            }
+            Map values = new HashMap();
+            for (Object att : textAtts) {
+                Object v = aci.getAttribute((AttributedCharacterIterator.Attribute) att);
+                if (v != null) {
+                    values.put(att, v);
+                }
+            }
+            i = aci.getRunLimit(atts);
+            runs.add(i - begin);
+            runs.add(compoundCount);
+            runs.add(Arrays.asList(awtFonts));
+            runs.add(values);
+        }
+        return new Key(getText(aci), runs.toArray());
+    }
+
+    /**
+     * Returns the cached bidi levels for the given key, or null.
+     */
+    public synchronized int[] getBidiLevels(Key key) {
+        if (key == null) {
+            return null;
+        }
+        return (int[]) bidiLevels.get(key);
+    }
+
+    /**
+     * Caches the bidi levels for the given key.
+     */
+    public synchronized void putBidiLevels(Key key, int[] levels) {
+        if (key != null && levels != null) {
+            bidiLevels.put(key, levels);
+        }
+    }
+
+    /**
+     * Returns the cached font match for the given key, or null.
+     */
+    public synchronized FontMatch getFontMatch(Key key) {
+        if (key == null) {
+            return null;
+        }
+        return (FontMatch) fontMatches.get(key);
+    }
+
+    /**
+     * Caches the font match for the given key, if it can be shared.
+     */
+    public synchronized void putFontMatch(Key key, FontMatch match) {
+        if (key != null && match.isCacheable()) {
+            fontMatches.put(key, match);
+        }
+    }
+
+    /**
+     * Sets the maximum number of entries of each table.
+     */
+    public synchronized void setMaxEntries(int n) {
+        maxEntries = n;
+        bidiLevels.clear();
+        fontMatches.clear();
+    }
+
+    /**
+     * Removes all the entries from this cache.
+     */
+    public synchronized void clear() {
+        bidiLevels.clear();
+        fontMatches.clear();
+    }
+
+    /**
+     * Returns the characters of the given iterator.
+     */
+    protected static String getText(AttributedCharacterIterator aci) {
+        StringBuffer sb = new StringBuffer(aci.getEndIndex() - aci.getBeginIndex());
+        for (char c = aci.first(); c != AttributedCharacterIterator.DONE; c = aci.next()) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A table which drops its least recently used entry when it grows
+     * over maxEntries.
+     */
+    protected class Table extends LinkedHashMap {
+        public Table() {
+            super(16, 0.75f, true);
+        }
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > maxEntries;
+        }
+    }
+
+    /**
+     * The key of a text chunk: its characters and its attribute runs.
+     */
+    public static class Key {
+
+        protected String text;
+        protected Object[] runs;
+        protected int hashCode;
+
+        public Key(String text, Object[] runs) {
+            this.text = text;
+            this.runs = runs;
+            this.hashCode = text.hashCode() * 31 + Arrays.hashCode(runs);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return hashCode == k.hashCode
+                && text.equals(k.text)
+                && Arrays.equals(runs, k.runs);
+        }
+    }
+
+    /**
+     * The fonts assigned to the characters of a text chunk.  A font is
+     * recorded as its index in the GVT_FONTS list of its text compound
+     * when it comes from that list, so a match can be applied to any
+     * chunk with the same key.
+     */
+    public static class FontMatch {
+
+        /**
+         * The start index, end index and font of each run, relative
+         * to the beginning of the chunk.  The font is either an Integer
+         * index in the GVT_FONTS list or a GVTFont.
+         */
+        protected List runs = new ArrayList();
+
+        /**
+         * The index and font of each default font added to an empty
+         * GVT_FONTS list.
+         */
+        protected List defaultFonts = new ArrayList();
+
+        /**
+         * Whether all the fonts of this match can be shared.
+         */
+        protected boolean cacheable = true;
+
+        /**
+         * Records the default font added to the empty GVT_FONTS list of
+         * the text compound at the given index.
+         */
+        public void addDefaultFont(int index, GVTFont font) {
+            defaultFonts.add(index);
+            defaultFonts.add(font);
+            if (!(font instanceof AWTGVTFont)) {
+                cacheable = false;
+            }
+        }
+
+        /**
+         * Records the font assigned to the given characters.
+         * @param fonts The GVT_FONTS list of the text compound.
+         */
+        public void addFont(int start, int end, GVTFont font, List fonts) {
+            Object ref = font;
+            for (int i = 0; i < fonts.size(); i++) {
+                if (fonts.get(i) == font) {
+                    ref = i;
+                    break;
+                }
+            }
+            if (ref == font && !(font instanceof AWTGVTFont)) {
+                cacheable = false;
+            }
+            runs.add(start);
+            runs.add(end);
+            runs.add(ref);
+        }
+
+        /**
+         * Whether this match can be applied to other text chunks.
+         */
+        public boolean isCacheable() {
+            return cacheable;
+        }
+
+        /**
+         * Returns a new iterator with the GVT_FONT attributes of this
+         * match added to the given chunk.
+         */
+        public AttributedCharacterIterator apply
+            (AttributedCharacterIterator aci) {
+            int begin = aci.getBeginIndex();
+            for (int i = 0; i < defaultFonts.size(); i += 2) {
+                aci.setIndex(begin + (Integer) defaultFonts.get(i));
+                List fonts = (List) aci.getAttribute(GVT_FONTS);
+                if (fonts.size() == 0) {
+                    fonts.add(defaultFonts.get(i + 1));
+                }
+            }
+            AttributedCharArray as = new AttributedCharArray(aci);
+            for (int i = 0; i < runs.size(); i += 3) {
+                int start = (Integer) runs.get(i);
+                Object ref = runs.get(i + 2);
+                if (ref instanceof Integer) {
+                    aci.setIndex(begin + start);
+                    List fonts = (List) aci.getAttribute(GVT_FONTS);
+                    ref = fonts.get((Integer) ref);
+                }
+                as.addAttribute(GVT_FONT, ref, start, (Integer) runs.get(i + 1));
+            }
+            return as.getIterator();
+        }
+    }
+}
@@ -20,13 +20,18 @@ package org.apache.batik.bridge;
 
 import java.awt.Graphics2D;
 import java.awt.Shape;
+import java.awt.font.FontRenderContext;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.text.AttributedCharacterIterator;
 import java.text.CharacterIterator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.batik.gvt.AbstractGraphicsNode;
 import org.apache.batik.gvt.Selectable;
@@ -77,6 +82,18 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
      */
     protected List textRuns;
 
+    /**
+     * The text runs of the layout of this node before its text last
+     * changed, whose layouts the next layout can reuse.
+     */
+    protected List previousTextRuns;
+
+    /**
+     * The layouts of the previous text runs not reused yet, indexed by
+     * the text of their run.
+     */
+    private Map previousLayouts;
+
     /**
      * The text painter used to display the text of this text node.
      */
@@ -140,6 +157,69 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
      */
     public void setTextRuns(List textRuns) {
         this.textRuns = textRuns;
+        previousTextRuns = null;
+        previousLayouts = null;
+    }
+
+    /**
+     * Returns a layout of the text runs this node had before its text
+     * last changed that can be used for the given text run, or null.
+     * The layout is bound to the given run, see {@link GlyphLayout#reuse},
+     * and is not handed out again.
+     *
+     * @param runACI the ACI of the text run to lay out
+     * @param charMap the character map of the text run
+     * @param frc the font render context of the text run
+     */
+    public TextSpanLayout reusePreviousLayout(AttributedCharacterIterator runACI,
+                                              int [] charMap,
+                                              FontRenderContext frc) {
+        if (previousTextRuns == null) {
+            return null;
+        }
+        if (previousLayouts == null) {
+            previousLayouts = new HashMap();
+            for (Object o : previousTextRuns) {
+                if (!(o instanceof StrokingTextPainter.TextRun)) {
+                    continue;
+                }
+                StrokingTextPainter.TextRun run = (StrokingTextPainter.TextRun) o;
+                if (!(run.getLayout() instanceof GlyphLayout)) {
+                    continue;
+                }
+                String key = getRunText(run.getACI());
+                List layouts = (List) previousLayouts.get(key);
+                if (layouts == null) {
+                    layouts = new LinkedList();
+                    previousLayouts.put(key, layouts);
+                }
+                layouts.add(run.getLayout());
+            }
+        }
+        List layouts = (List) previousLayouts.get(getRunText(runACI));
+        if (layouts != null) {
+            Iterator i = layouts.iterator();
+            while (i.hasNext()) {
+                GlyphLayout layout = (GlyphLayout) i.next();
+                if (layout.reuse(runACI, charMap, frc)) {
+                    i.remove();
+                    return layout;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the characters of the given text run ACI.
+     */
+    private static String getRunText(AttributedCharacterIterator aci) {
+        char[] chars = new char[aci.getEndIndex() - aci.getBeginIndex()];
+        int i = 0;
+        for (char c = aci.first(); c != CharacterIterator.DONE; c = aci.next()) {
+            chars[i++] = c;
+        }
+        return new String(chars);
     }
 
     /**
@@ -205,6 +285,10 @@ public class TextNode extends AbstractGraphicsNode implements Selectable {
         invalidateGeometryCache();
         this.aci = newAci;
         text = null;
+        if (textRuns != null) {
+            previousTextRuns = textRuns;
+            previousLayouts = null;
+        }
         textRuns = null;
         fireGraphicsNodeChangeCompleted();
     }
@@ -67,6 +67,7 @@ import org.apache.batik.gvt.GraphicsNode;
 import org.apache.batik.gvt.flow.BlockInfo;
 import org.apache.batik.gvt.flow.RegionInfo;
 import org.apache.batik.gvt.flow.TextLineBreaks;
+import org.apache.batik.gvt.text.AttributedCharArray;
 import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
 import org.apache.batik.gvt.text.TextPaintInfo;
 import org.apache.batik.gvt.text.TextPath;
@@ -419,7 +420,8 @@ public class SVGFlowRootElementBridge extends SVG12TextElementBridge {
         AttributedString ret = getFlowDiv(ctx, element);
         if (ret == null) return ret;
         ret.addAttribute(FLOW_REGIONS, rgns, 0, 1);
-        TextLineBreaks.findLineBrk(ret);
+        // The words are found by the FlowTextPainter, see
+        // FlowTextPainter.createLayoutACI.
         // dumpACIWord(ret);
         return ret;
     }
@@ -429,7 +431,11 @@ public class SVGFlowRootElementBridge extends SVG12TextElementBridge {
 
         StringBuffer chars = new StringBuffer();
         StringBuffer brkStr = new StringBuffer();
-        AttributedCharacterIterator aci = as.getIterator();
+        // The words are not part of the attributed string any more,
+        // find them on a copy.
+        AttributedCharArray text = new AttributedCharArray(as.getIterator());
+        TextLineBreaks.findLineBrk(text);
+        AttributedCharacterIterator aci = text.getIterator();
         AttributedCharacterIterator.Attribute WORD_LIMIT =
             TextLineBreaks.WORD_LIMIT;
 
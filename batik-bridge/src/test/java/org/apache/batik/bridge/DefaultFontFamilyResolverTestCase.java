@@ -0,0 +1,145 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import org.apache.batik.gvt.font.GVTFontFamily;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the lookups of the shared DefaultFontFamilyResolver, and that
+ * they give the same results from several threads.
+ *
+ * @version $Id$
+ */
+public class DefaultFontFamilyResolverTestCase {
+
+    private static final DefaultFontFamilyResolver RESOLVER =
+        DefaultFontFamilyResolver.SINGLETON;
+
+    private static final String[] NAMES = {
+        "serif", "Serif", "SERIF", "sans-serif", "SansSerif",
+        "monospace", "Courier", "Times New Roman", "times",
+        "no-such-family", "No-Such-Family", "cursive", "fantasy"
+    };
+
+    @Test
+    public void testFamilyKey() {
+        assertEquals("times new roman",
+                     DefaultFontFamilyResolver.getFamilyKey("Times New Roman"));
+        assertEquals("times new roman",
+                     DefaultFontFamilyResolver.getFamilyKey("TIMES NEW ROMAN"));
+    }
+
+    /**
+     * Names are case-insensitive and the resolved families are
+     * shared.
+     */
+    @Test
+    public void testResolveIgnoresCase() {
+        GVTFontFamily f = RESOLVER.resolve("serif");
+        assertNotNull(f);
+        assertSame(f, RESOLVER.resolve("Serif"));
+        assertSame(f, RESOLVER.resolve("SERIF"));
+    }
+
+    /**
+     * The generic families map to the logical Java fonts.
+     */
+    @Test
+    public void testGenericFamilies() {
+        assertEquals("SansSerif",
+                     RESOLVER.resolve("sans-serif").getFamilyName());
+        assertEquals("Serif", RESOLVER.resolve("serif").getFamilyName());
+        assertEquals("Monospaced",
+                     RESOLVER.resolve("monospace").getFamilyName());
+    }
+
+    /**
+     * Unknown families stay unknown when asked again.
+     */
+    @Test
+    public void testUnknownFamily() {
+        assertNull(RESOLVER.resolve("no-such-family"));
+        assertNull(RESOLVER.resolve("no-such-family"));
+        assertNull(RESOLVER.resolve("No-Such-Family"));
+    }
+
+    @Test
+    public void testFamilyThatCanDisplay() {
+        GVTFontFamily f = RESOLVER.getFamilyThatCanDisplay('a');
+        assertNotNull(f);
+        assertSame(f, RESOLVER.getFamilyThatCanDisplay('a'));
+    }
+
+    /**
+     * Threads resolving the same names at the same time get the
+     * results of resolving them one after another.
+     */
+    @Test
+    public void testConcurrentResolve() throws Exception {
+        final String[] expected = new String[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            GVTFontFamily f = RESOLVER.resolve(NAMES[i]);
+            expected[i] = (f == null) ? null : f.getFamilyName();
+        }
+
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                    public void run() {
+                        try {
+                            for (int n = 0; n < 2000; n++) {
+                                int i = (n + offset) % NAMES.length;
+                                // Names that weren't seen before too.
+                                String name = ((n % 5) == 0)
+                                    ? NAMES[i] + " " + offset + "-" + n
+                                    : NAMES[i];
+                                GVTFontFamily f = RESOLVER.resolve(name);
+                                if (name == NAMES[i])
+                                    assertEquals
+                                        (expected[i],
+                                         (f == null) ? null
+                                                     : f.getFamilyName());
+                                else
+                                    assertNull(f);
+                            }
+                        } catch (Throwable th) {
+                            synchronized (failure) {
+                                failure[0] = th;
+                            }
+                        }
+                    }
+                };
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+        if (failure[0] instanceof Error)
+            throw (Error)failure[0];
+        if (failure[0] != null)
+            throw new Exception(failure[0]);
+    }
+}
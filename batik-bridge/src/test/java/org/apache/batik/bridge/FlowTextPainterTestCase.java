@@ -0,0 +1,88 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the layout copy of flowed text has its words.
+ *
+ * @version $Id$
+ */
+public class FlowTextPainterTestCase {
+
+    private static final String TEXT = "one two three";
+
+    private final FlowTextPainter painter =
+        (FlowTextPainter)FlowTextPainter.getInstance();
+
+    /**
+     * Checks that every character has a word, the words being numbered
+     * from 0 without gaps.
+     */
+    private static int countWords(AttributedCharacterIterator aci) {
+        int words = 0;
+        for (char c = aci.first(); c != AttributedCharacterIterator.DONE;
+             c = aci.next()) {
+            Integer w = (Integer)aci.getAttribute(FlowTextPainter.WORD_LIMIT);
+            assertNotNull(w);
+            if (w.intValue() == words) {
+                words++;
+            } else {
+                assertEquals(words - 1, w.intValue());
+            }
+        }
+        return words;
+    }
+
+    @Test
+    public void testWordsAdded() {
+        AttributedString as = new AttributedString(TEXT);
+        as.addAttribute(FlowTextPainter.FLOW_REGIONS, new ArrayList(), 0, 1);
+        AttributedCharacterIterator aci =
+            painter.createLayoutACI(as.getIterator());
+        assertEquals(3, countWords(aci));
+    }
+
+    @Test
+    public void testWordsAddedToPartialText() {
+        AttributedString as = new AttributedString("xx " + TEXT);
+        as.addAttribute(FlowTextPainter.FLOW_REGIONS, new ArrayList(), 3, 4);
+        AttributedCharacterIterator aci = painter.createLayoutACI
+            (as.getIterator(null, 3, 3 + TEXT.length()));
+        assertEquals(3, countWords(aci));
+        assertEquals(TEXT.length(),
+                     aci.getEndIndex() - aci.getBeginIndex());
+    }
+
+    @Test
+    public void testTextWithoutRegions() {
+        AttributedString as = new AttributedString("xx " + TEXT);
+        AttributedCharacterIterator aci = as.getIterator(null, 3, 8);
+        // Nothing to wrap, the text node indices are kept.
+        assertSame(aci, painter.createLayoutACI(aci));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Shape;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.StringReader;
+import java.text.AttributedCharacterIterator;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.font.GVTGlyphVector;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the layout of a text node whose text was edited, which
+ * reuses the layouts of the runs the edit did not change, is the
+ * layout of a document built with the edited text.
+ *
+ * @version $Id$
+ */
+public class IncrementalTextLayoutTestCase {
+
+    private static final String URI = "http://example.org/text.svg";
+
+    /**
+     * A text element whose tspan with id "v" holds the edited text, in
+     * the middle of its chunk, followed by a run of another font and by
+     * two more chunks.
+     */
+    private static String svg(String value, String anchor) {
+        return "<svg xmlns='http://www.w3.org/2000/svg' width='400'"
+            + " height='200'><text id='t' x='10' y='30' font-family='Serif'"
+            + " font-size='14' text-anchor='" + anchor + "'>Load: "
+            + "<tspan id='v'>" + value + "</tspan> units"
+            + "<tspan font-family='SansSerif' font-weight='bold'> of 100"
+            + "</tspan><tspan x='10' y='60'>Second line, unchanged</tspan>"
+            + "<tspan x='10' y='90' font-size='20'>Third line</tspan>"
+            + "</text></svg>";
+    }
+
+    private static Document parse(String svg) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        return f.createDocument(URI, new StringReader(svg));
+    }
+
+    private static TextNode build(BridgeContext ctx, Document doc) {
+        new GVTBuilder().build(ctx, doc);
+        TextNode node =
+            (TextNode)ctx.getGraphicsNode(doc.getElementById("t"));
+        // Lays the text out.
+        node.getGeometryBounds();
+        return node;
+    }
+
+    private static BridgeContext dynamicContext() {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        return ctx;
+    }
+
+    private static List getLayouts(TextNode node) {
+        List layouts = new ArrayList();
+        for (Object o : node.getTextRuns()) {
+            layouts.add(((StrokingTextPainter.TextRun)o).getLayout());
+        }
+        return layouts;
+    }
+
+    private static String getRunText(AttributedCharacterIterator aci) {
+        StringBuffer sb = new StringBuffer();
+        for (char c = aci.first(); c != AttributedCharacterIterator.DONE;
+             c = aci.next()) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    private static void assertSameShape(String msg, Shape expected,
+                                        Shape actual) {
+        PathIterator e = expected.getPathIterator(null);
+        PathIterator a = actual.getPathIterator(null);
+        double[] ec = new double[6];
+        double[] ac = new double[6];
+        while (!e.isDone()) {
+            assertFalse(msg, a.isDone());
+            int type = e.currentSegment(ec);
+            assertEquals(msg, type, a.currentSegment(ac));
+            for (int i = 0; i < 6; i++) {
+                assertEquals(msg, ec[i], ac[i], 1e-9);
+            }
+            e.next();
+            a.next();
+        }
+        assertTrue(msg, a.isDone());
+    }
+
+    private static void assertSameRect(String msg, Rectangle2D expected,
+                                       Rectangle2D actual) {
+        assertEquals(msg, expected.getX(), actual.getX(), 1e-9);
+        assertEquals(msg, expected.getY(), actual.getY(), 1e-9);
+        assertEquals(msg, expected.getWidth(), actual.getWidth(), 1e-9);
+        assertEquals(msg, expected.getHeight(), actual.getHeight(), 1e-9);
+    }
+
+    /**
+     * Checks that both nodes have the same runs, glyphs and geometry.
+     */
+    private static void assertSameLayout(TextNode expected, TextNode actual) {
+        assertSameRect("bounds", expected.getGeometryBounds(),
+                       actual.getGeometryBounds());
+        assertSameShape("outline", expected.getOutline(),
+                        actual.getOutline());
+        List eRuns = expected.getTextRuns();
+        List aRuns = actual.getTextRuns();
+        assertEquals(eRuns.size(), aRuns.size());
+        for (int r = 0; r < eRuns.size(); r++) {
+            StrokingTextPainter.TextRun e =
+                (StrokingTextPainter.TextRun)eRuns.get(r);
+            StrokingTextPainter.TextRun a =
+                (StrokingTextPainter.TextRun)aRuns.get(r);
+            String msg = "run " + r;
+            assertEquals(msg, getRunText(e.getACI()), getRunText(a.getACI()));
+            assertEquals(msg, e.getACI().getBeginIndex(),
+                         a.getACI().getBeginIndex());
+            TextSpanLayout el = e.getLayout();
+            TextSpanLayout al = a.getLayout();
+            assertEquals(msg, el.getOffset(), al.getOffset());
+            GVTGlyphVector egv = el.getGlyphVector();
+            GVTGlyphVector agv = al.getGlyphVector();
+            assertEquals(msg, egv.getNumGlyphs(), agv.getNumGlyphs());
+            for (int i = 0; i <= egv.getNumGlyphs(); i++) {
+                Point2D ep = egv.getGlyphPosition(i);
+                Point2D ap = agv.getGlyphPosition(i);
+                assertEquals(msg, ep.getX(), ap.getX(), 1e-9);
+                assertEquals(msg, ep.getY(), ap.getY(), 1e-9);
+            }
+            assertSameRect(msg, el.getBounds2D(), al.getBounds2D());
+            assertSameShape(msg, el.getOutline(), al.getOutline());
+        }
+    }
+
+    /**
+     * Edits the text of the "v" tspan of a dynamic document and checks
+     * its new layout against a fresh build of the edited document.
+     */
+    private void checkEdit(String anchor, String before, String after)
+        throws Exception {
+        Document doc = parse(svg(before, anchor));
+        BridgeContext ctx = dynamicContext();
+        TextNode node = build(ctx, doc);
+        List oldLayouts = getLayouts(node);
+
+        Text value = (Text)doc.getElementById("v").getFirstChild();
+        value.setData(after);
+        // The bridge puts the new text in the node, laid out again
+        // when its bounds are asked for.
+        node.getGeometryBounds();
+        List newLayouts = getLayouts(node);
+        int reused = 0;
+        for (Object o : newLayouts) {
+            if (oldLayouts.contains(o)) {
+                reused++;
+            }
+        }
+        // The lines the edit did not touch kept their layouts.
+        assertTrue("reused " + reused, reused >= 2);
+
+        Document fresh = parse(svg(after, anchor));
+        BridgeContext freshCtx = dynamicContext();
+        assertSameLayout(build(freshCtx, fresh), node);
+        ctx.dispose();
+        freshCtx.dispose();
+    }
+
+    @Test
+    public void testLongerValue() throws Exception {
+        checkEdit("start", "42", "4242");
+    }
+
+    @Test
+    public void testShorterValue() throws Exception {
+        checkEdit("start", "100", "7");
+    }
+
+    @Test
+    public void testMiddleAnchor() throws Exception {
+        checkEdit("middle", "42", "12345");
+    }
+
+    @Test
+    public void testEndAnchor() throws Exception {
+        checkEdit("end", "12345", "9");
+    }
+}
@@ -0,0 +1,193 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.font.GVTFontFace;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the glyph lookups of SVGGlyphIndex against a scan of all the
+ * glyphs of the font, and that SVGFontFamily rebuilds the index when
+ * the font changes.
+ *
+ * @version $Id$
+ */
+public class SVGGlyphIndexTestCase {
+
+    private static final String CHARS = "abcfil\u0627\u0644";
+
+    private static String randomString(Random rnd, int max) {
+        int len = rnd.nextInt(max + 1);
+        StringBuffer sb = new StringBuffer(len);
+        for (int i = 0; i < len; i++) {
+            sb.append(CHARS.charAt(rnd.nextInt(CHARS.length())));
+        }
+        return sb.toString();
+    }
+
+    private static SVGGlyphIndex createIndex(String[] unicodes,
+                                             String[] names) {
+        int n = unicodes.length;
+        return new SVGGlyphIndex(unicodes, names, new String[n],
+                                 new String[n], new String[n],
+                                 new Element[n]);
+    }
+
+    private static int[] toArray(List l) {
+        int[] codes = new int[l.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = (Integer)l.get(i);
+        }
+        return codes;
+    }
+
+    @Test
+    public void testMatchesScan() {
+        Random rnd = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            int n = rnd.nextInt(60);
+            String[] unicodes = new String[n];
+            String[] names = new String[n];
+            for (int i = 0; i < n; i++) {
+                // Single characters, ligatures, empty and missing values.
+                int k = rnd.nextInt(10);
+                unicodes[i] = (k == 0)
+                    ? null : randomString(rnd, (k < 6) ? 1 : 3);
+                names[i] = (k == 1) ? null : "g" + rnd.nextInt(20);
+            }
+            SVGGlyphIndex index = createIndex(unicodes, names);
+
+            for (int t = 0; t < 50; t++) {
+                String s = randomString(rnd, 3);
+                List exact = new ArrayList();
+                List prefix = new ArrayList();
+                for (int i = 0; i < n; i++) {
+                    if (s.equals(unicodes[i])) {
+                        exact.add(i);
+                    }
+                    if (unicodes[i] != null && s.startsWith(unicodes[i])) {
+                        prefix.add(i);
+                    }
+                }
+                assertArrayEquals(toArray(exact),
+                                  index.getGlyphCodesForUnicode(s));
+
+                // Walking the trie along s finds the glyphs whose unicode
+                // value is a prefix of s.
+                List found = new ArrayList();
+                SVGGlyphIndex.Node node = index.root;
+                for (int j = 0; node != null; j++) {
+                    for (int g = 0; g < node.glyphCount; g++) {
+                        found.add(node.glyphs[g]);
+                    }
+                    node = (j < s.length())
+                        ? node.getChild(s.charAt(j)) : null;
+                }
+                Collections.sort(found);
+                assertArrayEquals(toArray(prefix), toArray(found));
+
+                String name = "g" + rnd.nextInt(25);
+                List named = new ArrayList();
+                for (int i = 0; i < n; i++) {
+                    if (name.equals(names[i])) {
+                        named.add(i);
+                    }
+                }
+                assertArrayEquals(toArray(named),
+                                  index.getGlyphCodesForName(name));
+
+                char c = CHARS.charAt(rnd.nextInt(CHARS.length()));
+                List containing = new ArrayList();
+                for (int i = 0; i < n; i++) {
+                    if (unicodes[i] != null && unicodes[i].indexOf(c) >= 0) {
+                        containing.add(i);
+                    }
+                }
+                assertArrayEquals(toArray(containing),
+                                  index.getGlyphCodesContaining(c));
+            }
+        }
+    }
+
+    @Test
+    public void testLangSets() {
+        SVGGlyphIndex index = new SVGGlyphIndex
+            (new String[] { "a", "a" }, new String[2],
+             new String[] { null, "en,fr" }, new String[2], new String[2],
+             new Element[2]);
+        assertNull(index.glyphLangSets[0]);
+        assertArrayEquals(new String[] { "en", "fr" }, index.glyphLangSets[1]);
+    }
+
+    @Test
+    public void testRebuiltWhenFontChanges() throws Exception {
+        String svg =
+            "<svg xmlns='http://www.w3.org/2000/svg'><defs>"
+            + "<font id='f' horiz-adv-x='500'>"
+            + "<font-face font-family='Test' units-per-em='1000'/>"
+            + "<glyph id='a' unicode='a' d='M0 0L100 0L100 100Z'/>"
+            + "<glyph unicode='b' d='M0 0L100 0L100 100Z'/>"
+            + "</font></defs></svg>";
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        Document doc = f.createDocument("file:///test.svg",
+                                        new StringReader(svg));
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamic(true);
+        new GVTBuilder().build(ctx, doc);
+        try {
+            Element font = doc.getElementById("f");
+            SVGFontElementBridge bridge =
+                (SVGFontElementBridge)ctx.getBridge(font);
+            SVGFontFamily family =
+                new SVGFontFamily(new GVTFontFace("Test"), font, ctx);
+
+            SVGGlyphIndex index = family.getGlyphIndex(bridge);
+            assertArrayEquals(new int[] { 0 },
+                              index.getGlyphCodesForUnicode("a"));
+            assertSame(index, family.getGlyphIndex(bridge));
+
+            font.removeChild(doc.getElementById("a"));
+            SVGGlyphIndex rebuilt = family.getGlyphIndex(bridge);
+            assertNotSame(index, rebuilt);
+            assertArrayEquals(new int[0],
+                              rebuilt.getGlyphCodesForUnicode("a"));
+            assertArrayEquals(new int[] { 0 },
+                              rebuilt.getGlyphCodesForUnicode("b"));
+        } finally {
+            ctx.dispose();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Font;
+import java.awt.font.TextAttribute;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.gvt.font.AWTGVTFont;
+import org.apache.batik.gvt.font.GVTFont;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks which text chunks share the keys of a TextLayoutCache.
+ *
+ * @version $Id$
+ */
+public class TextLayoutCacheTestCase {
+
+    private static final GVTFont SERIF =
+        new AWTGVTFont(new Font("Serif", Font.PLAIN, 10));
+
+    private static final GVTFont SANS =
+        new AWTGVTFont(new Font("SansSerif", Font.PLAIN, 10));
+
+    private final TextLayoutCache cache = new TextLayoutCache();
+
+    /**
+     * Returns the characters from start to end of the given string as
+     * an iterator, the way the chunks of a text node are handed out.
+     */
+    private static AttributedCharacterIterator chunk(AttributedString as,
+                                                     int start, int end) {
+        return as.getIterator(null, start, end);
+    }
+
+    private static AttributedString text(String s, GVTFont font,
+                                         Object compound) {
+        AttributedString as = new AttributedString(s);
+        List fonts = new ArrayList();
+        fonts.add(font);
+        as.addAttribute(TextLayoutCache.GVT_FONTS, fonts);
+        as.addAttribute(TextLayoutCache.TEXT_COMPOUND_ID, compound);
+        as.addAttribute(TextAttribute.SIZE, 10f);
+        return as;
+    }
+
+    @Test
+    public void testBidiKey() {
+        AttributedString a = text("hello world", SERIF, new Object());
+        AttributedString b = text("say hello world", SANS, new Object());
+        TextLayoutCache.Key ka = cache.createBidiKey(chunk(a, 0, 11));
+        // Same characters in the middle of another text, with another
+        // font: only the bidi attributes matter.
+        assertEquals(ka, cache.createBidiKey(chunk(b, 4, 15)));
+        assertFalse(ka.equals(cache.createBidiKey(chunk(b, 3, 14))));
+
+        // Runs of other attributes don't split the key.
+        b.addAttribute(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD,
+                       6, 9);
+        assertEquals(ka, cache.createBidiKey(chunk(b, 4, 15)));
+
+        b.addAttribute(TextAttribute.RUN_DIRECTION,
+                       TextAttribute.RUN_DIRECTION_RTL, 6, 9);
+        assertFalse(ka.equals(cache.createBidiKey(chunk(b, 4, 15))));
+        a.addAttribute(TextAttribute.RUN_DIRECTION,
+                       TextAttribute.RUN_DIRECTION_RTL, 2, 5);
+        assertEquals(cache.createBidiKey(chunk(a, 0, 11)),
+                     cache.createBidiKey(chunk(b, 4, 15)));
+
+        assertNull(cache.createBidiKey(chunk(a, 3, 3)));
+    }
+
+    @Test
+    public void testBidiLevels() {
+        AttributedString a = text("abc", SERIF, new Object());
+        AttributedString b = text("abc", SANS, new Object());
+        int[] levels = { 0, 0, 0 };
+        cache.putBidiLevels(cache.createBidiKey(chunk(a, 0, 3)), levels);
+        assertSame(levels,
+                   cache.getBidiLevels(cache.createBidiKey(chunk(b, 0, 3))));
+        assertNull(cache.getBidiLevels(null));
+    }
+
+    @Test
+    public void testFontMatchingKey() {
+        AttributedString a = text("hello", SERIF, new Object());
+        AttributedString b = text("hello", SERIF, new Object());
+        AttributedString c = text("hello", SANS, new Object());
+        TextLayoutCache.Key ka = cache.createFontMatchingKey(chunk(a, 0, 5));
+        assertNotNull(ka);
+        // Another text compound with the same fonts.
+        assertEquals(ka, cache.createFontMatchingKey(chunk(b, 0, 5)));
+        assertFalse(ka.equals(cache.createFontMatchingKey(chunk(c, 0, 5))));
+
+        // The java.awt.font attributes are part of the key.
+        b.addAttribute(TextAttribute.SIZE, 12f, 1, 2);
+        assertFalse(ka.equals(cache.createFontMatchingKey(chunk(b, 0, 5))));
+    }
+
+    @Test
+    public void testFontMatchingKeyCompounds() {
+        // Two text compounds in one chunk don't match one compound
+        // with the same fonts.
+        AttributedString a = text("hello", SERIF, new Object());
+        AttributedString b = text("hello", SERIF, new Object());
+        List fonts = new ArrayList();
+        fonts.add(SERIF);
+        b.addAttribute(TextLayoutCache.GVT_FONTS, fonts, 2, 5);
+        b.addAttribute(TextLayoutCache.TEXT_COMPOUND_ID, new Object(), 2, 5);
+        TextLayoutCache.Key ka = cache.createFontMatchingKey(chunk(a, 0, 5));
+        TextLayoutCache.Key kb = cache.createFontMatchingKey(chunk(b, 0, 5));
+        assertNotNull(kb);
+        assertFalse(ka.equals(kb));
+
+        // The compounds are numbered within the chunk.
+        AttributedString c = text("hello", SERIF, new Object());
+        c.addAttribute(TextLayoutCache.TEXT_COMPOUND_ID, new Object(), 2, 5);
+        assertEquals(kb, cache.createFontMatchingKey(chunk(c, 0, 5)));
+    }
+
+    @Test
+    public void testUncachedFontMatching() {
+        AttributedString a = text("hello", SERIF, new Object());
+        a.addAttribute(TextLayoutCache.ALT_GLYPH_HANDLER, new Object(), 1, 2);
+        assertNull(cache.createFontMatchingKey(chunk(a, 0, 5)));
+        assertNotNull(cache.createFontMatchingKey(chunk(a, 2, 5)));
+
+        // Only AWT fonts can be shared, SVG fonts depend on their
+        // text element.
+        GVTFont other = (GVTFont)Proxy.newProxyInstance
+            (GVTFont.class.getClassLoader(), new Class[] { GVTFont.class },
+             new InvocationHandler() {
+                 public Object invoke(Object proxy, Method m, Object[] args) {
+                     return null;
+                 }
+             });
+        List fonts = new ArrayList();
+        fonts.add(SERIF);
+        fonts.add(other);
+        AttributedString b = text("hello", SERIF, new Object());
+        b.addAttribute(TextLayoutCache.GVT_FONTS, fonts);
+        assertNull(cache.createFontMatchingKey(chunk(b, 0, 5)));
+
+        AttributedString c = new AttributedString("hello");
+        assertNull(cache.createFontMatchingKey(c.getIterator()));
+    }
+
+    @Test
+    public void testFontMatch() {
+        AttributedString a = text("hello", SERIF, new Object());
+        AttributedCharacterIterator aci = chunk(a, 0, 5);
+        List fonts = (List)aci.getAttribute(TextLayoutCache.GVT_FONTS);
+        TextLayoutCache.FontMatch m = new TextLayoutCache.FontMatch();
+        m.addFont(0, 5, SERIF, fonts);
+        TextLayoutCache.Key key = cache.createFontMatchingKey(aci);
+        cache.putFontMatch(key, m);
+
+        // Applied to another compound, the font comes from its own
+        // GVT_FONTS list.
+        GVTFont serif = new AWTGVTFont(new Font("Serif", Font.PLAIN, 10));
+        AttributedString b = text("say hello", serif, new Object());
+        AttributedCharacterIterator bci = chunk(b, 4, 9);
+        TextLayoutCache.FontMatch cached =
+            cache.getFontMatch(cache.createFontMatchingKey(bci));
+        assertSame(m, cached);
+        AttributedCharacterIterator r = cached.apply(bci);
+        for (char ch = r.first(); ch != AttributedCharacterIterator.DONE;
+             ch = r.next()) {
+            assertSame(serif, r.getAttribute(TextLayoutCache.GVT_FONT));
+        }
+    }
+
+    @Test
+    public void testMaxEntries() {
+        cache.setMaxEntries(2);
+        int[] levels = new int[1];
+        TextLayoutCache.Key[] keys = new TextLayoutCache.Key[3];
+        for (int i = 0; i < keys.length; i++) {
+            AttributedString as = text("abc".substring(i, i + 1), SERIF,
+                                       new Object());
+            keys[i] = cache.createBidiKey(as.getIterator());
+        }
+        cache.putBidiLevels(keys[0], levels);
+        cache.putBidiLevels(keys[1], levels);
+        // Using the first entry makes the second the eldest one.
+        assertSame(levels, cache.getBidiLevels(keys[0]));
+        cache.putBidiLevels(keys[2], levels);
+        assertSame(levels, cache.getBidiLevels(keys[0]));
+        assertNull(cache.getBidiLevels(keys[1]));
+        assertSame(levels, cache.getBidiLevels(keys[2]));
+
+        cache.clear();
+        assertNull(cache.getBidiLevels(keys[0]));
+    }
+}
@@ -19,24 +19,19 @@
 package org.apache.batik.ext.awt.image.codec.imageio;
 
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 
-import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.renderable.DeferRable;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.ext.awt.image.renderable.RedRable;
-import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
-import org.apache.batik.ext.awt.image.rendered.CachableRed;
-import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.ext.awt.image.spi.DecodeExecutor;
 import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
 import org.apache.batik.ext.awt.image.spi.MagicNumberRegistryEntry;
 import org.apache.batik.util.ParsedURL;
@@ -90,7 +85,7 @@ public abstract class AbstractImageIORegistryEntry
      *                    specify applied.
      */
     public Filter handleStream(InputStream inIS,
-                               ParsedURL   origURL,
+                               final ParsedURL origURL,
                                boolean     needRawData) {
         final DeferRable  dr  = new DeferRable();
         final InputStream is  = inIS;
@@ -104,41 +99,42 @@ public abstract class AbstractImageIORegistryEntry
             errParam = new Object[] {getFormatName()};
         }
 
-        Thread t = new Thread() {
+        DecodeExecutor.DecodeTask t = new DecodeExecutor.DecodeTask() {
                 @Override
                 public void run() {
                     Filter filt;
                     try{
-                        Iterator<ImageReader> iter = ImageIO.getImageReadersByMIMEType(
-                                getMimeTypes().get(0).toString());
-                        if (!iter.hasNext()) {
-                            throw new UnsupportedOperationException(
-                                    "No image reader for "
-                                        + getFormatName() + " available!");
+                        String mimeType = getMimeTypes().get(0).toString();
+                        ImageReader reader =
+                            ImageIORable.getImageReader(mimeType);
+                        try {
+                            // Keep the encoded image, large images are
+                            // decoded from it when rendered.
+                            byte[] data = readAll(is);
+                            ImageInputStream imageIn =
+                                ImageIO.createImageInputStream
+                                (new ByteArrayInputStream(data));
+                            reader.setInput(imageIn, true);
+
+                            int imageIndex = 0;
+                            int w = reader.getWidth(imageIndex);
+                            int h = reader.getHeight(imageIndex);
+                            dr.setBounds(new Rectangle2D.Double(0, 0, w, h));
+                            if ((long)w*h >=
+                                ImageIORable.MIN_SUBSAMPLED_PIXELS) {
+                                // Decoded at the resolution it is
+                                // rendered at.
+                                filt = new ImageIORable
+                                    (AbstractImageIORegistryEntry.this,
+                                     origURL, data, w, h);
+                            } else {
+                                // Small images are decoded now.
+                                filt = new RedRable(ImageIORable.toSRGB
+                                                    (reader.read(imageIndex)));
+                            }
+                        } finally {
+                            reader.dispose();
                         }
-                        ImageReader reader = iter.next();
-                        ImageInputStream imageIn = ImageIO.createImageInputStream(is);
-                        reader.setInput(imageIn, true);
-
-                        int imageIndex = 0;
-                        dr.setBounds(new Rectangle2D.Double
-                                     (0, 0,
-                                      reader.getWidth(imageIndex),
-                                      reader.getHeight(imageIndex)));
-                        CachableRed cr;
-                        //Naive approach possibly wasting lots of memory
-                        //and ignoring the gamma correction done by PNGRed :-(
-                        //Matches the code used by the former JPEGRegistryEntry, though.
-                        BufferedImage bi = reader.read(imageIndex);
-                        cr = GraphicsUtil.wrap(bi);
-                        cr = new Any2sRGBRed(cr);
-                        cr = new FormatRed(cr, GraphicsUtil.sRGB_Unpre);
-                        WritableRaster wr = (WritableRaster)cr.getData();
-                        ColorModel cm = cr.getColorModel();
-                        BufferedImage image = new BufferedImage
-                            (cm, wr, cm.isAlphaPremultiplied(), null);
-                        cr = GraphicsUtil.wrap(image);
-                        filt = new RedRable(cr);
                     } catch (IOException ioe) {
                         // Something bad happened here...
                         filt = ImageTagRegistry.getBrokenLinkImage
@@ -158,9 +154,34 @@ public abstract class AbstractImageIORegistryEntry
 
                     dr.setSource(filt);
                 }
+
+                @Override
+                public void cancelled() {
+                    // Only the cancelled requesters hold dr.
+                    dr.setSource(ImageTagRegistry.getBrokenLinkImage
+                                 (AbstractImageIORegistryEntry.this, errCode, errParam));
+                }
+
+                @Override
+                public void failed(Throwable t) {
+                    dr.setSource(ImageTagRegistry.getBrokenLinkImage
+                                 (AbstractImageIORegistryEntry.this, errCode, errParam));
+                }
             };
-        t.start();
+        DecodeExecutor.getDefault().execute(t, dr);
         return dr;
     }
 
+    /**
+     * Reads <code>is</code> to its end.
+     */
+    static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) != -1)
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
 }
@@ -0,0 +1,346 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.imageio;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.awt.image.renderable.RenderContext;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.renderable.AbstractRable;
+import org.apache.batik.ext.awt.image.renderable.AffineRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.RedRable;
+import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.ext.awt.image.spi.ErrorConstants;
+import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
+import org.apache.batik.util.ParsedURL;
+
+/**
+ * An image decoded through ImageIO at the resolution it is rendered
+ * at.  The encoded bytes of the image are kept, and decoded again when
+ * a rendering needs a resolution that is not decoded yet, so the image
+ * is never fetched again.  Images drawn much smaller than their size
+ * are reduced by a power of two factor that still leaves at least four
+ * image pixels per device pixel, averaging each block of pixels, so a
+ * large photo drawn as a thumbnail doesn't keep a full resolution
+ * raster.  The decoded rasters are kept, softly, per factor.
+ *
+ * @version $Id$
+ */
+public class ImageIORable extends AbstractRable implements ErrorConstants {
+
+    /**
+     * The registry entries decode images with fewer pixels than this
+     * at full resolution as soon as they are read, instead of creating
+     * an ImageIORable, since they take little memory anyway.
+     */
+    public static final long MIN_SUBSAMPLED_PIXELS = 1024*1024;
+
+    /**
+     * The entry that read the image.
+     */
+    protected AbstractImageIORegistryEntry entry;
+
+    /**
+     * The URL of the image, for error messages.  May be null.
+     */
+    protected ParsedURL url;
+
+    /**
+     * The encoded image.
+     */
+    protected byte[] data;
+
+    /**
+     * The full size of the image.
+     */
+    protected int width, height;
+
+    /**
+     * Decoded images, by reduction factor.
+     */
+    protected Map images = new HashMap();
+
+    /**
+     * True once the image was decoded successfully.
+     */
+    protected boolean decoded;
+
+    /**
+     * The broken link image, once the image failed to decode.
+     */
+    protected Filter broken;
+
+    /**
+     * @param entry the registry entry that read the image.
+     * @param url the URL the image was read from, may be null.
+     * @param data the encoded image.
+     * @param width the width of the image, in pixels.
+     * @param height the height of the image, in pixels.
+     */
+    public ImageIORable(AbstractImageIORegistryEntry entry, ParsedURL url,
+                        byte[] data, int width, int height) {
+        super((Filter)null);
+        this.entry  = entry;
+        this.url    = url;
+        this.data   = data;
+        this.width  = width;
+        this.height = height;
+    }
+
+    public Rectangle2D getBounds2D() {
+        return new Rectangle2D.Double(0, 0, width, height);
+    }
+
+    public RenderedImage createRendering(RenderContext rc) {
+        Filter f = broken;
+        if (f == null) {
+            CachableRed cr = getImage(getSubsampling(rc.getTransform()));
+            if (cr != null)
+                f = new RedRable(cr);
+            else
+                f = getBrokenLinkImage();
+        }
+
+        Rectangle2D r = f.getBounds2D();
+        if ((r.getWidth() != width) || (r.getHeight() != height)) {
+            // Stretch the reduced image back over the full bounds.
+            AffineTransform at = AffineTransform.getScaleInstance
+                (width/r.getWidth(), height/r.getHeight());
+            at.translate(-r.getX(), -r.getY());
+            f = new AffineRable8Bit(f, at);
+        }
+        return f.createRendering(rc);
+    }
+
+    /**
+     * Returns the broken link image drawn in place of an image that
+     * could not be decoded.
+     */
+    protected synchronized Filter getBrokenLinkImage() {
+        if (broken == null) {
+            Object[] errParam;
+            if (url != null)
+                errParam = new Object[] {entry.getFormatName(), url};
+            else
+                errParam = new Object[] {entry.getFormatName()};
+            broken = ImageTagRegistry.getBrokenLinkImage
+                (entry, (url != null) ? ERR_URL_FORMAT_UNREADABLE
+                                      : ERR_STREAM_FORMAT_UNREADABLE,
+                 errParam);
+        }
+        return broken;
+    }
+
+    /**
+     * Returns the reduction factor to decode with for
+     * <code>at</code>, the image to device transform.
+     */
+    protected int getSubsampling(AffineTransform at) {
+        if (at == null)
+            return 1;
+        double sx = Math.sqrt(at.getScaleX()*at.getScaleX() +
+                              at.getShearY()*at.getShearY());
+        double sy = Math.sqrt(at.getShearX()*at.getShearX() +
+                              at.getScaleY()*at.getScaleY());
+        double s = Math.max(sx, sy);
+        if (!(s > 0))
+            return 1;
+
+        int sub = 1;
+        int max = Math.min(width, height);
+        // Keep at least four image pixels per device pixel, so the
+        // interpolation when drawing still has plenty to filter.
+        while ((sub*8*s <= 1) && (sub*2 <= max))
+            sub *= 2;
+        return sub;
+    }
+
+    /**
+     * Returns the image reduced by the given factor, decoding it if
+     * needed.  If the decode fails the image decoded for another
+     * factor is returned, or null if there is none.
+     */
+    protected CachableRed getImage(int sub) {
+        Integer key = sub;
+        synchronized (images) {
+            CachableRed cr = getCachedImage(key);
+            if (cr != null)
+                return cr;
+        }
+
+        CachableRed cr;
+        try {
+            cr = decode(sub);
+        } catch (IOException ioe) {
+            cr = null;
+        } catch (RuntimeException re) {
+            // ImageIO readers report some corrupt data this way.
+            cr = null;
+        }
+
+        synchronized (images) {
+            if (cr != null) {
+                images.put(key, new SoftReference(cr));
+                decoded = true;
+                return cr;
+            }
+            // Use whatever was decoded before.
+            Iterator i = images.keySet().iterator();
+            while (i.hasNext()) {
+                cr = getCachedImage(i.next());
+                if (cr != null)
+                    return cr;
+            }
+            if (!decoded)
+                // The data never decoded, it never will.
+                getBrokenLinkImage();
+            return null;
+        }
+    }
+
+    private CachableRed getCachedImage(Object key) {
+        Reference ref = (Reference)images.get(key);
+        if (ref == null)
+            return null;
+        return (CachableRed)ref.get();
+    }
+
+    /**
+     * Decodes the image and reduces it by <code>sub</code>.
+     */
+    protected CachableRed decode(int sub) throws IOException {
+        String mimeType = entry.getMimeTypes().get(0).toString();
+        ImageReader reader = getImageReader(mimeType);
+        BufferedImage bi;
+        try {
+            ImageInputStream in = ImageIO.createImageInputStream
+                (new ByteArrayInputStream(data));
+            reader.setInput(in, true);
+            bi = toSRGBImage(reader.read(0));
+        } finally {
+            reader.dispose();
+        }
+        if (sub > 1)
+            bi = reduce(bi, sub);
+        return GraphicsUtil.wrap(bi);
+    }
+
+    /**
+     * Returns an ImageReader for <code>mimeType</code>.
+     */
+    static ImageReader getImageReader(String mimeType) {
+        Iterator iter = ImageIO.getImageReadersByMIMEType(mimeType);
+        if (!iter.hasNext()) {
+            throw new UnsupportedOperationException
+                ("No image reader for " + mimeType + " available!");
+        }
+        return (ImageReader)iter.next();
+    }
+
+    /**
+     * Converts a decoded image to unpremultiplied sRGB.
+     */
+    static CachableRed toSRGB(BufferedImage bi) {
+        return GraphicsUtil.wrap(toSRGBImage(bi));
+    }
+
+    private static BufferedImage toSRGBImage(BufferedImage bi) {
+        //Naive approach possibly wasting lots of memory
+        //and ignoring the gamma correction done by PNGRed :-(
+        //Matches the code used by the former JPEGRegistryEntry, though.
+        CachableRed cr = GraphicsUtil.wrap(bi);
+        cr = new Any2sRGBRed(cr);
+        cr = new FormatRed(cr, GraphicsUtil.sRGB_Unpre);
+        WritableRaster wr = (WritableRaster)cr.getData();
+        ColorModel cm = cr.getColorModel();
+        return new BufferedImage(cm, wr, cm.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Returns <code>bi</code>, an unpremultiplied sRGB image, with
+     * each block of <code>sub</code> by <code>sub</code> pixels
+     * averaged into one pixel.  The colors are averaged weighted by
+     * their alpha.
+     */
+    static BufferedImage reduce(BufferedImage bi, int sub) {
+        int w  = bi.getWidth();
+        int h  = bi.getHeight();
+        int rw = (w+sub-1)/sub;
+        int rh = (h+sub-1)/sub;
+        ColorModel cm = GraphicsUtil.sRGB_Unpre;
+        WritableRaster wr = cm.createCompatibleWritableRaster(rw, rh);
+
+        int[]  row = new int[w];
+        int[]  out = new int[rw];
+        long[] sa  = new long[rw];
+        long[] sr  = new long[rw];
+        long[] sg  = new long[rw];
+        long[] sb  = new long[rw];
+        for (int ry = 0; ry < rh; ry++) {
+            int y0 = ry*sub;
+            int y1 = Math.min(y0+sub, h);
+            for (int y = y0; y < y1; y++) {
+                bi.getRGB(0, y, w, 1, row, 0, w);
+                for (int x = 0; x < w; x++) {
+                    int p = row[x];
+                    int a = p>>>24;
+                    int rx = x/sub;
+                    sa[rx] += a;
+                    sr[rx] += ((p>>16)&0xFF)*a;
+                    sg[rx] += ((p>> 8)&0xFF)*a;
+                    sb[rx] += ( p     &0xFF)*a;
+                }
+            }
+            for (int rx = 0; rx < rw; rx++) {
+                long a = sa[rx];
+                if (a == 0) {
+                    out[rx] = 0;
+                } else {
+                    long n = (long)(Math.min((rx+1)*sub, w)-rx*sub)*(y1-y0);
+                    out[rx] = ((int)((a+n/2)/n) << 24 |
+                               (int)((sr[rx]+a/2)/a) << 16 |
+                               (int)((sg[rx]+a/2)/a) <<  8 |
+                               (int)((sb[rx]+a/2)/a));
+                }
+                sa[rx] = sr[rx] = sg[rx] = sb[rx] = 0;
+            }
+            wr.setDataElements(0, ry, rw, 1, out);
+        }
+        return new BufferedImage(cm, wr, cm.isAlphaPremultiplied(), null);
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.batik.ext.awt.image.codec.imageio;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -38,7 +39,7 @@ import org.apache.batik.transcoder.image.PNGTranscoder;
  * @version $Id$
  */
 public class PNGTranscoderImageIOWriteAdapter implements
-        PNGTranscoder.WriteAdapter {
+        PNGTranscoder.StreamingWriteAdapter {
 
     /**
      * @throws TranscoderException 
@@ -59,6 +60,18 @@ public class PNGTranscoderImageIOWriteAdapter implements
                 img = IndexImage.getIndexedImage(img, 1<<n);
         }
 
+        writeBands(transcoder, img, output);
+    }
+
+    /**
+     * @throws TranscoderException
+     * @see org.apache.batik.transcoder.image.PNGTranscoder.StreamingWriteAdapter#writeBands(
+     * org.apache.batik.transcoder.image.PNGTranscoder, java.awt.image.RenderedImage,
+     * org.apache.batik.transcoder.TranscoderOutput)
+     */
+    public void writeBands(PNGTranscoder transcoder, RenderedImage img,
+            TranscoderOutput output) throws TranscoderException {
+
         ImageWriter writer = ImageWriterRegistry.getInstance()
             .getWriterFor("image/png");
         ImageWriterParams params = new ImageWriterParams();
@@ -44,7 +44,7 @@ import org.apache.batik.transcoder.image.TIFFTranscoder;
  * @version $Id$
  */
 public class TIFFTranscoderImageIOWriteAdapter 
-    implements TIFFTranscoder.WriteAdapter {
+    implements TIFFTranscoder.StreamingWriteAdapter {
 
     /**
      * @throws TranscoderException 
@@ -53,6 +53,17 @@ public class TIFFTranscoderImageIOWriteAdapter
      */
     public void writeImage(TIFFTranscoder transcoder, BufferedImage img,
             TranscoderOutput output) throws TranscoderException {
+        writeBands(transcoder, img, output);
+    }
+
+    /**
+     * @throws TranscoderException
+     * @see org.apache.batik.transcoder.image.TIFFTranscoder.StreamingWriteAdapter#writeBands(
+     * TIFFTranscoder, java.awt.image.RenderedImage,
+     * org.apache.batik.transcoder.TranscoderOutput)
+     */
+    public void writeBands(TIFFTranscoder transcoder, RenderedImage img,
+            TranscoderOutput output) throws TranscoderException {
 
         TranscodingHints hints = transcoder.getTranscodingHints();
 
@@ -83,7 +94,9 @@ public class TIFFTranscoderImageIOWriteAdapter
         try {
             OutputStream ostream = output.getOutputStream();
             int w = img.getWidth();
-            int h = img.getHeight();
+            // One tile per band of the source, so the conversion is
+            // done a band at a time too.
+            int h = img.getTileHeight();
             SinglePixelPackedSampleModel sppsm;
             sppsm = (SinglePixelPackedSampleModel)img.getSampleModel();
             int bands = sppsm.getNumBands();
@@ -337,9 +337,15 @@ public class PNGImageEncoder extends ImageEncoderImpl {
         return (val > maxValue) ? maxValue : val;
     }
 
+    /**
+     * Encodes the rows of ras selected by the offsets and skips.  When
+     * newPass is false the rows continue the previous call, so the
+     * filters see the last row encoded there as the previous row.
+     */
     private void encodePass(OutputStream os, Raster ras,
                             int xOffset,     int yOffset,
-                            int xSkip,       int ySkip)
+                            int xSkip,       int ySkip,
+                            boolean newPass)
         throws IOException {
         int minX   = ras.getMinX();
         int minY   = ras.getMinY();
@@ -366,10 +372,12 @@ public class PNGImageEncoder extends ImageEncoderImpl {
             return;
         }
 
-        currRow = new byte[bytesPerRow + bpp];
-        prevRow = new byte[bytesPerRow + bpp];
+        if (newPass || (currRow == null)) {
+            currRow = new byte[bytesPerRow + bpp];
+            prevRow = new byte[bytesPerRow + bpp];
 
-        filteredRows = new byte[5][bytesPerRow + bpp];
+            filteredRows = new byte[5][bytesPerRow + bpp];
+        }
 
         int maxValue = (1 << bitDepth) - 1;
 
@@ -450,57 +458,35 @@ public class PNGImageEncoder extends ImageEncoderImpl {
         DeflaterOutputStream dos =
             new DeflaterOutputStream(ios, new Deflater(9));
 
-        // Future work - don't convert entire image to a Raster It
-        // might seem that you could just call image.getData() but
-        // 'BufferedImage.subImage' doesn't appear to set the Width
-        // and height properly of the Child Raster, so the Raster
-        // you get back here appears larger than it should.
-        // This solves that problem by bounding the raster to the
-        // image's bounds...
-        Raster ras = image.getData(new Rectangle(image.getMinX(),
-                                                 image.getMinY(),
-                                                 image.getWidth(),
-                                                 image.getHeight()));
-        // System.out.println("Image: [" +
-        //                    image.getMinY()  + ", " +
-        //                    image.getMinX()  + ", " +
-        //                    image.getWidth()  + ", " +
-        //                    image.getHeight() + "]");
-        // System.out.println("Ras: [" +
-        //                    ras.getMinX()  + ", " +
-        //                    ras.getMinY()  + ", " +
-        //                    ras.getWidth()  + ", " +
-        //                    ras.getHeight() + "]");
-
-        if (skipAlpha) {
-            int numBands = ras.getNumBands() - 1;
-            int[] bandList = new int[numBands];
-            for (int i = 0; i < numBands; i++) {
-                bandList[i] = i;
-            }
-            ras = ras.createChild(0, 0,
-                                  ras.getWidth(), ras.getHeight(),
-                                  0, 0,
-                                  bandList);
-        }
-
         if (interlace) {
+            // The passes skip around the whole image so it is
+            // converted to a single Raster.
+            Raster ras = getRows(image.getMinY(), image.getHeight());
+
             // Interlacing pass 1
-            encodePass(dos, ras, 0, 0, 8, 8);
+            encodePass(dos, ras, 0, 0, 8, 8, true);
             // Interlacing pass 2
-            encodePass(dos, ras, 4, 0, 8, 8);
+            encodePass(dos, ras, 4, 0, 8, 8, true);
             // Interlacing pass 3
-            encodePass(dos, ras, 0, 4, 4, 8);
+            encodePass(dos, ras, 0, 4, 4, 8, true);
             // Interlacing pass 4
-            encodePass(dos, ras, 2, 0, 4, 4);
+            encodePass(dos, ras, 2, 0, 4, 4, true);
             // Interlacing pass 5
-            encodePass(dos, ras, 0, 2, 2, 4);
+            encodePass(dos, ras, 0, 2, 2, 4, true);
             // Interlacing pass 6
-            encodePass(dos, ras, 1, 0, 2, 2);
+            encodePass(dos, ras, 1, 0, 2, 2, true);
             // Interlacing pass 7
-            encodePass(dos, ras, 0, 1, 1, 2);
+            encodePass(dos, ras, 0, 1, 1, 2, true);
         } else {
-            encodePass(dos, ras, 0, 0, 1, 1);
+            // Fetch the image one band of tiles at a time, so images
+            // computed on demand never need to be held all at once.
+            int minY = image.getMinY();
+            int maxY = minY + image.getHeight();
+            int bandHeight = Math.max(1, image.getTileHeight());
+            for (int y = minY; y < maxY; y += bandHeight) {
+                Raster ras = getRows(y, Math.min(bandHeight, maxY - y));
+                encodePass(dos, ras, 0, 0, 1, 1, y == minY);
+            }
         }
 
         dos.finish();
@@ -509,6 +495,34 @@ public class PNGImageEncoder extends ImageEncoderImpl {
         ios.close();
     }
 
+    /**
+     * Returns the rows [y, y+h) of the image, without the alpha band
+     * if it is to be skipped.
+     */
+    private Raster getRows(int y, int h) {
+        // It might seem that you could just call image.getData() but
+        // 'BufferedImage.subImage' doesn't appear to set the Width
+        // and height properly of the Child Raster, so the Raster
+        // you get back here appears larger than it should.
+        // This solves that problem by bounding the raster to the
+        // image's bounds...
+        Raster ras = image.getData(new Rectangle(image.getMinX(), y,
+                                                 image.getWidth(), h));
+
+        if (skipAlpha) {
+            int numBands = ras.getNumBands() - 1;
+            int[] bandList = new int[numBands];
+            for (int i = 0; i < numBands; i++) {
+                bandList[i] = i;
+            }
+            ras = ras.createChild(ras.getMinX(), ras.getMinY(),
+                                  ras.getWidth(), ras.getHeight(),
+                                  ras.getMinX(), ras.getMinY(),
+                                  bandList);
+        }
+        return ras;
+    }
+
     private void writeIEND() throws IOException {
         ChunkStream cs = new ChunkStream("IEND");
         cs.writeToStream(dataOutput);
@@ -32,6 +32,7 @@ import org.apache.batik.ext.awt.image.renderable.RedRable;
 import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
 import org.apache.batik.ext.awt.image.rendered.CachableRed;
 import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.ext.awt.image.spi.DecodeExecutor;
 import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
 import org.apache.batik.ext.awt.image.spi.MagicNumberRegistryEntry;
 import org.apache.batik.util.ParsedURL;
@@ -60,7 +61,7 @@ public class PNGRegistryEntry
      *                    any default color correction the file may
      *                    specify applied.  */
     public Filter handleStream(InputStream inIS,
-                               ParsedURL   origURL,
+                               final ParsedURL origURL,
                                boolean needRawData) {
 
         final DeferRable  dr  = new DeferRable();
@@ -76,7 +77,7 @@ public class PNGRegistryEntry
             errParam = new Object[] {"PNG"};
         }
 
-        Thread t = new Thread() {
+        DecodeExecutor.DecodeTask t = new DecodeExecutor.DecodeTask() {
                 public void run() {
                     Filter filt;
                     try {
@@ -117,8 +118,19 @@ public class PNGRegistryEntry
 
                     dr.setSource(filt);
                 }
+
+                public void cancelled() {
+                    // Only the cancelled requesters hold dr.
+                    dr.setSource(ImageTagRegistry.getBrokenLinkImage
+                                 (PNGRegistryEntry.this, errCode, errParam));
+                }
+
+                public void failed(Throwable t) {
+                    dr.setSource(ImageTagRegistry.getBrokenLinkImage
+                                 (PNGRegistryEntry.this, errCode, errParam));
+                }
             };
-        t.start();
+        DecodeExecutor.getDefault().execute(t, dr);
         return dr;
     }
 }
@@ -19,6 +19,7 @@
 package org.apache.batik.ext.awt.image.codec.png;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -35,7 +36,7 @@ import org.apache.batik.transcoder.image.PNGTranscoder;
  * @version $Id$
  */
 public class PNGTranscoderInternalCodecWriteAdapter implements
-        PNGTranscoder.WriteAdapter {
+        PNGTranscoder.StreamingWriteAdapter {
 
     /**
      * @throws TranscoderException
@@ -55,6 +56,19 @@ public class PNGTranscoderInternalCodecWriteAdapter implements
                 img = IndexImage.getIndexedImage(img,1<<n);
         }
 
+        writeBands(transcoder, img, output);
+    }
+
+    /**
+     * @throws TranscoderException
+     * @see org.apache.batik.transcoder.image.PNGTranscoder.StreamingWriteAdapter#writeBands(
+     * org.apache.batik.transcoder.image.PNGTranscoder, java.awt.image.RenderedImage,
+     * org.apache.batik.transcoder.TranscoderOutput)
+     */
+    public void writeBands(PNGTranscoder transcoder, RenderedImage img,
+            TranscoderOutput output) throws TranscoderException {
+        TranscodingHints hints = transcoder.getTranscodingHints();
+
         PNGEncodeParam params = PNGEncodeParam.getDefaultEncodeParam(img);
         if (params instanceof PNGEncodeParam.RGB) {
             ((PNGEncodeParam.RGB)params).setBackgroundRGB
@@ -0,0 +1,149 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.tiff;
+
+import org.apache.batik.ext.awt.image.codec.util.ImageEncodeParam;
+
+/**
+ * An instance of <code>ImageEncodeParam</code> for encoding images in
+ * the TIFF format with <code>TIFFImageEncoder</code>.
+ *
+ * <p> The image is always written as tiles.  Each tile is compressed
+ * on its own, so the tiles are compressed in parallel.
+ *
+ * @version $Id$
+ */
+public class TIFFEncodeParam implements ImageEncodeParam {
+
+    /** No compression. */
+    public static final int COMPRESSION_NONE     = 1;
+
+    /** LZW compression. */
+    public static final int COMPRESSION_LZW      = 5;
+
+    /** Deflate (zlib) compression. */
+    public static final int COMPRESSION_DEFLATE  = 8;
+
+    /** PackBits run length compression. */
+    public static final int COMPRESSION_PACKBITS = 32773;
+
+    private int compression = COMPRESSION_NONE;
+
+    private int tileWidth  = 256;
+    private int tileHeight = 256;
+
+    private int resolution;
+
+    private int numThreads;
+
+    /**
+     * Constructs a TIFFEncodeParam object with default values for
+     * all parameters.
+     */
+    public TIFFEncodeParam() {
+    }
+
+    /**
+     * Returns the compression scheme, one of the COMPRESSION_*
+     * constants.
+     */
+    public int getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets the compression scheme, one of the COMPRESSION_* constants.
+     * The default is COMPRESSION_NONE.
+     */
+    public void setCompression(int compression) {
+        switch (compression) {
+        case COMPRESSION_NONE:
+        case COMPRESSION_LZW:
+        case COMPRESSION_DEFLATE:
+        case COMPRESSION_PACKBITS:
+            break;
+        default:
+            throw new IllegalArgumentException
+                ("Unsupported compression: " + compression);
+        }
+        this.compression = compression;
+    }
+
+    /**
+     * Sets the tile size.  TIFF requires tile dimensions that are
+     * multiples of 16, so the values are rounded up to one.
+     * The default is 256x256.
+     */
+    public void setTileSize(int tileWidth, int tileHeight) {
+        if ((tileWidth <= 0) || (tileHeight <= 0))
+            throw new IllegalArgumentException
+                ("Tile size must be positive");
+        this.tileWidth  = (tileWidth  + 15) & ~15;
+        this.tileHeight = (tileHeight + 15) & ~15;
+    }
+
+    /**
+     * Returns the tile width.
+     */
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    /**
+     * Returns the tile height.
+     */
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Returns the resolution in dots per inch, or 0 if none is
+     * written.
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Sets the resolution in dots per inch, 0 for none.
+     */
+    public void setResolution(int dpi) {
+        this.resolution = dpi;
+    }
+
+    /**
+     * Returns the number of threads compressing tiles, 0 meaning one
+     * per available processor.
+     * @see #setNumThreads(int)
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Sets the number of threads compressing tiles, 0 for one per
+     * available processor.  The default is 0.  With 1 the tiles are
+     * compressed in the encoding thread, otherwise on the pool shared
+     * by the parallel image operations, which has one thread per
+     * processor.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+}
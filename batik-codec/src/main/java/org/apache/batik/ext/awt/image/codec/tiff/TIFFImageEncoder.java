@@ -0,0 +1,610 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.tiff;
+
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import org.apache.batik.ext.awt.image.codec.util.ImageEncodeParam;
+import org.apache.batik.ext.awt.image.codec.util.ImageEncoderImpl;
+import org.apache.batik.ext.awt.image.rendered.ParallelBands;
+
+/**
+ * An ImageEncoder for the TIFF file format, writing 8 bit gray, gray
+ * with alpha, RGB or RGBA images as tiles.
+ *
+ * <p> The image is fetched one row of tiles at a time, from top to
+ * bottom.  The tiles are compressed in parallel while the next rows
+ * are fetched, and written in order.  Since the size of compressed
+ * tiles isn't known in advance and the directory must be referenced
+ * from the start of the file, compressed tiles are held in a
+ * temporary file until the whole image is compressed.
+ *
+ * @version $Id$
+ */
+public class TIFFImageEncoder extends ImageEncoderImpl {
+
+    private static final int TYPE_SHORT    = 3;
+    private static final int TYPE_LONG     = 4;
+    private static final int TYPE_RATIONAL = 5;
+
+    private static final int TAG_IMAGE_WIDTH          = 256;
+    private static final int TAG_IMAGE_LENGTH         = 257;
+    private static final int TAG_BITS_PER_SAMPLE      = 258;
+    private static final int TAG_COMPRESSION          = 259;
+    private static final int TAG_PHOTOMETRIC          = 262;
+    private static final int TAG_SAMPLES_PER_PIXEL    = 277;
+    private static final int TAG_X_RESOLUTION         = 282;
+    private static final int TAG_Y_RESOLUTION         = 283;
+    private static final int TAG_PLANAR_CONFIGURATION = 284;
+    private static final int TAG_RESOLUTION_UNIT      = 296;
+    private static final int TAG_TILE_WIDTH           = 322;
+    private static final int TAG_TILE_LENGTH          = 323;
+    private static final int TAG_TILE_OFFSETS         = 324;
+    private static final int TAG_TILE_BYTE_COUNTS     = 325;
+    private static final int TAG_EXTRA_SAMPLES        = 338;
+
+    /**
+     * The largest file the 32 bit offsets of TIFF can address.
+     */
+    private static final long MAX_FILE_SIZE = 0xFFFFFFFFL;
+
+    public TIFFImageEncoder(OutputStream output, ImageEncodeParam param) {
+        super(output, param);
+        if (this.param == null) {
+            this.param = new TIFFEncodeParam();
+        }
+    }
+
+    /**
+     * Encodes a RenderedImage and writes the output to the
+     * OutputStream associated with this ImageEncoder.
+     */
+    public void encode(RenderedImage im) throws IOException {
+        TIFFEncodeParam p = (TIFFEncodeParam)param;
+
+        SampleModel sm = im.getSampleModel();
+        final int bands = sm.getNumBands();
+        if (bands > 4) {
+            throw new IllegalArgumentException
+                ("Only images with up to 4 bands can be encoded");
+        }
+        int [] sampleSize = sm.getSampleSize();
+        for (int i = 0; i < sampleSize.length; i++) {
+            if (sampleSize[i] != 8) {
+                throw new IllegalArgumentException
+                    ("Only 8 bit samples can be encoded");
+            }
+        }
+        ColorModel cm = im.getColorModel();
+        boolean hasAlpha = (cm != null) && cm.hasAlpha();
+        boolean premultiplied = hasAlpha && cm.isAlphaPremultiplied();
+
+        final int compression = p.getCompression();
+        final int tw = p.getTileWidth();
+        final int th = p.getTileHeight();
+        int minX = im.getMinX();
+        int minY = im.getMinY();
+        int width  = im.getWidth();
+        int height = im.getHeight();
+        int tilesAcross = (width  + tw - 1) / tw;
+        int tilesDown   = (height + th - 1) / th;
+        int numTiles = tilesAcross * tilesDown;
+        final int tileBytes = tw * th * bands;
+
+        if ((compression == TIFFEncodeParam.COMPRESSION_NONE) &&
+            (8 + (long)numTiles * tileBytes > MAX_FILE_SIZE)) {
+            throw new IOException("Image too large for a TIFF file");
+        }
+
+        long [] byteCounts = new long[numTiles];
+        int nThreads = p.getNumThreads();
+        if (nThreads <= 0) {
+            nThreads = Runtime.getRuntime().availableProcessors();
+        }
+        // Tiles are compressed on the threads shared by the parallel
+        // image operations.
+        ExecutorService executor = null;
+        if (nThreads > 1) {
+            executor = ParallelBands.getExecutor();
+        }
+
+        File tmpFile = null;
+        OutputStream dataOut;
+        if (compression == TIFFEncodeParam.COMPRESSION_NONE) {
+            // The tile sizes are known, so everything can be written
+            // straight away.
+            writeHeader(output, 8 + (long)numTiles * tileBytes);
+            dataOut = output;
+        } else {
+            tmpFile = File.createTempFile("batik-tiff-", ".tmp");
+            dataOut = new BufferedOutputStream(new FileOutputStream(tmpFile));
+        }
+
+        LinkedList pending = new LinkedList();
+        try {
+            // Keep two rows of tiles in flight.
+            int maxPending = Math.max(2 * tilesAcross, nThreads);
+            int tile = 0;
+            long dataLen = 0;
+            for (int ty = 0; ty < tilesDown; ty++) {
+                int y = minY + ty * th;
+                int h = Math.min(th, minY + height - y);
+                final Raster ras = im.getData(new Rectangle(minX, y,
+                                                            width, h));
+                for (int tx = 0; tx < tilesAcross; tx++) {
+                    final int x = minX + tx * tw;
+                    final int w = Math.min(tw, minX + width - x);
+                    final int fy = y;
+                    final int fh = h;
+                    Callable task = new Callable() {
+                            public Object call() {
+                                byte [] data = getTile(ras, x, fy, w, fh,
+                                                       tw, th, bands);
+                                return compress(data, compression,
+                                                tw * bands);
+                            }
+                        };
+                    if (executor == null) {
+                        byte [] data = (byte [])task.call();
+                        dataOut.write(data);
+                        byteCounts[tile++] = data.length;
+                        dataLen += data.length;
+                        continue;
+                    }
+                    pending.add(executor.submit(task));
+                    while (pending.size() > maxPending) {
+                        byte [] data = getResult((Future)pending.removeFirst());
+                        dataOut.write(data);
+                        byteCounts[tile++] = data.length;
+                        dataLen += data.length;
+                    }
+                }
+            }
+            while (!pending.isEmpty()) {
+                byte [] data = getResult((Future)pending.removeFirst());
+                dataOut.write(data);
+                byteCounts[tile++] = data.length;
+                dataLen += data.length;
+            }
+
+            if (tmpFile != null) {
+                dataOut.close();
+                dataOut = null;
+                if (8 + dataLen > MAX_FILE_SIZE) {
+                    throw new IOException("Image too large for a TIFF file");
+                }
+                writeHeader(output, 8 + dataLen + (dataLen & 1));
+                copy(tmpFile, output);
+            }
+            if ((dataLen & 1) != 0) {
+                // The directory must start on a word boundary.
+                output.write(0);
+                dataLen++;
+            }
+
+            long [] offsets = new long[numTiles];
+            long offset = 8;
+            for (int i = 0; i < numTiles; i++) {
+                offsets[i] = offset;
+                offset += byteCounts[i];
+            }
+
+            writeDirectory(output, 8 + dataLen, width, height, bands,
+                           hasAlpha, premultiplied, compression, tw, th,
+                           p.getResolution(), offsets, byteCounts);
+            output.flush();
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            // Drop what is left after a failure.
+            while (!pending.isEmpty()) {
+                ((Future)pending.removeFirst()).cancel(true);
+            }
+            if (tmpFile != null) {
+                if (dataOut != null) {
+                    dataOut.close();
+                }
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the result of a tile compression, rethrowing what it
+     * threw.
+     */
+    private static byte [] getResult(Future f) throws IOException {
+        try {
+            return (byte [])f.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof RuntimeException) {
+                throw (RuntimeException)t;
+            }
+            if (t instanceof Error) {
+                throw (Error)t;
+            }
+            throw new IOException(t);
+        }
+    }
+
+    /**
+     * Returns the samples of the w x h area at (x, y) of ras as bytes,
+     * in a tile of tw x th pixels padded with zeros.
+     */
+    private static byte [] getTile(Raster ras, int x, int y, int w, int h,
+                                   int tw, int th, int bands) {
+        byte [] data = new byte[tw * th * bands];
+        int [] samples = new int[w * bands];
+        int rowBytes = tw * bands;
+        for (int j = 0; j < h; j++) {
+            ras.getPixels(x, y + j, w, 1, samples);
+            int d = j * rowBytes;
+            for (int i = 0; i < samples.length; i++) {
+                data[d++] = (byte)samples[i];
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Compresses the data of one tile.
+     * @param rowBytes the number of bytes in each row of the tile
+     */
+    static byte [] compress(byte [] data, int compression, int rowBytes) {
+        switch (compression) {
+        case TIFFEncodeParam.COMPRESSION_DEFLATE:
+            return deflate(data);
+        case TIFFEncodeParam.COMPRESSION_LZW:
+            return lzw(data);
+        case TIFFEncodeParam.COMPRESSION_PACKBITS:
+            return packBits(data, rowBytes);
+        default:
+            return data;
+        }
+    }
+
+    private static byte [] deflate(byte [] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out
+                = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte [] buf = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * PackBits compression, TIFF requires each row to be packed
+     * separately.
+     */
+    private static byte [] packBits(byte [] data, int rowBytes) {
+        ByteArrayOutputStream out
+            = new ByteArrayOutputStream(data.length / 2 + 64);
+        for (int row = 0; row < data.length; row += rowBytes) {
+            int i = row;
+            int end = row + rowBytes;
+            while (i < end) {
+                int run = 1;
+                while ((i + run < end) && (run < 128) &&
+                       (data[i + run] == data[i])) {
+                    run++;
+                }
+                if (run > 1) {
+                    out.write(1 - run);
+                    out.write(data[i]);
+                    i += run;
+                    continue;
+                }
+
+                // A literal sequence, up to the start of the next run.
+                int lit = 1;
+                while ((i + lit < end) && (lit < 128)) {
+                    if ((i + lit + 1 < end) &&
+                        (data[i + lit] == data[i + lit + 1])) {
+                        break;
+                    }
+                    lit++;
+                }
+                out.write(lit - 1);
+                out.write(data, i, lit);
+                i += lit;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static final int LZW_CLEAR      = 256;
+    private static final int LZW_EOI        = 257;
+    private static final int LZW_FIRST_CODE = 258;
+    private static final int LZW_MAX_CODE   = 4095;
+    private static final int LZW_HASH_BITS  = 13;
+
+    /**
+     * LZW compression, with the code width switches one code early as
+     * TIFF readers expect.
+     */
+    private static byte [] lzw(byte [] data) {
+        BitWriter out = new BitWriter(data.length / 2 + 64);
+
+        // Open addressing hash from (prefix code << 8 | byte) + 1 to
+        // the code of that string.
+        int hashSize = 1 << LZW_HASH_BITS;
+        int [] keys  = new int[hashSize];
+        int [] codes = new int[hashSize];
+
+        int nbits = 9;
+        int maxCode = (1 << nbits) - 1;
+        int next = LZW_FIRST_CODE;
+        out.write(LZW_CLEAR, nbits);
+
+        if (data.length > 0) {
+            int ent = data[0] & 0xFF;
+            for (int i = 1; i < data.length; i++) {
+                int c = data[i] & 0xFF;
+                int key = ((ent << 8) | c) + 1;
+                int h = (key * 0x9E3779B1) >>> (32 - LZW_HASH_BITS);
+                int code = -1;
+                while (keys[h] != 0) {
+                    if (keys[h] == key) {
+                        code = codes[h];
+                        break;
+                    }
+                    h = (h + 1) & (hashSize - 1);
+                }
+                if (code >= 0) {
+                    ent = code;
+                    continue;
+                }
+
+                out.write(ent, nbits);
+                keys[h]  = key;
+                codes[h] = next++;
+                ent = c;
+                if (next == LZW_MAX_CODE - 1) {
+                    // The table is full, start again.
+                    out.write(LZW_CLEAR, nbits);
+                    Arrays.fill(keys, 0);
+                    next = LZW_FIRST_CODE;
+                    nbits = 9;
+                    maxCode = (1 << nbits) - 1;
+                } else if (next > maxCode) {
+                    nbits++;
+                    maxCode = (1 << nbits) - 1;
+                }
+            }
+
+            out.write(ent, nbits);
+            // The reader adds a code for the last string too, which
+            // can change the width of the end of information code.
+            next++;
+            if (next == LZW_MAX_CODE - 1) {
+                out.write(LZW_CLEAR, nbits);
+                nbits = 9;
+            } else if (next > maxCode) {
+                nbits++;
+            }
+        }
+        out.write(LZW_EOI, nbits);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes codes most significant bit first.
+     */
+    private static class BitWriter {
+        private byte [] buf;
+        private int len;
+        private int acc;
+        private int bits;
+
+        BitWriter(int size) {
+            buf = new byte[size];
+        }
+
+        void write(int code, int nbits) {
+            acc = (acc << nbits) | code;
+            bits += nbits;
+            while (bits >= 8) {
+                bits -= 8;
+                put(acc >>> bits);
+            }
+            acc &= (1 << bits) - 1;
+        }
+
+        private void put(int b) {
+            if (len == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[len++] = (byte)b;
+        }
+
+        byte [] toByteArray() {
+            if (bits > 0) {
+                put(acc << (8 - bits));
+                acc = bits = 0;
+            }
+            return Arrays.copyOf(buf, len);
+        }
+    }
+
+    private static void writeHeader(OutputStream out, long ifdOffset)
+        throws IOException {
+        DataOutputStream dos = new DataOutputStream(out);
+        // Big endian ('MM'), version 42.
+        dos.writeByte('M');
+        dos.writeByte('M');
+        dos.writeShort(42);
+        dos.writeInt((int)ifdOffset);
+        dos.flush();
+    }
+
+    private static void copy(File file, OutputStream out)
+        throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte [] buf = new byte[65536];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the image file directory, followed by the values that
+     * don't fit in their entries.
+     */
+    private static void writeDirectory(OutputStream out, long ifdOffset,
+                                       int width, int height, int bands,
+                                       boolean hasAlpha,
+                                       boolean premultiplied,
+                                       int compression, int tw, int th,
+                                       int dpi, long [] offsets,
+                                       long [] byteCounts)
+        throws IOException {
+        long [] bitsPerSample = new long[bands];
+        Arrays.fill(bitsPerSample, 8);
+        long [] dpiValue = { dpi, 1 };
+
+        // Entries in increasing tag order: tag, type, values.
+        LinkedList fields = new LinkedList();
+        addField(fields, TAG_IMAGE_WIDTH, TYPE_LONG, width);
+        addField(fields, TAG_IMAGE_LENGTH, TYPE_LONG, height);
+        fields.add(new Object [] { TAG_BITS_PER_SAMPLE, TYPE_SHORT,
+                                   bitsPerSample });
+        addField(fields, TAG_COMPRESSION, TYPE_SHORT, compression);
+        // BlackIsZero for gray, RGB otherwise.
+        addField(fields, TAG_PHOTOMETRIC, TYPE_SHORT, (bands < 3) ? 1 : 2);
+        addField(fields, TAG_SAMPLES_PER_PIXEL, TYPE_SHORT, bands);
+        if (dpi > 0) {
+            fields.add(new Object [] { TAG_X_RESOLUTION, TYPE_RATIONAL,
+                                       dpiValue });
+            fields.add(new Object [] { TAG_Y_RESOLUTION, TYPE_RATIONAL,
+                                       dpiValue });
+        }
+        addField(fields, TAG_PLANAR_CONFIGURATION, TYPE_SHORT, 1);
+        if (dpi > 0) {
+            // Inches.
+            addField(fields, TAG_RESOLUTION_UNIT, TYPE_SHORT, 2);
+        }
+        addField(fields, TAG_TILE_WIDTH, TYPE_LONG, tw);
+        addField(fields, TAG_TILE_LENGTH, TYPE_LONG, th);
+        fields.add(new Object [] { TAG_TILE_OFFSETS, TYPE_LONG, offsets });
+        fields.add(new Object [] { TAG_TILE_BYTE_COUNTS, TYPE_LONG,
+                                   byteCounts });
+        if (hasAlpha) {
+            // Associated or unassociated alpha.
+            addField(fields, TAG_EXTRA_SAMPLES, TYPE_SHORT,
+                     premultiplied ? 1 : 2);
+        }
+
+        int numFields = fields.size();
+        long extraOffset = ifdOffset + 2 + 12 * numFields + 4;
+
+        DataOutputStream dos = new DataOutputStream(out);
+        dos.writeShort(numFields);
+        LinkedList extra = new LinkedList();
+        for (Object o : fields) {
+            Object [] f = (Object [])o;
+            int type = (Integer)f[1];
+            long [] values = (long [])f[2];
+            int size = getTypeSize(type) * values.length;
+
+            dos.writeShort((Integer)f[0]);
+            dos.writeShort(type);
+            dos.writeInt((type == TYPE_RATIONAL)
+                         ? values.length / 2 : values.length);
+            if (size <= 4) {
+                writeValues(dos, type, values);
+                for (int i = size; i < 4; i++) {
+                    dos.writeByte(0);
+                }
+            } else {
+                dos.writeInt((int)extraOffset);
+                extraOffset += size;
+                extra.add(f);
+            }
+        }
+        // No next image file directory.
+        dos.writeInt(0);
+
+        for (Object o : extra) {
+            Object [] f = (Object [])o;
+            writeValues(dos, (Integer)f[1], (long [])f[2]);
+        }
+        dos.flush();
+    }
+
+    private static void addField(LinkedList fields, int tag, int type,
+                                 long value) {
+        fields.add(new Object [] { tag, type, new long [] { value } });
+    }
+
+    private static int getTypeSize(int type) {
+        return (type == TYPE_SHORT) ? 2 : 4;
+    }
+
+    private static void writeValues(DataOutputStream dos, int type,
+                                    long [] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (type == TYPE_SHORT) {
+                dos.writeShort((int)values[i]);
+            } else {
+                dos.writeInt((int)values[i]);
+            }
+        }
+    }
+}
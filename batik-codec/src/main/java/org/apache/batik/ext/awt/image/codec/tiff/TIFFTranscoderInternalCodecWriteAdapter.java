@@ -0,0 +1,107 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.tiff;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.batik.ext.awt.image.codec.imageio.TIFFTranscoderImageIOWriteAdapter;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.TranscodingHints;
+import org.apache.batik.transcoder.image.TIFFTranscoder;
+
+/**
+ * This class is a helper to <code>TIFFTranscoder</code> that writes tiled
+ * TIFF images with the TIFF codec from Batik.  Images that aren't tiled,
+ * and JPEG compressed images, are written through the Image I/O API.
+ *
+ * @version $Id$
+ */
+public class TIFFTranscoderInternalCodecWriteAdapter
+    implements TIFFTranscoder.StreamingWriteAdapter {
+
+    /**
+     * @throws TranscoderException
+     * @see org.apache.batik.transcoder.image.TIFFTranscoder.WriteAdapter#writeImage(TIFFTranscoder,
+     * java.awt.image.BufferedImage, org.apache.batik.transcoder.TranscoderOutput)
+     */
+    public void writeImage(TIFFTranscoder transcoder, BufferedImage img,
+            TranscoderOutput output) throws TranscoderException {
+        writeBands(transcoder, img, output);
+    }
+
+    /**
+     * @throws TranscoderException
+     * @see org.apache.batik.transcoder.image.TIFFTranscoder.StreamingWriteAdapter#writeBands(
+     * TIFFTranscoder, java.awt.image.RenderedImage,
+     * org.apache.batik.transcoder.TranscoderOutput)
+     */
+    public void writeBands(TIFFTranscoder transcoder, RenderedImage img,
+            TranscoderOutput output) throws TranscoderException {
+
+        TranscodingHints hints = transcoder.getTranscodingHints();
+
+        String method = (String)hints.get(TIFFTranscoder.KEY_COMPRESSION_METHOD);
+        boolean tiled = hints.containsKey(TIFFTranscoder.KEY_TILE_WIDTH)
+            || hints.containsKey(TIFFTranscoder.KEY_TILE_HEIGHT);
+        if (!tiled || "jpeg".equals(method)) {
+            new TIFFTranscoderImageIOWriteAdapter().writeBands
+                (transcoder, img, output);
+            return;
+        }
+
+        TIFFEncodeParam params = new TIFFEncodeParam();
+
+        Integer tw = (Integer)hints.get(TIFFTranscoder.KEY_TILE_WIDTH);
+        Integer th = (Integer)hints.get(TIFFTranscoder.KEY_TILE_HEIGHT);
+        if (tw == null) {
+            tw = th;
+        } else if (th == null) {
+            th = tw;
+        }
+        params.setTileSize(tw, th);
+
+        float PixSzMM = transcoder.getUserAgent().getPixelUnitToMillimeter();
+        int PixSzInch = (int)(25.4 / PixSzMM + 0.5);
+        params.setResolution(PixSzInch);
+
+        if ("packbits".equals(method)) {
+            params.setCompression(TIFFEncodeParam.COMPRESSION_PACKBITS);
+        } else if ("deflate".equals(method)) {
+            params.setCompression(TIFFEncodeParam.COMPRESSION_DEFLATE);
+        } else if ("lzw".equals(method)) {
+            params.setCompression(TIFFEncodeParam.COMPRESSION_LZW);
+        } else {
+            //nop
+        }
+
+        try {
+            OutputStream ostream = output.getOutputStream();
+            TIFFImageEncoder encoder = new TIFFImageEncoder(ostream, params);
+            encoder.encode(img);
+            ostream.flush();
+        } catch (IOException ex) {
+            throw new TranscoderException(ex);
+        }
+    }
+
+}
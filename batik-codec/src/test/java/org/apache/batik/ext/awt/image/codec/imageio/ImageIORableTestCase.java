@@ -0,0 +1,209 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.imageio;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.batik.ext.awt.image.renderable.DeferRable;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.util.ParsedURL;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which images are decoded lazily by ImageIORable, the
+ * reduction it picks and how it handles images it can't decode.
+ *
+ * @version $Id$
+ */
+public class ImageIORableTestCase {
+
+    private File file;
+
+    @After
+    public void tearDown() {
+        if (file != null)
+            file.delete();
+    }
+
+    private ParsedURL writeJPEG(int w, int h) throws Exception {
+        BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = bi.createGraphics();
+        g.setColor(Color.blue);
+        g.fillRect(0, 0, w, h);
+        g.dispose();
+        file = File.createTempFile("imageio", ".jpg");
+        ImageIO.write(bi, "jpeg", file);
+        return new ParsedURL(file.toURI().toURL());
+    }
+
+    private Filter read(ParsedURL purl) throws Exception {
+        InputStream is = new FileInputStream(file);
+        try {
+            Filter f = new ImageIOJPEGRegistryEntry().handleStream
+                (is, purl, false);
+            return ((DeferRable)f).getSource();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static RenderedImage render(Filter f, double scale) {
+        return f.createRendering(new RenderContext
+            (AffineTransform.getScaleInstance(scale, scale)));
+    }
+
+    @Test
+    public void testSmallImageDecodedNow() throws Exception {
+        ParsedURL purl = writeJPEG(64, 48);
+        Filter f = read(purl);
+        assertFalse(f instanceof ImageIORable);
+        assertEquals(64, f.getBounds2D().getWidth(), 0);
+        assertEquals(48, f.getBounds2D().getHeight(), 0);
+    }
+
+    @Test
+    public void testLargeImageDecodedWhenRendered() throws Exception {
+        ParsedURL purl = writeJPEG(1100, 1000);
+        Filter f = read(purl);
+        assertTrue(f instanceof ImageIORable);
+        ImageIORable r = (ImageIORable)f;
+        assertEquals(1100, r.getBounds2D().getWidth(), 0);
+        assertEquals(1000, r.getBounds2D().getHeight(), 0);
+
+        RenderedImage ri = render(r, 1);
+        assertEquals(1100, ri.getWidth());
+        assertEquals(1000, ri.getHeight());
+
+        ri = render(r, 0.1);
+        assertEquals(110, ri.getWidth());
+        assertEquals(100, ri.getHeight());
+        // Still blue.
+        assertTrue(ri.getData().getSample(50, 50, 2) > 240);
+        assertNull(r.broken);
+    }
+
+    @Test
+    public void testSubsampling() throws Exception {
+        ImageIORable r = new ImageIORable
+            (new ImageIOJPEGRegistryEntry(), null, new byte[0], 4000, 3000);
+        // At least four image pixels are kept per device pixel.
+        assertEquals(1, r.getSubsampling(null));
+        assertEquals(1, r.getSubsampling(new AffineTransform()));
+        assertEquals(1, r.getSubsampling
+                     (AffineTransform.getScaleInstance(0.25, 0.25)));
+        assertEquals(1, r.getSubsampling
+                     (AffineTransform.getScaleInstance(0.2, 0.2)));
+        assertEquals(2, r.getSubsampling
+                     (AffineTransform.getScaleInstance(0.1, 0.1)));
+        assertEquals(4, r.getSubsampling
+                     (AffineTransform.getScaleInstance(0.05, 0.01)));
+        assertEquals(8, r.getSubsampling
+                     (AffineTransform.getScaleInstance(0.02, 0.02)));
+    }
+
+    @Test
+    public void testImageNotReadAgain() throws Exception {
+        ParsedURL purl = writeJPEG(1100, 1000);
+        ImageIORable r = (ImageIORable)read(purl);
+
+        // The image is decoded from the bytes read the first time.
+        assertTrue(file.delete());
+        RenderedImage ri = render(r, 0.5);
+        assertEquals(550, ri.getWidth());
+        assertTrue(ri.getData().getSample(100, 100, 2) > 240);
+        assertNull(r.broken);
+    }
+
+    @Test
+    public void testCorruptImageIsBroken() throws Exception {
+        ImageIORable r = new ImageIORable
+            (new ImageIOJPEGRegistryEntry(), null,
+             new byte[] { (byte)0xff, (byte)0xd8 }, 1100, 1000);
+
+        RenderedImage ri = render(r, 0.5);
+        assertNotNull(ri);
+        assertEquals(550, ri.getWidth());
+        assertEquals(500, ri.getHeight());
+        assertNotNull(r.broken);
+    }
+
+    @Test
+    public void testFailedDecodeKeepsImage() throws Exception {
+        ParsedURL purl = writeJPEG(1100, 1000);
+        final ImageIORable good = (ImageIORable)read(purl);
+        ImageIORable r = new ImageIORable
+            (good.entry, purl, good.data, 1100, 1000) {
+                int decodes;
+                protected CachableRed decode(int sub) throws IOException {
+                    if (decodes++ > 0)
+                        throw new IOException("out of luck");
+                    return super.decode(sub);
+                }
+            };
+
+        render(r, 1);
+        RenderedImage ri = render(r, 0.1);
+        assertNull(r.broken);
+        assertEquals(110, ri.getWidth());
+        assertTrue(ri.getData().getSample(50, 50, 2) > 240);
+    }
+
+    @Test
+    public void testReduceAverages() {
+        // One pixel checks, taking every other pixel would keep only
+        // one of the colors.
+        BufferedImage bi = new BufferedImage
+            (9, 6, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 6; y++)
+            for (int x = 0; x < 9; x++)
+                bi.setRGB(x, y, (((x+y)&1) == 0) ? 0xFFFFFFFF : 0xFF000000);
+        BufferedImage r = ImageIORable.reduce(bi, 2);
+        assertEquals(5, r.getWidth());
+        assertEquals(3, r.getHeight());
+        assertEquals(0xFF808080, r.getRGB(0, 0));
+        assertEquals(0xFF808080, r.getRGB(3, 2));
+        // The last column averages a single column of the source.
+        assertEquals(0xFF808080, r.getRGB(4, 1));
+
+        // Transparent pixels don't darken the colors.
+        bi = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB);
+        bi.setRGB(0, 0, 0xFFFF0000);
+        r = ImageIORable.reduce(bi, 2);
+        assertEquals(0x40FF0000, r.getRGB(0, 0));
+    }
+}
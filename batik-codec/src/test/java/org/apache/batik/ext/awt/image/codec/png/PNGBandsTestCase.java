@@ -0,0 +1,169 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.png;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.apache.batik.ext.awt.image.rendered.AbstractRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that images written a band at a time give the same PNG as
+ * when they are written from a single image.
+ *
+ * @version $Id$
+ */
+public class PNGBandsTestCase {
+
+    private static final String SVG =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='211' height='157'"
+        + " shape-rendering='crispEdges'>"
+        + "<rect x='10' y='10' width='150' height='40' fill='#36c'/>"
+        + "<rect x='30' y='45' width='120' height='90' fill='#c63'"
+        + " fill-opacity='0.5'/>"
+        + "<rect x='0' y='140' width='211' height='17' fill='#3c6'/>"
+        + "</svg>";
+
+    /**
+     * A copy of an image whose tiles are bands of full rows.
+     */
+    private static class Bands extends AbstractRed {
+        final BufferedImage bi;
+
+        Bands(BufferedImage bi, int bandHeight) {
+            this.bi = bi;
+            init((CachableRed)null,
+                 new Rectangle(0, 0, bi.getWidth(), bi.getHeight()),
+                 bi.getColorModel(),
+                 bi.getColorModel().createCompatibleSampleModel
+                     (bi.getWidth(), bandHeight),
+                 0, 0, null);
+        }
+
+        public Raster getTile(int tileX, int tileY) {
+            WritableRaster wr = makeTile(tileX, tileY);
+            Rectangle r = wr.getBounds().intersection(getBounds());
+            wr.setRect(bi.getRaster().createChild(r.x, r.y, r.width, r.height,
+                                                  r.x, r.y, null));
+            return wr;
+        }
+
+        public WritableRaster copyData(WritableRaster wr) {
+            copyToRaster(wr);
+            return wr;
+        }
+    }
+
+    private static BufferedImage createImage(int w, int h) {
+        BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        int[] data = ((DataBufferInt)bi.getRaster().getDataBuffer()).getData();
+        Random rnd = new Random(3);
+        for (int i = 0; i < data.length; i++) {
+            // Runs of pixels so the filters have something to do.
+            data[i] = ((i % 7) == 0) ? rnd.nextInt()
+                                     : data[Math.max(i-1, 0)] + 0x01010101;
+        }
+        return bi;
+    }
+
+    private static byte[] encode(RenderedImage img,
+                                 boolean interlaced) throws Exception {
+        PNGEncodeParam param = PNGEncodeParam.getDefaultEncodeParam(img);
+        param.setInterlacing(interlaced);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PNGImageEncoder(out, param).encode(img);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testEncodeBands() throws Exception {
+        BufferedImage bi = createImage(123, 97);
+        int[] bandHeights = { 1, 10, 32, 97, 200 };
+        for (int i = 0; i < bandHeights.length; i++) {
+            Bands bands = new Bands(bi, bandHeights[i]);
+            assertArrayEquals("band height " + bandHeights[i],
+                              encode(bi, false), encode(bands, false));
+            assertArrayEquals("interlaced, band height " + bandHeights[i],
+                              encode(bi, true), encode(bands, true));
+        }
+    }
+
+    private static int[] transcode(Integer bandHeight,
+                                   boolean transparentWhite)
+        throws Exception {
+        PNGTranscoder t = new PNGTranscoder();
+        if (bandHeight != null)
+            t.addTranscodingHint(ImageTranscoder.KEY_BAND_HEIGHT, bandHeight);
+        t.addTranscodingHint(ImageTranscoder.KEY_FORCE_TRANSPARENT_WHITE,
+                             Boolean.valueOf(transparentWhite));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        t.transcode(new TranscoderInput(new StringReader(SVG)),
+                    new TranscoderOutput(out));
+        BufferedImage bi = ImageIO.read
+            (new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(211, bi.getWidth());
+        assertEquals(157, bi.getHeight());
+        return bi.getRGB(0, 0, 211, 157, null, 0, 211);
+    }
+
+    @Test
+    public void testTranscodeBands() throws Exception {
+        for (int w = 0; w < 2; w++) {
+            int[] whole = transcode(null, w == 1);
+            int[] bandHeights = { 16, 50, 157 };
+            for (int i = 0; i < bandHeights.length; i++) {
+                int[] banded = transcode(bandHeights[i], w == 1);
+                assertEquals("band height " + bandHeights[i],
+                             -1, mismatch(whole, banded));
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first pixel that differs, or -1.
+     */
+    private static int mismatch(int[] a, int[] b) {
+        if (Arrays.equals(a, b))
+            return -1;
+        for (int i = 0; i < a.length; i++)
+            if (a[i] != b[i])
+                return i;
+        return a.length;
+    }
+}
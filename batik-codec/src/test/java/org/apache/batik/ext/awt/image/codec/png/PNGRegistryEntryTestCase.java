@@ -0,0 +1,132 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.png;
+
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.spi.BrokenLinkProvider;
+import org.apache.batik.ext.awt.image.spi.DecodeExecutor;
+import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
+import org.apache.batik.util.ParsedURL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that cancelling the decodes of a document doesn't leave a
+ * broken link image in the image cache shared by all documents.
+ *
+ * @version $Id$
+ */
+public class PNGRegistryEntryTestCase {
+
+    private DecodeExecutor oldExecutor;
+    private DecodeExecutor executor;
+    private CountDownLatch gate;
+    private File file;
+    private ParsedURL purl;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("decode", ".png");
+        ImageIO.write(new BufferedImage(7, 5, BufferedImage.TYPE_INT_ARGB),
+                      "png", file);
+        purl = new ParsedURL(file.toURI().toURL());
+
+        oldExecutor = DecodeExecutor.getDefault();
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        executor = new DecodeExecutor(service, 16);
+        DecodeExecutor.setDefault(executor);
+        // Hold the decodes until the test opens the gate.
+        gate = new CountDownLatch(1);
+        service.execute(new Runnable() {
+                public void run() {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException ie) { }
+                }
+            });
+    }
+
+    @After
+    public void tearDown() {
+        gate.countDown();
+        DecodeExecutor.setDefault(oldExecutor);
+        executor.shutdown();
+        ImageTagRegistry.getRegistry().flushImage(purl);
+        file.delete();
+    }
+
+    @Test
+    public void testCancelDoesNotPoisonCache() throws Exception {
+        final ImageTagRegistry reg = ImageTagRegistry.getRegistry();
+        final DecodeExecutor.Group group = new DecodeExecutor.Group();
+        final Filter[] result = new Filter[1];
+
+        // readURL waits for the decode, so the document reads from
+        // its own thread.
+        Thread doc = new Thread() {
+                public void run() {
+                    DecodeExecutor.Group old =
+                        DecodeExecutor.setCurrentGroup(group);
+                    try {
+                        result[0] = reg.readURL(purl);
+                    } finally {
+                        DecodeExecutor.setCurrentGroup(old);
+                    }
+                }
+            };
+        doc.start();
+        // Wait for the decode to be queued behind the gate.
+        while (executor.getPendingCount() == 0) {
+            Thread.sleep(5);
+        }
+
+        // The document is disposed.
+        group.cancel();
+        doc.join(10000);
+        assertFalse(doc.isAlive());
+        assertTrue(BrokenLinkProvider.hasBrokenLinkProperty(result[0]));
+        assertEquals(1, executor.getCancelCount());
+
+        // Nothing is cached for the image.
+        assertNull(reg.checkCache(purl, null));
+
+        // Another document still gets the image.
+        gate.countDown();
+        Filter f = reg.readURL(purl);
+        assertFalse(BrokenLinkProvider.hasBrokenLinkProperty(f));
+        Rectangle2D r = f.getBounds2D();
+        assertEquals(7, r.getWidth(), 0);
+        assertEquals(5, r.getHeight(), 0);
+    }
+}
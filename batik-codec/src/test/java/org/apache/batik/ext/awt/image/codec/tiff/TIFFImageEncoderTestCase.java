@@ -0,0 +1,343 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.tiff;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Inflater;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Encodes images with each compression scheme and checks that
+ * decoding the TIFF files gives the original samples back.
+ *
+ * @version $Id$
+ */
+public class TIFFImageEncoderTestCase {
+
+    /**
+     * Returns an image mixing noise, gradients and flat areas, so each
+     * compression sees literals and runs.
+     */
+    static BufferedImage createImage(int type, int w, int h) {
+        BufferedImage bi = new BufferedImage(w, h, type);
+        Random rnd = new Random(42);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int argb;
+                if (y < h / 3)
+                    argb = rnd.nextInt();
+                else if (y < 2 * h / 3)
+                    argb = (x * 255 / w) << 24 | (x & 0xFF) << 16 | y << 8 | 7;
+                else
+                    argb = 0x80336699;
+                bi.setRGB(x, y, argb);
+            }
+        }
+        return bi;
+    }
+
+    static byte [] encode(BufferedImage bi, int compression, int nThreads)
+        throws Exception {
+        TIFFEncodeParam param = new TIFFEncodeParam();
+        param.setCompression(compression);
+        param.setTileSize(64, 32);
+        param.setNumThreads(nThreads);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new TIFFImageEncoder(out, param).encode(bi);
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes the tiles of a TIFF file written by TIFFImageEncoder
+     * and checks them against the samples of ras.
+     */
+    static void checkSamples(byte [] tiff, Raster ras) throws Exception {
+        assertEquals('M', tiff[0]);
+        assertEquals('M', tiff[1]);
+        assertEquals(42, getShort(tiff, 2));
+        Map fields = readDirectory(tiff, getInt(tiff, 4));
+
+        int width  = (int)getField(fields, 256)[0];
+        int height = (int)getField(fields, 257)[0];
+        int compression = (int)getField(fields, 259)[0];
+        int bands = (int)getField(fields, 277)[0];
+        int tw = (int)getField(fields, 322)[0];
+        int th = (int)getField(fields, 323)[0];
+        long [] offsets = getField(fields, 324);
+        long [] counts  = getField(fields, 325);
+        assertEquals(ras.getWidth(), width);
+        assertEquals(ras.getHeight(), height);
+        assertEquals(ras.getNumBands(), bands);
+
+        int tilesAcross = (width + tw - 1) / tw;
+        int tilesDown   = (height + th - 1) / th;
+        assertEquals(tilesAcross * tilesDown, offsets.length);
+
+        int rowBytes = tw * bands;
+        int [] samples = new int[bands];
+        for (int t = 0; t < offsets.length; t++) {
+            byte [] data = Arrays.copyOfRange
+                (tiff, (int)offsets[t], (int)(offsets[t] + counts[t]));
+            byte [] tile = decompress(data, compression, tw * th * bands);
+            int x0 = (t % tilesAcross) * tw;
+            int y0 = (t / tilesAcross) * th;
+            for (int y = y0; y < Math.min(y0 + th, height); y++) {
+                for (int x = x0; x < Math.min(x0 + tw, width); x++) {
+                    ras.getPixel(x, y, samples);
+                    int d = (y - y0) * rowBytes + (x - x0) * bands;
+                    for (int b = 0; b < bands; b++) {
+                        if (samples[b] != (tile[d + b] & 0xFF)) {
+                            throw new AssertionError
+                                ("Sample " + b + " at " + x + "," + y
+                                 + " is " + (tile[d + b] & 0xFF)
+                                 + " instead of " + samples[b]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    static Map readDirectory(byte [] tiff, int offset) {
+        Map fields = new HashMap();
+        int n = getShort(tiff, offset);
+        for (int i = 0; i < n; i++) {
+            int e = offset + 2 + 12 * i;
+            int tag   = getShort(tiff, e);
+            int type  = getShort(tiff, e + 2);
+            int count = getInt(tiff, e + 4);
+            int size  = (type == 3) ? 2 : 4;
+            if (type == 5)
+                count *= 2;
+            int p = (size * count <= 4) ? e + 8 : getInt(tiff, e + 8);
+            long [] values = new long[count];
+            for (int j = 0; j < count; j++) {
+                values[j] = (size == 2)
+                    ? getShort(tiff, p + 2 * j)
+                    : getInt(tiff, p + 4 * j) & 0xFFFFFFFFL;
+            }
+            fields.put(tag, values);
+        }
+        return fields;
+    }
+
+    static long [] getField(Map fields, int tag) {
+        long [] values = (long [])fields.get(tag);
+        if (values == null)
+            throw new AssertionError("No field " + tag);
+        return values;
+    }
+
+    static int getShort(byte [] b, int p) {
+        return ((b[p] & 0xFF) << 8) | (b[p + 1] & 0xFF);
+    }
+
+    static int getInt(byte [] b, int p) {
+        return (getShort(b, p) << 16) | getShort(b, p + 2);
+    }
+
+    static byte [] decompress(byte [] data, int compression, int size)
+        throws Exception {
+        byte [] out;
+        switch (compression) {
+        case TIFFEncodeParam.COMPRESSION_NONE:
+            out = data;
+            break;
+        case TIFFEncodeParam.COMPRESSION_DEFLATE:
+            out = new byte[size];
+            Inflater inflater = new Inflater();
+            inflater.setInput(data);
+            int n = inflater.inflate(out);
+            assertEquals(size, n);
+            inflater.end();
+            break;
+        case TIFFEncodeParam.COMPRESSION_PACKBITS:
+            out = unpackBits(data);
+            break;
+        case TIFFEncodeParam.COMPRESSION_LZW:
+            out = unLZW(data);
+            break;
+        default:
+            throw new AssertionError("Compression " + compression);
+        }
+        assertEquals(size, out.length);
+        return out;
+    }
+
+    static byte [] unpackBits(byte [] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int i = 0;
+        while (i < data.length) {
+            int n = data[i++];
+            if (n >= 0) {
+                out.write(data, i, n + 1);
+                i += n + 1;
+            } else if (n != -128) {
+                for (int j = 0; j < 1 - n; j++)
+                    out.write(data[i]);
+                i++;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A plain TIFF LZW decoder, switching the code width one code
+     * early as the specification requires.
+     */
+    static byte [] unLZW(byte [] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte [][] table = new byte[4096][];
+        for (int i = 0; i < 256; i++)
+            table[i] = new byte[] { (byte)i };
+        int next = 258;
+        int nbits = 9;
+        byte [] prev = null;
+        long acc = 0;
+        int bits = 0;
+        int pos = 0;
+        while (true) {
+            while (bits < nbits) {
+                acc = (acc << 8) | ((pos < data.length) ? data[pos] & 0xFF : 0);
+                pos++;
+                bits += 8;
+            }
+            bits -= nbits;
+            int code = (int)(acc >>> bits) & ((1 << nbits) - 1);
+            if (code == 257)
+                break;
+            if (code == 256) {
+                next = 258;
+                nbits = 9;
+                prev = null;
+                continue;
+            }
+            byte [] entry;
+            if (prev == null) {
+                entry = table[code];
+            } else {
+                if (code < next) {
+                    entry = table[code];
+                } else {
+                    assertEquals(next, code);
+                    entry = concat(prev, prev[0]);
+                }
+                table[next++] = concat(prev, entry[0]);
+                if ((next + 1 == (1 << nbits)) && (nbits < 12))
+                    nbits++;
+            }
+            out.write(entry, 0, entry.length);
+            prev = entry;
+        }
+        return out.toByteArray();
+    }
+
+    static byte [] concat(byte [] a, byte b) {
+        byte [] r = Arrays.copyOf(a, a.length + 1);
+        r[a.length] = b;
+        return r;
+    }
+
+    private static void checkRoundTrip(int compression) throws Exception {
+        int [] types = { BufferedImage.TYPE_INT_ARGB,
+                         BufferedImage.TYPE_INT_RGB,
+                         BufferedImage.TYPE_BYTE_GRAY };
+        for (int type : types) {
+            BufferedImage bi = createImage(type, 150, 70);
+            byte [] tiff = encode(bi, compression, 0);
+            checkSamples(tiff, bi.getRaster());
+            // Compressing in parallel doesn't change the file.
+            assertArrayEquals(tiff, encode(bi, compression, 1));
+        }
+    }
+
+    @Test
+    public void testNone() throws Exception {
+        checkRoundTrip(TIFFEncodeParam.COMPRESSION_NONE);
+    }
+
+    @Test
+    public void testLZW() throws Exception {
+        checkRoundTrip(TIFFEncodeParam.COMPRESSION_LZW);
+    }
+
+    @Test
+    public void testLZWTableReset() throws Exception {
+        // Enough noise in one tile to fill the code table several times.
+        BufferedImage bi = createImage(BufferedImage.TYPE_INT_ARGB, 64, 96);
+        Random rnd = new Random(7);
+        for (int y = 0; y < 96; y++)
+            for (int x = 0; x < 64; x++)
+                bi.setRGB(x, y, rnd.nextInt());
+        TIFFEncodeParam param = new TIFFEncodeParam();
+        param.setCompression(TIFFEncodeParam.COMPRESSION_LZW);
+        param.setTileSize(64, 96);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new TIFFImageEncoder(out, param).encode(bi);
+        checkSamples(out.toByteArray(), bi.getRaster());
+    }
+
+    @Test
+    public void testPackBits() throws Exception {
+        checkRoundTrip(TIFFEncodeParam.COMPRESSION_PACKBITS);
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        checkRoundTrip(TIFFEncodeParam.COMPRESSION_DEFLATE);
+    }
+
+    @Test
+    public void testImageIOReader() throws Exception {
+        // Also check against the JDK reader where there is one.
+        Iterator i = ImageIO.getImageReadersByFormatName("tiff");
+        if (!i.hasNext())
+            return;
+        int [] compressions = { TIFFEncodeParam.COMPRESSION_LZW,
+                                TIFFEncodeParam.COMPRESSION_PACKBITS,
+                                TIFFEncodeParam.COMPRESSION_DEFLATE };
+        BufferedImage bi = createImage(BufferedImage.TYPE_INT_ARGB, 150, 70);
+        for (int compression : compressions) {
+            byte [] tiff = encode(bi, compression, 0);
+            ImageReader reader = (ImageReader)i.next();
+            reader.setInput(ImageIO.createImageInputStream
+                            (new ByteArrayInputStream(tiff)));
+            BufferedImage read = reader.read(0);
+            reader.dispose();
+            i = ImageIO.getImageReadersByFormatName("tiff");
+            for (int y = 0; y < 70; y++)
+                for (int x = 0; x < 150; x++)
+                    assertEquals(bi.getRGB(x, y), read.getRGB(x, y));
+        }
+    }
+}
@@ -45,6 +45,16 @@ public class FlowExtGlyphLayout extends GlyphLayout {
         super(aci, charMap, offset, frc);
     }
 
+    /**
+     * Flow layouts are moved around glyph by glyph when the text is
+     * wrapped into its flow regions, they are never reused.
+     */
+    public boolean reuse(AttributedCharacterIterator aci,
+                         int [] charMap,
+                         FontRenderContext frc) {
+        return false;
+    }
+
 
     // Issues: 
     //   Should the font size of non-printing chars affect line spacing?
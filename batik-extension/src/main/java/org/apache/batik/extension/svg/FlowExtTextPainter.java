@@ -56,6 +56,7 @@ public class FlowExtTextPainter extends StrokingTextPainter {
             return textRuns;
         }
 
+        aci = createLayoutACI(aci);
         AttributedCharacterIterator[] chunkACIs = getTextChunkACIs(aci);
         textRuns = computeTextRuns(node, aci, chunkACIs);
 
@@ -24,6 +24,7 @@ import java.text.AttributedString;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.apache.batik.gvt.text.AttributedCharArray;
 import org.apache.batik.gvt.text.GVTAttributedCharacterIterator;
 
 /**
@@ -48,52 +49,98 @@ public class TextLineBreaks {
     }
 
     // placeholder function for complex break analysis
-    static int findComplexBreak(AttributedCharacterIterator aci)
-    {
-        int cnt = 0;
-        for(char ch = aci.current();
-            ch == AttributedCharacterIterator.DONE;
-            ch = aci.next(), cnt++) {
-
-            // .. do complex break analysis here Right now we aren't
-            // do any, we just find the end of the run of
-            // CHAR_CLASS_SA.
-
-            if (getCharCharClass(ch) != CHAR_CLASS_SA)
-                break;
-        }
-        return cnt;
+    static int findComplexBreak(char[] text, int index) {
+        // .. do complex break analysis here. Right now we aren't
+        // doing any, so the run of CHAR_CLASS_SA is not skipped.
+        return 0;
     }
 
     // handle spaces separately, all others by table
     // as - Attributed string to attribute with Word extents.
     public static void findLineBrk(AttributedString as) {
         AttributedCharacterIterator aci = as.getIterator();
-        if (aci.getEndIndex() == 0)
+        int len = aci.getEndIndex() - aci.getBeginIndex();
+        if (len == 0)
+            return;
+        int[] wordLimits = new int[len + 1];
+        int wordCnt = findLineBrk(getChars(aci), getLineLimits(aci),
+                                  wordLimits);
+        int wordBegin = 0;
+        for (int w = 0; w < wordCnt; w++) {
+            as.addAttribute(WORD_LIMIT, w, wordBegin, wordLimits[w]);
+            wordBegin = wordLimits[w];
+        }
+    }
+
+    /**
+     * Adds the WORD_LIMIT attributes to the given text.  Unlike the
+     * AttributedString version, this adds all the word runs in one
+     * pass, so it stays linear in the number of words.  Empty words
+     * are skipped rather than rejected.
+     */
+    public static void findLineBrk(AttributedCharArray text) {
+        int len = text.length();
+        if (len == 0)
             return;
-        char ch = aci.current(), prevCh = (char)-1;
+        AttributedCharacterIterator aci = text.getIterator();
+        int[] wordLimits = new int[len + 1];
+        int wordCnt = findLineBrk(getChars(aci), getLineLimits(aci),
+                                  wordLimits);
+        // Drop the empty words, so the words are numbered without gaps.
+        Object[] words = new Object[wordCnt];
+        int n = 0;
+        int wordBegin = 0;
+        for (int w = 0; w < wordCnt; w++) {
+            if (wordLimits[w] > wordBegin) {
+                wordLimits[n] = wordLimits[w];
+                words[n] = n;
+                n++;
+                wordBegin = wordLimits[w];
+            }
+        }
+        text.addAttributeRuns(WORD_LIMIT, words, wordLimits, n);
+    }
+
+    /**
+     * Finds the words of the given text, that is the segments between
+     * two line break opportunities.
+     *
+     * @param text The characters.
+     * @param lineLimits The end index of each paragraph or forced line,
+     *        there is always a break there.
+     * @param wordLimits Receives the end index of each word, it must be
+     *        at least one longer than the text.
+     * @return The number of words.
+     */
+    public static int findLineBrk(char[] text, int[] lineLimits,
+                                  int[] wordLimits) {
+        int len = text.length;
+        if (len == 0)
+            return 0;
+        char ch = text[0], prevCh = (char)-1;
         byte         cls = getCharCharClass(ch);
         if (cls == CHAR_CLASS_LF) cls = CHAR_CLASS_BK;
         byte      curCls = cls;
         byte     prevCls = cls;
         byte prevPrevCls = -1;
         int  wordCnt = 0;
-        int  wordBegin = aci.getBeginIndex();
-        // loop over all pairs in the string
-        int ich = wordBegin+1;
-        int lineEnd = aci.getRunLimit(lineBrks);
+        int  wordBegin = 0;
+        int  line = 0;
+        int  lineEnd = lineLimits[line++];
 
         // handle case where input starts with an LF
         if (cls >= CHAR_CLASS_CM) cls = CHAR_CLASS_AL;
 
-        for (ch = aci.next();
-             ch != AttributedCharacterIterator.DONE;
-             ich++, prevCh = ch, ch = aci.next(),
+        // loop over all pairs in the string
+        int ich = 1;
+        for (;
+             ich < len;
+             ich++, prevCh = ch,
              prevPrevCls = prevCls, prevCls = curCls) {
+            ch = text[ich];
 
             if (ich == lineEnd) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich);
+                wordLimits[wordCnt++] = ich;
                 wordBegin = ich;
 
                 cls    = getCharCharClass(ch);
@@ -101,26 +148,24 @@ public class TextLineBreaks {
                 prevCls = cls;
                 if (cls >= CHAR_CLASS_CM) cls = CHAR_CLASS_AL;
 
-                lineEnd = aci.getRunLimit(lineBrks);
+                lineEnd = lineLimits[line++];
                 continue;
             }
 
             // handle spaces
             curCls = getCharCharClass(ch);
             if (curCls == CHAR_CLASS_SP) {
-                // pbrk[ich-1] = BREAK_ACTION_PROHIBITED;
                 continue;
             }
 
             // handle complex scripts
             if (curCls == CHAR_CLASS_SA) {
-                ich += findComplexBreak(aci);
-                ch = aci.previous();
-                if (ch != AttributedCharacterIterator.DONE)
-                    prevCls = getCharCharClass(ch);
-                ch = aci.next();
-                if (ch != AttributedCharacterIterator.DONE)
+                ich += findComplexBreak(text, ich);
+                prevCls = getCharCharClass(text[ich - 1]);
+                if (ich < len) {
+                    ch = text[ich];
                     curCls = cls = getCharCharClass(ch);
+                }
                 continue;
             }
 
@@ -131,15 +176,13 @@ public class TextLineBreaks {
                 continue; // Don't allow break around JOINER.
 
             if ((curCls == CHAR_CLASS_BK) || (curCls == CHAR_CLASS_LF)) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich);
+                wordLimits[wordCnt++] = ich;
                 wordBegin = ich;
                 cls = CHAR_CLASS_BK;
                 continue;
             }
             if (prevCls == CHAR_CLASS_CR) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich-1);
+                wordLimits[wordCnt++] = ich-1;
                 wordBegin = ich-1;
                 cls = CHAR_CLASS_BK;
                 continue;
@@ -155,16 +198,11 @@ public class TextLineBreaks {
                     if (prevPrevCls != -1) {
                         if (brkPairs[prevPrevCls][CHAR_CLASS_ID] ==
                             BREAK_ACTION_DIRECT) {
-                            as.addAttribute(WORD_LIMIT, wordCnt++,
-                                            wordBegin, ich-1);
+                            wordLimits[wordCnt++] = ich-1;
                             wordBegin = ich-1;
-                            // pbrk[ich-2] = BREAK_ACTION_DIRECT;
-                        } else {
-                            // pbrk[ich-2] = BREAK_ACTION_PROHIBITED;
                         }
                     }
                 }
-                // pbrk[ich-1] = BREAK_ACTION_PROHIBITED;
                 continue;
             }
 
@@ -177,31 +215,57 @@ public class TextLineBreaks {
             byte brk = brkPairs[cls][curCls];
 
             if (brk == BREAK_ACTION_DIRECT) {
-                as.addAttribute(WORD_LIMIT, wordCnt++,
-                                wordBegin, ich);
+                wordLimits[wordCnt++] = ich;
                 wordBegin = ich;
-                // pbrk[ich-1] = brk;
             } else if (brk == BREAK_ACTION_INDIRECT) {
                 if (prevCls == CHAR_CLASS_SP) {
-                    as.addAttribute(WORD_LIMIT, wordCnt++,
-                                    wordBegin, ich);
+                    wordLimits[wordCnt++] = ich;
                     wordBegin = ich;
                 }
-                // pbrk[ich-1] = ((prevCls == CHAR_CLASS_SP) ?
-                //                BREAK_ACTION_INDIRECT :
-                //                BREAK_ACTION_PROHIBITED);
             }
             cls = curCls;
         }
 
         // always break at the end
-        as.addAttribute(WORD_LIMIT, wordCnt++,
-                        wordBegin, ich);
-        wordBegin = ich;
-        // pbrk[ich-1] = BREAK_ACTION_DIRECT;
+        wordLimits[wordCnt++] = ich;
+
+        return wordCnt;
+    }
+
+    /**
+     * Returns the characters of the given iterator.
+     */
+    static char[] getChars(AttributedCharacterIterator aci) {
+        int begin = aci.getBeginIndex();
+        char[] text = new char[aci.getEndIndex() - begin];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = aci.setIndex(begin + i);
+        }
+        return text;
+    }
 
-        return;
-   }
+    /**
+     * Returns the end index of each run of the line break attributes
+     * of the given iterator, relative to its begin index.
+     */
+    static int[] getLineLimits(AttributedCharacterIterator aci) {
+        int begin = aci.getBeginIndex();
+        int end = aci.getEndIndex();
+        int[] limits = new int[8];
+        int n = 0;
+        int i = begin;
+        while (i < end) {
+            aci.setIndex(i);
+            i = aci.getRunLimit(lineBrks);
+            if (n == limits.length) {
+                int[] t = new int[n * 2];
+                System.arraycopy(limits, 0, t, 0, n);
+                limits = t;
+            }
+            limits[n++] = i - begin;
+        }
+        return limits;
+    }
 
     public static byte[] stringToLineBreakClasses(String s) {
         int len = s.length();
@@ -213,10 +277,15 @@ public class TextLineBreaks {
     }
 
     public static byte getCharCharClass(char ch) {
-        if (ch < QUICK_LUT_SIZE) {
-            if (quickLut == null) buildQuickLut();
-            return quickLut[ch];
-        }
+        return classBlocks[(classBlockIndex[ch >> 8] << 8) | (ch & 0xff)];
+    }
+
+    public static final char CHAR_ZERO_WIDTH_JOINER = 0x200D;
+
+    /**
+     * Looks up the class of the given char in the raw class ranges.
+     */
+    protected static byte lookupCharClass(char ch) {
         int len = raw_data.length;
         int l = 0;
         int r = (len/2)-1;
@@ -232,24 +301,35 @@ public class TextLineBreaks {
         return raw_classes[entry];
     }
 
-    public static final char CHAR_ZERO_WIDTH_JOINER = 0x200D;
-
-    protected static final int QUICK_LUT_SIZE = 256;
-
-    protected static void buildQuickLut() {
-        int entry = 0;
-        quickLut = new byte[QUICK_LUT_SIZE];
-        int i=0;
-        while (i<QUICK_LUT_SIZE) {
-            int max = raw_data[2*entry+1];
-            byte cls = raw_classes[entry];
-            while (i<=max) {
-                quickLut[i] = cls;
-                i++;
-                if (i>=QUICK_LUT_SIZE) break;
+    /**
+     * Builds the two stage class table from the raw class ranges: the
+     * chars are split in blocks of 256, identical blocks are only
+     * stored once.
+     */
+    protected static void buildClassTable() {
+        classBlockIndex = new char[256];
+        byte[] blocks = new byte[256 * 256];
+        int numBlocks = 0;
+        byte[] block = new byte[256];
+        for (int b = 0; b < 256; b++) {
+            for (int i = 0; i < 256; i++) {
+                block[i] = lookupCharClass((char)((b << 8) | i));
+            }
+            int found = -1;
+            for (int k = 0; k < numBlocks && found == -1; k++) {
+                int off = k << 8;
+                int i = 0;
+                while (i < 256 && blocks[off + i] == block[i]) i++;
+                if (i == 256) found = k;
             }
-            entry++;
+            if (found == -1) {
+                System.arraycopy(block, 0, blocks, numBlocks << 8, 256);
+                found = numBlocks++;
+            }
+            classBlockIndex[b] = (char)found;
         }
+        classBlocks = new byte[numBlocks << 8];
+        System.arraycopy(blocks, 0, classBlocks, 0, classBlocks.length);
     }
 
     // direct break     (blank in table)
@@ -360,7 +440,12 @@ public class TextLineBreaks {
         {  0, 2, 1, 1, 1, 2, 2, 2, 0, 0, 1, 1, 0, 1, 1, 1, 0, 0, 2, 1 }};// 19
 
 
-    static byte [] quickLut = null;
+    /**
+     * The class table: the block of each 256 chars, and the classes of
+     * the chars of each block.
+     */
+    static char [] classBlockIndex;
+    static byte [] classBlocks;
 
     static final char [] raw_data = {
         0x0000, 0x0008,
@@ -1939,4 +2024,8 @@ public class TextLineBreaks {
         CHAR_CLASS_CM,
         CHAR_CLASS_CB,
         CHAR_CLASS_AI };
+
+    static {
+        buildClassTable();
+    }
 }
@@ -57,7 +57,6 @@ public class AWTGVTFont implements GVTFont {
         this.size = font.getSize2D();
         this.awtFont = font.deriveFont(FONT_SIZE);
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -70,7 +69,6 @@ public class AWTGVTFont implements GVTFont {
         this.size = font.getSize2D()*scale;
         this.awtFont = font.deriveFont(FONT_SIZE);
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -89,7 +87,6 @@ public class AWTGVTFont implements GVTFont {
             this.size = awtFont.getSize2D();
         }
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -103,7 +100,6 @@ public class AWTGVTFont implements GVTFont {
         this.awtFont = new Font(name, style, (int)FONT_SIZE);
         this.size  = size;
         this.scale = size/awtFont.getSize2D();
-        initializeFontCache(awtFont);
     }
 
     /**
@@ -215,6 +211,14 @@ public class AWTGVTFont implements GVTFont {
         return awtFont.getFamily();
     }
 
+    /**
+     * Returns the AWT font wrapped by this font, at the reference size
+     * {@link #FONT_SIZE}.
+     */
+    public Font getAWTFont() {
+        return awtFont;
+    }
+
     /**
      *  Returns a LineMetrics object created with the specified arguments.
      */
@@ -282,9 +286,24 @@ public class AWTGVTFont implements GVTFont {
     public static final float FONT_SIZE = 48.0f;
 
     /**
-     * Returns the geometry of the specified character. This method also put
-     * the in cache the geometry associated to the specified character if
-     * needed.
+     * The glyph geometry cache shared by all AWTGVTFonts.
+     */
+    protected static final AWTGlyphGeometryCache glyphCache =
+        new AWTGlyphGeometryCache();
+
+    /**
+     * Returns the glyph geometry cache shared by all AWTGVTFonts, for
+     * instance to change its size or look at its hit rate.
+     */
+    public static AWTGlyphGeometryCache getGlyphGeometryCache() {
+        return glyphCache;
+    }
+
+    /**
+     * Returns the geometry of the specified glyph. This method also put
+     * the in cache the geometry associated to the glyph if needed.  The
+     * glyph is looked up by the code of the glyph at glyphIndex in gv,
+     * c is the character it was created for.
      */
     public static
         AWTGlyphGeometryCache.Value getGlyphGeometry(AWTGVTFont font,
@@ -293,10 +312,9 @@ public class AWTGVTFont implements GVTFont {
                                                      int glyphIndex,
                                                      Point2D glyphPos) {
 
-        AWTGlyphGeometryCache glyphCache =
-            (AWTGlyphGeometryCache)fontCache.get(font.awtFont);
-
-        AWTGlyphGeometryCache.Value v = glyphCache.get(c);
+        int glyphCode = gv.getGlyphCode(glyphIndex);
+        AWTGlyphGeometryCache.Value v =
+            glyphCache.get(font.awtFont, glyphCode);
         if (v == null) {
             Shape outline = gv.getGlyphOutline(glyphIndex);
             GlyphMetrics metrics = gv.getGlyphMetrics(glyphIndex);
@@ -307,8 +325,7 @@ public class AWTGVTFont implements GVTFont {
                 outline = tr.createTransformedShape(outline);
             }
             v = new AWTGlyphGeometryCache.Value(outline, gmB);
-            //System.out.println("put "+font.awtFont+" "+c);
-            glyphCache.put(c, v);
+            glyphCache.put(font.awtFont, glyphCode, v);
         }
         return v;
     }
@@ -319,19 +336,24 @@ public class AWTGVTFont implements GVTFont {
 
     static Map fontCache = new HashMap(11);
 
-    static void initializeFontCache(Font awtFont) {
-        if (!fontCache.containsKey(awtFont)) {
-            fontCache.put(awtFont, new AWTGlyphGeometryCache());
-        }
-    }
-
+    /**
+     * @deprecated AWTGVTFonts aren't cached any more, the glyph
+     *     geometry is kept in {@link #getGlyphGeometryCache()}.
+     */
     static void putAWTGVTFont(AWTGVTFont font) {
-        fontCache.put(font.awtFont, font);
+        synchronized (fontCache) {
+            fontCache.put(font.awtFont, font);
+        }
     }
 
+    /**
+     * @deprecated AWTGVTFonts aren't cached any more, the glyph
+     *     geometry is kept in {@link #getGlyphGeometryCache()}.
+     */
     static AWTGVTFont getAWTGVTFont(Font awtFont) {
-        return (AWTGVTFont)fontCache.get(awtFont);
+        synchronized (fontCache) {
+            return (AWTGVTFont)fontCache.get(awtFont);
+        }
     }
 
 }
-
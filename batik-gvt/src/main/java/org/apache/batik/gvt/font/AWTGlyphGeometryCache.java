@@ -18,14 +18,22 @@
  */
 package org.apache.batik.gvt.font;
 
+import java.awt.Font;
 import java.awt.Shape;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * This class represents a doubly indexed hash table, which holds
- * soft references to the contained glyph geometry informations.
+ * This class is a cache of glyph geometry informations, indexed by
+ * font and glyph code.  It can be shared by any number of threads.
+ * The cache is bounded by an estimate of the memory used by the glyph
+ * outlines, the least recently used glyphs are dropped first.
+ *
+ * <p>The cache is split into segments with their own lock, so threads
+ * looking up unrelated glyphs don't wait on each other.
  *
  * @author <a href="mailto:stephane@hillion.org">Stephane Hillion</a>
  * @author <a href="mailto:tkormann@ilog.fr">Thierry Kormann</a>
@@ -34,164 +42,277 @@ import java.lang.ref.SoftReference;
 public class AWTGlyphGeometryCache {
 
     /**
-     * The initial capacity
+     * The default maximum size of the cache, in bytes.
      */
-    protected static final int INITIAL_CAPACITY = 71;
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
 
     /**
-     * The underlying array
+     * The number of segments, a power of two.
      */
-    protected Entry[] table;
+    protected static final int SEGMENTS = 16;
 
     /**
-     * The number of entries
+     * The segments.
      */
-    protected int count;
+    protected Segment[] segments;
 
     /**
-     * The reference queue.
+     * The maximum size of each segment, in bytes.
      */
-    protected ReferenceQueue referenceQueue = new ReferenceQueue();
+    protected volatile long maxSegmentBytes;
 
     /**
      * Creates a new AWTGlyphGeometryCache.
      */
     public AWTGlyphGeometryCache() {
-        table = new Entry[INITIAL_CAPACITY];
+        this(DEFAULT_MAX_BYTES);
     }
 
     /**
      * Creates a new AWTGlyphGeometryCache.
-     * @param c The inital capacity.
+     * @param maxBytes The maximum size of the cache, in bytes.
      */
-    public AWTGlyphGeometryCache(int c) {
-        table = new Entry[c];
+    public AWTGlyphGeometryCache(long maxBytes) {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        setMaxBytes(maxBytes);
     }
 
     /**
-     * Returns the size of this table.
+     * Creates a new AWTGlyphGeometryCache of the default maximum size.
+     * @param c The inital capacity, which is ignored.
+     * @deprecated The cache is bounded by size, use
+     *     {@link #AWTGlyphGeometryCache(long)}.
      */
-    public int size() {
-        return count;
+    public AWTGlyphGeometryCache(int c) {
+        this(DEFAULT_MAX_BYTES);
     }
 
     /**
-     * Gets the value of a variable
-     * @return the value or null
+     * Sets the maximum size of the cache, in bytes.
      */
-    public Value get(char c) {
-        int hash  = hashCode(c) & 0x7FFFFFFF;
-        int index = hash % table.length;
-
-        for (Entry e = table[index]; e != null; e = e.next) {
-            if ((e.hash == hash) && e.match(c)) {
-                return (Value)e.get();
+    public void setMaxBytes(long maxBytes) {
+        maxSegmentBytes = maxBytes / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment s = segments[i];
+            synchronized (s) {
+                s.trim();
             }
         }
-        return null;
     }
 
     /**
-     * Sets a new value for the given variable
-     * @return the old value or null
+     * Returns the maximum size of the cache, in bytes.
      */
-    public Value put(char c, Value value) {
-        removeClearedEntries();
+    public long getMaxBytes() {
+        return maxSegmentBytes * SEGMENTS;
+    }
 
-        int hash  = hashCode(c) & 0x7FFFFFFF;
-        int index = hash % table.length;
+    /**
+     * Returns the number of glyphs in the cache.
+     */
+    public int size() {
+        int n = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment s = segments[i];
+            synchronized (s) {
+                n += s.map.size();
+            }
+        }
+        return n;
+    }
 
-        Entry e = table[index];
-        if (e != null) {
-            if ((e.hash == hash) && e.match(c)) {
-                Object old = e.get();
-                table[index] = new Entry(hash, c, value, e.next);
-                return (Value)old;
+    /**
+     * Returns the estimated size of the cached glyphs, in bytes.
+     */
+    public long getBytes() {
+        long n = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment s = segments[i];
+            synchronized (s) {
+                n += s.bytes;
             }
-            Entry o = e;
-            e = e.next;
-            while (e != null) {
-                if ((e.hash == hash) && e.match(c)) {
-                    Object old = e.get();
-                    e = new Entry(hash, c, value, e.next);
-                    o.next = e;
-                    return (Value)old;
-                }
+        }
+        return n;
+    }
 
-                o = e;
-                e = e.next;
+    /**
+     * Returns the number of lookups that found their glyph.
+     */
+    public long getHitCount() {
+        long n = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment s = segments[i];
+            synchronized (s) {
+                n += s.hits;
             }
         }
+        return n;
+    }
 
-        // The key is not in the hash table
-        int len = table.length;
-        if (count++ >= (len - (len >> 2))) {
-            // more than 75% loaded: grow
-            rehash();
-            index = hash % table.length;
+    /**
+     * Returns the number of lookups that didn't find their glyph.
+     */
+    public long getMissCount() {
+        long n = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment s = segments[i];
+            synchronized (s) {
+                n += s.misses;
+            }
         }
+        return n;
+    }
 
-        table[index] = new Entry(hash, c, value, table[index]);
-        return null;
+    /**
+     * Returns the ratio of lookups that found their glyph, or 0 if
+     * there were none.
+     */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return (total == 0) ? 0 : (double)hits / total;
     }
 
     /**
-     * Clears the table.
+     * Gets the geometry of a glyph.
+     * @param font The font, at the size the geometry was computed for.
+     * @param glyphCode The glyph code in that font.
+     * @return the value or null
      */
-    public void clear() {
-        table = new Entry[INITIAL_CAPACITY];
-        count = 0;
-        referenceQueue = new ReferenceQueue();
+    public Value get(Font font, int glyphCode) {
+        Key k = new Key(font, glyphCode);
+        Segment s = segmentFor(k);
+        synchronized (s) {
+            Value v = (Value)s.map.get(k);
+            if (v == null) {
+                s.misses++;
+            } else {
+                s.hits++;
+            }
+            return v;
+        }
     }
 
     /**
-     * Rehash the table
+     * Sets the geometry of a glyph.
+     * @return the old value or null
      */
-    protected void rehash () {
-        Entry[] oldTable = table;
+    public Value put(Font font, int glyphCode, Value value) {
+        Key k = new Key(font, glyphCode);
+        Segment s = segmentFor(k);
+        synchronized (s) {
+            Value old = (Value)s.map.put(k, value);
+            if (old != null) {
+                s.bytes -= old.bytes;
+            }
+            s.bytes += value.bytes;
+            s.trim();
+            return old;
+        }
+    }
 
-        table = new Entry[oldTable.length * 2 + 1];
+    /**
+     * Gets the geometry of a character.  Characters are kept apart
+     * from the glyphs of any font.
+     * @return the value or null
+     * @deprecated Replaced by {@link #get(Font,int)}, since the same
+     *     character maps to different glyphs in different fonts.
+     */
+    public Value get(char c) {
+        return get(null, c);
+    }
 
-        for (int i = oldTable.length-1; i >= 0; i--) {
-            for (Entry old = oldTable[i]; old != null;) {
-                Entry e = old;
-                old = old.next;
+    /**
+     * Sets the geometry of a character.
+     * @return the old value or null
+     * @deprecated Replaced by {@link #put(Font,int,Value)}.
+     */
+    public Value put(char c, Value value) {
+        return put(null, c, value);
+    }
 
-                int index = e.hash % table.length;
-                e.next = table[index];
-                table[index] = e;
+    /**
+     * Clears the cache.  The hit and miss counts are kept.
+     */
+    public void clear() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment s = segments[i];
+            synchronized (s) {
+                s.map.clear();
+                s.bytes = 0;
             }
         }
     }
 
     /**
-     * Computes a hash code corresponding to the given objects.
+     * Returns the segment holding the given key.
      */
-    protected int hashCode(char c) {
-        return c;
+    protected Segment segmentFor(Key k) {
+        int h = k.hash;
+        h ^= (h >>> 16);
+        return segments[(h ^ (h >>> 8)) & (SEGMENTS - 1)];
     }
 
     /**
-     * Removes the cleared entries.
+     * A part of the cache, with the glyphs in least recently used
+     * first order.  Accessed while synchronized on the segment.
      */
-    protected void removeClearedEntries() {
-        Entry e;
-        while ((e = (Entry)referenceQueue.poll()) != null) {
-            int index = e.hash % table.length;
-            Entry t = table[index];
-            if (t == e) {
-                table[index] = e.next;
-            } else {
-                loop: for (;t!=null;) {
-                    Entry c = t.next;
-                    if (c == e) {
-                        t.next = e.next;
-                        break loop;
-                    }
-                    t = c;
-                }
+    protected class Segment {
+
+        protected final Map map = new LinkedHashMap(64, 0.75f, true);
+
+        protected long bytes;
+
+        protected long hits;
+
+        protected long misses;
+
+        /**
+         * Drops the least recently used glyphs until the segment fits
+         * its maximum size.
+         */
+        protected void trim() {
+            Iterator it = map.values().iterator();
+            while ((bytes > maxSegmentBytes) && it.hasNext()) {
+                bytes -= ((Value)it.next()).bytes;
+                it.remove();
             }
-            count--;
+        }
+    }
+
+    /**
+     * The key of a glyph.  The font is null for the characters of
+     * {@link #get(char)} and {@link #put(char,Value)}.
+     */
+    protected static final class Key {
+
+        protected final Font font;
+
+        protected final int glyphCode;
+
+        protected final int hash;
+
+        public Key(Font font, int glyphCode) {
+            this.font = font;
+            this.glyphCode = glyphCode;
+            this.hash = ((font == null) ? 0 : font.hashCode()) * 31
+                + glyphCode;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key)o;
+            return (glyphCode == k.glyphCode) &&
+                ((font == null) ? (k.font == null) : font.equals(k.font));
         }
     }
 
@@ -204,6 +325,11 @@ public class AWTGlyphGeometryCache {
         protected Rectangle2D gmB;
         protected Rectangle2D outlineBounds;
 
+        /**
+         * The estimated size of this value, in bytes.
+         */
+        protected long bytes;
+
         /**
          * Constructs a new Value with the specified parameter.
          */
@@ -211,6 +337,7 @@ public class AWTGlyphGeometryCache {
             this.outline = outline;
             this.outlineBounds = outline.getBounds2D();
             this.gmB = gmB;
+            this.bytes = estimateBytes(outline);
         }
 
         /**
@@ -233,43 +360,32 @@ public class AWTGlyphGeometryCache {
         public Rectangle2D getOutlineBounds2D() {
             return outlineBounds;
         }
-    }
-
-    /**
-     * To manage collisions
-     */
-    protected class Entry extends SoftReference {
-
-        /**
-         * The hash code
-         */
-        public int hash;
-
-        /**
-         * The character
-         */
-        public char c;
-
-        /**
-         * The next entry
-         */
-        public Entry next;
-
-        /**
-         * Creates a new entry
-         */
-        public Entry(int hash, char c, Value value, Entry next) {
-            super(value, referenceQueue);
-            this.hash  = hash;
-            this.c  = c;
-            this.next  = next;
-        }
 
         /**
-         * Whether this entry match the given keys.
+         * Returns an estimate of the memory used by this value: a
+         * segment type byte and up to six double coordinates for each
+         * path segment, plus the objects themselves and the cache entry.
          */
-        public boolean match(char o2) {
-            return (c == o2);
+        protected static long estimateBytes(Shape outline) {
+            long n = 256;
+            double [] coords = new double[6];
+            for (PathIterator pi = outline.getPathIterator(null);
+                 !pi.isDone(); pi.next()) {
+                switch (pi.currentSegment(coords)) {
+                case PathIterator.SEG_CUBICTO:
+                    n += 1 + 6 * 8;
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    n += 1 + 4 * 8;
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    n += 1;
+                    break;
+                default:
+                    n += 1 + 2 * 8;
+                }
+            }
+            return n;
         }
     }
 }
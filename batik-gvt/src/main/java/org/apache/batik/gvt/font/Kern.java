@@ -160,6 +160,29 @@ public class Kern {
         return false;
     }
 
+    /**
+     * Returns the sorted glyph codes of the first glyphs, or null.
+     */
+    int[] getFirstGlyphCodes() {
+        return firstGlyphCodes;
+    }
+
+    /**
+     * Returns the sorted glyph codes of the second glyphs, or null.
+     */
+    int[] getSecondGlyphCodes() {
+        return secondGlyphCodes;
+    }
+
+    /**
+     * Returns true if this kerning entry has unicode ranges for the
+     * first or the second glyphs.
+     */
+    boolean hasUnicodeRanges() {
+        return firstUnicodeRanges.length > 0
+            || secondUnicodeRanges.length > 0;
+    }
+
     /**
      * Returns the kerning adjustment value for this kerning entry (a positive
      * value means the space between characters should decrease).
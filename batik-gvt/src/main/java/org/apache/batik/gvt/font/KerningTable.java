@@ -24,13 +24,47 @@ package org.apache.batik.gvt.font;
  * elements). It provides a more convenient method of looking up kerning values
  * when laying out glyphs.
  *
+ * <p>The pairs of glyph codes of the entries are compiled into a hash
+ * table from the pair to the kerning value, so looking up a pair doesn't
+ * depend on the number of entries.  Only the entries with unicode ranges
+ * are tested one by one.
+ *
  * @author <a href="mailto:dean.jackson@cmis.csiro.au">Dean Jackson</a>
  * @version $Id$ 
  */
 public class KerningTable {
 
+    /**
+     * Entries with more glyph pairs than this are tested one by one
+     * rather than put in the hash table.
+     */
+    private static final int MAX_ENTRY_PAIRS = 16384;
+
+    private static final int [] NO_ENTRIES = new int[0];
+
     private Kern[] entries;
 
+    /**
+     * The glyph pairs, (first &lt;&lt; 32) | second.
+     */
+    private long[] pairKeys;
+
+    /**
+     * The kerning value of each pair.
+     */
+    private float[] pairValues;
+
+    /**
+     * The index + 1 of the entry each pair comes from, 0 for free
+     * slots.
+     */
+    private int[] pairEntries;
+
+    /**
+     * The indices of the entries tested one by one, in increasing order.
+     */
+    private int[] scannedEntries = NO_ENTRIES;
+
     /**
      * Creates a KerningTable from an array of Kern entries.
      *
@@ -39,6 +73,86 @@ public class KerningTable {
      */
     public KerningTable(Kern[] entries) {
         this.entries = entries;
+
+        long numPairs = 0;
+        int numScanned = 0;
+        boolean[] scanned = new boolean[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            Kern e = entries[i];
+            int[] first = e.getFirstGlyphCodes();
+            int[] second = e.getSecondGlyphCodes();
+            long n = (first == null || second == null)
+                ? 0 : (long)first.length * second.length;
+            if (n > MAX_ENTRY_PAIRS) {
+                n = 0;
+                scanned[i] = true;
+            } else {
+                scanned[i] = e.hasUnicodeRanges();
+            }
+            numPairs += n;
+            if (scanned[i]) {
+                numScanned++;
+            }
+        }
+
+        if (numScanned > 0) {
+            scannedEntries = new int[numScanned];
+            for (int i = 0, j = 0; i < entries.length; i++) {
+                if (scanned[i]) {
+                    scannedEntries[j++] = i;
+                }
+            }
+        }
+        if (numPairs == 0) {
+            return;
+        }
+
+        int size = 16;
+        while (size < numPairs * 2) {
+            size <<= 1;
+        }
+        pairKeys = new long[size];
+        pairValues = new float[size];
+        pairEntries = new int[size];
+        for (int i = 0; i < entries.length; i++) {
+            Kern e = entries[i];
+            int[] first = e.getFirstGlyphCodes();
+            int[] second = e.getSecondGlyphCodes();
+            if (first == null || second == null
+                || (long)first.length * second.length > MAX_ENTRY_PAIRS) {
+                continue;
+            }
+            for (int f : first) {
+                for (int s : second) {
+                    long key = pairKey(f, s);
+                    int slot = findSlot(key);
+                    if (pairEntries[slot] == 0) {
+                        // The first entry for a pair wins.
+                        pairKeys[slot] = key;
+                        pairValues[slot] = e.getAdjustValue();
+                        pairEntries[slot] = i + 1;
+                    }
+                }
+            }
+        }
+    }
+
+    private static long pairKey(int glyphCode1, int glyphCode2) {
+        return ((long)glyphCode1 << 32) | (glyphCode2 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the slot of the given pair, or the free slot where it
+     * would go.
+     */
+    private int findSlot(long key) {
+        int mask = pairKeys.length - 1;
+        int h = (int)(key ^ (key >>> 32)) * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (pairEntries[slot] != 0 && pairKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
     }
 
     /**
@@ -57,12 +171,26 @@ public class KerningTable {
                                  int glyphCode2,
                                  String glyphUnicode1, 
                                  String glyphUnicode2) {
-        for (Kern entry : entries) {
-            if (entry.matchesFirstGlyph(glyphCode1, glyphUnicode1) &&
-                    entry.matchesSecondGlyph(glyphCode2, glyphUnicode2)) {
-                return entry.getAdjustValue();
+        int entry = entries.length;
+        float value = 0f;
+        if (pairKeys != null) {
+            int slot = findSlot(pairKey(glyphCode1, glyphCode2));
+            if (pairEntries[slot] != 0) {
+                entry = pairEntries[slot] - 1;
+                value = pairValues[slot];
+            }
+        }
+        // An earlier entry with unicode ranges takes precedence.
+        for (int i : scannedEntries) {
+            if (i >= entry) {
+                break;
+            }
+            Kern e = entries[i];
+            if (e.matchesFirstGlyph(glyphCode1, glyphUnicode1) &&
+                    e.matchesSecondGlyph(glyphCode2, glyphUnicode2)) {
+                return e.getAdjustValue();
             }
         }
-        return 0f;
+        return value;
     }
 }
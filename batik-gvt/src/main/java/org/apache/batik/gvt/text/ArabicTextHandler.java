@@ -20,6 +20,7 @@ package org.apache.batik.gvt.text;
 
 import java.text.AttributedCharacterIterator;
 import java.text.AttributedString;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 
@@ -50,6 +51,38 @@ public final class ArabicTextHandler {
     private static final Integer ARABIC_MEDIAL =
         GVTAttributedCharacterIterator.TextAttribute.ARABIC_MEDIAL;
 
+    private static final int FORM_NONE = ARABIC_NONE;
+    private static final int FORM_ISOLATED = ARABIC_ISOLATED;
+    private static final int FORM_TERMINAL = ARABIC_TERMINAL;
+    private static final int FORM_INITIAL = ARABIC_INITIAL;
+    private static final int FORM_MEDIAL = ARABIC_MEDIAL;
+
+    /**
+     * The arabic form attribute values, by form.
+     */
+    private static final Integer[] FORMS = {
+        ARABIC_NONE, ARABIC_ISOLATED, ARABIC_TERMINAL,
+        ARABIC_INITIAL, ARABIC_MEDIAL
+    };
+
+    // The flags of the arabic chars.
+    private static final int TRANSPARENT     = 0x1;
+    private static final int SHAPES_RIGHT    = 0x2;
+    private static final int SHAPES_LEFT     = 0x4;
+    private static final int STARTS_LIGATURE = 0x8;
+
+    /**
+     * The flags of each char from arabicStart to arabicEnd.
+     */
+    private static final byte[] charFlags =
+        new byte[arabicEnd - arabicStart + 1];
+
+    static {
+        for (int c = arabicStart; c <= arabicEnd; c++) {
+            charFlags[c - arabicStart] = computeCharFlags(c);
+        }
+    }
+
     /**
      * private ctor prevents unnecessary instantiation of this class.
      */
@@ -73,165 +106,288 @@ public final class ArabicTextHandler {
             return as;
         }
 
-        // if the string contains any ligatures with transparent chars
-        // eg. AtB where AB form a ligature and t is transparent, then
-        // reorder that part of the string so that it becomes tAB
-        // construct the reordered ACI
         AttributedCharacterIterator aci = as.getIterator();
-        int numChars = aci.getEndIndex() - aci.getBeginIndex();
-        int[] charOrder = null;
-        if (numChars >= 3) {
-            char prevChar = aci.first();
-            char c        = aci.next();
-            int  i        = 1;
-            for (char nextChar = aci.next();
-                 nextChar != AttributedCharacterIterator.DONE;
-                 prevChar = c, c = nextChar, nextChar = aci.next(), i++) {
-                if (arabicCharTransparent(c)) {
-                    if (hasSubstitute(prevChar, nextChar)) {
-                        // found a ligature, separated by a transparent char
-                        if (charOrder == null) {
-                            charOrder = new int[numChars];
-                            for (int j = 0; j < numChars; j++) {
-                                charOrder[j] = j + aci.getBeginIndex();
-                            }
-                        }
-                        int temp = charOrder[i];
-                        charOrder[i] = charOrder[i-1];
-                        charOrder[i-1] = temp;
-                    }
+        char[] chars = getChars(aci);
+        Shaping shaping = getShaping(chars);
+
+        if (shaping.charOrder != null) {
+            // need to reconstruct the reordered attributed string
+            as = new AttributedString
+                (reorder(aci, chars, shaping.charOrder).getIterator());
+        }
+
+        // set the form of each run of chars with the same form
+        byte[] forms = shaping.forms;
+        int start = 0;
+        for (int i = 1; i <= forms.length; i++) {
+            if (i == forms.length || forms[i] != forms[start]) {
+                if (forms[start] >= 0) {
+                    as.addAttribute(ARABIC_FORM, FORMS[forms[start]],
+                                    start, i);
                 }
+                start = i;
             }
         }
+        return as;
+    }
+
+    /**
+     * If the AttributedCharArray contains any arabic chars, assigns an
+     * arabic form attribute, i&#x2e;e&#x2e; initial|medial|terminal|isolated,
+     * to each arabic char.  This is the same as {@link
+     * #assignArabicForms(AttributedString)}, but the forms are added in
+     * a single pass over the runs of the text.
+     *
+     * @param as The text to attach the arabic form attributes to.
+     * @return The given text, or a reordered copy of it, with arabic form
+     * attributes.
+     */
+    public static AttributedCharArray assignArabicForms(AttributedCharArray as) {
+        int numChars = as.length();
+        char[] chars = new char[numChars];
+        boolean arabic = false;
+        for (int i = 0; i < numChars; i++) {
+            chars[i] = as.charAt(i);
+            arabic |= arabicChar(chars[i]);
+        }
+        if (!arabic) {
+            return as;
+        }
+
+        Shaping shaping = getShaping(chars);
+        int[] charOrder = shaping.charOrder;
 
         if (charOrder != null) {
-            // need to reconstruct the reordered attributed string
-            StringBuffer reorderedString = new StringBuffer(numChars);
-            char c;
-            for (int i = 0; i < numChars; i++) {
-                c = aci.setIndex(charOrder[i]);
-                reorderedString.append( c );
-            }
-            AttributedString reorderedAS;
-            reorderedAS = new AttributedString(reorderedString.toString());
+            // need to reconstruct the reordered text
+            as = reorder(as.getIterator(), chars, charOrder);
+        }
 
-            for (int i = 0; i < numChars; i++) {
-                aci.setIndex(charOrder[i]);
-                Map attributes = aci.getAttributes();
-                reorderedAS.addAttributes(attributes, i, i+1);
+        // set the form of each run of chars with the same form
+        byte[] forms = shaping.forms;
+        Object[] values = new Object[numChars];
+        int[] limits = new int[numChars];
+        int count = 0;
+        for (int i = 1; i <= numChars; i++) {
+            if (i == numChars || forms[i] != forms[i-1]) {
+                byte form = forms[i-1];
+                values[count] = (form >= 0) ? FORMS[form] : null;
+                limits[count] = i;
+                count++;
             }
+        }
+        as.addAttributeRuns(ARABIC_FORM, values, limits, count);
+        return as;
+    }
 
-            if (charOrder[0] != aci.getBeginIndex()) {
-                // have swapped the first char. Need to move
-                // any position attributes
-
-                aci.setIndex(charOrder[0]);
-                Float x = (Float) aci.getAttribute(
-                    GVTAttributedCharacterIterator.TextAttribute.X);
-                Float y = (Float) aci.getAttribute(
-                    GVTAttributedCharacterIterator.TextAttribute.Y);
-
-                if (x != null && !x.isNaN()) {
-                    reorderedAS.addAttribute
-                        (GVTAttributedCharacterIterator.TextAttribute.X,
-                                Float.NaN, charOrder[0], charOrder[0]+1);
-                    reorderedAS.addAttribute
-                        (GVTAttributedCharacterIterator.TextAttribute.X,
-                         x, 0, 1);
-                }
-                if (y != null && !y.isNaN()) {
-                    reorderedAS.addAttribute
-                        (GVTAttributedCharacterIterator.TextAttribute.Y,
-                                Float.NaN, charOrder[0], charOrder[0]+1);
-                    reorderedAS.addAttribute
-                        (GVTAttributedCharacterIterator.TextAttribute.Y,
-                         y, 0, 1);
-                }
+    /**
+     * Returns a copy of the given text with its chars in the given
+     * order.  If the first char was moved, its position attributes are
+     * moved to the new first char.
+     *
+     * @param aci The text, starting at index 0.
+     * @param chars The chars of the text.
+     * @param charOrder The index in the text of each char of the copy.
+     */
+    private static AttributedCharArray reorder(AttributedCharacterIterator aci,
+                                               char[] chars,
+                                               int[] charOrder) {
+        int numChars = charOrder.length;
+        char[] reordered = new char[numChars];
+        for (int i = 0; i < numChars; i++) {
+            reordered[i] = chars[charOrder[i]];
+        }
+        AttributedCharArray reorderedAS
+            = new AttributedCharArray(new String(reordered));
+        for (int i = 0; i < numChars; i++) {
+            aci.setIndex(charOrder[i]);
+            reorderedAS.addAttributes(aci.getAttributes(), i, i+1);
+        }
+
+        if (charOrder[0] != 0) {
+            // have swapped the first char. Need to move
+            // any position attributes
+            aci.setIndex(charOrder[0]);
+            Float x = (Float) aci.getAttribute(
+                GVTAttributedCharacterIterator.TextAttribute.X);
+            Float y = (Float) aci.getAttribute(
+                GVTAttributedCharacterIterator.TextAttribute.Y);
+
+            if (x != null && !x.isNaN()) {
+                reorderedAS.addAttribute
+                    (GVTAttributedCharacterIterator.TextAttribute.X,
+                     Float.NaN, charOrder[0], charOrder[0] + 1);
+                reorderedAS.addAttribute
+                    (GVTAttributedCharacterIterator.TextAttribute.X,
+                     x, 0, 1);
+            }
+            if (y != null && !y.isNaN()) {
+                reorderedAS.addAttribute
+                    (GVTAttributedCharacterIterator.TextAttribute.Y,
+                     Float.NaN, charOrder[0], charOrder[0] + 1);
+                reorderedAS.addAttribute
+                    (GVTAttributedCharacterIterator.TextAttribute.Y,
+                     y, 0, 1);
             }
-            as = reorderedAS;
         }
+        return reorderedAS;
+    }
 
-        // first assign none to all arabic letters
-        aci = as.getIterator();
-        int runStart = -1;
-        int idx = aci.getBeginIndex();
-        for (int c = aci.first();
-             c != AttributedCharacterIterator.DONE;
-             c = aci.next(), idx++) {
-            if ((c >= arabicStart) && (c <= arabicEnd)) {
-                if (runStart == -1)
-                    runStart = idx;
-            } else if (runStart != -1) {
-                as.addAttribute(ARABIC_FORM, ARABIC_NONE, runStart, idx);
-                runStart = -1;
+    /**
+     * The shaping of a string: the order of its chars once the
+     * ligatures separated by a transparent char are brought together,
+     * and the arabic form of each char in that order.
+     */
+    private static final class Shaping {
+
+        /**
+         * The index in the string of each char of the reordered
+         * string, or null if no chars were moved.
+         */
+        final int[] charOrder;
+
+        /**
+         * The form of each char of the reordered string, -1 for the
+         * chars which are not arabic.
+         */
+        final byte[] forms;
+
+        Shaping(int[] charOrder, byte[] forms) {
+            this.charOrder = charOrder;
+            this.forms = forms;
+        }
+    }
+
+    /**
+     * The maximum number of strings whose shaping is cached.
+     */
+    private static final int MAX_CACHED_SHAPINGS = 512;
+
+    /**
+     * The shapings of the strings laid out recently, by string.  The
+     * same labels are typically laid out again and again in dynamic
+     * documents.
+     */
+    private static final Map shapingCache =
+        new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > MAX_CACHED_SHAPINGS;
             }
+        };
+
+    /**
+     * Returns the chars of the given iterator.
+     */
+    private static char[] getChars(AttributedCharacterIterator aci) {
+        char[] chars = new char[aci.getEndIndex() - aci.getBeginIndex()];
+        int i = 0;
+        for (char c = aci.first();
+             c != AttributedCharacterIterator.DONE;
+             c = aci.next()) {
+            chars[i++] = c;
         }
-        if (runStart != -1)
-            as.addAttribute(ARABIC_FORM, ARABIC_NONE, runStart, idx);
-
-        aci = as.getIterator();  // Make sure ACI tracks ARABIC_FORM
-        int end   = aci.getBeginIndex();
-
-        Integer currentForm = ARABIC_NONE;
-        // for each run of arabic chars, assign the appropriate form
-        while (aci.setIndex(end) != AttributedCharacterIterator.DONE) {
-            int start = aci.getRunStart(ARABIC_FORM);
-            end       = aci.getRunLimit(ARABIC_FORM);
-            char currentChar = aci.setIndex(start);
-            currentForm      = (Integer)aci.getAttribute(ARABIC_FORM);
-
-            if (currentForm == null) {
-                // only modify if the chars in the run are arabic
-                continue;
+        return chars;
+    }
+
+    /**
+     * Returns the shaping of the given chars, from the cache if
+     * possible.
+     */
+    private static Shaping getShaping(char[] chars) {
+        String key = new String(chars);
+        Shaping shaping;
+        synchronized (shapingCache) {
+            shaping = (Shaping) shapingCache.get(key);
+        }
+        if (shaping == null) {
+            shaping = computeShaping(chars);
+            synchronized (shapingCache) {
+                shapingCache.put(key, shaping);
             }
+        }
+        return shaping;
+    }
 
+    /**
+     * Computes the shaping of the given chars.
+     */
+    private static Shaping computeShaping(char[] chars) {
+        int numChars = chars.length;
 
-            int currentIndex = start;
-            int prevCharIndex = start-1;
-            while (currentIndex < end) {
-                char prevChar = currentChar;
-                currentChar=  aci.setIndex(currentIndex);
-                while (arabicCharTransparent(currentChar) &&
-                       (currentIndex < end)) {
-                    currentIndex++;
-                    currentChar = aci.setIndex(currentIndex);
-                }
-                if (currentIndex >= end) {
-                    break;
+        // if the string contains any ligatures with transparent chars
+        // eg. AtB where AB form a ligature and t is transparent, then
+        // reorder that part of the string so that it becomes tAB
+        int[] charOrder = null;
+        for (int i = 1; i < numChars - 1; i++) {
+            if (arabicCharTransparent(chars[i])
+                && hasSubstitute(chars[i-1], chars[i+1])) {
+                // found a ligature, separated by a transparent char
+                if (charOrder == null) {
+                    charOrder = new int[numChars];
+                    for (int j = 0; j < numChars; j++) {
+                        charOrder[j] = j;
+                    }
                 }
+                int temp = charOrder[i];
+                charOrder[i] = charOrder[i-1];
+                charOrder[i-1] = temp;
+            }
+        }
+        char[] text = chars;
+        if (charOrder != null) {
+            text = new char[numChars];
+            for (int i = 0; i < numChars; i++) {
+                text[i] = chars[charOrder[i]];
+            }
+        }
 
-                Integer prevForm = currentForm;
-                currentForm = ARABIC_NONE;
-                if (prevCharIndex >= start) {  // if not at the start
+        // for each run of arabic chars, assign the appropriate form,
+        // the other chars get none
+        byte[] forms = new byte[numChars];
+        int end = 0;
+        while (end < numChars) {
+            int start = end;
+            if (!arabicChar(text[start])) {
+                forms[start] = -1;
+                end++;
+                continue;
+            }
+            while (end < numChars && arabicChar(text[end])) {
+                end++;
+            }
+
+            int currentForm = FORM_NONE;
+            int prevCharIndex = -1;
+            for (int i = start; i < end; i++) {
+                int flags = getCharFlags(text[i]);
+                if ((flags & TRANSPARENT) != 0) {
+                    continue;
+                }
+                int prevForm = currentForm;
+                currentForm = FORM_NONE;
+                if (prevCharIndex != -1) {  // if not at the start
                     // if prev char right AND current char left
-                    if (arabicCharShapesRight(prevChar)
-                        && arabicCharShapesLeft(currentChar)) {
+                    if ((getCharFlags(text[prevCharIndex]) & SHAPES_RIGHT) != 0
+                        && (flags & SHAPES_LEFT) != 0) {
                         // Increment the form of the previous char
-                        prevForm = prevForm + 1;
-                        as.addAttribute(ARABIC_FORM, prevForm,
-                                        prevCharIndex, prevCharIndex+1);
-
+                        forms[prevCharIndex] = (byte) (prevForm + 1);
                         // and set the form of the current char to INITIAL
-                        currentForm = ARABIC_INITIAL;
-                    } else if (arabicCharShaped(currentChar)) {
+                        currentForm = FORM_INITIAL;
+                    } else if ((flags & SHAPES_RIGHT) != 0) {
                         // set the form of the current char to ISOLATE
-                        currentForm = ARABIC_ISOLATED;
+                        currentForm = FORM_ISOLATED;
                     }
 
                     // if this is the first arabic char and its
                     // shaped, set to ISOLATE
-                } else if (arabicCharShaped(currentChar)) {
+                } else if ((flags & SHAPES_RIGHT) != 0) {
                     // set the form of the current char to ISOLATE
-                    currentForm = ARABIC_ISOLATED;
+                    currentForm = FORM_ISOLATED;
                 }
-                if (currentForm != ARABIC_NONE)
-                    as.addAttribute(ARABIC_FORM, currentForm,
-                                    currentIndex, currentIndex+1);
-                prevCharIndex = currentIndex;
-                currentIndex++;
+                forms[i] = (byte) currentForm;
+                prevCharIndex = i;
             }
         }
-        return as;
+        return new Shaping(charOrder, forms);
     }
 
     /**
@@ -276,64 +432,32 @@ public final class ArabicTextHandler {
     }
 
     /**
-     * Returns true if the char is transparent.
-     *
-     * @param c The character to test.
-     * @return True if the character is transparent, false otherwise.
+     * Returns the flags of the given char, 0 if it is not arabic.
      */
-    public static boolean arabicCharTransparent(char c) {
-        int charVal = c;
-        if ((charVal  < 0x064B) || (charVal > 0x06ED))
-            return false;
-
-        if ((charVal <= 0x0655)                      ||
-            (charVal == 0x0670)                      ||
-            (charVal >= 0x06D6 && charVal <= 0x06E4) ||
-            (charVal >= 0x06E7 && charVal <= 0x06E8) ||
-            (charVal >= 0x06EA)) {
-            return true;
+    private static int getCharFlags(char c) {
+        if (c < arabicStart || c > arabicEnd) {
+            return 0;
         }
-        return false;
+        return charFlags[c - arabicStart];
     }
 
     /**
-     * Returns true if the character shapes to the right. Note that duel
-     * shaping characters also shape to the right and so will return true.
-     *
-     * @param c The character to test.
-     * @return True if the character shapes to the right, false otherwise.
+     * Computes the flags of the given arabic char.
      */
-    private static boolean arabicCharShapesRight(char c) {
-        int charVal = c;
-        if ((charVal >= 0x0622 && charVal <= 0x0625)
-         || (charVal == 0x0627)
-         || (charVal == 0x0629)
-         || (charVal >= 0x062F && charVal <= 0x0632)
-         || (charVal == 0x0648)
-         || (charVal >= 0x0671 && charVal <= 0x0673)
-         || (charVal >= 0x0675 && charVal <= 0x0677)
-         || (charVal >= 0x0688 && charVal <= 0x0699)
-         || (charVal == 0x06C0)
-         || (charVal >= 0x06C2 && charVal <= 0x06CB)
-         || (charVal == 0x06CD)
-         || (charVal == 0x06CF)
-         || (charVal >= 0x06D2 && charVal <= 0x06D3)
-         // check for duel shaping too
-         || arabicCharShapesDuel(c)) {
-            return true;
+    private static byte computeCharFlags(int charVal) {
+        int flags = 0;
+
+        // transparent chars
+        if ((charVal >= 0x064B && charVal <= 0x0655)
+         || (charVal == 0x0670)
+         || (charVal >= 0x06D6 && charVal <= 0x06E4)
+         || (charVal >= 0x06E7 && charVal <= 0x06E8)
+         || (charVal >= 0x06EA && charVal <= 0x06ED)) {
+            flags |= TRANSPARENT;
         }
-        return false;
-    }
-
-    /**
-     * Returns true if character has duel shaping.
-     *
-     * @param c The character to test.
-     * @return True if the character is duel shaping, false otherwise.
-     */
-    private static boolean arabicCharShapesDuel(char c) {
-        int charVal = c;
 
+        // chars with duel shaping, they shape both to the left and
+        // to the right
         if ((charVal == 0x0626)
          || (charVal == 0x0628)
          || (charVal >= 0x062A && charVal <= 0x062E)
@@ -347,30 +471,43 @@ public final class ArabicTextHandler {
          || (charVal == 0x6CE)
          || (charVal >= 0x06D0 && charVal <= 0x06D1)
          || (charVal >= 0x06FA && charVal <= 0x06FC)) {
-            return true;
+            flags |= SHAPES_LEFT | SHAPES_RIGHT;
         }
-        return false;
-    }
 
-    /**
-     * Returns true if character shapes to the left. Note that duel
-     * shaping characters also shape to the left and so will return true.
-     *
-     * @param c The character to test.
-     * @return True if the character shapes to the left, false otherwise.
-     */
-    private static boolean arabicCharShapesLeft(char c) {
-        return arabicCharShapesDuel(c);
+        // chars which only shape to the right
+        if ((charVal >= 0x0622 && charVal <= 0x0625)
+         || (charVal == 0x0627)
+         || (charVal == 0x0629)
+         || (charVal >= 0x062F && charVal <= 0x0632)
+         || (charVal == 0x0648)
+         || (charVal >= 0x0671 && charVal <= 0x0673)
+         || (charVal >= 0x0675 && charVal <= 0x0677)
+         || (charVal >= 0x0688 && charVal <= 0x0699)
+         || (charVal == 0x06C0)
+         || (charVal >= 0x06C2 && charVal <= 0x06CB)
+         || (charVal == 0x06CD)
+         || (charVal == 0x06CF)
+         || (charVal >= 0x06D2 && charVal <= 0x06D3)) {
+            flags |= SHAPES_RIGHT;
+        }
+
+        // chars which start a ligature
+        if ((charVal >= 0x064B && charVal <= 0x0652)
+         || (charVal == 0x0622) || (charVal == 0x0623)
+         || (charVal == 0x0625) || (charVal == 0x0627)) {
+            flags |= STARTS_LIGATURE;
+        }
+        return (byte) flags;
     }
 
     /**
-     * Returns true if character is shaped.
+     * Returns true if the char is transparent.
      *
      * @param c The character to test.
-     * @return True if the character is shaped, false otherwise.
+     * @return True if the character is transparent, false otherwise.
      */
-    private static boolean arabicCharShaped(char c) {
-        return arabicCharShapesRight(c);
+    public static boolean arabicCharTransparent(char c) {
+        return (getCharFlags(c) & TRANSPARENT) != 0;
     }
 
     public static boolean hasSubstitute(char ch1, char ch2) {
@@ -435,65 +572,72 @@ public final class ArabicTextHandler {
         int start = aci.getBeginIndex();
         int end   = aci.getEndIndex();
         int numChar = end-start;
-        StringBuffer substString = new StringBuffer(numChar);
-        for (int i=start; i< end; i++) {
-            char c = aci.setIndex(i);
+
+        // read the chars, and the form of each run of chars
+        char[] chars = getChars(aci);
+        int[] forms = new int[numChar];
+        int i = start;
+        while (i < end) {
+            aci.setIndex(i);
+            Integer form = (Integer)aci.getAttribute(ARABIC_FORM);
+            int limit = Math.min(aci.getRunLimit(ARABIC_FORM), end);
+            int f = (form != null) ? form : -1;
+            for (int j = i; j < limit; j++) {
+                forms[j-start] = f;
+            }
+            i = limit;
+        }
+
+        char[] substChars = new char[numChar];
+        int n = 0;
+        for (i = 0; i < numChar; i++) {
+            char c = chars[i];
             if (!arabicChar(c)) {
-                substString.append(c);
+                substChars[n++] = c;
                 continue;
             }
 
-            Integer form = (Integer)aci.getAttribute(ARABIC_FORM);
+            int form = forms[i];
             // see if the c is the start of a ligature
-            if (charStartsLigature(c) && (i+1 < end)) {
-                char nextChar = aci.setIndex(i+1);
-                Integer nextForm = (Integer)aci.getAttribute(ARABIC_FORM);
-                if (form != null && nextForm != null) {
-                    if (form.equals(ARABIC_TERMINAL)
-                        && nextForm.equals(ARABIC_INITIAL)) {
+            if (charStartsLigature(c) && (i+1 < numChar)) {
+                char nextChar = chars[i+1];
+                int nextForm = forms[i+1];
+                if (form != -1 && nextForm != -1) {
+                    int substChar = -1;
+                    if (form == FORM_TERMINAL && nextForm == FORM_INITIAL) {
                         // look for an isolated ligature
-                        int substChar = ArabicTextHandler.getSubstituteChar
-                            (c, nextChar, ARABIC_ISOLATED);
-                        if (substChar > -1) {
-                            substString.append((char)substChar);
-                            i++;
-                            continue;
-                        }
-                    } else if (form.equals(ARABIC_TERMINAL)) {
+                        substChar = getSubstituteChar
+                            (c, nextChar, FORM_ISOLATED);
+                    } else if (form == FORM_TERMINAL) {
                         // look for a terminal ligature
-                        int substChar = ArabicTextHandler.getSubstituteChar
-                            (c, nextChar, ARABIC_TERMINAL);
-                        if (substChar > -1) {
-                            substString.append((char)substChar);
-                            i++;
-                            continue;
-                        }
-                    } else if (form.equals(ARABIC_MEDIAL)
-                               && nextForm.equals(ARABIC_MEDIAL)) {
+                        substChar = getSubstituteChar
+                            (c, nextChar, FORM_TERMINAL);
+                    } else if (form == FORM_MEDIAL
+                               && nextForm == FORM_MEDIAL) {
                         // look for a medial ligature
-                        int substChar = ArabicTextHandler.getSubstituteChar
-                            (c, nextChar, ARABIC_MEDIAL);
-                        if (substChar > -1) {
-                            substString.append((char)substChar);
-                            i++;
-                            continue;
-                        }
+                        substChar = getSubstituteChar
+                            (c, nextChar, FORM_MEDIAL);
+                    }
+                    if (substChar > -1) {
+                        substChars[n++] = (char)substChar;
+                        i++;
+                        continue;
                     }
                 }
             }
 
             // couldn't find a matching ligature so just look for a
             // simple substitution
-            if (form != null && form > 0) {
+            if (form > 0) {
                 int substChar = getSubstituteChar(c, form);
                 if (substChar > -1) {
                     c = (char)substChar;
                 }
             }
-            substString.append(c);
+            substChars[n++] = c;
         }
 
-        return substString.toString();
+        return new String(substChars, 0, n);
     }
 
     /**
@@ -504,14 +648,7 @@ public final class ArabicTextHandler {
      * @return True if there is a ligature that starts with c, false otherwise.
      */
     public static boolean charStartsLigature(char c) {
-        int charVal = c;
-        if (charVal == 0x064B || charVal == 0x064C || charVal == 0x064D
-         || charVal == 0x064E || charVal == 0x064F || charVal == 0x0650
-         || charVal == 0x0651 || charVal == 0x0652 || charVal == 0x0622
-         || charVal == 0x0623 || charVal == 0x0625 || charVal == 0x0627) {
-            return true;
-        }
-        return false;
+        return (getCharFlags(c) & STARTS_LIGATURE) != 0;
     }
 
     /**
@@ -620,6 +757,12 @@ public final class ArabicTextHandler {
 
         null,                                          // 0x0628
         null,                                          // 0x0629
+        null,                                          // 0x062A
+        null,                                          // 0x062B
+        null,                                          // 0x062C
+        null,                                          // 0x062D
+        null,                                          // 0x062E
+        null,                                          // 0x062F
         null,                                          // 0x0630
         null,                                          // 0x0631
         null,                                          // 0x0632
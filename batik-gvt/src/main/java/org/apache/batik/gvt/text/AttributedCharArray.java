@@ -0,0 +1,753 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.text;
+
+import java.text.AttributedCharacterIterator;
+import java.text.CharacterIterator;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact attributed string: an array of characters with a list of
+ * attribute runs.  Each run is described by its start index and an
+ * immutable attribute map which is shared between all the runs, and
+ * all the copies, with the same attributes.
+ *
+ * <p>This class is used in place of <code>java.text.AttributedString</code>
+ * by the text layout code, which walks the text many times with
+ * getAttribute and getRunLimit.  Its iterators answer those calls from
+ * the current run without building any map, and copying text from one
+ * of them shares the attribute maps instead of rebuilding them.
+ *
+ * <p>Unlike AttributedString, null attribute values are not stored:
+ * adding a null value removes the attribute.
+ *
+ * @version $Id$
+ */
+public class AttributedCharArray {
+
+    /**
+     * The characters.
+     */
+    protected char[] chars;
+
+    /**
+     * The number of runs.
+     */
+    protected int runCount;
+
+    /**
+     * The index of the first character of each run.
+     */
+    protected int[] runStarts;
+
+    /**
+     * The attributes of each run.
+     */
+    protected RunMap[] runAttributes;
+
+    /**
+     * The number of changes made to the runs, so the iterators know
+     * when their current run must be looked up again.
+     */
+    protected int modCount;
+
+    /**
+     * Creates a new AttributedCharArray with no attributes.
+     */
+    public AttributedCharArray(String text) {
+        chars = text.toCharArray();
+        runStarts = new int[4];
+        runAttributes = new RunMap[4];
+        if (chars.length > 0) {
+            appendRun(0, RunMap.EMPTY);
+        }
+    }
+
+    /**
+     * Creates a new AttributedCharArray with the characters and the
+     * attributes of the given iterator.  The indices of the new text
+     * start at 0.  Attributes with a null key or value are dropped.
+     */
+    public AttributedCharArray(AttributedCharacterIterator aci) {
+        int begin = aci.getBeginIndex();
+        int end = aci.getEndIndex();
+        int len = end - begin;
+        chars = new char[len];
+        char c = aci.first();
+        for (int i = 0; i < len; i++, c = aci.next()) {
+            chars[i] = c;
+        }
+
+        if (aci instanceof CharArrayIterator) {
+            CharArrayIterator it = (CharArrayIterator) aci;
+            it.copyRuns(this);
+            return;
+        }
+
+        runStarts = new int[4];
+        runAttributes = new RunMap[4];
+        int index = begin;
+        while (index < end) {
+            aci.setIndex(index);
+            int limit = aci.getRunLimit();
+            RunMap m = RunMap.create(aci.getAttributes());
+            if (runCount == 0 || runAttributes[runCount - 1] != m) {
+                appendRun(index - begin, m);
+            }
+            index = limit;
+        }
+    }
+
+    /**
+     * Returns the number of characters.
+     */
+    public int length() {
+        return chars.length;
+    }
+
+    /**
+     * Returns the character at the given index.
+     */
+    public char charAt(int index) {
+        return chars[index];
+    }
+
+    /**
+     * Returns the value of the given attribute for the character at
+     * the given index, or null.
+     */
+    public Object getAttribute(AttributedCharacterIterator.Attribute attribute,
+                               int index) {
+        return runAttributes[findRun(index)].get(attribute);
+    }
+
+    /**
+     * Adds an attribute to the whole text.
+     */
+    public void addAttribute(AttributedCharacterIterator.Attribute attribute,
+                             Object value) {
+        addAttribute(attribute, value, 0, chars.length);
+    }
+
+    /**
+     * Adds an attribute to the given range of characters.
+     */
+    public void addAttribute(AttributedCharacterIterator.Attribute attribute,
+                             Object value, int start, int end) {
+        if (attribute == null) {
+            throw new NullPointerException();
+        }
+        if (start < 0 || end > chars.length || start >= end) {
+            throw new IllegalArgumentException("Invalid substring range");
+        }
+        int first = split(start);
+        int last = split(end);
+        modCount++;
+        RunMap src = null;
+        RunMap dst = null;
+        for (int r = first; r < last; r++) {
+            if (runAttributes[r] != src) {
+                src = runAttributes[r];
+                dst = src.with(attribute, value);
+            }
+            runAttributes[r] = dst;
+        }
+    }
+
+    /**
+     * Adds a set of attributes to the given range of characters.
+     */
+    public void addAttributes(Map attributes, int start, int end) {
+        if (start < 0 || end > chars.length || start > end) {
+            throw new IllegalArgumentException("Invalid substring range");
+        }
+        if (start == end) {
+            if (attributes.isEmpty()) {
+                return;
+            }
+            throw new IllegalArgumentException("Can't add attribute to 0-length text");
+        }
+        if (attributes.isEmpty()) {
+            return;
+        }
+        int first = split(start);
+        int last = split(end);
+        modCount++;
+        RunMap src = null;
+        RunMap dst = null;
+        for (int r = first; r < last; r++) {
+            if (runAttributes[r] != src) {
+                src = runAttributes[r];
+                dst = src.withAll(attributes);
+            }
+            runAttributes[r] = dst;
+        }
+    }
+
+    /**
+     * Adds an attribute with a different value to consecutive ranges
+     * of characters: values[i] is added from limits[i-1] (or 0) to
+     * limits[i].  The runs are rebuilt in a single pass, so this is
+     * linear where calling addAttribute for each range is not.
+     *
+     * @param attribute The attribute to add.
+     * @param values The value of each range.
+     * @param limits The increasing end index of each range.
+     * @param count The number of ranges.
+     */
+    public void addAttributeRuns(AttributedCharacterIterator.Attribute attribute,
+                                 Object[] values, int[] limits, int count) {
+        if (attribute == null) {
+            throw new NullPointerException();
+        }
+        if (count == 0) {
+            return;
+        }
+        if (limits[count - 1] > chars.length) {
+            throw new IllegalArgumentException("Invalid substring range");
+        }
+        int[] starts = new int[runCount + count];
+        RunMap[] atts = new RunMap[runCount + count];
+        int n = 0;
+        int r = 0;
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int limit = limits[i];
+            if (limit < start) {
+                throw new IllegalArgumentException("Invalid substring range");
+            }
+            if (limit == start) {
+                continue;
+            }
+            while (runLimit(r) <= start) {
+                r++;
+            }
+            // Copy the runs under [start, limit), splitting at both ends.
+            for (;;) {
+                if (n == starts.length) {
+                    int len = n * 2;
+                    int[] s = new int[len];
+                    RunMap[] a = new RunMap[len];
+                    System.arraycopy(starts, 0, s, 0, n);
+                    System.arraycopy(atts, 0, a, 0, n);
+                    starts = s;
+                    atts = a;
+                }
+                starts[n] = Math.max(start, runStarts[r]);
+                atts[n] = runAttributes[r].with(attribute, values[i]);
+                n++;
+                if (runLimit(r) >= limit) {
+                    break;
+                }
+                r++;
+            }
+            start = limit;
+        }
+        // The runs after the last range are unchanged.
+        if (start < chars.length) {
+            while (runLimit(r) <= start) {
+                r++;
+            }
+            int len = n + runCount - r;
+            if (len > starts.length) {
+                int[] s = new int[len];
+                RunMap[] a = new RunMap[len];
+                System.arraycopy(starts, 0, s, 0, n);
+                System.arraycopy(atts, 0, a, 0, n);
+                starts = s;
+                atts = a;
+            }
+            starts[n] = start;
+            atts[n] = runAttributes[r];
+            n++;
+            r++;
+            System.arraycopy(runStarts, r, starts, n, runCount - r);
+            System.arraycopy(runAttributes, r, atts, n, runCount - r);
+            n += runCount - r;
+        }
+        runStarts = starts;
+        runAttributes = atts;
+        runCount = n;
+        modCount++;
+    }
+
+    /**
+     * Returns an iterator over the whole text.
+     */
+    public AttributedCharacterIterator getIterator() {
+        return new CharArrayIterator(0, chars.length);
+    }
+
+    /**
+     * Returns an iterator over the given range of the text.
+     */
+    public AttributedCharacterIterator getIterator(int begin, int end) {
+        if (begin < 0 || end > chars.length || begin > end) {
+            throw new IllegalArgumentException("Invalid substring range");
+        }
+        return new CharArrayIterator(begin, end);
+    }
+
+    /**
+     * Returns the index of the run containing the given character.
+     */
+    protected int findRun(int index) {
+        int lo = 0;
+        int hi = runCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (runStarts[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the limit of the given run.
+     */
+    protected int runLimit(int run) {
+        return run + 1 < runCount ? runStarts[run + 1] : chars.length;
+    }
+
+    /**
+     * Makes sure a run starts at the given index and returns it.
+     * Returns runCount for the end of the text.
+     */
+    protected int split(int index) {
+        if (index == chars.length) {
+            return runCount;
+        }
+        int r = findRun(index);
+        if (runStarts[r] == index) {
+            return r;
+        }
+        ensureCapacity(runCount + 1);
+        System.arraycopy(runStarts, r + 1, runStarts, r + 2, runCount - r - 1);
+        System.arraycopy(runAttributes, r + 1, runAttributes, r + 2,
+                         runCount - r - 1);
+        runStarts[r + 1] = index;
+        runAttributes[r + 1] = runAttributes[r];
+        runCount++;
+        return r + 1;
+    }
+
+    /**
+     * Appends a run.
+     */
+    protected void appendRun(int start, RunMap attributes) {
+        ensureCapacity(runCount + 1);
+        runStarts[runCount] = start;
+        runAttributes[runCount] = attributes;
+        runCount++;
+    }
+
+    /**
+     * Grows the run arrays.
+     */
+    protected void ensureCapacity(int n) {
+        if (n > runStarts.length) {
+            int len = Math.max(n, runStarts.length * 2);
+            int[] starts = new int[len];
+            RunMap[] atts = new RunMap[len];
+            System.arraycopy(runStarts, 0, starts, 0, runCount);
+            System.arraycopy(runAttributes, 0, atts, 0, runCount);
+            runStarts = starts;
+            runAttributes = atts;
+        }
+    }
+
+    /**
+     * An immutable attribute map.
+     */
+    protected static final class RunMap extends AbstractMap {
+
+        /**
+         * The empty map.
+         */
+        public static final RunMap EMPTY = new RunMap(new HashMap());
+
+        private final HashMap map;
+        private final Set entries;
+
+        private RunMap(HashMap m) {
+            map = m;
+            entries = Collections.unmodifiableMap(m).entrySet();
+        }
+
+        /**
+         * Returns a RunMap with the non-null entries of the given map.
+         */
+        public static RunMap create(Map m) {
+            if (m instanceof RunMap) {
+                return (RunMap) m;
+            }
+            // Only walk the entries once, size() and isEmpty() are not
+            // cheap on the maps returned by AttributedString.
+            HashMap hm = null;
+            for (Object o : m.entrySet()) {
+                Map.Entry e = (Map.Entry) o;
+                Object k = e.getKey();
+                Object v = e.getValue();
+                if (k != null && v != null) {
+                    if (hm == null) {
+                        hm = new HashMap();
+                    }
+                    hm.put(k, v);
+                }
+            }
+            return hm == null ? EMPTY : new RunMap(hm);
+        }
+
+        /**
+         * Returns this map with the given attribute set.
+         */
+        public RunMap with(Object key, Object value) {
+            Object old = map.get(key);
+            if (old == value) {
+                return this;
+            }
+            HashMap m = new HashMap(map);
+            if (value == null) {
+                m.remove(key);
+            } else {
+                m.put(key, value);
+            }
+            return new RunMap(m);
+        }
+
+        /**
+         * Returns this map with the given attributes set.
+         */
+        public RunMap withAll(Map attributes) {
+            if (map.isEmpty()) {
+                return create(attributes);
+            }
+            HashMap m = new HashMap(map);
+            for (Object o : attributes.entrySet()) {
+                Map.Entry e = (Map.Entry) o;
+                if (e.getValue() == null) {
+                    m.remove(e.getKey());
+                } else {
+                    m.put(e.getKey(), e.getValue());
+                }
+            }
+            return new RunMap(m);
+        }
+
+        public Object get(Object key) {
+            return map.get(key);
+        }
+
+        public boolean containsKey(Object key) {
+            return map.containsKey(key);
+        }
+
+        public int size() {
+            return map.size();
+        }
+
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+
+        public Set keySet() {
+            return Collections.unmodifiableSet(map.keySet());
+        }
+
+        public Set entrySet() {
+            return entries;
+        }
+    }
+
+    /**
+     * An iterator over a range of an AttributedCharArray.
+     */
+    protected class CharArrayIterator
+        implements AttributedCharacterIterator, Cloneable {
+
+        /**
+         * The range of the iterator.
+         */
+        protected int begin;
+        protected int end;
+
+        /**
+         * The current index.
+         */
+        protected int index;
+
+        /**
+         * The current run, or -1 at the end of the iterator.
+         */
+        protected int run;
+
+        /**
+         * The range of the current run.
+         */
+        protected int runStart;
+        protected int runLimit;
+
+        /**
+         * The modCount the current run was looked up with.
+         */
+        protected int runModCount;
+
+        public CharArrayIterator(int begin, int end) {
+            this.begin = begin;
+            this.end = end;
+            setIndex(begin);
+        }
+
+        /**
+         * Copies the runs in the range of this iterator into the given
+         * text, whose characters are this iterator's.
+         */
+        protected void copyRuns(AttributedCharArray dst) {
+            dst.runStarts = new int[4];
+            dst.runAttributes = new RunMap[4];
+            if (begin == end) {
+                return;
+            }
+            int first = findRun(begin);
+            int last = findRun(end - 1);
+            dst.ensureCapacity(last - first + 1);
+            for (int r = first; r <= last; r++) {
+                dst.runStarts[r - first] = Math.max(runStarts[r] - begin, 0);
+                dst.runAttributes[r - first] = runAttributes[r];
+            }
+            dst.runCount = last - first + 1;
+        }
+
+        // CharacterIterator ///////////////////////////////////////////
+
+        public char first() {
+            return setIndex(begin);
+        }
+
+        public char last() {
+            return setIndex(end == begin ? end : end - 1);
+        }
+
+        public char current() {
+            return index == end ? CharacterIterator.DONE : chars[index];
+        }
+
+        public char next() {
+            if (index < end) {
+                return setIndex(index + 1);
+            }
+            return CharacterIterator.DONE;
+        }
+
+        public char previous() {
+            if (index > begin) {
+                return setIndex(index - 1);
+            }
+            return CharacterIterator.DONE;
+        }
+
+        public char setIndex(int position) {
+            if (position < begin || position > end) {
+                throw new IllegalArgumentException("Invalid index");
+            }
+            index = position;
+            if (position == end) {
+                run = -1;
+                runStart = runLimit = end;
+                return CharacterIterator.DONE;
+            }
+            if (run == -1 || position < runStart || position >= runLimit
+                || runModCount != modCount) {
+                run = findRun(position);
+                runModCount = modCount;
+                runStart = Math.max(runStarts[run], begin);
+                runLimit = Math.min(runLimit(run), end);
+            }
+            return chars[position];
+        }
+
+        public int getBeginIndex() {
+            return begin;
+        }
+
+        public int getEndIndex() {
+            return end;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Object clone() {
+            try {
+                return super.clone();
+            } catch (CloneNotSupportedException e) {
+                throw new InternalError();
+            }
+        }
+
+        /**
+         * Looks up the current run again if the text was modified.
+         */
+        protected void checkRun() {
+            if (runModCount != modCount && index != end) {
+                setIndex(index);
+            }
+        }
+
+        // AttributedCharacterIterator /////////////////////////////////
+
+        public int getRunStart() {
+            checkRun();
+            return runStart;
+        }
+
+        public int getRunStart(AttributedCharacterIterator.Attribute attribute) {
+            checkRun();
+            if (run == -1) {
+                return runStart;
+            }
+            RunMap m = runAttributes[run];
+            Object value = m.get(attribute);
+            int r = run;
+            while (r > 0 && runStarts[r] > begin) {
+                RunMap p = runAttributes[r - 1];
+                if (p != m && !valuesMatch(value, p.get(attribute))) {
+                    break;
+                }
+                r--;
+            }
+            return Math.max(runStarts[r], begin);
+        }
+
+        public int getRunStart(Set attributes) {
+            checkRun();
+            if (run == -1) {
+                return runStart;
+            }
+            RunMap m = runAttributes[run];
+            int r = run;
+            while (r > 0 && runStarts[r] > begin) {
+                RunMap p = runAttributes[r - 1];
+                if (p != m && !attributesMatch(attributes, m, p)) {
+                    break;
+                }
+                r--;
+            }
+            return Math.max(runStarts[r], begin);
+        }
+
+        public int getRunLimit() {
+            checkRun();
+            return runLimit;
+        }
+
+        public int getRunLimit(AttributedCharacterIterator.Attribute attribute) {
+            checkRun();
+            if (run == -1) {
+                return runLimit;
+            }
+            RunMap m = runAttributes[run];
+            Object value = m.get(attribute);
+            int r = run + 1;
+            while (r < runCount && runStarts[r] < end) {
+                RunMap n = runAttributes[r];
+                if (n != m && !valuesMatch(value, n.get(attribute))) {
+                    break;
+                }
+                r++;
+            }
+            return r < runCount ? Math.min(runStarts[r], end) : end;
+        }
+
+        public int getRunLimit(Set attributes) {
+            checkRun();
+            if (run == -1) {
+                return runLimit;
+            }
+            RunMap m = runAttributes[run];
+            int r = run + 1;
+            while (r < runCount && runStarts[r] < end) {
+                RunMap n = runAttributes[r];
+                if (n != m && !attributesMatch(attributes, m, n)) {
+                    break;
+                }
+                r++;
+            }
+            return r < runCount ? Math.min(runStarts[r], end) : end;
+        }
+
+        public Map getAttributes() {
+            checkRun();
+            return run == -1 ? RunMap.EMPTY : runAttributes[run];
+        }
+
+        public Object getAttribute(AttributedCharacterIterator.Attribute attribute) {
+            checkRun();
+            return run == -1 ? null : runAttributes[run].get(attribute);
+        }
+
+        public Set getAllAttributeKeys() {
+            Set keys = new HashSet();
+            if (begin == end) {
+                return keys;
+            }
+            int last = findRun(end - 1);
+            RunMap prev = null;
+            for (int r = findRun(begin); r <= last; r++) {
+                if (runAttributes[r] != prev) {
+                    prev = runAttributes[r];
+                    keys.addAll(prev.keySet());
+                }
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Whether the given values are equal.
+     */
+    protected static boolean valuesMatch(Object v1, Object v2) {
+        return v1 == null ? v2 == null : v1.equals(v2);
+    }
+
+    /**
+     * Whether the given maps have the same values for the given
+     * attributes.
+     */
+    protected static boolean attributesMatch(Set attributes, Map m1, Map m2) {
+        Iterator it = attributes.iterator();
+        while (it.hasNext()) {
+            Object a = it.next();
+            if (!valuesMatch(m1.get(a), m2.get(a))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -21,8 +21,6 @@ package org.apache.batik.gvt.text;
 import java.awt.font.FontRenderContext;
 import java.awt.font.TextLayout;
 import java.text.AttributedCharacterIterator;
-import java.text.AttributedString;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -42,6 +40,7 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
     private FontRenderContext frc;
     private int chunkStart;
     private int [] newCharOrder;
+    private int [] levels;
     private static final Float FLOAT_NAN = Float.NaN;
 
 
@@ -68,68 +67,55 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
     public BidiAttributedCharacterIterator(AttributedCharacterIterator aci,
                                            FontRenderContext           frc,
                                            int chunkStart) {
+        this(aci, null, frc, chunkStart);
+    }
+
+    /**
+     * Constructs a character iterator that represents the visual display order
+     * of characters within bidirectional text, using previously computed
+     * embedding levels instead of running the bidi algorithm again.
+     *
+     * @param aci The character iterator containing the characters in logical
+     * order.
+     * @param levels The embedding level of each character in logical order,
+     * as returned by {@link #getCharacterLevels()} for the same text, or
+     * null to compute them.
+     * @param frc The current font render context
+     */
+    public BidiAttributedCharacterIterator(AttributedCharacterIterator aci,
+                                           int[]                       levels,
+                                           FontRenderContext           frc,
+                                           int chunkStart) {
 
         this.frc = frc;
         this.chunkStart = chunkStart;
         aci.first();
         int   numChars    = aci.getEndIndex()-aci.getBeginIndex();
-        AttributedString as;
-
-         // Ideally we would do a 'quick' check on chars and
-         // attributes to decide if we really need to do bidi or not.
-        if (false) {
-            // Believe it or not this is much slower than the else case
-            // but the two are exactly equivalent (including the stripping
-            // of null keys/values).
-            as = new AttributedString(aci);
-        } else {
-            StringBuffer strB = new StringBuffer( numChars );
-            char c = aci.first();
-            for (int i = 0; i < numChars; i++) {
-                strB.append(c);
-                c = aci.next();
-            }
-            as = new AttributedString(strB.toString());
-            int start=aci.getBeginIndex();
-            int end  =aci.getEndIndex();
-            int index = start;
-            while (index < end) {
-                aci.setIndex(index);
-                Map attrMap = aci.getAttributes();
-                int extent  = aci.getRunLimit();
-                Map destMap = new HashMap(attrMap.size());
-                for (Object o : attrMap.entrySet()) {
-                    // Font doesn't like getting attribute sets with
-                    // null keys or values so we strip them here.
-                    Map.Entry e = (Map.Entry) o;
-                    Object key = e.getKey();
-                    if (key == null) continue;
-                    Object value = e.getValue();
-                    if (value == null) continue;
-                    destMap.put(key, value);
-                }
-                // System.out.println("Run: " + (index-start) + "->" +
-                //                    (extent-start) + " of " + numChars);
-                as.addAttributes (destMap, index-start, extent-start);
-                index = extent;
-            }
+        // Font doesn't like getting attribute sets with null keys or
+        // values, AttributedCharArray strips them.
+        AttributedCharArray as = new AttributedCharArray(aci);
+
+        if (levels == null) {
+            // We Just want it to do BIDI for us...
+            // In 1.4 we might be able to use the BIDI class...
+            TextLayout tl = new TextLayout(as.getIterator(), frc);
+            levels = new int[numChars];
+            for (int i = 0; i < numChars; i++)
+                levels[i] = tl.getCharacterLevel(i);
         }
-
-        // We Just want it to do BIDI for us...
-        // In 1.4 we might be able to use the BIDI class...
-        TextLayout tl = new TextLayout(as.getIterator(), frc);
+        this.levels = levels;
 
         int[] charIndices = new int[numChars];
         int[] charLevels  = new int[numChars];
 
         int runStart   = 0;
-        int currBiDi   = tl.getCharacterLevel(0);
+        int currBiDi   = levels[0];
         charIndices[0] = 0;
         charLevels [0] = currBiDi;
         int maxBiDi    = currBiDi;
 
         for (int i = 1; i < numChars; i++) {
-            int newBiDi = tl.getCharacterLevel(i);
+            int newBiDi = levels[i];
             charIndices[i] = i;
             charLevels [i] = newBiDi;
 
@@ -172,7 +158,7 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
             if (srcIdx == 0) reorderedFirstChar = i;
 
             // check for mirrored char
-            int bidiLevel = tl.getCharacterLevel(srcIdx);
+            int bidiLevel = levels[srcIdx];
             if ((bidiLevel & 0x01) != 0) {
                 // bidi level is odd so writing dir is right to left
                 // So get the mirror version of the char if there
@@ -184,8 +170,8 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
         }
 
         // construct the reordered ACI
-        AttributedString reorderedAS
-            = new AttributedString(reorderedString.toString());
+        AttributedCharArray reorderedAS
+            = new AttributedCharArray(reorderedString.toString());
         Map [] attrs = new Map[numChars];
         int start=aci.getBeginIndex();
         int end  =aci.getEndIndex();
@@ -256,18 +242,25 @@ public class BidiAttributedCharacterIterator implements AttributedCharacterItera
 
         // assign arabic form attributes to any arabic chars in the string
         reorderedAS = ArabicTextHandler.assignArabicForms(reorderedAS);
+        reorderedACI = reorderedAS.getIterator();
 
         // Shift the values to match the source text string...
         for (int i=0; i<newCharOrder.length; i++) {
             newCharOrder[i] += chunkStart;
         }
-        reorderedACI = reorderedAS.getIterator();
     }
 
     // Returns an array that give the character index in the source ACI for
     // each character in this ACI.
     public int[] getCharMap() { return newCharOrder; }
 
+    /**
+     * Returns the embedding level of each character in logical order.
+     * The returned array must not be modified.  It is null when this
+     * iterator was created with the protected constructor.
+     */
+    public int[] getCharacterLevels() { return levels; }
+
     /**
      * Calculates the display order of the characters based on the specified
      * character levels. This method is recursive.
@@ -0,0 +1,135 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.font;
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the kerning values of a KerningTable against a scan of its
+ * entries in order, the first matching entry winning.
+ *
+ * @version $Id$
+ */
+public class KerningTableTestCase {
+
+    private static final UnicodeRange[] NO_RANGES = new UnicodeRange[0];
+
+    private static final String CHARS = "abcdefgh";
+
+    /**
+     * Returns the kerning value the way a linear scan of the entries
+     * finds it.
+     */
+    private static float scan(Kern[] entries, int g1, int g2,
+                              String u1, String u2) {
+        for (Kern e : entries) {
+            if (e.matchesFirstGlyph(g1, u1) && e.matchesSecondGlyph(g2, u2)) {
+                return e.getAdjustValue();
+            }
+        }
+        return 0f;
+    }
+
+    private static int[] randomCodes(Random rnd, int max, int numGlyphs) {
+        int n = rnd.nextInt(max + 1);
+        if (n == 0 && rnd.nextBoolean()) {
+            return null;
+        }
+        int[] codes = new int[n];
+        for (int i = 0; i < n; i++) {
+            codes[i] = rnd.nextInt(numGlyphs);
+        }
+        return codes;
+    }
+
+    private static UnicodeRange[] randomRanges(Random rnd) {
+        if (rnd.nextInt(4) != 0) {
+            return NO_RANGES;
+        }
+        char c1 = CHARS.charAt(rnd.nextInt(CHARS.length()));
+        char c2 = (char)(c1 + rnd.nextInt(3));
+        return new UnicodeRange[] {
+            new UnicodeRange("U+" + Integer.toHexString(c1) + "-"
+                             + Integer.toHexString(c2))
+        };
+    }
+
+    private static String randomUnicode(Random rnd) {
+        return String.valueOf(CHARS.charAt(rnd.nextInt(CHARS.length())));
+    }
+
+    private static void check(Kern[] entries, Random rnd, int numGlyphs,
+                              int numPairs) {
+        KerningTable table = new KerningTable(entries);
+        for (int t = 0; t < numPairs; t++) {
+            int g1 = rnd.nextInt(numGlyphs + 2) - 1;
+            int g2 = rnd.nextInt(numGlyphs + 2) - 1;
+            String u1 = (g1 % 5 == 0) ? "" : randomUnicode(rnd);
+            String u2 = (g2 % 7 == 0) ? "" : randomUnicode(rnd);
+            assertEquals(g1 + "," + g2 + " " + u1 + u2,
+                         scan(entries, g1, g2, u1, u2),
+                         table.getKerningValue(g1, g2, u1, u2), 0f);
+        }
+    }
+
+    @Test
+    public void testMatchesScan() {
+        Random rnd = new Random(3);
+        for (int round = 0; round < 50; round++) {
+            int numGlyphs = 1 + rnd.nextInt(40);
+            Kern[] entries = new Kern[rnd.nextInt(30)];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = new Kern(randomCodes(rnd, 4, numGlyphs),
+                                      randomCodes(rnd, 4, numGlyphs),
+                                      randomRanges(rnd), randomRanges(rnd),
+                                      i + 1);
+            }
+            check(entries, rnd, numGlyphs, 500);
+        }
+    }
+
+    @Test
+    public void testLargeEntryScanned() {
+        // Too many pairs for the hash table, the entry is tested on its
+        // own but still loses to the entries before it.
+        int[] all = new int[200];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = i;
+        }
+        Kern[] entries = {
+            new Kern(new int[] { 3 }, new int[] { 4 },
+                     NO_RANGES, NO_RANGES, 1),
+            new Kern(all, all.clone(), NO_RANGES, NO_RANGES, 2),
+            new Kern(new int[] { 5 }, new int[] { 6 },
+                     NO_RANGES, NO_RANGES, 3),
+            new Kern(new int[] { 300 }, new int[] { 301 },
+                     NO_RANGES, NO_RANGES, 4)
+        };
+        KerningTable table = new KerningTable(entries);
+        assertEquals(1, table.getKerningValue(3, 4, "a", "b"), 0f);
+        assertEquals(2, table.getKerningValue(5, 6, "a", "b"), 0f);
+        assertEquals(2, table.getKerningValue(199, 0, "a", "b"), 0f);
+        assertEquals(4, table.getKerningValue(300, 301, "a", "b"), 0f);
+        assertEquals(0, table.getKerningValue(300, 4, "a", "b"), 0f);
+        check(entries, new Random(5), 310, 2000);
+    }
+}
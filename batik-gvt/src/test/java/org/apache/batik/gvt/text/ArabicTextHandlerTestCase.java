@@ -0,0 +1,105 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.text;
+
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that both versions of ArabicTextHandler.assignArabicForms give
+ * the same text and forms.
+ *
+ * @version $Id$
+ */
+public class ArabicTextHandlerTestCase {
+
+    private static final AttributedCharacterIterator.Attribute ARABIC_FORM =
+        GVTAttributedCharacterIterator.TextAttribute.ARABIC_FORM;
+
+    private static final AttributedCharacterIterator.Attribute X =
+        GVTAttributedCharacterIterator.TextAttribute.X;
+
+    /**
+     * Letters, alef and lam which form a ligature, a transparent mark
+     * and latin chars.
+     */
+    private static final String CHARS =
+        "\u0628\u062F\u0627\u0644\u064E a";
+
+    private static void check(String text, Random rnd) {
+        AttributedString as = new AttributedString(text);
+        as.addAttribute(X, 10f, 0, 1);
+        for (int i = 1; i < text.length(); i++) {
+            if (rnd.nextInt(3) == 0) {
+                as.addAttribute(X, (float)i, i, i + 1);
+            }
+        }
+        AttributedCharArray aca = new AttributedCharArray(as.getIterator());
+
+        AttributedCharacterIterator expected =
+            ArabicTextHandler.assignArabicForms(as).getIterator();
+        AttributedCharacterIterator actual =
+            ArabicTextHandler.assignArabicForms(aca).getIterator();
+        assertEquals(expected.getEndIndex(), actual.getEndIndex());
+        for (int i = 0; i < expected.getEndIndex(); i++) {
+            assertEquals(expected.setIndex(i), actual.setIndex(i));
+            assertEquals(expected.getAttribute(ARABIC_FORM),
+                         actual.getAttribute(ARABIC_FORM));
+            assertEquals(expected.getAttribute(X), actual.getAttribute(X));
+        }
+    }
+
+    @Test
+    public void testOverloadsMatch() {
+        Random rnd = new Random(9);
+        for (int round = 0; round < 500; round++) {
+            int len = 1 + rnd.nextInt(8);
+            StringBuffer sb = new StringBuffer(len);
+            for (int i = 0; i < len; i++) {
+                sb.append(CHARS.charAt(rnd.nextInt(CHARS.length())));
+            }
+            check(sb.toString(), rnd);
+        }
+    }
+
+    @Test
+    public void testLigatureReordered() {
+        // The transparent mark between alef and lam moves before them.
+        AttributedString as = new AttributedString("\u0627\u064E\u0644");
+        AttributedCharacterIterator aci =
+            ArabicTextHandler.assignArabicForms(as).getIterator();
+        assertEquals('\u064E', aci.first());
+        assertEquals('\u0627', aci.next());
+        assertEquals('\u0644', aci.next());
+        check("\u0628\u0627\u064E\u0644", new Random(1));
+    }
+
+    @Test
+    public void testNoArabic() {
+        AttributedString as = new AttributedString("abc");
+        assertSame(as, ArabicTextHandler.assignArabicForms(as));
+        AttributedCharArray aca = new AttributedCharArray("abc");
+        assertSame(aca, ArabicTextHandler.assignArabicForms(aca));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.text;
+
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that AttributedCharArray and its iterators behave like
+ * AttributedString for the same sequence of changes.
+ *
+ * @version $Id$
+ */
+public class AttributedCharArrayTestCase {
+
+    private static final AttributedCharacterIterator.Attribute[] KEYS = {
+        new Key("a"), new Key("b"), new Key("c")
+    };
+
+    static class Key extends AttributedCharacterIterator.Attribute {
+        Key(String name) {
+            super(name);
+        }
+    }
+
+    private static Object randomValue(Random rnd) {
+        return rnd.nextInt(3);
+    }
+
+    private static String randomText(Random rnd) {
+        int len = 1 + rnd.nextInt(30);
+        StringBuffer sb = new StringBuffer(len);
+        for (int i = 0; i < len; i++) {
+            sb.append((char)('a' + rnd.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Applies the same random change to both strings.
+     */
+    private static void change(Random rnd, AttributedString as,
+                               AttributedCharArray aca) {
+        int len = aca.length();
+        int start = rnd.nextInt(len);
+        int end = start + 1 + rnd.nextInt(len - start);
+        switch (rnd.nextInt(4)) {
+        case 0: {
+            AttributedCharacterIterator.Attribute key =
+                KEYS[rnd.nextInt(KEYS.length)];
+            Object value = randomValue(rnd);
+            as.addAttribute(key, value);
+            aca.addAttribute(key, value);
+            break;
+        }
+        case 1: {
+            AttributedCharacterIterator.Attribute key =
+                KEYS[rnd.nextInt(KEYS.length)];
+            Object value = randomValue(rnd);
+            as.addAttribute(key, value, start, end);
+            aca.addAttribute(key, value, start, end);
+            break;
+        }
+        case 2: {
+            Map m = new HashMap();
+            for (int i = rnd.nextInt(3); i > 0; i--) {
+                m.put(KEYS[rnd.nextInt(KEYS.length)], randomValue(rnd));
+            }
+            as.addAttributes(m, start, end);
+            aca.addAttributes(m, start, end);
+            break;
+        }
+        default: {
+            AttributedCharacterIterator.Attribute key =
+                KEYS[rnd.nextInt(KEYS.length)];
+            int count = 1 + rnd.nextInt(4);
+            Object[] values = new Object[count];
+            int[] limits = new int[count];
+            int prev = 0;
+            for (int i = 0; i < count; i++) {
+                values[i] = randomValue(rnd);
+                limits[i] = prev + rnd.nextInt(len - prev + 1);
+                if (limits[i] > prev) {
+                    as.addAttribute(key, values[i], prev, limits[i]);
+                }
+                prev = limits[i];
+            }
+            aca.addAttributeRuns(key, values, limits, count);
+        }
+        }
+    }
+
+    /**
+     * Checks that the two iterators have the same characters,
+     * attributes and run bounds.  The runs of the iterators without
+     * attribute argument may be split differently, so only the
+     * attributes within them are compared.
+     */
+    private static void check(AttributedCharacterIterator expected,
+                              AttributedCharacterIterator actual) {
+        assertEquals(expected.getBeginIndex(), actual.getBeginIndex());
+        assertEquals(expected.getEndIndex(), actual.getEndIndex());
+        if (expected.getBeginIndex() < expected.getEndIndex()) {
+            // AttributedString gives the keys of the run at the index
+            // of an empty iterator.
+            assertEquals(expected.getAllAttributeKeys(),
+                         actual.getAllAttributeKeys());
+        }
+        Set all = new HashSet();
+        for (int i = 0; i < KEYS.length; i++) {
+            all.add(KEYS[i]);
+        }
+        for (int i = expected.getBeginIndex(); i < expected.getEndIndex();
+             i++) {
+            assertEquals(expected.setIndex(i), actual.setIndex(i));
+            Map atts = expected.getAttributes();
+            assertEquals(atts, actual.getAttributes());
+            for (int k = 0; k < KEYS.length; k++) {
+                assertEquals(expected.getAttribute(KEYS[k]),
+                             actual.getAttribute(KEYS[k]));
+                assertEquals(expected.getRunStart(KEYS[k]),
+                             actual.getRunStart(KEYS[k]));
+                assertEquals(expected.getRunLimit(KEYS[k]),
+                             actual.getRunLimit(KEYS[k]));
+            }
+            assertEquals(expected.getRunStart(all), actual.getRunStart(all));
+            assertEquals(expected.getRunLimit(all), actual.getRunLimit(all));
+
+            int start = actual.getRunStart();
+            int limit = actual.getRunLimit();
+            for (int j = start; j < limit; j++) {
+                expected.setIndex(j);
+                assertEquals(atts, expected.getAttributes());
+            }
+        }
+        StringBuffer s1 = new StringBuffer();
+        StringBuffer s2 = new StringBuffer();
+        for (char c = expected.first(); c != AttributedCharacterIterator.DONE;
+             c = expected.next()) {
+            s1.append(c);
+        }
+        for (char c = actual.first(); c != AttributedCharacterIterator.DONE;
+             c = actual.next()) {
+            s2.append(c);
+        }
+        assertEquals(s1.toString(), s2.toString());
+    }
+
+    @Test
+    public void testMatchesAttributedString() {
+        Random rnd = new Random(11);
+        for (int round = 0; round < 300; round++) {
+            String text = randomText(rnd);
+            AttributedString as = new AttributedString(text);
+            AttributedCharArray aca = new AttributedCharArray(text);
+            for (int n = rnd.nextInt(8); n > 0; n--) {
+                change(rnd, as, aca);
+            }
+            check(as.getIterator(), aca.getIterator());
+
+            int begin = rnd.nextInt(text.length());
+            int end = begin + rnd.nextInt(text.length() - begin + 1);
+            check(as.getIterator(null, begin, end),
+                  aca.getIterator(begin, end));
+
+            // Copies start at index 0, from either kind of iterator.
+            AttributedCharacterIterator sub = as.getIterator(null, begin, end);
+            AttributedString copy = new AttributedString(sub);
+            check(copy.getIterator(),
+                  new AttributedCharArray(sub).getIterator());
+            check(copy.getIterator(),
+                  new AttributedCharArray(aca.getIterator(begin, end))
+                  .getIterator());
+            for (int i = begin; i < end; i++) {
+                for (int k = 0; k < KEYS.length; k++) {
+                    sub.setIndex(i);
+                    assertEquals(sub.getAttribute(KEYS[k]),
+                                 aca.getAttribute(KEYS[k], i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIteratorSeesChanges() {
+        AttributedString as = new AttributedString("abcdef");
+        AttributedCharArray aca = new AttributedCharArray("abcdef");
+        AttributedCharacterIterator it = aca.getIterator();
+        it.setIndex(3);
+        assertNull(it.getAttribute(KEYS[0]));
+        as.addAttribute(KEYS[0], 1, 2, 5);
+        aca.addAttribute(KEYS[0], 1, 2, 5);
+        assertEquals(1, it.getAttribute(KEYS[0]));
+        assertEquals(2, it.getRunStart());
+        assertEquals(5, it.getRunLimit());
+        check(as.getIterator(), it);
+    }
+
+    @Test
+    public void testEmpty() {
+        AttributedCharArray aca = new AttributedCharArray("");
+        check(new AttributedString("").getIterator(), aca.getIterator());
+        assertEquals(AttributedCharacterIterator.DONE,
+                     aca.getIterator().first());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        new AttributedCharArray("abc").addAttribute(KEYS[0], 1, 2, 2);
+    }
+}
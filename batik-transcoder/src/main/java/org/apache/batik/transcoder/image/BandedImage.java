@@ -0,0 +1,116 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder.image;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.rendered.AbstractRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.gvt.renderer.ImageRenderer;
+
+/**
+ * The image produced by an <code>ImageTranscoder</code>, rendered on
+ * demand in horizontal bands that span the whole width of the image.
+ * Only the last band rendered is kept, so writers that fetch the image
+ * from top to bottom render each band once.
+ *
+ * @version $Id$
+ */
+class BandedImage extends AbstractRed {
+
+    /**
+     * The transcoder that renders the bands.
+     */
+    protected ImageTranscoder transcoder;
+
+    /**
+     * The renderer holding the GVT tree.
+     */
+    protected ImageRenderer renderer;
+
+    /**
+     * The last band rendered, and its index.
+     */
+    protected Raster band;
+    protected int bandIndex = -1;
+
+    /**
+     * Whether fully transparent pixels are made transparent white.
+     */
+    protected boolean forceTransparentWhite;
+
+    /**
+     * @param transcoder the transcoder that renders the bands
+     * @param renderer the renderer holding the GVT tree
+     * @param w the image width in pixels
+     * @param h the image height in pixels
+     * @param bandHeight the number of rows in each band
+     */
+    BandedImage(ImageTranscoder transcoder, ImageRenderer renderer,
+                int w, int h, int bandHeight) {
+        this.transcoder = transcoder;
+        this.renderer   = renderer;
+
+        ColorModel cm = transcoder.createImage(1, 1).getColorModel();
+        init((CachableRed)null, new Rectangle(0, 0, w, h), cm,
+             cm.createCompatibleSampleModel(w, bandHeight), 0, 0, null);
+    }
+
+    /**
+     * Makes the bands rendered from now on have their transparent
+     * pixels turned white, see ImageTranscoder.forceTransparentWhite.
+     */
+    synchronized void setForceTransparentWhite(boolean b) {
+        if (b != forceTransparentWhite)
+            bandIndex = -1;
+        forceTransparentWhite = b;
+    }
+
+    public synchronized Raster getTile(int tileX, int tileY) {
+        if (tileY != bandIndex) {
+            int y = tileY * tileHeight;
+            BufferedImage bi;
+            try {
+                bi = transcoder.renderBand(renderer, y, getWidth(),
+                                           tileHeight);
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new RuntimeException(ex);
+            }
+            if (forceTransparentWhite) {
+                transcoder.forceTransparentWhite
+                    (bi, (SinglePixelPackedSampleModel)bi.getSampleModel());
+            }
+            band = bi.getRaster().createTranslatedChild(0, y);
+            bandIndex = tileY;
+        }
+        return band;
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        copyToRaster(wr);
+        return wr;
+    }
+}
@@ -26,6 +26,7 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.awt.image.RenderedImage;
 import java.awt.image.SinglePixelPackedSampleModel;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
@@ -37,6 +38,7 @@ import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.TranscodingHints;
 import org.apache.batik.transcoder.keys.BooleanKey;
+import org.apache.batik.transcoder.keys.IntegerKey;
 import org.apache.batik.transcoder.keys.PaintKey;
 import org.w3c.dom.Document;
 
@@ -98,41 +100,78 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
         // paint the SVG document using the bridge package
         // create the appropriate renderer
         ImageRenderer renderer = createRenderer();
-        renderer.updateOffScreen(w, h);
-        // curTxf.translate(0.5, 0.5);
-        renderer.setTransform(curTxf);
         renderer.setTree(this.root);
         this.root = null; // We're done with it...
 
+        int bandHeight = getBandHeight();
         try {
-            // now we are sure that the aoi is the image size
-            Shape raoi = new Rectangle2D.Float(0, 0, width, height);
-            // Warning: the renderer's AOI must be in user space
-            renderer.repaint(curTxf.createInverse().
-                             createTransformedShape(raoi));
-            BufferedImage rend = renderer.getOffScreen();
-            renderer = null; // We're done with it...
-
-            BufferedImage dest = createImage(w, h);
-
-            Graphics2D g2d = GraphicsUtil.createGraphics(dest);
-            if (hints.containsKey(KEY_BACKGROUND_COLOR)) {
-                Paint bgcolor = (Paint)hints.get(KEY_BACKGROUND_COLOR);
-                g2d.setComposite(AlphaComposite.SrcOver);
-                g2d.setPaint(bgcolor);
-                g2d.fillRect(0, 0, w, h);
+            if ((bandHeight > 0) && (bandHeight < h)) {
+                // The bands are rendered as the writer asks for them.
+                writeBands(new BandedImage(this, renderer, w, h, bandHeight),
+                           output);
+            } else {
+                BufferedImage dest = renderBand(renderer, 0, w, h);
+                renderer = null; // We're done with it...
+                writeImage(dest, output);
             }
-            if (rend != null) { // might be null if the svg document is empty
-                g2d.drawRenderedImage(rend, new AffineTransform());
-            }
-            g2d.dispose();
-            rend = null; // We're done with it...
-            writeImage(dest, output);
         } catch (Exception ex) {
             throw new TranscoderException(ex);
         }
     }
 
+    /**
+     * Returns the number of rows rendered at a time, or 0 to render
+     * the whole image at once.  The default implementation returns
+     * the value of <code>KEY_BAND_HEIGHT</code>.
+     */
+    protected int getBandHeight() {
+        if (hints.containsKey(KEY_BAND_HEIGHT)) {
+            return (Integer)hints.get(KEY_BAND_HEIGHT);
+        }
+        return 0;
+    }
+
+    /**
+     * Renders the rows [y, y+h) of the image, over the background
+     * color if there is one, into a new image from createImage.
+     * @param renderer the renderer holding the GVT tree
+     * @param y the first row to render
+     * @param w the image width in pixels
+     * @param h the number of rows to render
+     */
+    protected BufferedImage renderBand(ImageRenderer renderer,
+                                       int y, int w, int h)
+            throws Exception {
+        AffineTransform at = AffineTransform.getTranslateInstance(0, -y);
+        at.concatenate(curTxf);
+
+        renderer.updateOffScreen(w, h);
+        // curTxf.translate(0.5, 0.5);
+        renderer.setTransform(at);
+
+        // now we are sure that the aoi is the image size
+        Shape raoi = new Rectangle2D.Float(0, 0, width,
+                                           Math.min(h, height - y));
+        // Warning: the renderer's AOI must be in user space
+        renderer.repaint(at.createInverse().createTransformedShape(raoi));
+        BufferedImage rend = renderer.getOffScreen();
+
+        BufferedImage dest = createImage(w, h);
+
+        Graphics2D g2d = GraphicsUtil.createGraphics(dest);
+        if (hints.containsKey(KEY_BACKGROUND_COLOR)) {
+            Paint bgcolor = (Paint)hints.get(KEY_BACKGROUND_COLOR);
+            g2d.setComposite(AlphaComposite.SrcOver);
+            g2d.setPaint(bgcolor);
+            g2d.fillRect(0, 0, w, h);
+        }
+        if (rend != null) { // might be null if the svg document is empty
+            g2d.drawRenderedImage(rend, new AffineTransform());
+        }
+        g2d.dispose();
+        return dest;
+    }
+
     /**
      * Method so subclasses can modify the Renderer used to render document.
      */
@@ -200,6 +239,26 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
     public abstract void writeImage(BufferedImage img, TranscoderOutput output)
         throws TranscoderException;
 
+    /**
+     * Writes an image whose bands are rendered on demand, as used when
+     * <code>KEY_BAND_HEIGHT</code> is set.  Transcoders whose writer
+     * can fetch the image a band at a time should override this, the
+     * default implementation copies the image into a single image from
+     * createImage and calls writeImage.
+     * @param img the image to write
+     * @param output the output where to store the image
+     * @throws TranscoderException if an error occured while storing the image
+     */
+    public void writeBands(RenderedImage img, TranscoderOutput output)
+        throws TranscoderException {
+        BufferedImage dest = createImage(img.getWidth(), img.getHeight());
+        Graphics2D g2d = GraphicsUtil.createGraphics(dest);
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawRenderedImage(img, new AffineTransform());
+        g2d.dispose();
+        writeImage(dest, output);
+    }
+
     // --------------------------------------------------------------------
     // Keys definition
     // --------------------------------------------------------------------
@@ -275,4 +334,38 @@ public abstract class ImageTranscoder extends SVGAbstractTranscoder {
      */
     public static final TranscodingHints.Key KEY_FORCE_TRANSPARENT_WHITE
         = new BooleanKey();
+
+    /**
+     * The band height key.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_BAND_HEIGHT</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Integer</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">none (the whole image is rendered at once)</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">Renders the image in horizontal bands of this
+     *       many rows, each rendered when the encoder asks for it, so
+     *       the memory needed depends on the band height rather than
+     *       on the image size.  The PNG and TIFF transcoders stream the
+     *       bands to their writer (except for indexed PNG images); other
+     *       transcoders assemble the bands into one image.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_BAND_HEIGHT
+        = new IntegerKey();
 }
@@ -19,6 +19,7 @@
 package org.apache.batik.transcoder.image;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
@@ -112,6 +113,45 @@ public class PNGTranscoder extends ImageTranscoder {
             forceTransparentWhite(img, sppsm);
         }
 
+        getWriteAdapter().writeImage(this, img, output);
+    }
+
+    /**
+     * Writes an image whose bands are rendered on demand.  The bands
+     * are streamed to the PNG writer unless the image is to be indexed,
+     * which needs the whole image.
+     * @param img the image to write
+     * @param output the output where to store the image
+     * @throws TranscoderException if an error occured while storing the image
+     */
+    public void writeBands(RenderedImage img, TranscoderOutput output)
+            throws TranscoderException {
+
+        WriteAdapter adapter = getWriteAdapter();
+        boolean forceTransparentWhite = false;
+        if (hints.containsKey(PNGTranscoder.KEY_FORCE_TRANSPARENT_WHITE)) {
+            forceTransparentWhite =
+                    (Boolean) hints.get
+                            (PNGTranscoder.KEY_FORCE_TRANSPARENT_WHITE);
+        }
+        if (hints.containsKey(KEY_INDEXED) ||
+            !(adapter instanceof StreamingWriteAdapter) ||
+            (forceTransparentWhite && !(img instanceof BandedImage))) {
+            super.writeBands(img, output);
+            return;
+        }
+
+        if (output.getOutputStream() == null) {
+            throw new TranscoderException(
+                Messages.formatMessage("png.badoutput", null));
+        }
+        if (forceTransparentWhite) {
+            ((BandedImage)img).setForceTransparentWhite(true);
+        }
+        ((StreamingWriteAdapter)adapter).writeBands(this, img, output);
+    }
+
+    private WriteAdapter getWriteAdapter() throws TranscoderException {
         WriteAdapter adapter = getWriteAdapter(
                 "org.apache.batik.ext.awt.image.codec.png.PNGTranscoderInternalCodecWriteAdapter");
         if (adapter == null) {
@@ -122,7 +162,7 @@ public class PNGTranscoder extends ImageTranscoder {
             throw new TranscoderException(
                     "Could not write PNG file because no WriteAdapter is availble");
         }
-        adapter.writeImage(this, img, output);
+        return adapter;
     }
     
     // --------------------------------------------------------------------
@@ -148,6 +188,27 @@ public class PNGTranscoder extends ImageTranscoder {
                 TranscoderOutput output) throws TranscoderException;
 
     }
+
+    /**
+     * A <code>WriteAdapter</code> whose codec can fetch the image one
+     * band at a time.
+     *
+     * @version $Id$
+     */
+    public interface StreamingWriteAdapter extends WriteAdapter {
+
+        /**
+         * Writes the specified image to the specified output, fetching
+         * it from top to bottom.
+         * @param transcoder the calling PNGTranscoder
+         * @param img the image to write
+         * @param output the output where to store the image
+         * @throws TranscoderException if an error occured while storing the image
+         */
+        void writeBands(PNGTranscoder transcoder, RenderedImage img,
+                TranscoderOutput output) throws TranscoderException;
+
+    }
     
 
     // --------------------------------------------------------------------
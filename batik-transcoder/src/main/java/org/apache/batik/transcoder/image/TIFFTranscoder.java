@@ -20,6 +20,7 @@
 package org.apache.batik.transcoder.image;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.lang.reflect.InvocationTargetException;
 
@@ -27,6 +28,7 @@ import org.apache.batik.bridge.UserAgent;
 import org.apache.batik.transcoder.TranscoderException;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.TranscodingHints;
+import org.apache.batik.transcoder.keys.IntegerKey;
 import org.apache.batik.transcoder.keys.StringKey;
 
 
@@ -105,6 +107,57 @@ public class TIFFTranscoder extends ImageTranscoder {
             forceTransparentWhite(img, sppsm);
         }
 
+        getWriteAdapter().writeImage(this, img, output);
+    }
+
+    /**
+     * Writes an image whose bands are rendered on demand, streaming
+     * the bands to the TIFF writer.
+     * @param img the image to write
+     * @param output the output where to store the image
+     * @throws TranscoderException if an error occured while storing the image
+     */
+    public void writeBands(RenderedImage img, TranscoderOutput output)
+            throws TranscoderException {
+
+        WriteAdapter adapter = getWriteAdapter();
+        boolean forceTransparentWhite = false;
+        if (hints.containsKey(PNGTranscoder.KEY_FORCE_TRANSPARENT_WHITE)) {
+            forceTransparentWhite =
+                    (Boolean) hints.get
+                            (PNGTranscoder.KEY_FORCE_TRANSPARENT_WHITE);
+        }
+        if (!(adapter instanceof StreamingWriteAdapter) ||
+            (forceTransparentWhite && !(img instanceof BandedImage))) {
+            super.writeBands(img, output);
+            return;
+        }
+
+        if (forceTransparentWhite) {
+            ((BandedImage)img).setForceTransparentWhite(true);
+        }
+        ((StreamingWriteAdapter)adapter).writeBands(this, img, output);
+    }
+
+    /**
+     * Returns the number of rows rendered at a time.  Tiled images are
+     * rendered a row of tiles at a time, unless
+     * <code>KEY_BAND_HEIGHT</code> is set.
+     */
+    protected int getBandHeight() {
+        int th = 0;
+        if (hints.containsKey(KEY_BAND_HEIGHT)) {
+            return super.getBandHeight();
+        } else if (hints.containsKey(KEY_TILE_HEIGHT)) {
+            th = (Integer)hints.get(KEY_TILE_HEIGHT);
+        } else if (hints.containsKey(KEY_TILE_WIDTH)) {
+            th = (Integer)hints.get(KEY_TILE_WIDTH);
+        }
+        // Tile sizes are multiples of 16.
+        return (th > 0) ? (th + 15) & ~15 : 0;
+    }
+
+    private WriteAdapter getWriteAdapter() throws TranscoderException {
         WriteAdapter adapter = getWriteAdapter(
                 "org.apache.batik.ext.awt.image.codec.tiff.TIFFTranscoderInternalCodecWriteAdapter");
         if (adapter == null) {
@@ -115,7 +168,7 @@ public class TIFFTranscoder extends ImageTranscoder {
             throw new TranscoderException(
                     "Could not write TIFF file because no WriteAdapter is availble");
         }
-        adapter.writeImage(this, img, output);
+        return adapter;
     }
     
     // --------------------------------------------------------------------
@@ -141,6 +194,27 @@ public class TIFFTranscoder extends ImageTranscoder {
                 TranscoderOutput output) throws TranscoderException;
 
     }
+
+    /**
+     * A <code>WriteAdapter</code> whose codec can fetch the image one
+     * band at a time.
+     *
+     * @version $Id$
+     */
+    public interface StreamingWriteAdapter extends WriteAdapter {
+
+        /**
+         * Writes the specified image to the specified output, fetching
+         * it from top to bottom.
+         * @param transcoder the calling TIFFTranscoder
+         * @param img the image to write
+         * @param output the output where to store the image
+         * @throws TranscoderException if an error occured while storing the image
+         */
+        void writeBands(TIFFTranscoder transcoder, RenderedImage img,
+                TranscoderOutput output) throws TranscoderException;
+
+    }
     
 
     // --------------------------------------------------------------------
@@ -212,5 +286,71 @@ public class TIFFTranscoder extends ImageTranscoder {
      */
     public static final TranscodingHints.Key KEY_COMPRESSION_METHOD
         = new StringKey();
-    
+
+    /**
+     * The tile width key.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_TILE_WIDTH</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Integer</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">none (the image is written in strips)</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">Writes a tiled TIFF with tiles of this width,
+     *       rounded up to a multiple of 16.  The image is rendered a row
+     *       of tiles at a time while the tiles already rendered are
+     *       compressed in parallel.  If only one of
+     *       <code>KEY_TILE_WIDTH</code> and <code>KEY_TILE_HEIGHT</code>
+     *       is set the tiles are square.  Tiled images are written by
+     *       the batik codec, except for "jpeg" compression.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_TILE_WIDTH
+        = new IntegerKey();
+
+    /**
+     * The tile height key.
+     *
+     * <table summary="" border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_TILE_HEIGHT</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Integer</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">none (the image is written in strips)</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">Writes a tiled TIFF with tiles of this height,
+     *       rounded up to a multiple of 16.  See
+     *       <code>KEY_TILE_WIDTH</code>.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_TILE_HEIGHT
+        = new IntegerKey();
+
 }